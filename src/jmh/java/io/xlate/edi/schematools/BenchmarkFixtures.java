@@ -0,0 +1,352 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Deterministic inputs shared by the benchmarks.
+ */
+class BenchmarkFixtures {
+
+    static final Charset IBM850 = Charset.forName("IBM850");
+    static final String SEPARATOR = "-".repeat(70);
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Build a transaction schema shaped like a typical X12 transaction: a flat
+     * sequence of segments, each referencing its own simple elements, some of
+     * which carry a code list.
+     */
+    static Schema transactionSchema(int segmentCount, int elementsPerSegment) {
+        Schema schema = new Schema();
+        List<BaseType> sequence = new ArrayList<>(segmentCount);
+
+        for (int s = 0; s < segmentCount; s++) {
+            String tag = String.format("S%02d", s);
+            SegmentType segment = new SegmentType();
+            segment.setName(tag);
+            segment.setSequence(new ArrayList<>(elementsPerSegment));
+
+            for (int e = 1; e <= elementsPerSegment; e++) {
+                ElementType element = new ElementType();
+                element.setName(String.format("%s%02d", tag, e));
+                element.setBase(e % 3 == 0 ? ElementBaseType.IDENTIFIER : ElementBaseType.STRING);
+                element.setMaxLength(BigInteger.valueOf(e * 5L));
+
+                if (element.getBase() == ElementBaseType.IDENTIFIER) {
+                    for (int v = 0; v < 20; v++) {
+                        Value value = new Value();
+                        value.setValue(Integer.toString(v * 7, 36).toUpperCase());
+                        element.getEnumeration().add(value);
+                    }
+                }
+
+                ElementStandard ref = new ElementStandard();
+                ref.setType(element.getName());
+                ref.setMinOccurs(e == 1 ? BigInteger.ONE : null);
+                segment.getSequence().add(ref);
+                schema.getTypes().add(element);
+            }
+
+            schema.getTypes().add(segment);
+
+            SegmentStandard segmentRef = new SegmentStandard();
+            segmentRef.setType(tag);
+            segmentRef.setMaxOccurs(s % 2 == 0 ? BigInteger.TEN : null);
+            sequence.add(segmentRef);
+        }
+
+        Transaction transaction = new Transaction();
+        transaction.setSequence(sequence);
+        schema.getLayout().add(transaction);
+        XmlGenerator.sortTypes(schema);
+
+        return schema;
+    }
+
+    /**
+     * Number of the n-th element of the EDIFACT fixtures.
+     */
+    static String elementNumber(int n) {
+        return Integer.toString(1000 + n);
+    }
+
+    static String compositeId(int n) {
+        return String.format("C%03d", n);
+    }
+
+    static String segmentTag(int n) {
+        return new String(new char[] { (char) ('A' + n / 676 % 26), (char) ('A' + n / 26 % 26), (char) ('A' + n % 26) });
+    }
+
+    /**
+     * EDIFACT code list directory (UNCL) text with {@code lists} coded
+     * elements of {@code values} codes each. The coded elements are the first
+     * elements of {@link #edifactElements(int, int)}.
+     */
+    static byte[] edifactCodeList(int lists, int values) {
+        StringBuilder text = new StringBuilder("UN/EDIFACT CODE LIST\n\n\n\n");
+
+        for (int l = 0; l < lists; l++) {
+            String number = elementNumber(l);
+            text.append(SEPARATOR).append("\n\n\n");
+            text.append("     *    ").append(number).append("  ").append(pad("Coded element " + number, 50)).append("[C]\n\n");
+            text.append("     Desc: Code specifying coded element ").append(number).append(".\n\n");
+            text.append("     Repr: an..3\n\n");
+
+            for (int v = 1; v <= values; v++) {
+                text.append("     ").append(pad(Integer.toString(v), 6)).append("Value ").append(v).append('\n');
+                text.append("              Description of value ").append(v).append(" that spans\n");
+                text.append("              multiple lines.\n\n");
+            }
+
+            text.append("\n\n");
+        }
+
+        return text.toString().getBytes(IBM850);
+    }
+
+    /**
+     * EDIFACT element directory (EDED) text. The first {@code coded}
+     * elements are coded (an..3), the remainder alternate between the other
+     * representations.
+     */
+    static byte[] edifactElements(int count, int coded) {
+        String[] representations = { "an..35", "n..15", "a3", "an..512", "n4" };
+        StringBuilder text = new StringBuilder("UN/EDIFACT DATA ELEMENT DIRECTORY\n\n");
+
+        for (int e = 0; e < count; e++) {
+            String number = elementNumber(e);
+            text.append(SEPARATOR).append("\n\n");
+            text.append("     ").append(e % 7 == 0 ? "+    " : "     ").append(number).append("  ");
+            text.append(pad("Element " + number + " name", 50)).append("[B]\n\n");
+            text.append("     Desc: Description of element ").append(number).append(" & <more>,\n");
+            text.append("           which continues on the next line.\n\n");
+            text.append("     Repr: ").append(e < coded ? "an..3" : representations[e % representations.length]).append("\n\n");
+        }
+
+        return text.toString().getBytes(IBM850);
+    }
+
+    /**
+     * EDIFACT composite directory (EDCD) text, each composite referencing
+     * {@code elements} elements of {@link #edifactElements(int, int)} and
+     * every fifth carrying a syntax note.
+     */
+    static byte[] edifactComposites(int count, int elements, int elementCount) {
+        StringBuilder text = new StringBuilder("UN/EDIFACT COMPOSITE DATA ELEMENT DIRECTORY\n\n");
+
+        for (int c = 0; c < count; c++) {
+            text.append(SEPARATOR).append("\n\n");
+            text.append("       ").append(compositeId(c)).append(" COMPOSITE ").append(c).append(" NAME\n\n");
+            text.append("       Desc: Identification of composite ").append(c).append(" by code\n");
+            text.append("             or name.\n\n");
+
+            for (int e = 0; e < elements; e++) {
+                String number = elementNumber((c * 7 + e * 13) % elementCount);
+                text.append(String.format("%03d", (e + 1) * 10)).append("    ").append(number).append("  ");
+                text.append(pad("Element " + number, 40)).append(e == 0 ? 'M' : 'C').append("    an..35\n");
+            }
+
+            if (c % 5 == 0) {
+                text.append("\n       Note:\n        1. D3(010,020) One of these must be present.\n");
+            }
+
+            text.append('\n');
+        }
+
+        return text.toString().getBytes(IBM850);
+    }
+
+    /**
+     * EDIFACT segment directory (EDSD) text, each segment referencing
+     * alternately composites of {@link #edifactComposites(int, int, int)} and
+     * elements of {@link #edifactElements(int, int)}.
+     */
+    static byte[] edifactSegments(int count, int entries, int compositeCount, int elementCount) {
+        StringBuilder text = new StringBuilder("UN/EDIFACT SEGMENT DIRECTORY\n\n");
+
+        for (int s = 0; s < count; s++) {
+            text.append(SEPARATOR).append("\n\n");
+            text.append("       ").append(segmentTag(s)).append("  SEGMENT ").append(s).append(" NAME\n\n");
+            text.append("       Function: To specify the content of segment ").append(s).append(" and\n");
+            text.append("                 other things.\n\n");
+
+            for (int e = 0; e < entries; e++) {
+                String position = String.format("%03d", (e + 1) * 10);
+                char usage = e == 0 ? 'M' : 'C';
+
+                if (e % 2 == 0) {
+                    String id = compositeId((s * 3 + e) % compositeCount);
+                    text.append(position).append("    ").append(id).append(' ').append(pad("COMPOSITE " + id, 40));
+                    text.append(usage).append("    1\n");
+                } else {
+                    String number = elementNumber((s * 11 + e) % elementCount);
+                    text.append(position).append("    ").append(number).append(' ').append(pad("Element " + number, 40));
+                    text.append(usage).append("    ").append(e % 3 == 0 ? 3 : 1).append(" an..35\n");
+                }
+            }
+
+            if (s % 4 == 0) {
+                text.append("\n       Note:\n        1. D5(010,020) If first, then second.\n");
+            }
+
+            text.append('\n');
+        }
+
+        return text.toString().getBytes(IBM850);
+    }
+
+    /**
+     * EDIFACT message directory (EDMD) archive of {@code count} messages,
+     * each with {@code groups} segment groups that contain a nested group,
+     * using segments of {@link #edifactSegments(int, int, int, int)}.
+     */
+    static byte[] edifactMessages(int count, int groups, int segmentCount) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int m = 0; m < count; m++) {
+                zip.putNextEntry(new ZipEntry(String.format("M%05d_D.13A", m)));
+                zip.write(edifactMessage(m, groups, segmentCount).getBytes(IBM850));
+                zip.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    static String edifactMessage(int message, int groups, int segmentCount) {
+        StringBuilder text = new StringBuilder("UN/EDIFACT\n\n4.3    Message structure\n\n4.3.1  Segment table\n\n");
+        text.append("Pos    Tag Name                                      S   R\n\n");
+        int position = 0;
+        int group = 0;
+        int segment = message;
+
+        for (int i = 0; i < 3; i++) {
+            text.append(segmentLine(position += 10, segmentTag(segment++ % segmentCount), i == 0 ? "M   1" : "C   9", ""));
+        }
+
+        text.append('\n');
+
+        for (int g = 0; g < groups; g++) {
+            text.append(groupLine(position += 10, ++group, "C   99", "---------------+"));
+            text.append(segmentLine(position += 10, segmentTag(segment++ % segmentCount), "M   1", "                |"));
+            text.append(segmentLine(position += 10, segmentTag(segment++ % segmentCount), "C   5", "                |"));
+            text.append(groupLine(position += 10, ++group, "C   9", "--------------+|"));
+            text.append(segmentLine(position += 10, segmentTag(segment++ % segmentCount), "M   1", "               ||"));
+            text.append(segmentLine(position += 10, segmentTag(segment++ % segmentCount), "C   1", "---------------++"));
+            text.append('\n');
+        }
+
+        text.append(segmentLine(position + 10, segmentTag(segment % segmentCount), "M   1", ""));
+        return text.toString();
+    }
+
+    static String segmentLine(int position, String tag, String occurs, String suffix) {
+        return String.format("%05d   %s %s%s%s\n", position, tag, pad("Segment " + tag, 41), occurs, suffix);
+    }
+
+    static String groupLine(int position, int group, String occurs, String suffix) {
+        String label = "Segment group " + group + "  ";
+        return String.format("%05d       ---- %s%s %s%s\n", position, label, "-".repeat(Math.max(1, 37 - label.length())), occurs, suffix);
+    }
+
+    /**
+     * BOTS record definitions ({@code recordsNNNNNN.py}) of {@code count}
+     * segments with {@code elements} elements each, every fourth element being
+     * a composite of three components.
+     */
+    static byte[] botsRecords(int count, int elements) {
+        StringBuilder text = new StringBuilder("from bots.botsconfig import *\nrecorddefs = {\n");
+        String[] types = { "AN", "N0", "R", "DT", "TM", "ID" };
+
+        for (int s = 0; s < count; s++) {
+            String tag = segmentTag(s);
+            text.append('\'').append(tag).append("':[\n");
+            text.append("        ['BOTSID', 'M', 3, 'AN'],\n");
+
+            for (int e = 1; e <= elements; e++) {
+                String id = String.format("%s%02d", tag, e);
+                String usage = e == 1 ? "'M'" : (e % 5 == 0 ? "('C', 5)" : "'C'");
+
+                if (e % 4 == 0) {
+                    text.append("        ['C").append(String.format("%03d", (s + e) % 1000)).append("', ").append(usage).append(", [\n");
+
+                    for (int c = 1; c <= 3; c++) {
+                        text.append("            ['C").append(String.format("%03d.%02d", (s + e) % 1000, c)).append("', ");
+                        text.append(c == 1 ? "'M'" : "'C'").append(", (1,").append(c * 10).append("), 'AN'],\n");
+                    }
+
+                    text.append("            ]],\n");
+                } else {
+                    text.append("        ['").append(id).append("', ").append(usage).append(", (1,").append(e * 5).append("), '");
+                    text.append(types[e % types.length]).append("'],   # element ").append(e).append('\n');
+                }
+            }
+
+            text.append("],\n");
+        }
+
+        text.append("}\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * BOTS transaction structure ({@code structure = [...]}) of
+     * {@code loops} loops, each containing a nested loop, using segments of
+     * {@link #botsRecords(int, int)}.
+     */
+    static byte[] botsStructure(int loops, int segmentCount) {
+        StringBuilder text = new StringBuilder("from bots.botsconfig import *\nfrom records005010 import recorddefs\n\nstructure = [\n");
+        int segment = 0;
+
+        text.append("{ID: 'ST', MIN: 1, MAX: 1, LEVEL: [\n");
+        text.append("    {ID: '").append(segmentTag(segment++ % segmentCount)).append("', MIN: 1, MAX: 1},\n");
+
+        for (int l = 0; l < loops; l++) {
+            text.append("    {ID: '").append(segmentTag(segment++ % segmentCount)).append("', MIN: 0, MAX: 200, LEVEL: [\n");
+            text.append("        {ID: '").append(segmentTag(segment++ % segmentCount)).append("', MIN: 0, MAX: 2},\n");
+            text.append("        {ID: '").append(segmentTag(segment++ % segmentCount)).append("', MIN: 0, MAX: 1, LEVEL: [\n");
+            text.append("            {ID: '").append(segmentTag(segment++ % segmentCount)).append("', MIN: 1, MAX: 99999},\n");
+            text.append("        ]},\n");
+            text.append("    ]},\n");
+        }
+
+        text.append("    {ID: 'SE', MIN: 1, MAX: 1},\n");
+        text.append("]}\n]\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String pad(String value, int width) {
+        StringBuilder padded = new StringBuilder(value);
+
+        while (padded.length() < width) {
+            padded.append(' ');
+        }
+
+        return padded.append(' ').toString();
+    }
+}
@@ -0,0 +1,58 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.xlate.edi.schematools.BotsGrammarParser.RecordField;
+import io.xlate.edi.schematools.BotsGrammarParser.StructureEntry;
+
+/**
+ * Parses BOTS X12 grammars through the generator's
+ * {@code getStructure}/{@code getRecordDefs} path. The record definitions are
+ * sized like a version's {@code recordsNNNNNN.py}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BotsGrammarBenchmark {
+
+    byte[] structure;
+    byte[] records;
+    ZipEntry structureEntry;
+    ZipEntry recordsEntry;
+
+    @Setup
+    public void setup() {
+        structure = BenchmarkFixtures.botsStructure(40, 300);
+        records = BenchmarkFixtures.botsRecords(300, 12);
+        structureEntry = new ZipEntry("grammars/x12/005010/850005010.py");
+        recordsEntry = new ZipEntry("grammars/x12/005010/records005010.py");
+    }
+
+    @Benchmark
+    public List<StructureEntry> getStructure() throws IOException {
+        return X12SchemaXmlGenerator.getStructure(structure, structureEntry);
+    }
+
+    @Benchmark
+    public Map<String, List<RecordField>> getRecordDefs() throws IOException {
+        return X12SchemaXmlGenerator.getRecordDefs(records, recordsEntry);
+    }
+}
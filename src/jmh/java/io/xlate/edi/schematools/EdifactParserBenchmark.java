@@ -0,0 +1,195 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Parses each of the EDIFACT directories of a release (code lists, elements,
+ * composites, segments and messages) and builds the type list of a message
+ * schema. The fixtures are sized like a post-2000 directory. Run with
+ * {@code -prof gc} (the profile's default) to report the allocation rate
+ * alongside throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EdifactParserBenchmark {
+
+    static final int CODE_LISTS = 300;
+    static final int ELEMENTS = 650;
+    static final int COMPOSITES = 200;
+    static final int SEGMENTS = 160;
+
+    /**
+     * Resolves the (absent) message corrections.
+     */
+    static final ArchiveResolver ARCHIVES = new ArchiveResolver(EdifactParserBenchmark.class.getClassLoader());
+
+    /**
+     * Owns the canonical strings of the parsed dictionaries.
+     */
+    static final DictionaryCache DICTIONARIES = new DictionaryCache(null, null, Collections.emptyMap());
+
+    byte[] codeListData;
+    byte[] elementsData;
+    byte[] compositesData;
+    byte[] segmentsData;
+    byte[] messagesData;
+
+    Map<String, CodeValues> codeList;
+    Map<String, BaseType> elementTypes;
+    Map<String, BaseType> compositeTypes;
+    Map<String, BaseType> allTypes;
+    List<String> segmentTags;
+    List<BaseType> unsortedTypes;
+    EdifactSchemaXmlGenerator closureGenerator;
+
+    @Setup
+    public void setup() throws IOException {
+        codeListData = BenchmarkFixtures.edifactCodeList(CODE_LISTS, 20);
+        elementsData = BenchmarkFixtures.edifactElements(ELEMENTS, CODE_LISTS);
+        compositesData = BenchmarkFixtures.edifactComposites(COMPOSITES, 4, ELEMENTS);
+        segmentsData = BenchmarkFixtures.edifactSegments(SEGMENTS, 8, COMPOSITES, ELEMENTS);
+        messagesData = BenchmarkFixtures.edifactMessages(20, 6, SEGMENTS);
+
+        codeList = EdifactSchemaXmlGenerator.loadCodeList(new ByteArrayInputStream(codeListData), DICTIONARIES);
+
+        EdifactSchemaXmlGenerator generator = generator(Collections.emptyMap());
+        generator.loadElements(new ByteArrayInputStream(elementsData), codeList);
+        elementTypes = new TreeMap<>(generator.types);
+        generator.loadComposites(new ByteArrayInputStream(compositesData));
+        compositeTypes = new TreeMap<>(generator.types);
+        generator.loadSegments(new ByteArrayInputStream(segmentsData));
+        allTypes = new TreeMap<>(generator.types);
+
+        segmentTags = new ArrayList<>();
+        for (int s = 0; s < SEGMENTS; s++) {
+            segmentTags.add(BenchmarkFixtures.segmentTag(s));
+        }
+
+        closureGenerator = generator(allTypes);
+        Schema schema = addAllSegments(closureGenerator);
+        unsortedTypes = new ArrayList<>(schema.getTypes());
+        Collections.shuffle(unsortedTypes, new Random(1));
+    }
+
+    static EdifactSchemaXmlGenerator generator(Map<String, BaseType> types) {
+        return generator(types, null);
+    }
+
+    static EdifactSchemaXmlGenerator generator(Map<String, BaseType> types, Executor messageParsers) {
+        EdifactSchemaXmlGenerator generator = new EdifactSchemaXmlGenerator(null, null, false, false, false, null, messageParsers, DICTIONARIES, GenerationMetrics.DISABLED, ARCHIVES, null);
+        generator.types.putAll(types);
+        return generator;
+    }
+
+    @Benchmark
+    public Map<String, CodeValues> loadCodeList() throws IOException {
+        return EdifactSchemaXmlGenerator.loadCodeList(new ByteArrayInputStream(codeListData), DICTIONARIES);
+    }
+
+    @Benchmark
+    public Map<String, BaseType> loadElements() throws IOException {
+        EdifactSchemaXmlGenerator generator = generator(Collections.emptyMap());
+        generator.loadElements(new ByteArrayInputStream(elementsData), codeList);
+        return generator.types;
+    }
+
+    @Benchmark
+    public Map<String, BaseType> loadComposites() throws IOException {
+        EdifactSchemaXmlGenerator generator = generator(elementTypes);
+        generator.loadComposites(new ByteArrayInputStream(compositesData));
+        return generator.types;
+    }
+
+    @Benchmark
+    public Map<String, BaseType> loadSegments() throws IOException {
+        EdifactSchemaXmlGenerator generator = generator(compositeTypes);
+        generator.loadSegments(new ByteArrayInputStream(segmentsData));
+        return generator.types;
+    }
+
+    @Benchmark
+    public Map<String, Schema> loadMessages() throws IOException {
+        EdifactSchemaXmlGenerator generator = generator(allTypes);
+        generator.loadMessages(new ByteArrayInputStream(messagesData), "d13a");
+        return generator.messages;
+    }
+
+    /**
+     * As {@link #loadMessages()}, with the segment tables parsed on the
+     * common fork-join pool.
+     */
+    @Benchmark
+    public Map<String, Schema> loadMessagesParallel() throws IOException {
+        EdifactSchemaXmlGenerator generator = generator(allTypes, ForkJoinPool.commonPool());
+        generator.loadMessages(new ByteArrayInputStream(messagesData), "d13a");
+        return generator.messages;
+    }
+
+    /**
+     * Sorted types of a schema with every segment, each closure (and the
+     * ranks of the types) computed anew as for the first message of a
+     * version.
+     */
+    @Benchmark
+    public Schema addClosure() {
+        return addAllSegments(generator(allTypes));
+    }
+
+    /**
+     * Sorted types of a schema with every segment, the closures and ranks
+     * shared as by the later messages of a version.
+     */
+    @Benchmark
+    public Schema addClosureShared() {
+        return addAllSegments(closureGenerator);
+    }
+
+    Schema addAllSegments(EdifactSchemaXmlGenerator generator) {
+        Schema schema = new Schema();
+        TypeClosure.SchemaTypes schemaTypes = generator.closure.of(schema);
+
+        for (String tag : segmentTags) {
+            schemaTypes.add(tag);
+        }
+
+        schemaTypes.sort();
+
+        return schema;
+    }
+
+    @Benchmark
+    public Schema sortTypes() {
+        Schema schema = new Schema();
+        schema.getTypes().addAll(unsortedTypes);
+        XmlGenerator.sortTypes(schema);
+        return schema;
+    }
+}
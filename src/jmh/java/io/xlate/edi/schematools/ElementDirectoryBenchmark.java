@@ -0,0 +1,150 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementType;
+
+/**
+ * Compares {@link ElementDirectoryReader}, used by
+ * {@link EdifactSchemaXmlGenerator#loadElements(InputStream, Map)}, with the
+ * pattern-based element directory parser it replaced, retained here as
+ * {@link #loadElementsPattern(InputStream, Map, boolean)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementDirectoryBenchmark {
+
+    static final Pattern DECLARATION = Pattern.compile(
+                                                       "^[\\n\\r]+[ \\t]*[\\+\\*\\#\\|\\-X]*[ \\t]*"
+                                                               + "(\\d+)"
+                                                               + "([^\\[]+)"
+                                                               + "(\\[.\\])?"
+                                                               + "\\s*\\|?\\s*"
+                                                               + "Desc: (.*)"
+                                                               + "Repr: (a|an|n)(\\.\\.)?(\\d*)$",
+                                                       Pattern.MULTILINE +
+                                                               Pattern.DOTALL);
+
+    @Param({ "false", "true" })
+    boolean includeTitles;
+
+    byte[] elementsData;
+    Map<String, CodeValues> codeList;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] codeListData = BenchmarkFixtures.edifactCodeList(EdifactParserBenchmark.CODE_LISTS, 20);
+        elementsData = BenchmarkFixtures.edifactElements(EdifactParserBenchmark.ELEMENTS, EdifactParserBenchmark.CODE_LISTS);
+        codeList = EdifactSchemaXmlGenerator.loadCodeList(new ByteArrayInputStream(codeListData), EdifactParserBenchmark.DICTIONARIES);
+
+        if (!loadElementsPattern(new ByteArrayInputStream(elementsData), codeList, includeTitles).keySet()
+                                                                                                .equals(reader().keySet())) {
+            throw new IllegalStateException("Parsers disagree");
+        }
+    }
+
+    @Benchmark
+    public Map<String, BaseType> reader() throws IOException {
+        EdifactSchemaXmlGenerator generator = new EdifactSchemaXmlGenerator(null, null, includeTitles, false, false, null, null, EdifactParserBenchmark.DICTIONARIES, GenerationMetrics.DISABLED, null, null);
+        generator.loadElements(new ByteArrayInputStream(elementsData), codeList);
+        return generator.types;
+    }
+
+    @Benchmark
+    public Map<String, BaseType> pattern() throws IOException {
+        return loadElementsPattern(new ByteArrayInputStream(elementsData), codeList, includeTitles);
+    }
+
+    static Map<String, BaseType> loadElementsPattern(InputStream archive,
+                                                     Map<String, CodeValues> codeList,
+                                                     boolean includeTitles) throws IOException {
+        Map<String, BaseType> types = new TreeMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(archive, "IBM850"));
+        StringBuilder buffer = new StringBuilder(1000);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            buffer.append(line);
+            buffer.append('\n');
+
+            if (!line.startsWith("Repr:")) {
+                continue;
+            }
+
+            Matcher m = DECLARATION.matcher(buffer.toString());
+
+            if (m.find()) {
+                String number = m.group(1).trim();
+                String id = "DE" + number;
+                String title = m.group(2).trim();
+                String desc = m.group(4).trim().replaceAll("[\\r\\n ]+", " ");
+                String base = m.group(5);
+                final int max = Integer.parseInt(m.group(7));
+                final int min = m.group(6) != null ? 0 : max;
+                final boolean identifier = !"n".equals(base) && codeList.containsKey(id);
+                final ElementBaseType baseCode;
+
+                if (identifier) {
+                    baseCode = ElementBaseType.IDENTIFIER;
+                } else if ("n".equals(base)) {
+                    baseCode = ElementBaseType.DECIMAL;
+                } else {
+                    baseCode = ElementBaseType.STRING;
+                }
+
+                final ElementType element = new ElementType();
+                element.setName(id);
+                element.setCode(Integer.valueOf(number).toString());
+
+                if (includeTitles) {
+                    element.setTitle(title);
+                    element.setDescription(desc);
+                }
+
+                element.setBase(baseCode);
+                element.setMinLength(min > 1 ? BigInteger.valueOf(min) : null);
+                element.setMaxLength(max != 1 ? BigInteger.valueOf(max) : null);
+
+                if (identifier) {
+                    element.setEnumeration(new ArrayList<>(codeList.get(id)));
+                }
+
+                types.put(id, element);
+                buffer.setLength(0);
+            }
+        }
+
+        reader.close();
+        return types;
+    }
+}
@@ -0,0 +1,107 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Compares writing a transaction schema with a new {@link JAXBContext} per
+ * document (the former X12 behavior) against the shared
+ * {@link SchemaMarshaller}, the streaming {@link StaxSchemaWriter} and the
+ * {@link PackedSchemaWriter}, and reading the schema back from XML against
+ * the packed format, in whole or for a single segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarshallingBenchmark {
+
+    Schema schema;
+    SchemaMarshaller marshaller;
+    StaxSchemaWriter staxWriter;
+    PackedSchemaWriter packedWriter;
+    Unmarshaller unmarshaller;
+    byte[] xml;
+    ByteBuffer packed;
+    String segmentName;
+
+    @Setup
+    public void setup() throws JAXBException {
+        schema = BenchmarkFixtures.transactionSchema(40, 8);
+        marshaller = new SchemaMarshaller();
+        staxWriter = new StaxSchemaWriter();
+        packedWriter = new PackedSchemaWriter();
+        unmarshaller = JAXBContext.newInstance(Schema.class).createUnmarshaller();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        marshaller.marshal(schema, out);
+        xml = out.toByteArray();
+        packed = ByteBuffer.wrap(new PackedSchemaWriter.Encoder().encode(schema));
+
+        for (BaseType type : schema.getTypes()) {
+            if (XmlGenerator.kind(type) == 2) {
+                segmentName = XmlGenerator.name(type, 2);
+            }
+        }
+    }
+
+    @Benchmark
+    public void contextPerDocument() throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(Schema.class);
+        XmlGenerator.createMarshaller(context).marshal(schema, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void sharedMarshaller() throws JAXBException {
+        marshaller.marshal(schema, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void staxWriter() throws IOException {
+        staxWriter.write(schema, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void packedWriter() throws IOException {
+        packedWriter.write(schema, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public Object unmarshalXml() throws JAXBException {
+        return unmarshaller.unmarshal(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public Object readPacked() {
+        return PackedSchema.wrap(packed).toSchema();
+    }
+
+    @Benchmark
+    public Object lookupPackedSegment() {
+        return PackedSchema.wrap(packed).getSegment(segmentName);
+    }
+}
@@ -0,0 +1,228 @@
+package io.xlate.edi.schematools;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves resources of the form {@code archive.zip$entry$subentry}, where
+ * each {@code $} separates the name of an entry from the ZIP archive that
+ * contains it. An entry name matches either the complete (case-insensitive)
+ * name of an entry or the trailing path segments of it, the first matching
+ * entry in the archive's central directory being used.
+ *
+ * Each archive is opened once as a {@link ZipFile} and the names of its
+ * entries are indexed, so that entries are read directly rather than found by
+ * inflating every preceding entry. Nested archives are extracted to temporary
+ * files the first time they are used. Archives remain open, and temporary
+ * files remain present, until the resolver is closed.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class ArchiveResolver implements Closeable {
+
+    static final Logger log = LoggerFactory.getLogger(ArchiveResolver.class);
+
+    static final class Archive {
+        final ZipFile file;
+        final Path temporary;
+        final Map<String, ZipEntry> entries;
+
+        Archive(ZipFile file, Path temporary) {
+            this.file = file;
+            this.temporary = temporary;
+            this.entries = index(file);
+        }
+
+        static Map<String, ZipEntry> index(ZipFile file) {
+            Map<String, ZipEntry> index = new HashMap<>(file.size() * 2);
+            Enumeration<? extends ZipEntry> entries = file.entries();
+
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName().toLowerCase();
+                index.putIfAbsent(name, entry);
+
+                for (int slash = name.indexOf('/'); slash >= 0; slash = name.indexOf('/', slash + 1)) {
+                    index.putIfAbsent(name.substring(slash + 1), entry);
+                }
+            }
+
+            return index;
+        }
+
+        ZipEntry getEntry(String name) throws FileNotFoundException {
+            ZipEntry entry = entries.get(name.toLowerCase());
+
+            if (entry == null) {
+                throw new FileNotFoundException("Entry " + name + " not found in " + file.getName());
+            }
+
+            return entry;
+        }
+    }
+
+    private final ClassLoader loader;
+    private final Map<String, Archive> archives = new ConcurrentHashMap<>();
+
+    /**
+     * @param loader
+     *            class loader used to load the outermost archive of each
+     *            resource
+     */
+    ArchiveResolver(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Open a stream to a resource.
+     *
+     * @param resource
+     *            a class loader resource name (without leading slash), followed
+     *            by zero or more {@code $}-separated entry names
+     * @return a stream to the resource, or null if the outermost resource
+     *         is not found by the class loader
+     * @throws FileNotFoundException
+     *             if an entry does not exist in its archive
+     */
+    InputStream getInputStream(String resource) throws IOException {
+        return getInputStream(resource, GenerationMetrics.DISABLED.start(GenerationMetrics.Phase.RESOLVE, null, resource));
+    }
+
+    /**
+     * Open a stream to a resource, counting the entries of each archive
+     * opened and indexed to reach it as entries scanned by the measurement.
+     *
+     * @see #getInputStream(String)
+     */
+    InputStream getInputStream(String resource, GenerationMetrics.Measurement measurement) throws IOException {
+        String[] elements = resource.split("\\$");
+
+        if (elements.length == 1) {
+            return loader.getResourceAsStream(elements[0]);
+        }
+
+        Archive archive = getArchive(elements[0], null, elements[0], measurement);
+
+        if (archive == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(elements[0]);
+
+        for (int i = 1; i < elements.length - 1; i++) {
+            key.append('$').append(elements[i]);
+            archive = getArchive(key.toString(), archive, elements[i], measurement);
+        }
+
+        String name = elements[elements.length - 1];
+        return archive.file.getInputStream(archive.getEntry(name));
+    }
+
+    Archive getArchive(String key, Archive parent, String name, GenerationMetrics.Measurement measurement) throws IOException {
+        try {
+            return archives.computeIfAbsent(key, k -> {
+                try {
+                    Archive archive = parent != null ? extract(parent, name) : open(name);
+
+                    if (archive != null) {
+                        measurement.entries(archive.file.size());
+                    }
+
+                    return archive;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    Archive open(String resource) throws IOException {
+        URL url = loader.getResource(resource);
+
+        if (url == null) {
+            return null;
+        }
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new Archive(new ZipFile(Paths.get(url.toURI()).toFile()), null);
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        try (InputStream stream = url.openStream()) {
+            return copy(stream, resource);
+        }
+    }
+
+    Archive extract(Archive parent, String name) throws IOException {
+        try (InputStream stream = parent.file.getInputStream(parent.getEntry(name))) {
+            return copy(stream, name);
+        }
+    }
+
+    static Archive copy(InputStream stream, String name) throws IOException {
+        Path temporary = Files.createTempFile("schemagen-", '-' + name.replaceAll("[^A-Za-z0-9.]", "_"));
+        log.debug("Extracting {} to {}", name, temporary);
+
+        try {
+            Files.copy(stream, temporary, StandardCopyOption.REPLACE_EXISTING);
+            return new Archive(new ZipFile(temporary.toFile()), temporary);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Close every open archive and delete the extracted archives. The
+     * resolver may be used again afterward, re-opening archives as needed.
+     */
+    @Override
+    public void close() throws IOException {
+        List<IOException> failures = new ArrayList<>();
+
+        for (String key : new ArrayList<>(archives.keySet())) {
+            Archive archive = archives.remove(key);
+
+            try {
+                archive.file.close();
+
+                if (archive.temporary != null) {
+                    Files.deleteIfExists(archive.temporary);
+                }
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            IOException e = failures.get(0);
+            failures.stream().skip(1).forEach(e::addSuppressed);
+            throw e;
+        }
+    }
+}
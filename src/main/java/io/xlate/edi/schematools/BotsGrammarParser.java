@@ -0,0 +1,502 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming parser for the subset of Python literal syntax used by BOTS
+ * grammar files. Only the {@code structure = [...]} assignment of a
+ * transaction grammar and the {@code recorddefs = {...}} assignment of a
+ * records file are evaluated, all other statements (e.g. imports) are
+ * skipped.
+ *
+ * Transaction grammars of the BOTS archives may end without closing the
+ * {@code LEVEL} list of the top-level segment, its entry and the structure
+ * list; these are closed, the same as the interpreter-based implementation
+ * did by appending the missing brackets. A grammar truncated anywhere else,
+ * with a container or string left open at the end of the input, is rejected
+ * as the interpreter rejected it with a syntax error.
+ */
+class BotsGrammarParser {
+
+    static final String STRUCTURE = "structure";
+    static final String RECORDDEFS = "recorddefs";
+
+    /**
+     * One segment entry of a transaction structure: {@code {ID: 'N1', MIN: 0, MAX: 200, LEVEL: [...]}}
+     */
+    static final class StructureEntry {
+        final String id;
+        final int min;
+        final int max;
+        final List<StructureEntry> level;
+
+        StructureEntry(String id, int min, int max, List<StructureEntry> level) {
+            this.id = id;
+            this.min = min;
+            this.max = max;
+            this.level = level;
+        }
+
+        @Override
+        public String toString() {
+            return "{ID: " + id + ", MIN: " + min + ", MAX: " + max + (level != null ? ", LEVEL: " + level : "") + '}';
+        }
+    }
+
+    /**
+     * One field of a record definition, either a simple element
+     * {@code ['AAA01', 'M', 1, 'AN']} or a composite
+     * {@code ['C001', 'C', [...components]]}.
+     */
+    static final class RecordField {
+        final String id;
+        final String usage;
+        final int maxUse;
+        final List<RecordField> components;
+        final int minLength;
+        final int maxLength;
+        final String type;
+
+        RecordField(String id, String usage, int maxUse, List<RecordField> components, int minLength, int maxLength, String type) {
+            this.id = id;
+            this.usage = usage;
+            this.maxUse = maxUse;
+            this.components = components;
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            this.type = type;
+        }
+
+        boolean isComposite() {
+            return components != null;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + id + ", " + usage + (maxUse != 1 ? "(" + maxUse + ")" : "") + ", "
+                    + (components != null ? components : minLength + ".." + maxLength + ", " + type) + ']';
+        }
+    }
+
+    enum Token {
+        STRING,
+        NUMBER,
+        NAME,
+        PUNCTUATION,
+        EOF
+    }
+
+    private final Reader reader;
+    private final StringBuilder text = new StringBuilder(16);
+    private int next = -2;
+    private int line = 1;
+
+    private Token token;
+    private char punctuation;
+    private boolean truncated;
+
+    BotsGrammarParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Parse the {@code structure} list of a BOTS transaction grammar.
+     *
+     * @param reader
+     *            source of the grammar text, not closed by this method
+     * @return the top-level structure entries
+     * @throws IOException
+     *             if the grammar can not be read
+     */
+    static List<StructureEntry> parseStructure(Reader reader) throws IOException {
+        BotsGrammarParser parser = new BotsGrammarParser(reader);
+        parser.seekAssignment(STRUCTURE);
+        parser.expect('[');
+        return parser.structureList(0);
+    }
+
+    /**
+     * Parse the {@code recorddefs} dictionary of a BOTS records file.
+     *
+     * @param reader
+     *            source of the records text, not closed by this method
+     * @return map of segment tags to their fields, in order of appearance
+     * @throws IOException
+     *             if the records can not be read
+     */
+    static Map<String, List<RecordField>> parseRecordDefs(Reader reader) throws IOException {
+        BotsGrammarParser parser = new BotsGrammarParser(reader);
+        parser.seekAssignment(RECORDDEFS);
+        parser.expect('{');
+
+        Map<String, List<RecordField>> recordDefs = new LinkedHashMap<>();
+
+        while (!parser.nextInContainer('}')) {
+            String segmentId = parser.text(Token.STRING);
+            parser.expect(':');
+            parser.expect('[');
+            recordDefs.put(segmentId, parser.fieldList());
+            parser.skipComma();
+        }
+
+        return recordDefs;
+    }
+
+    /**
+     * @param depth
+     *            nesting of the list, 0 for the structure list and 1 for the
+     *            {@code LEVEL} list of a top-level segment
+     */
+    List<StructureEntry> structureList(int depth) throws IOException {
+        List<StructureEntry> entries = new ArrayList<>();
+
+        while (!truncated && !nextInStructure(depth)) {
+            require('{');
+            entries.add(structureEntry(depth));
+            skipComma();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Read the next token of a structure list, where the end of the input
+     * closes the {@code LEVEL} list of a top-level segment and the containers
+     * around it.
+     *
+     * @return true if the token closes the list
+     */
+    boolean nextInStructure(int depth) throws IOException {
+        if (nextToken() == Token.EOF) {
+            if (depth != 1) {
+                throw unterminated();
+            }
+            truncated = true;
+            return true;
+        }
+
+        return isPunctuation(']');
+    }
+
+    StructureEntry structureEntry(int depth) throws IOException {
+        String id = null;
+        Integer min = null;
+        Integer max = null;
+        List<StructureEntry> level = null;
+
+        while (!truncated && !nextInContainer('}')) {
+            if (token != Token.NAME && token != Token.STRING) {
+                throw unexpected();
+            }
+
+            String key = text.toString();
+            expect(':');
+
+            switch (key) {
+            case X12SchemaXmlGenerator.ID:
+                nextToken();
+                id = text(Token.STRING);
+                break;
+            case X12SchemaXmlGenerator.MIN:
+                nextToken();
+                min = number();
+                break;
+            case X12SchemaXmlGenerator.MAX:
+                nextToken();
+                max = number();
+                break;
+            case X12SchemaXmlGenerator.LEVEL:
+                expect('[');
+                level = structureList(depth + 1);
+                break;
+            default:
+                nextToken();
+                skipValue();
+                break;
+            }
+
+            skipComma();
+        }
+
+        if (id == null || min == null || max == null) {
+            throw new IllegalArgumentException("Incomplete structure entry near line " + line + ": ID=" + id);
+        }
+
+        return new StructureEntry(id, min, max, level);
+    }
+
+    List<RecordField> fieldList() throws IOException {
+        List<RecordField> fields = new ArrayList<>();
+
+        while (!nextInContainer(']')) {
+            require('[');
+            fields.add(field());
+            skipComma();
+        }
+
+        return fields;
+    }
+
+    RecordField field() throws IOException {
+        nextToken();
+        final String id = text(Token.STRING);
+        expect(',');
+
+        final String usage;
+        final int maxUse;
+
+        if (nextToken() == Token.PUNCTUATION && punctuation == '(') {
+            nextToken();
+            usage = text(Token.STRING);
+            expect(',');
+            nextToken();
+            maxUse = number();
+            expect(')');
+        } else {
+            usage = text(Token.STRING);
+            maxUse = 1;
+        }
+
+        expect(',');
+
+        List<RecordField> components = null;
+        int minLength = 1;
+        int maxLength = 1;
+        String type = null;
+
+        if (nextToken() == Token.PUNCTUATION && punctuation == '[') {
+            components = fieldList();
+        } else if (token == Token.PUNCTUATION && punctuation == '(') {
+            nextToken();
+            minLength = number();
+            expect(',');
+            nextToken();
+            maxLength = number();
+            expect(')');
+        } else {
+            maxLength = number();
+        }
+
+        while (!nextInContainer(']')) {
+            if (isPunctuation(',')) {
+                continue;
+            }
+            if (type == null) {
+                type = text(Token.STRING);
+            } else {
+                skipValue();
+            }
+        }
+
+        if (components == null && type == null) {
+            throw new IllegalArgumentException("Missing type for field " + id + " near line " + line);
+        }
+
+        return new RecordField(id, usage, maxUse, components, minLength, maxLength, type);
+    }
+
+    void seekAssignment(String name) throws IOException {
+        while (nextToken() != Token.EOF) {
+            if (token == Token.NAME && name.contentEquals(text) && nextToken() == Token.PUNCTUATION && punctuation == '=') {
+                return;
+            }
+        }
+
+        throw new IllegalArgumentException("Assignment to '" + name + "' not found");
+    }
+
+    /**
+     * Skip over the value starting at the current token, including any
+     * nested containers.
+     */
+    void skipValue() throws IOException {
+        if (token != Token.PUNCTUATION) {
+            return;
+        }
+
+        int depth = 0;
+
+        do {
+            if (token == Token.PUNCTUATION) {
+                if (punctuation == '[' || punctuation == '{' || punctuation == '(') {
+                    depth++;
+                } else if (punctuation == ']' || punctuation == '}' || punctuation == ')') {
+                    depth--;
+                }
+            }
+        } while (depth > 0 && nextToken() != Token.EOF);
+
+        if (depth > 0) {
+            throw unterminated();
+        }
+    }
+
+    /**
+     * Read the next token of a container.
+     *
+     * @param close
+     *            punctuation closing the container
+     * @return true if the token closes the container
+     * @throws IllegalArgumentException
+     *             if the input ends before the container is closed
+     */
+    boolean nextInContainer(char close) throws IOException {
+        if (nextToken() == Token.EOF) {
+            throw unterminated();
+        }
+
+        return isPunctuation(close);
+    }
+
+    void skipComma() throws IOException {
+        // Peek for the optional trailing comma without consuming any other token
+        int c = skipWhitespace();
+
+        if (c == ',') {
+            next = -2;
+        }
+    }
+
+    void expect(char expected) throws IOException {
+        nextToken();
+        require(expected);
+    }
+
+    void require(char expected) {
+        if (!isPunctuation(expected)) {
+            throw unexpected();
+        }
+    }
+
+    boolean isPunctuation(char expected) {
+        return token == Token.PUNCTUATION && punctuation == expected;
+    }
+
+    String text(Token required) {
+        if (token != required) {
+            throw unexpected();
+        }
+        return text.toString();
+    }
+
+    int number() {
+        if (token != Token.NUMBER) {
+            throw unexpected();
+        }
+
+        int value = 0;
+
+        for (int i = 0, m = text.length(); i < m; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+
+        return value;
+    }
+
+    IllegalArgumentException unterminated() {
+        return new IllegalArgumentException("Unexpected end of grammar at line " + line);
+    }
+
+    IllegalArgumentException unexpected() {
+        String found = token == Token.PUNCTUATION ? String.valueOf(punctuation) : token + " " + text;
+        return new IllegalArgumentException("Unexpected " + found + " at line " + line);
+    }
+
+    Token nextToken() throws IOException {
+        int c = skipWhitespace();
+        next = -2;
+        text.setLength(0);
+
+        if (c < 0) {
+            return token = Token.EOF;
+        }
+
+        if (c == '\'' || c == '"') {
+            readString((char) c);
+            return token = Token.STRING;
+        }
+
+        if (c >= '0' && c <= '9') {
+            text.append((char) c);
+            while ((c = peek()) >= '0' && c <= '9') {
+                text.append((char) c);
+                next = -2;
+            }
+            return token = Token.NUMBER;
+        }
+
+        if (Character.isJavaIdentifierStart(c)) {
+            text.append((char) c);
+            while ((c = peek()) >= 0 && Character.isJavaIdentifierPart(c)) {
+                text.append((char) c);
+                next = -2;
+            }
+            return token = Token.NAME;
+        }
+
+        punctuation = (char) c;
+        return token = Token.PUNCTUATION;
+    }
+
+    void readString(char quote) throws IOException {
+        int c;
+
+        while ((c = read()) >= 0 && c != quote) {
+            if (c == '\\') {
+                c = read();
+                if (c < 0) {
+                    break;
+                }
+            }
+            text.append((char) c);
+        }
+
+        if (c < 0) {
+            throw unterminated();
+        }
+    }
+
+    /**
+     * Skip whitespace and comments, returning (without consuming) the next
+     * significant character or -1 at the end of input.
+     */
+    int skipWhitespace() throws IOException {
+        int c;
+
+        while ((c = peek()) >= 0) {
+            if (c == '#') {
+                while ((c = read()) >= 0 && c != '\n') {
+                    // Skip comment
+                }
+            } else if (Character.isWhitespace(c) || c == '\\') {
+                // Whitespace and explicit line continuations
+                next = -2;
+            } else {
+                break;
+            }
+        }
+
+        return c;
+    }
+
+    int peek() throws IOException {
+        if (next == -2) {
+            next = reader.read();
+            if (next == '\n') {
+                line++;
+            }
+        }
+        return next;
+    }
+
+    int read() throws IOException {
+        int c = peek();
+        next = -2;
+        return c;
+    }
+}
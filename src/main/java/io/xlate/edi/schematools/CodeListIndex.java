@@ -0,0 +1,184 @@
+package io.xlate.edi.schematools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Code lists of every revision of a syntax version's code list directory
+ * (e.g. {@code unsl.99a} through {@code unsl.20a}), indexed by data element.
+ *
+ * For each data element the index holds one table of codes, sorted as in a
+ * single revision's code list, recording the revisions each code appears in.
+ * The code list of any one revision, and the revision in which a code first
+ * appeared, are available without parsing the revisions again. At most
+ * {@value #MAX_REVISIONS} revisions may be indexed.
+ *
+ * Instances are immutable.
+ */
+class CodeListIndex {
+
+    static final int MAX_REVISIONS = Long.SIZE;
+
+    /**
+     * The codes of one data element, in code list order, with the revisions
+     * in which each is listed as a bit mask (bit {@code n} for the revision
+     * at index {@code n}). The revisions in which the data element itself is
+     * declared (possibly without codes) are given the same way.
+     */
+    static final class Table {
+        final long declared;
+        final CodeValues codes;
+        final long[] revisions;
+
+        Table(long declared, CodeValues codes, long[] revisions) {
+            this.declared = declared;
+            this.codes = codes;
+            this.revisions = revisions;
+        }
+    }
+
+    /**
+     * Collects the code lists of the revisions, in order, and builds the
+     * index.
+     */
+    static final class Builder {
+        private final DictionaryCache dictionaries;
+        private final List<String> revisions = new ArrayList<>();
+        private final Map<String, Long> declared = new TreeMap<>();
+        private final Map<String, Map<String, Long>> codes = new HashMap<>();
+
+        /**
+         * @param dictionaries
+         *            cache owning the index's canonical strings and code lists
+         */
+        Builder(DictionaryCache dictionaries) {
+            this.dictionaries = dictionaries;
+        }
+
+        /**
+         * Add the code list of the next revision.
+         *
+         * @param revision
+         *            name of the revision
+         * @param codeList
+         *            the revision's codes, by data element identifier
+         */
+        Builder add(String revision, Map<String, CodeValues> codeList) {
+            if (revisions.size() == MAX_REVISIONS) {
+                throw new IllegalStateException("More than " + MAX_REVISIONS + " code list revisions");
+            }
+
+            long bit = 1L << revisions.size();
+            revisions.add(revision);
+
+            for (Map.Entry<String, CodeValues> entry : codeList.entrySet()) {
+                String id = entry.getKey();
+                CodeValues values = entry.getValue();
+                declared.merge(id, bit, (a, b) -> a | b);
+                Map<String, Long> table = codes.computeIfAbsent(id, k -> new TreeMap<>(EdifactSchemaXmlGenerator.CODE_ORDER));
+
+                for (int i = 0; i < values.size(); i++) {
+                    table.merge(values.getCode(i), bit, (a, b) -> a | b);
+                }
+            }
+
+            return this;
+        }
+
+        CodeListIndex build() {
+            Map<String, Table> tables = new TreeMap<>();
+
+            for (Map.Entry<String, Long> entry : declared.entrySet()) {
+                String id = entry.getKey();
+                Map<String, Long> table = codes.get(id);
+                long[] masks = new long[table.size()];
+                int i = 0;
+
+                for (Long mask : table.values()) {
+                    masks[i++] = mask;
+                }
+
+                // The table's keys are distinct and in code list order, as are the codes
+                tables.put(dictionaries.strings.intern(id), new Table(entry.getValue(), dictionaries.codeValues(table.keySet()), masks));
+            }
+
+            return new CodeListIndex(revisions, tables);
+        }
+    }
+
+    private final List<String> revisions;
+    private final Map<String, Table> tables;
+
+    CodeListIndex(List<String> revisions, Map<String, Table> tables) {
+        this.revisions = Collections.unmodifiableList(new ArrayList<>(revisions));
+        this.tables = Collections.unmodifiableMap(tables);
+    }
+
+    /**
+     * @return the names of the indexed revisions, oldest first
+     */
+    List<String> getRevisions() {
+        return revisions;
+    }
+
+    /**
+     * @return the tables of the indexed data elements, by identifier
+     */
+    Map<String, Table> getTables() {
+        return tables;
+    }
+
+    /**
+     * Get the code list of one revision, as it was parsed from that
+     * revision's directory.
+     *
+     * @param revision
+     *            index of the revision in {@link #getRevisions()}
+     * @param dictionaries
+     *            cache owning the canonical code lists
+     * @return the revision's codes by data element identifier
+     * @throws IllegalStateException
+     *             if the revision declares no code lists
+     */
+    Map<String, CodeValues> getCodeList(int revision, DictionaryCache dictionaries) {
+        long bit = 1L << revision;
+        Map<String, CodeValues> codeList = new HashMap<>(tables.size() * 2);
+        List<String> values = new ArrayList<>();
+
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            Table table = entry.getValue();
+
+            if ((table.declared & bit) != 0) {
+                values.clear();
+
+                for (int i = 0; i < table.codes.size(); i++) {
+                    if ((table.revisions[i] & bit) != 0) {
+                        values.add(table.codes.getCode(i));
+                    }
+                }
+
+                codeList.put(entry.getKey(), dictionaries.codeValues(values));
+            }
+        }
+
+        if (codeList.isEmpty()) {
+            throw new IllegalStateException("Missing codelist");
+        }
+
+        return codeList;
+    }
+
+    /**
+     * @return the name of the first revision listing the code for the data
+     *         element, or null when no revision lists it
+     */
+    String getFirstRevision(String id, String code) {
+        Table table = tables.get(id);
+        int index = table != null ? table.codes.indexOfCode(code) : -1;
+        return index >= 0 ? revisions.get(Long.numberOfTrailingZeros(table.revisions[index])) : null;
+    }
+}
@@ -0,0 +1,108 @@
+package io.xlate.edi.schematools;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import io.xlate.edischema.v4.Value;
+
+/**
+ * The codes of a data element's code list, in
+ * {@link EdifactSchemaXmlGenerator#CODE_ORDER code list order}, held in a
+ * single array and presented as the element's enumeration.
+ *
+ * The list is read-only and creates a {@link Value} only when one is
+ * requested; {@link StaxSchemaWriter} writes the codes without creating any.
+ * The codes are {@link StringInterner interned}, and lists of equal codes
+ * (e.g. the same code list in several directories) are made the same instance
+ * by {@link DictionaryCache#codeValues(Collection)}. Lists are equal when they
+ * hold the same codes.
+ *
+ * Instances are immutable.
+ */
+final class CodeValues extends AbstractList<Value> implements RandomAccess {
+
+    private final String[] codes;
+    private final int hash;
+
+    private CodeValues(String[] codes) {
+        this.codes = codes;
+        this.hash = Arrays.hashCode(codes);
+    }
+
+    /**
+     * @param strings
+     *            table of the codes' canonical strings
+     * @return a list of the distinct codes, in code list order
+     */
+    static CodeValues of(Collection<String> codes, StringInterner strings) {
+        String[] values = codes.toArray(new String[0]);
+        Arrays.sort(values, EdifactSchemaXmlGenerator.CODE_ORDER);
+        int count = 0;
+
+        for (int i = 0; i < values.length; i++) {
+            if (count == 0 || !values[i].equals(values[count - 1])) {
+                values[count++] = strings.intern(values[i]);
+            }
+        }
+
+        if (count < values.length) {
+            values = Arrays.copyOf(values, count);
+        }
+
+        return new CodeValues(values);
+    }
+
+    String getCode(int index) {
+        return codes[index];
+    }
+
+    /**
+     * @return the index of the code, or -1 when not listed
+     */
+    int indexOfCode(String code) {
+        int low = 0;
+        int high = codes.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = EdifactSchemaXmlGenerator.CODE_ORDER.compare(codes[mid], code);
+
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Value get(int index) {
+        Value value = new Value();
+        value.setValue(codes[index]);
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return codes.length;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        return other instanceof CodeValues && hash == ((CodeValues) other).hash && Arrays.equals(codes, ((CodeValues) other).codes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
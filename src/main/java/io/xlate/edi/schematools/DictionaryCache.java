@@ -0,0 +1,653 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Syntax;
+import io.xlate.edischema.v4.SyntaxType;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Content-keyed cache of parsed EDIFACT dictionaries (code lists, code list
+ * indexes and the element, composite and segment types of a directory),
+ * shared by all releases of a run so that versions reading the same sources
+ * parse them only once.
+ *
+ * The caller derives each key from the content of the dictionary's source and
+ * of everything the parse depends on (e.g. the key of the code list used to
+ * parse the elements). Parsed types are shared between releases and must not
+ * be modified once cached.
+ *
+ * The entries used by a run may be saved to a binary snapshot in the output
+ * directory and loaded by the next run, provided the generator is unchanged.
+ * Entries in the snapshot that the run did not use are dropped when it is
+ * saved.
+ *
+ * The cache owns the {@link StringInterner table} of the canonical strings
+ * of its dictionaries and their canonical {@link CodeValues code lists}, so
+ * that they are released with the cache.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class DictionaryCache {
+
+    static final Logger log = LoggerFactory.getLogger(DictionaryCache.class);
+
+    static final String FILENAME = ".schemagen-dictionaries";
+    static final int MAGIC = 0x53474443; // SGDC
+    static final int FORMAT = 1;
+
+    static final byte CODE_LIST = 'L';
+    static final byte CODE_LIST_INDEX = 'I';
+    static final byte TYPES = 'T';
+
+    static final byte ELEMENT = 'E';
+    static final byte COMPOSITE = 'C';
+    static final byte SEGMENT = 'S';
+
+    /**
+     * Parses a dictionary that is not cached.
+     */
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private final Path directory;
+    private final String fingerprint;
+    private final Map<String, CompletableFuture<Object>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Entries read from the snapshot and not yet requested.
+     */
+    final Map<String, Object> snapshot;
+
+    /**
+     * Canonical strings of the dictionaries parsed for (or read into) the
+     * cache.
+     */
+    final StringInterner strings = new StringInterner();
+
+    /**
+     * Canonical code lists of the dictionaries, each its own key.
+     */
+    private final Map<CodeValues, CodeValues> codeLists = new ConcurrentHashMap<>();
+
+    DictionaryCache(Path directory, String fingerprint, Map<String, Object> snapshot) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.snapshot = new ConcurrentHashMap<>(snapshot);
+    }
+
+    /**
+     * Load the snapshot saved in the given directory. The snapshot is ignored
+     * when it was written by a different generator (fingerprint), when it can
+     * not be read, or when the {@value GenerationManifest#FORCE_PROPERTY}
+     * system property is set.
+     */
+    static DictionaryCache load(Path directory, String fingerprint) {
+        DictionaryCache cache = new DictionaryCache(directory, fingerprint, Collections.emptyMap());
+
+        if (Boolean.getBoolean(GenerationManifest.FORCE_PROPERTY)) {
+            return cache;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(FILENAME))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !fingerprint.equals(in.readUTF())) {
+                log.info("Dictionary snapshot is out of date, ignored");
+            } else {
+                for (int i = 0, m = in.readInt(); i < m; i++) {
+                    String key = in.readUTF();
+                    byte kind = in.readByte();
+                    cache.snapshot.put(key, cache.read(in, kind));
+                }
+                log.debug("Loaded {} dictionaries from snapshot", cache.snapshot.size());
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("No dictionary snapshot found in {}", directory);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read dictionary snapshot, ignored", e);
+            // Nor are any of the strings read kept
+            return new DictionaryCache(directory, fingerprint, Collections.emptyMap());
+        }
+
+        return cache;
+    }
+
+    /**
+     * @return the canonical list of the distinct codes, in code list order,
+     *         shared by the equal code lists of the cache's dictionaries
+     */
+    CodeValues codeValues(Collection<String> codes) {
+        CodeValues values = CodeValues.of(codes, strings);
+        CodeValues existing = codeLists.putIfAbsent(values, values);
+        return existing != null ? existing : values;
+    }
+
+    Map<String, CodeValues> getCodeList(String key, Loader<Map<String, CodeValues>> loader) throws IOException {
+        return get(key, loader);
+    }
+
+    CodeListIndex getCodeListIndex(String key, Loader<CodeListIndex> loader) throws IOException {
+        return get(key, loader);
+    }
+
+    List<BaseType> getTypes(String key, Loader<List<BaseType>> loader) throws IOException {
+        return get(key, loader);
+    }
+
+    /**
+     * Keep the snapshot entries of the given keys (if any) in the next
+     * snapshot without them being requested, e.g. for a release whose outputs
+     * are all current.
+     */
+    void retain(String... keys) {
+        for (String key : keys) {
+            Object value = snapshot.remove(key);
+
+            if (value != null) {
+                entries.putIfAbsent(key, CompletableFuture.completedFuture(value));
+            }
+        }
+    }
+
+    /**
+     * Get the entry for a key, loading it from the snapshot or with the
+     * loader the first time it is requested. Concurrent requests for the same
+     * key wait for the first request to load the entry.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String key, Loader<T> loader) throws IOException {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = entries.putIfAbsent(key, created);
+
+        if (existing != null) {
+            try {
+                return (T) existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for dictionary " + key);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        try {
+            Object value = snapshot.remove(key);
+
+            if (value == null) {
+                value = loader.load();
+            }
+
+            created.complete(value);
+            return (T) value;
+        } catch (IOException | RuntimeException e) {
+            entries.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Write the entries used by this run to the snapshot, replacing the
+     * snapshot of the previous run.
+     */
+    void save() throws IOException {
+        Map<String, Object> used = new TreeMap<>();
+
+        for (Map.Entry<String, CompletableFuture<Object>> entry : entries.entrySet()) {
+            CompletableFuture<Object> value = entry.getValue();
+
+            if (value.isDone() && !value.isCompletedExceptionally()) {
+                used.put(entry.getKey(), value.join());
+            }
+        }
+
+        Files.createDirectories(directory);
+        Path target = directory.resolve(FILENAME);
+        Path temp = Files.createTempFile(directory, FILENAME, ".tmp");
+
+        try (OutputStream stream = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeUTF(fingerprint);
+            out.writeInt(used.size());
+
+            for (Map.Entry<String, Object> entry : used.entrySet()) {
+                out.writeUTF(entry.getKey());
+
+                if (entry.getValue() instanceof Map) {
+                    out.writeByte(CODE_LIST);
+                    writeCodeList(out, cast(entry.getValue()));
+                } else if (entry.getValue() instanceof CodeListIndex) {
+                    out.writeByte(CODE_LIST_INDEX);
+                    writeCodeListIndex(out, (CodeListIndex) entry.getValue());
+                } else {
+                    out.writeByte(TYPES);
+                    writeTypes(out, cast(entry.getValue()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T cast(Object value) {
+        return (T) value;
+    }
+
+    Object read(DataInputStream in, byte kind) throws IOException {
+        switch (kind) {
+        case CODE_LIST:
+            return readCodeList(in);
+        case CODE_LIST_INDEX:
+            return readCodeListIndex(in);
+        case TYPES:
+            return readTypes(in);
+        default:
+            throw new IOException("Unknown dictionary kind: " + kind);
+        }
+    }
+
+    static void writeCodeList(DataOutputStream out, Map<String, CodeValues> codeList) throws IOException {
+        out.writeInt(codeList.size());
+
+        for (Map.Entry<String, CodeValues> entry : codeList.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeCodes(out, entry.getValue());
+        }
+    }
+
+    Map<String, CodeValues> readCodeList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, CodeValues> codeList = new HashMap<>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            String id = strings.intern(in.readUTF());
+            codeList.put(id, readCodes(in));
+        }
+
+        return codeList;
+    }
+
+    static void writeCodes(DataOutputStream out, CodeValues codes) throws IOException {
+        out.writeInt(codes.size());
+
+        for (int i = 0; i < codes.size(); i++) {
+            out.writeUTF(codes.getCode(i));
+        }
+    }
+
+    CodeValues readCodes(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> codes = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            codes.add(in.readUTF());
+        }
+
+        return codeValues(codes);
+    }
+
+    static void writeCodeListIndex(DataOutputStream out, CodeListIndex index) throws IOException {
+        out.writeInt(index.getRevisions().size());
+
+        for (String revision : index.getRevisions()) {
+            out.writeUTF(revision);
+        }
+
+        out.writeInt(index.getTables().size());
+
+        for (Map.Entry<String, CodeListIndex.Table> entry : index.getTables().entrySet()) {
+            CodeListIndex.Table table = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(table.declared);
+            writeCodes(out, table.codes);
+
+            for (long mask : table.revisions) {
+                out.writeLong(mask);
+            }
+        }
+    }
+
+    CodeListIndex readCodeListIndex(DataInputStream in) throws IOException {
+        List<String> revisions = new ArrayList<>();
+
+        for (int i = 0, m = in.readInt(); i < m; i++) {
+            revisions.add(in.readUTF());
+        }
+
+        Map<String, CodeListIndex.Table> tables = new TreeMap<>();
+
+        for (int i = 0, m = in.readInt(); i < m; i++) {
+            String id = strings.intern(in.readUTF());
+            long declared = in.readLong();
+            CodeValues codes = readCodes(in);
+            long[] masks = new long[codes.size()];
+
+            for (int c = 0; c < masks.length; c++) {
+                masks[c] = in.readLong();
+            }
+
+            tables.put(id, new CodeListIndex.Table(declared, codes, masks));
+        }
+
+        return new CodeListIndex(revisions, tables);
+    }
+
+    static void writeTypes(DataOutputStream out, List<BaseType> types) throws IOException {
+        out.writeInt(types.size());
+
+        for (BaseType type : types) {
+            if (type instanceof ElementType) {
+                out.writeByte(ELEMENT);
+                writeElement(out, (ElementType) type);
+            } else if (type instanceof CompositeType) {
+                CompositeType composite = (CompositeType) type;
+                out.writeByte(COMPOSITE);
+                writeString(out, composite.getName());
+                writeBase(out, composite);
+                writeSequence(out, cast(StaxSchemaWriter.COMPOSITE_SEQUENCE.get(composite)));
+                writeSyntax(out, cast(StaxSchemaWriter.COMPOSITE_SYNTAX.get(composite)));
+            } else if (type instanceof SegmentType) {
+                SegmentType segment = (SegmentType) type;
+                out.writeByte(SEGMENT);
+                writeString(out, segment.getName());
+                writeBase(out, segment);
+                writeSequence(out, cast(StaxSchemaWriter.SEGMENT_SEQUENCE.get(segment)));
+                writeSyntax(out, cast(StaxSchemaWriter.SEGMENT_SYNTAX.get(segment)));
+            } else {
+                throw unsupported(type);
+            }
+        }
+    }
+
+    List<BaseType> readTypes(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<BaseType> types = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            byte kind = in.readByte();
+
+            switch (kind) {
+            case ELEMENT:
+                types.add(readElement(in));
+                break;
+            case COMPOSITE: {
+                CompositeType composite = new CompositeType();
+                composite.setName(readString(in));
+                readBase(in, composite);
+                composite.setSequence(readSequence(in));
+                StaxSchemaWriter.COMPOSITE_SYNTAX.set(composite, readSyntax(in));
+                types.add(composite);
+                break;
+            }
+            case SEGMENT: {
+                SegmentType segment = new SegmentType();
+                segment.setName(readString(in));
+                readBase(in, segment);
+                segment.setSequence(readSequence(in));
+                StaxSchemaWriter.SEGMENT_SYNTAX.set(segment, readSyntax(in));
+                types.add(segment);
+                break;
+            }
+            default:
+                throw new IOException("Unknown type kind: " + kind);
+            }
+        }
+
+        return types;
+    }
+
+    static void writeElement(DataOutputStream out, ElementType element) throws IOException {
+        if (StaxSchemaWriter.ELEMENT_VERSION.get(element) != null || element.getNumber() != null) {
+            throw unsupported(element);
+        }
+
+        writeString(out, element.getName());
+        writeBase(out, element);
+        writeString(out, element.getCode());
+        ElementBaseType base = (ElementBaseType) StaxSchemaWriter.ELEMENT_BASE.get(element);
+        writeString(out, base != null ? base.name() : null);
+        writeInteger(out, (BigInteger) StaxSchemaWriter.ELEMENT_SCALE.get(element));
+        writeInteger(out, (BigInteger) StaxSchemaWriter.ELEMENT_MIN_LENGTH.get(element));
+        writeInteger(out, (BigInteger) StaxSchemaWriter.ELEMENT_MAX_LENGTH.get(element));
+
+        List<Value> enumeration = cast(StaxSchemaWriter.ELEMENT_ENUMERATION.get(element));
+
+        if (enumeration == null) {
+            out.writeInt(-1);
+        } else if (enumeration instanceof CodeValues) {
+            out.writeInt(-2);
+            writeCodes(out, (CodeValues) enumeration);
+        } else {
+            out.writeInt(enumeration.size());
+
+            for (Value value : enumeration) {
+                writeString(out, value.getValue());
+                writeString(out, value.getTitle());
+            }
+        }
+    }
+
+    ElementType readElement(DataInputStream in) throws IOException {
+        ElementType element = new ElementType();
+        element.setName(readString(in));
+        readBase(in, element);
+        element.setCode(readString(in));
+        String base = readString(in);
+        element.setBase(base != null ? ElementBaseType.valueOf(base) : null);
+        element.setScale(readInteger(in));
+        element.setMinLength(readInteger(in));
+        element.setMaxLength(readInteger(in));
+
+        int size = in.readInt();
+
+        if (size == -2) {
+            element.setEnumeration(readCodes(in));
+        } else if (size >= 0) {
+            List<Value> enumeration = new ArrayList<>(size);
+
+            for (int i = 0; i < size; i++) {
+                Value value = new Value();
+                value.setValue(readString(in));
+                value.setTitle(readString(in));
+                enumeration.add(value);
+            }
+
+            element.setEnumeration(enumeration);
+        }
+
+        return element;
+    }
+
+    static void writeBase(DataOutputStream out, BaseType type) throws IOException {
+        writeString(out, type.getTitle());
+        writeString(out, type.getDescription());
+    }
+
+    static void readBase(DataInputStream in, BaseType type) throws IOException {
+        type.setTitle(readString(in));
+        type.setDescription(readString(in));
+    }
+
+    static void writeSequence(DataOutputStream out, List<BaseType> sequence) throws IOException {
+        if (sequence == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(sequence.size());
+
+        for (BaseType reference : sequence) {
+            if (reference instanceof ElementStandard && StaxSchemaWriter.ELEMENT_REF_VERSION.get(reference) == null) {
+                ElementStandard element = (ElementStandard) reference;
+                out.writeByte(ELEMENT);
+                writeBase(out, element);
+                writeString(out, element.getType());
+                writeInteger(out, (BigInteger) StaxSchemaWriter.ELEMENT_REF_MIN_OCCURS.get(element));
+                writeInteger(out, (BigInteger) StaxSchemaWriter.ELEMENT_REF_MAX_OCCURS.get(element));
+            } else if (reference instanceof CompositeStandard && StaxSchemaWriter.COMPOSITE_REF_VERSION.get(reference) == null) {
+                CompositeStandard composite = (CompositeStandard) reference;
+                out.writeByte(COMPOSITE);
+                writeBase(out, composite);
+                writeString(out, composite.getType());
+                writeInteger(out, (BigInteger) StaxSchemaWriter.COMPOSITE_REF_MIN_OCCURS.get(composite));
+                writeInteger(out, (BigInteger) StaxSchemaWriter.COMPOSITE_REF_MAX_OCCURS.get(composite));
+            } else {
+                throw unsupported(reference);
+            }
+        }
+    }
+
+    static List<BaseType> readSequence(DataInputStream in) throws IOException {
+        int size = in.readInt();
+
+        if (size < 0) {
+            return null; // NOSONAR: null and empty sequences are written differently
+        }
+
+        List<BaseType> sequence = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            byte kind = in.readByte();
+
+            if (kind == ELEMENT) {
+                ElementStandard element = new ElementStandard();
+                readBase(in, element);
+                element.setType(readString(in));
+                element.setMinOccurs(readInteger(in));
+                element.setMaxOccurs(readInteger(in));
+                sequence.add(element);
+            } else if (kind == COMPOSITE) {
+                CompositeStandard composite = new CompositeStandard();
+                readBase(in, composite);
+                composite.setType(readString(in));
+                composite.setMinOccurs(readInteger(in));
+                composite.setMaxOccurs(readInteger(in));
+                sequence.add(composite);
+            } else {
+                throw new IOException("Unknown reference kind: " + kind);
+            }
+        }
+
+        return sequence;
+    }
+
+    static void writeSyntax(DataOutputStream out, List<Syntax> syntax) throws IOException {
+        if (syntax == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(syntax.size());
+
+        for (Syntax s : syntax) {
+            writeString(out, s.getType() != null ? s.getType().name() : null);
+            List<BigInteger> positions = cast(StaxSchemaWriter.SYNTAX_POSITION.get(s));
+            out.writeInt(positions != null ? positions.size() : -1);
+
+            if (positions != null) {
+                for (BigInteger position : positions) {
+                    writeInteger(out, position);
+                }
+            }
+        }
+    }
+
+    static List<Syntax> readSyntax(DataInputStream in) throws IOException {
+        int size = in.readInt();
+
+        if (size < 0) {
+            return null; // NOSONAR: the field is left unset, the same as a parsed type
+        }
+
+        List<Syntax> syntax = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            Syntax s = new Syntax();
+            String type = readString(in);
+            s.setType(type != null ? SyntaxType.valueOf(type) : null);
+            int positions = in.readInt();
+
+            if (positions >= 0) {
+                List<BigInteger> position = new ArrayList<>(positions);
+
+                for (int p = 0; p < positions; p++) {
+                    position.add(readInteger(in));
+                }
+
+                StaxSchemaWriter.SYNTAX_POSITION.set(s, position);
+            }
+
+            syntax.add(s);
+        }
+
+        return syntax;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeInteger(DataOutputStream out, BigInteger value) throws IOException {
+        writeString(out, value != null ? value.toString() : null);
+    }
+
+    static BigInteger readInteger(DataInputStream in) throws IOException {
+        String value = readString(in);
+        return value != null ? new BigInteger(value) : null;
+    }
+
+    static IllegalArgumentException unsupported(Object value) {
+        return new IllegalArgumentException("Unsupported in dictionary snapshot: " + value);
+    }
+}
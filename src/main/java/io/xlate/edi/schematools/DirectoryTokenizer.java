@@ -0,0 +1,409 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Single-pass tokenizer for the UN/EDIFACT composite (EDCD) and segment
+ * (EDSD) directories.
+ *
+ * The directories were formerly parsed by appending each line to a buffer and
+ * searching the whole buffer with multi-line patterns after every line. The
+ * tokenizer produces the same tokens as those searches without re-reading the
+ * buffer: each line is classified once, and the lines since the previous
+ * token (the <em>block</em>) are kept only by reference.
+ *
+ * <ul>
+ * <li>{@link Token#HEADER}: a structure header, i.e. an indented line with
+ * the structure's identifier, preceded by a blank line and followed by its
+ * {@code Desc:} (composites) or {@code Function:} (segments) text. The header
+ * is complete at the first empty line following the text.
+ * <li>{@link Token#ENTRY}: an entry line (element, or for segments also
+ * composite, reference) matching the entry pattern of the directory.
+ * <li>{@link Token#SYNTAX}: a syntax note, e.g. {@code 1. D3(010,020) ...}.
+ * </ul>
+ *
+ * When the block contains a line that may start an entry but did not match
+ * on its own, or a syntax note split over lines, the entry and syntax
+ * patterns are applied to the block as a whole, as they were before.
+ */
+class DirectoryTokenizer {
+
+    enum Token {
+        HEADER,
+        ENTRY,
+        SYNTAX
+    }
+
+    static final Pattern COMPOSITE_HEADER = Pattern.compile("[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*([A-Z0-9]{4})");
+    static final Pattern COMPOSITE_ENTRY = Pattern.compile("^\\d{3}\\s+(\\d+).*\\s+(C|M)\\s+(?:a|an|n)(?:\\.\\.)?\\d*(?:\\s+)?(\\d+,?)*$",
+                                                           Pattern.MULTILINE + Pattern.DOTALL);
+
+    static final Pattern SEGMENT_HEADER = Pattern.compile("[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*([A-Z0-9]{3})");
+    static final Pattern SEGMENT_ENTRY = Pattern.compile(""
+            + "^"
+            + "\\d{3}"
+            + "\\s+[\\+\\*\\#\\|\\-X]*\\s+"
+            + "([A-Z0-9]{4})"
+            + "(.*)"
+            + "\\s+"
+            + "(C|M)"
+            + "\\s+"
+            + "(\\d+)?"
+            + "(\\s+(?:a|an|n)(?:\\.\\.)?\\d*)?"
+            + "(?:\\s+)?(\\d+,?)*"
+            + "$",
+                                                         Pattern.MULTILINE + Pattern.DOTALL);
+
+    private final BufferedReader reader;
+    private final String keyword;
+    private final boolean whitespaceSeparator;
+    private final Pattern entryPattern;
+    private final Matcher header;
+    private final Matcher entry;
+    private final Matcher syntax;
+
+    private final List<String> block = new ArrayList<>();
+    private final TerminatedLine terminated = new TerminatedLine();
+    private boolean previousBlank;
+    private boolean entryPending;
+    private boolean syntaxPending;
+
+    // Header candidate: line index within the block and end of its identifier
+    private int headerLine;
+    private int headerEnd;
+    private String headerId;
+    // Last keyword found after the header candidate
+    private int keywordLine;
+    private int keywordColumn;
+
+    private String id;
+    private String title;
+    private String description;
+    private MatchResult entryResult;
+    private String syntaxText;
+
+    DirectoryTokenizer(BufferedReader reader, Pattern header, String keyword, boolean whitespaceSeparator, Pattern entry) {
+        this.reader = reader;
+        this.keyword = keyword;
+        this.whitespaceSeparator = whitespaceSeparator;
+        this.entryPattern = entry;
+        this.header = header.matcher("");
+        this.entry = entry.matcher("");
+        this.syntax = EdifactSchemaXmlGenerator.syntax.matcher("");
+        clear();
+    }
+
+    static DirectoryTokenizer composites(BufferedReader reader) {
+        return new DirectoryTokenizer(reader, COMPOSITE_HEADER, "Desc:", false, COMPOSITE_ENTRY);
+    }
+
+    static DirectoryTokenizer segments(BufferedReader reader) {
+        return new DirectoryTokenizer(reader, SEGMENT_HEADER, "Function:", true, SEGMENT_ENTRY);
+    }
+
+    /**
+     * Read lines until the next token is recognized.
+     *
+     * @return the next token, or null at the end of the directory
+     */
+    Token next() throws IOException {
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            int index = block.size();
+            block.add(line);
+
+            if (headerId == null) {
+                if (previousBlank && header.reset(line).lookingAt()) {
+                    headerLine = index;
+                    headerEnd = header.end(1);
+                    headerId = header.group(1);
+                    findKeyword(line, index, headerEnd);
+                }
+            } else {
+                findKeyword(line, index, 0);
+            }
+
+            if (line.isEmpty() && keywordLine >= 0) {
+                completeHeader();
+                clear();
+                return Token.HEADER;
+            }
+
+            if (matchEntry(line)) {
+                clear();
+                return Token.ENTRY;
+            }
+
+            if (matchSyntax(line)) {
+                clear();
+                return Token.SYNTAX;
+            }
+
+            boolean blank = isBlank(line);
+            previousBlank = whitespaceSeparator ? blank : line.isEmpty();
+
+            if (!blank) {
+                syntaxPending = isSyntaxPrefix(line);
+            }
+        }
+
+        return null;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the result of the directory's entry pattern for the last
+     *         {@link Token#ENTRY}
+     */
+    MatchResult getEntry() {
+        return entryResult;
+    }
+
+    /**
+     * @return the text containing the syntax note of the last
+     *         {@link Token#SYNTAX}
+     */
+    String getSyntaxText() {
+        return syntaxText;
+    }
+
+    void clear() {
+        block.clear();
+        previousBlank = false;
+        entryPending = false;
+        syntaxPending = false;
+        headerLine = -1;
+        headerEnd = -1;
+        headerId = null;
+        keywordLine = -1;
+        keywordColumn = -1;
+    }
+
+    void findKeyword(String line, int index, int from) {
+        int column = line.lastIndexOf(keyword);
+
+        if (column >= from) {
+            keywordLine = index;
+            keywordColumn = column;
+        }
+    }
+
+    /**
+     * The title is the text between the identifier and the keyword, the
+     * description the text following the keyword up to the terminating empty
+     * line.
+     */
+    void completeHeader() {
+        id = headerId;
+
+        StringBuilder text = new StringBuilder();
+        appendText(text, headerLine, headerEnd, keywordLine, keywordColumn);
+        title = text.toString().trim();
+
+        text.setLength(0);
+        int last = block.size() - 2;
+        appendText(text, keywordLine, keywordColumn + keyword.length(), last, block.get(last).length());
+        description = collapse(text.toString().trim());
+    }
+
+    void appendText(StringBuilder text, int startLine, int startColumn, int endLine, int endColumn) {
+        for (int i = startLine; i <= endLine; i++) {
+            String line = block.get(i);
+
+            if (i > startLine) {
+                text.append('\n');
+            }
+
+            text.append(line, i == startLine ? startColumn : 0, i == endLine ? endColumn : line.length());
+        }
+    }
+
+    /**
+     * Replace each run of spaces and line breaks with a single space.
+     */
+    static String collapse(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        boolean space = false;
+
+        for (int i = 0, m = value.length(); i < m; i++) {
+            char c = value.charAt(i);
+
+            if (c == ' ' || c == '\n' || c == '\r') {
+                space = true;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+
+        if (space) {
+            result.append(' ');
+        }
+
+        return result.toString();
+    }
+
+    boolean matchEntry(String line) {
+        if (entryPending) {
+            Matcher m = entryPattern.matcher(blockText());
+
+            if (m.find()) {
+                entryResult = m.toMatchResult();
+                return true;
+            }
+        } else if (isEntryStart(line)) {
+            if (entry.reset(terminated.of(line)).find()) {
+                entryResult = entry.toMatchResult();
+                return true;
+            }
+            entryPending = true;
+        }
+
+        return false;
+    }
+
+    boolean matchSyntax(String line) {
+        if (syntaxPending) {
+            String text = blockText();
+
+            if (syntax.reset(text).find()) {
+                syntaxText = text;
+                return true;
+            }
+        } else if (line.indexOf('(') > 0 && syntax.reset(terminated.of(line)).find()) {
+            syntaxText = line;
+            return true;
+        }
+
+        return false;
+    }
+
+    String blockText() {
+        StringBuilder text = new StringBuilder();
+
+        for (String line : block) {
+            text.append(line).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Whether the line may begin an entry: three digits followed by
+     * whitespace or the end of the line.
+     */
+    static boolean isEntryStart(String line) {
+        if (line.length() < 3 || !isDigit(line.charAt(0)) || !isDigit(line.charAt(1)) || !isDigit(line.charAt(2))) {
+            return false;
+        }
+        return line.length() == 3 || isWhitespace(line.charAt(3));
+    }
+
+    /**
+     * Whether the line is the start of a syntax note continued on a
+     * following line, i.e. the note number with nothing (but change
+     * indicators) after it.
+     */
+    static boolean isSyntaxPrefix(String line) {
+        int i = 0;
+        int m = line.length();
+
+        while (i < m && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+
+        int digits = i;
+
+        while (i < m && isDigit(line.charAt(i))) {
+            i++;
+        }
+
+        if (i == digits || i == m || line.charAt(i++) != '.') {
+            return false;
+        }
+
+        while (i < m && "+*#|-X".indexOf(line.charAt(i)) >= 0) {
+            i++;
+        }
+
+        while (i < m && isWhitespace(line.charAt(i))) {
+            i++;
+        }
+
+        return i == m;
+    }
+
+    static boolean isBlank(String line) {
+        for (int i = 0, m = line.length(); i < m; i++) {
+            if (!isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Whitespace as matched by {@code \s} in a pattern.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * A line followed by its line terminator, as the line appears at the end
+     * of the block, without copying it.
+     */
+    static final class TerminatedLine implements CharSequence {
+        private String line;
+
+        TerminatedLine of(String line) {
+            this.line = line;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return line.length() + 1;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index == line.length() ? '\n' : line.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return line + '\n';
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package io.xlate.edi.schematools;
 
 import java.io.BufferedReader;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -15,23 +16,37 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,132 +67,382 @@ import io.xlate.edischema.v4.Syntax;
 import io.xlate.edischema.v4.SyntaxType;
 import io.xlate.edischema.v4.Transaction;
 import io.xlate.edischema.v4.TransactionControlType;
-import io.xlate.edischema.v4.Value;
 
 public class EdifactSchemaXmlGenerator extends XmlGenerator {
 
     static final Logger log = LoggerFactory.getLogger(EdifactSchemaXmlGenerator.class);
-    static final Pattern syntax = Pattern.compile("^\\s*\\d+\\.[\\+\\*\\#\\|\\-X]*\\s*(D[1-7])\\(([0-9, ]+)\\).*$", Pattern.MULTILINE);
-
-    static final Map<String, BaseType> types = new TreeMap<>();
-    static Map<String, Schema> messages;
-
-    static Set<String> nullRefs = new TreeSet<>();
 
-    static SegmentType segment = null;
+    static final Pattern CODE_LIST_DASHES = Pattern.compile("[─-]+");
+    static final Pattern CODE_LIST_DECLARATION = Pattern.compile("^[\\+\\*\\#\\|\\-X]*[ \\t]*" // Change indicator
+            + "(\\d+)" // Element number
+            + "[^\\[]+" // Skip the description
+            + "(?:\\[.\\])?" // Usage indicator
+            + "\\s*\\|?\\s*"
+            + "Desc: .*",
+                                                                 Pattern.MULTILINE +
+                                                                         Pattern.DOTALL);
+    static final Pattern CODE_LIST_FIELD_FORMAT = Pattern.compile("^Repr: (a|an|n)(\\.\\.)?(\\d*)$");
+    static final Map<Long, Pattern> VALUE_FORMATS = new ConcurrentHashMap<>();
 
-    static CompositeType composite = null;
-    static boolean newComposite = false;
-    static boolean includeTitles = false;
+    static final Pattern syntax = Pattern.compile("^\\s*\\d+\\.[\\+\\*\\#\\|\\-X]*\\s*(D[1-7])\\(([0-9, ]+)\\).*$", Pattern.MULTILINE);
+    static final Pattern MESSAGE_LOOP = Pattern.compile("^\\d+ +.* +([MC]) +(\\d+).*$");
+    static final Pattern MESSAGE_SEGMENT = Pattern.compile("(^\\d+) +[\\+\\*\\#\\|\\-X]? +([A-Z]{3}).* +([MC]) +(\\d+)( *)([^A-Z0-9a-z ]*)$");
+
+    static final Path OUTPUT = Paths.get("./target/edifact");
+    static final String CONFIGURATION = "edifact-versions.properties";
+
+    /**
+     * Order of the values of a code list: shorter codes first, then
+     * alphabetically.
+     */
+    static final Comparator<String> CODE_ORDER = Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    /**
+     * The inputs of one syntax version (e.g. v4r01) or one directory release
+     * (e.g. d13a).
+     */
+    static final class Release {
+        /**
+         * Name of the release's outputs, e.g. v4r01 or d13a
+         */
+        final String name;
+        /**
+         * Version used to find message corrections, e.g. 40100 or d13a
+         */
+        final String version;
+        /**
+         * True for a syntax version, written as a control schema and
+         * {@code <name>-<message>.xml} files rather than a directory of
+         * messages
+         */
+        final boolean syntaxVersion;
+        /**
+         * The code list revision used for the release's elements
+         */
+        final String codelist;
+        /**
+         * Every code list revision to index, oldest first and ending with
+         * {@link #codelist}; only that one unless all revisions are indexed
+         */
+        final List<String> codelistRevisions;
+        final String elements;
+        final String composites;
+        final String segments;
+        final String messages;
+
+        Release(String name,
+                String version,
+                boolean syntaxVersion,
+                String codelist,
+                List<String> codelistRevisions,
+                String elements,
+                String composites,
+                String segments,
+                String messages) {
+            this.name = name;
+            this.version = version;
+            this.syntaxVersion = syntaxVersion;
+            this.codelist = codelist;
+            this.codelistRevisions = codelistRevisions;
+            this.elements = elements;
+            this.composites = composites;
+            this.segments = segments;
+            this.messages = messages;
+        }
+    }
 
-    public static void main(String[] args) throws IOException, JAXBException {
-        Properties config = new Properties();
+    /**
+     * The sources of a release, read and digested, and the keys of the
+     * dictionaries parsed from them.
+     */
+    static final class Inputs {
+        byte[] codelistData;
+        byte[] elementsData;
+        byte[] compositesData;
+        byte[] segmentsData;
+        byte[] messagesData;
+        /**
+         * The data of each of the release's code list revisions, when more
+         * than one is indexed
+         */
+        final List<byte[]> revisionData = new ArrayList<>();
+        String dictionaryDigest;
+        String releaseDigest;
+        String codelistKey;
+        String elementsKey;
+        String compositesKey;
+        String segmentsKey;
+        /**
+         * Key of the code list index, or null when a single revision is used
+         */
+        String indexKey;
+    }
 
-        try (InputStream stream = EdifactSchemaXmlGenerator.class.getResourceAsStream("/edifact-versions.properties")) {
-            config.load(stream);
+    /**
+     * Loops of a message's segment table that are open while it is parsed,
+     * each with the sequence of segments and loops collected for it. The
+     * outermost sequence is the message's own.
+     */
+    static final class OpenLoops {
+        final LoopTrace trace;
+        final Deque<List<BaseType>> refStack = new ArrayDeque<>();
+        final Deque<Integer> loopIds = new ArrayDeque<>();
+        final Deque<String> loopUses = new ArrayDeque<>();
+        final Deque<String> loopMaxes = new ArrayDeque<>();
+        int lastDepth;
+
+        OpenLoops(LoopTrace trace) {
+            this.trace = trace;
+            refStack.add(new ArrayList<>());
         }
 
-        String[] versions = config.getProperty("versions").split(",");
-        includeTitles = Boolean.valueOf(config.getProperty("includeTitles", "false"));
-
-        Path output = Paths.get("./target/edifact");
-        Files.createDirectories(output);
-        JAXBContext context = JAXBContext.newInstance(Schema.class);
+        void openLoop(int loopId, String use, String max) {
+            loopIds.add(loopId);
+            loopUses.addLast(use);
+            loopMaxes.addLast(max);
+            trace.loop(loopId, use, max, lastDepth);
+            refStack.add(new ArrayList<>());
+            lastDepth++;
+        }
 
-        for (String ver : versions) {
-            String codelist = config.getProperty(ver + ".codelist");
+        /**
+         * Close the innermost open loop, adding it to the sequence of the
+         * loop (or message) enclosing it.
+         */
+        void closeLoop(LoopTrace.Cause cause) {
+            int loopId = loopIds.removeLast();
+            lastDepth--;
+            trace.endLoop(loopId, lastDepth, cause);
+
+            LoopStandard l = new LoopStandard();
+            l.setCode(String.format("L%04d", loopId));
+            setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
+            l.getSequence().addAll(refStack.removeLast());
+            refStack.getLast().add(l);
+        }
 
-            if (codelist.matches("^\\$\\{(.+)\\}$")) {
-                codelist = config.getProperty(codelist.substring(2, codelist.length() - 1));
+        /**
+         * Close open loops until the given number remain.
+         */
+        void closeLoops(int remaining, LoopTrace.Cause cause) {
+            while (refStack.size() > remaining + 1) {
+                closeLoop(cause);
             }
+        }
+    }
 
-            String[] revisions = codelist.split(",");
+    /**
+     * A unit of output written by the writer stage.
+     */
+    interface WriteTask {
+        void run() throws IOException;
+    }
 
-            log.info("Version {}", ver);
-            messages = new TreeMap<>();
-            types.clear();
+    /**
+     * Parse step adding types to {@link EdifactSchemaXmlGenerator#types}.
+     */
+    interface ParseTask {
+        void run() throws IOException;
+    }
 
-            String revision = revisions[revisions.length - 1];
-            log.info("Revision {}", revision);
+    final SchemaWriter writer;
+    final GenerationManifest manifest;
+    final boolean includeTitles;
+    final boolean sharedTypes;
+    final boolean bundle;
+    final Executor writers;
+    final Executor messageParsers;
+    final DictionaryCache dictionaries;
+    final GenerationMetrics metrics;
+    final ArchiveResolver archives;
+    final SchemaSink sink;
+
+    final Map<String, BaseType> types = new TreeMap<>();
+    final TypeClosure closure;
+    final Map<String, Schema> messages = new TreeMap<>();
+    final Map<String, String> messageDigests = new TreeMap<>();
+
+    SegmentType segment = null;
+    CompositeType composite = null;
+
+    /**
+     * Name of the release being generated, under which its phases are
+     * measured.
+     */
+    String releaseName;
+
+    /**
+     * The segment table of each message of the release prepared for single
+     * messages, see {@link #prepare(Release)}.
+     */
+    Map<String, byte[]> messageTables;
+
+    EdifactSchemaXmlGenerator(SchemaWriter writer,
+                              GenerationManifest manifest,
+                              boolean includeTitles,
+                              boolean sharedTypes,
+                              boolean bundle,
+                              Executor writers,
+                              Executor messageParsers,
+                              DictionaryCache dictionaries,
+                              GenerationMetrics metrics,
+                              ArchiveResolver archives,
+                              SchemaSink sink) {
+        this.writer = writer;
+        this.manifest = manifest;
+        this.includeTitles = includeTitles;
+        this.sharedTypes = sharedTypes;
+        this.bundle = bundle;
+        this.writers = writers;
+        this.messageParsers = messageParsers;
+        this.dictionaries = dictionaries;
+        this.metrics = metrics;
+        this.archives = archives;
+        this.sink = sink;
+        this.closure = new TypeClosure(types::get, types::values, phase -> metrics.start(phase, releaseName, null));
+    }
 
-            final Map<String, Set<String>> values;
+    public static void main(String[] args) throws IOException, JAXBException {
+        ClassLoader loader = EdifactSchemaXmlGenerator.class.getClassLoader();
+        Properties config = loadProperties(loader, CONFIGURATION);
+
+        boolean includeTitles = Boolean.valueOf(config.getProperty("includeTitles", "false"));
+        boolean sharedTypes = sharedTypesFromSystemProperties();
+        boolean bundle = SchemaBundle.fromSystemProperties();
+        boolean allRevisions = "all".equals(System.getProperty("EDIFACT.codeListRevisions", "last"));
+        List<Release> releases = getReleases(config, allRevisions);
+        int threads = Integer.getInteger("EDIFACT.threads", Runtime.getRuntime().availableProcessors());
+        int writerThreads = Integer.getInteger("EDIFACT.writerThreads", Runtime.getRuntime().availableProcessors());
+        int messageThreads = Integer.getInteger("EDIFACT.messageThreads", 1);
+
+        Files.createDirectories(OUTPUT);
+        SchemaWriter writer = SchemaWriter.fromSystemProperties();
+        GenerationManifest manifest = GenerationManifest.load(OUTPUT,
+                                                              EdifactSchemaXmlGenerator.class,
+                                                              XmlGenerator.class,
+                                                              SchemaMarshaller.class,
+                                                              StaxSchemaWriter.class,
+                                                              SchemaXmlStreamWriter.class,
+                                                              PackedSchemaWriter.class,
+                                                              SchemaBundle.class,
+                                                              SchemaSink.class,
+                                                              DictionaryCache.class,
+                                                              DirectoryTokenizer.class,
+                                                              ElementDirectoryReader.class,
+                                                              CodeListIndex.class,
+                                                              CodeValues.class,
+                                                              TypeClosure.class,
+                                                              GenerationMetrics.class);
+        boolean snapshot = Boolean.parseBoolean(System.getProperty("EDIFACT.dictionarySnapshot", "true"));
+        DictionaryCache dictionaries = snapshot ? DictionaryCache.load(OUTPUT, manifest.getFingerprint())
+                : new DictionaryCache(OUTPUT, manifest.getFingerprint(), Collections.emptyMap());
+        GenerationMetrics metrics = GenerationMetrics.fromSystemProperties("EDIFACT");
+        ArchiveResolver archives = new ArchiveResolver(loader);
+        Map<String, Exception> failures;
+
+        try {
+            failures = processReleases(releases,
+                                       threads,
+                                       writerThreads,
+                                       messageThreads,
+                                       writer,
+                                       manifest,
+                                       dictionaries,
+                                       metrics,
+                                       archives,
+                                       SchemaSink.directory(OUTPUT),
+                                       includeTitles,
+                                       sharedTypes,
+                                       bundle);
+        } finally {
+            manifest.save();
+            archives.close();
+        }
 
-            try (InputStream stream = getInputStream(revision)) {
-                values = loadCodeList(stream);
+        if (snapshot) {
+            try {
+                dictionaries.save();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Unable to save dictionary snapshot", e);
             }
+        }
 
-            try (InputStream stream = getInputStream(config.getProperty(ver + ".elements"))) {
-                loadElements(stream, values);
-            }
-            try (InputStream stream = getInputStream(config.getProperty(ver + ".composites"))) {
-                loadComposites(stream);
-            }
-            try (InputStream stream = getInputStream(config.getProperty(ver + ".segments"))) {
-                loadSegments(stream);
-            }
+        if (failures.isEmpty()) {
+            log.info("{} releases processed", releases.size());
+        } else {
+            log.error("{} of {} releases failed: {}", failures.size(), releases.size(), failures.keySet());
+        }
 
-            final Schema schema = new Schema();
-            buildControlStructure(schema);
-            sortTypes(schema);
+        try {
+            metrics.report(OUTPUT);
+        } catch (IOException e) {
+            log.warn("Unable to write metrics report", e);
+        }
 
-            Matcher vermatch = Pattern.compile("(\\d)(\\d{2})\\d{2}").matcher(ver);
-            vermatch.find();
+        boolean failed = !failures.isEmpty();
 
-            StringBuilder filename = new StringBuilder("./target/edifact/v");
-            filename.append(vermatch.group(1));
-            if (!vermatch.group(2).equals("00")) {
-                filename.append('r');
-                filename.append(vermatch.group(2));
-            }
-            filename.append(".xml");
+        if (VersionMerger.fromSystemProperties()) {
+            List<String> directories = new ArrayList<>();
 
-            try (OutputStream out = new FileOutputStream(filename.toString())) {
-                Marshaller m = createMarshaller(context);
-                m.marshal(schema, out);
+            for (Release release : releases) {
+                if (!release.syntaxVersion && !failures.containsKey(release.name)) {
+                    directories.add(release.name);
+                }
             }
 
-            try (InputStream stream = getInputStream(config.getProperty(ver + ".messages"))) {
-                loadMessages(stream, ver);
+            Map<String, Exception> mergeFailures = new VersionMerger().mergeVersions(OUTPUT, directories, threads, writer, bundle);
+
+            if (!mergeFailures.isEmpty()) {
+                log.error("{} merged schemas failed: {}", mergeFailures.size(), mergeFailures.keySet());
+                failed = true;
             }
+        }
 
-            for (Map.Entry<String, Schema> entry : messages.entrySet()) {
-                filename.setLength(0);
-                filename.append("./target/edifact/v");
-                filename.append(vermatch.group(1));
-                if (!vermatch.group(2).equals("00")) {
-                    filename.append('r');
-                    filename.append(vermatch.group(2));
-                }
-                filename.append("-");
-                filename.append(entry.getKey());
-                filename.append(".xml");
+        if (failed) {
+            System.exit(1);
+        }
+    }
 
-                sortTypes(entry.getValue());
+    /**
+     * Resolve the inputs of every syntax version and directory release listed
+     * in the configuration, in the order they are listed.
+     *
+     * @param allRevisions
+     *            whether every code list revision listed for a syntax version
+     *            is to be indexed, rather than only the last
+     */
+    static List<Release> getReleases(Properties config, boolean allRevisions) {
+        List<Release> releases = new ArrayList<>();
+
+        for (String ver : config.getProperty("versions").split(",")) {
+            String codelist = config.getProperty(ver + ".codelist");
 
-                try (OutputStream out = new FileOutputStream(filename.toString())) {
-                    Marshaller m = createMarshaller(context);
-                    m.marshal(entry.getValue(), out);
-                }
+            if (codelist.matches("^\\$\\{(.+)\\}$")) {
+                codelist = config.getProperty(codelist.substring(2, codelist.length() - 1));
             }
 
-            /*for (String revision : revisions) {
-                schema = new Schema();
+            List<String> revisions = Arrays.asList(codelist.split(","));
+            String lastRevision = revisions.get(revisions.size() - 1);
 
-                final Map<String, Set<String>> values = loadCodeList(getInputStream(revision));
-                standardDB.put("codelists." + revision, values);
-                loadElements(getInputStream(config.getProperty(ver + ".elements")), values);
-                loadComposites(getInputStream(config.getProperty(ver + ".composites")));
-                loadSegments(getInputStream(config.getProperty(ver + ".segments")));
+            Matcher vermatch = Pattern.compile("(\\d)(\\d{2})\\d{2}").matcher(ver);
+            vermatch.find();
 
-                buildControlStructure();
+            StringBuilder name = new StringBuilder("v");
+            name.append(vermatch.group(1));
+            if (!vermatch.group(2).equals("00")) {
+                name.append('r');
+                name.append(vermatch.group(2));
+            }
 
-                try (OutputStream out = new FileOutputStream("target/" + revision.replace('/', '.') + ".xml")) {
-                    JAXBContext context = JAXBContext.newInstance(Schema.class);
-                    Marshaller m = context.createMarshaller();
-                    m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-                    m.marshal(schema, out);
-                }
-            }*/
+            releases.add(new Release(name.toString(),
+                                     ver,
+                                     true,
+                                     lastRevision,
+                                     allRevisions ? revisions : Collections.singletonList(lastRevision),
+                                     config.getProperty(ver + ".elements"),
+                                     config.getProperty(ver + ".composites"),
+                                     config.getProperty(ver + ".segments"),
+                                     config.getProperty(ver + ".messages")));
         }
 
         String[] directories = config.getProperty("directories").split(",");
@@ -198,8 +463,6 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
             }
 
             for (String revision : revisions) {
-                messages = new TreeMap<>();
-
                 String rel = version + revision;
                 String codelist;
                 String elements;
@@ -234,53 +497,564 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
                     messagesConfig = config.getProperty(rel + ".messages");
                 }
 
-                log.info("Revision {}", revision);
+                releases.add(new Release(rel,
+                                         rel,
+                                         false,
+                                         codelist,
+                                         Collections.singletonList(codelist),
+                                         elements,
+                                         composites,
+                                         segments,
+                                         messagesConfig));
+            }
+        }
 
-                final Map<String, Set<String>> values;
+        return releases;
+    }
 
-                try (InputStream stream = getInputStream(codelist)) {
-                    values = loadCodeList(stream);
+    /**
+     * Process each release on a pool of at most {@code threads} workers. Every
+     * release is handled by its own generator instance so that no parse state
+     * is shared between workers. A failure in one release is logged and
+     * returned without aborting the others.
+     *
+     * Parsing and writing are pipelined: once a release's messages are
+     * parsed, sorting and serializing them is handed to a separate pool of
+     * {@code writerThreads} workers and the parse worker moves on to the next
+     * release. The writer pool's queue is bounded; when it is full, the parse
+     * worker writes the message itself, which keeps parsing from running too
+     * far ahead of the writers.
+     *
+     * With more than one {@code messageThreads}, the segment tables of a
+     * release's messages are parsed on a fork-join pool of that many workers,
+     * shared by all releases, while the release's worker reads the messages
+     * archive.
+     *
+     * @return map of failed releases to the exception that caused the failure,
+     *         in the order the releases were given
+     */
+    static Map<String, Exception> processReleases(List<Release> releases,
+                                                  int threads,
+                                                  int writerThreads,
+                                                  int messageThreads,
+                                                  SchemaWriter writer,
+                                                  GenerationManifest manifest,
+                                                  DictionaryCache dictionaries,
+                                                  GenerationMetrics metrics,
+                                                  ArchiveResolver archives,
+                                                  SchemaSink sink,
+                                                  boolean includeTitles,
+                                                  boolean sharedTypes,
+                                                  boolean bundle) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, releases.size())));
+        ExecutorService writers = newWriterPool(Math.max(1, writerThreads));
+        ForkJoinPool messageParsers = messageThreads > 1 ? new ForkJoinPool(messageThreads) : null;
+        Map<String, Future<CompletableFuture<Void>>> results = new LinkedHashMap<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+
+        try {
+            for (Release release : releases) {
+                results.put(release.name,
+                            executor.submit(() -> new EdifactSchemaXmlGenerator(writer,
+                                                                                 manifest,
+                                                                                 includeTitles,
+                                                                                 sharedTypes,
+                                                                                 bundle,
+                                                                                 writers,
+                                                                                 messageParsers,
+                                                                                 dictionaries,
+                                                                                 metrics,
+                                                                                 archives,
+                                                                                 sink).generate(release)));
+            }
+
+            for (Map.Entry<String, Future<CompletableFuture<Void>>> result : results.entrySet()) {
+                String release = result.getKey();
+
+                try {
+                    result.getValue().get().get();
+                } catch (ExecutionException e) {
+                    Exception cause = unwrap(e);
+                    log.error("Exception processing release {}", release, cause);
+                    failures.put(release, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(release, e);
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+            writers.shutdownNow();
+
+            if (messageParsers != null) {
+                messageParsers.shutdownNow();
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Create the pool of the writer stage. The queue holds up to four pending
+     * writes per thread, after which writes run on the submitting thread.
+     */
+    static ExecutorService newWriterPool(int threads) {
+        return new ThreadPoolExecutor(threads,
+                                      threads,
+                                      0L,
+                                      TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<>(threads * 4),
+                                      new ThreadPoolExecutor.CallerRunsPolicy());
+    }
 
-                try (InputStream stream = getInputStream(elements)) {
-                    loadElements(stream, values);
+    static Exception unwrap(Throwable e) {
+        while ((e instanceof ExecutionException || e instanceof CompletionException || e instanceof UncheckedIOException)
+                && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e instanceof Exception ? (Exception) e : new ExecutionException(e);
+    }
+
+    /**
+     * Parse the inputs of a single release and submit its schemas to the
+     * writer stage, skipping the release (or individual messages) when the
+     * inputs are unchanged since the previous run.
+     *
+     * When the schemas are bundled, a release with any change is generated
+     * entirely, replacing its archive. Entries are reserved as the schemas
+     * are submitted, so that the archive is written in that order.
+     *
+     * @return future completed once every schema of the release is written
+     *         and the release is recorded in the manifest
+     */
+    CompletableFuture<Void> generate(Release release) throws IOException {
+        log.info("Release {}", release.name);
+        releaseName = release.name;
+
+        final Inputs inputs = readInputs(release);
+        final String dictionaryDigest = inputs.dictionaryDigest;
+        final String releaseDigest = inputs.releaseDigest;
+
+        dictionaries.retain(inputs.codelistKey, inputs.elementsKey, inputs.compositesKey, inputs.segmentsKey);
+
+        if (inputs.indexKey != null) {
+            dictionaries.retain(inputs.indexKey);
+        }
+
+        if (manifest.isCurrent(release.name, releaseDigest)) {
+            log.info("Release {} - unchanged, skipped", release.name);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        loadTypes(release, inputs);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+        final Path base = release.syntaxVersion ? OUTPUT : OUTPUT.resolve(release.name);
+        final SchemaBundle archive = bundle ? new SchemaBundle(OUTPUT.resolve(release.name + SchemaBundle.EXTENSION)) : null;
+
+        try {
+            if (release.syntaxVersion) {
+                Path filename = OUTPUT.resolve(release.name + writer.getExtension());
+
+                if (archive != null || !manifest.isCurrent(release.name, release.name, dictionaryDigest)) {
+                    final Schema schema = new Schema();
+                    final SchemaBundle.Entry archiveEntry = reserve(archive, base, filename);
+                    buildControlStructure(schema);
+
+                    writes.add(submit(() -> {
+                        Path output = write(schema, release.name, filename, archive, archiveEntry);
+                        manifest.record(release.name, release.name, dictionaryDigest, output);
+                    }));
                 }
+            }
+
+            final String typesLocation;
+
+            if (sharedTypes) {
+                final Path typesFilename;
 
-                try (InputStream stream = getInputStream(composites)) {
-                    loadComposites(stream);
+                if (release.syntaxVersion) {
+                    typesFilename = OUTPUT.resolve(release.name + "-" + TYPES + writer.getExtension());
+                    typesLocation = typesFilename.getFileName().toString();
+                } else {
+                    typesFilename = OUTPUT.resolve(release.name).resolve(TYPES + writer.getExtension());
+                    typesLocation = "../" + TYPES + writer.getExtension();
                 }
 
-                try (InputStream stream = getInputStream(segments)) {
-                    loadSegments(stream);
+                if (archive != null || !manifest.isCurrent(release.name, TYPES, dictionaryDigest)) {
+                    GenerationMetrics.Measurement sort = metrics.start(GenerationMetrics.Phase.SORT, release.name, TYPES);
+                    final Schema schema = typesSchema(types.values());
+                    sort.types(schema.getTypes().size()).end();
+                    final SchemaBundle.Entry archiveEntry = reserve(archive, base, typesFilename);
+
+                    writes.add(submit(() -> {
+                        Path output = write(schema, TYPES, typesFilename, archive, archiveEntry);
+                        manifest.record(release.name, TYPES, dictionaryDigest, output);
+                    }));
                 }
+            } else {
+                typesLocation = null;
+            }
 
-                try (InputStream stream = getInputStream(messagesConfig)) {
-                    loadMessages(stream, rel);
+            loadMessages(new ByteArrayInputStream(inputs.messagesData), release.version);
+
+            for (Map.Entry<String, Schema> entry : messages.entrySet()) {
+                final Path filename = messageFilename(release, entry.getKey());
+                final SchemaBundle.Entry archiveEntry = reserve(archive, base, filename);
+                writes.add(submit(() -> writeMessage(release.name, dictionaryDigest, entry, filename, typesLocation, archive, archiveEntry)));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (archive != null) {
+                archive.close();
+            }
+            throw e;
+        }
+
+        CompletableFuture<Void> written = CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+
+        if (archive != null) {
+            written = written.thenCompose(done -> submit(archive::commit)).whenComplete((done, e) -> {
+                try {
+                    archive.close();
+                } catch (IOException closeFailure) {
+                    log.warn("Unable to discard {}", archive.getArchive(), closeFailure);
                 }
+            });
+        }
 
-                StringBuilder filename = new StringBuilder();
+        return written.thenRun(() -> manifest.record(release.name, releaseDigest));
+    }
 
-                for (Map.Entry<String, Schema> entry : messages.entrySet()) {
-                    filename.setLength(0);
-                    filename.append("./target/edifact/");
-                    filename.append(rel);
-                    filename.append("/");
-                    filename.append(entry.getKey().substring(0, 1));
-                    Files.createDirectories(Path.of(filename.toString()));
+    /**
+     * Read and digest the sources of a release and derive the keys of its
+     * dictionaries.
+     */
+    Inputs readInputs(Release release) throws IOException {
+        Inputs inputs = new Inputs();
+        GenerationManifest.Digest directoryDigest = new GenerationManifest.Digest().update(String.valueOf(includeTitles))
+                                                                                   .update(writer.getName())
+                                                                                   .update(writer.getExtension());
+
+        if (sharedTypes) {
+            directoryDigest.update(TYPES);
+        }
 
-                    filename.append("/");
-                    filename.append(entry.getKey());
-                    filename.append(".xml");
+        if (bundle) {
+            directoryDigest.update(SchemaBundle.PROPERTY);
+        }
 
-                    sortTypes(entry.getValue());
+        inputs.codelistData = readResource(release.codelist, directoryDigest);
+        inputs.elementsData = readResource(release.elements, directoryDigest);
+        inputs.compositesData = readResource(release.composites, directoryDigest);
+        inputs.segmentsData = readResource(release.segments, directoryDigest);
+        inputs.dictionaryDigest = directoryDigest.value();
+        GenerationManifest.Digest messagesDigest = new GenerationManifest.Digest().update(inputs.dictionaryDigest);
+        inputs.messagesData = readResource(release.messages, messagesDigest);
+        digestCorrections(inputs.messagesData, release.version, messagesDigest);
+        inputs.releaseDigest = messagesDigest.value();
+
+        /*
+         * Each dictionary's key covers its own source and the key of the
+         * dictionary it was parsed against, e.g. the segments depend on which
+         * composites and elements exist.
+         */
+        inputs.codelistKey = new GenerationManifest.Digest().update(inputs.codelistData).value();
+        inputs.elementsKey = dictionaryKey(inputs.codelistKey, inputs.elementsData);
+        inputs.compositesKey = dictionaryKey(inputs.elementsKey, inputs.compositesData);
+        inputs.segmentsKey = dictionaryKey(inputs.compositesKey, inputs.segmentsData);
+
+        /*
+         * When every revision of the code list is indexed, the index is keyed
+         * by the content of all revisions and also provides the code list of
+         * the last revision.
+         */
+        GenerationManifest.Digest indexDigest = new GenerationManifest.Digest();
+
+        for (String revision : release.codelistRevisions) {
+            if (revision.equals(release.codelist)) {
+                indexDigest.update(revision, inputs.codelistData);
+                inputs.revisionData.add(inputs.codelistData);
+            } else {
+                inputs.revisionData.add(readResource(revision, indexDigest));
+            }
+        }
 
-                    try (OutputStream out = new FileOutputStream(filename.toString())) {
-                        Marshaller m = createMarshaller(context);
-                        m.marshal(entry.getValue(), out);
-                    }
-                }
+        inputs.indexKey = release.codelistRevisions.size() > 1 ? indexDigest.value() : null;
+        return inputs;
+    }
+
+    /**
+     * Add the types of the release's dictionaries, parsed from its inputs or
+     * taken from the dictionary cache.
+     */
+    void loadTypes(Release release, Inputs inputs) throws IOException {
+        final byte[] codelistData = inputs.codelistData;
+        final byte[] elementsData = inputs.elementsData;
+        final byte[] compositesData = inputs.compositesData;
+        final byte[] segmentsData = inputs.segmentsData;
+        final CodeListIndex index;
+
+        if (inputs.indexKey != null) {
+            long indexBytes = inputs.revisionData.stream().mapToLong(data -> data.length).sum();
+            index = dictionaries.getCodeListIndex(inputs.indexKey,
+                                                  () -> measure(GenerationMetrics.Phase.CODE_LISTS,
+                                                                indexBytes,
+                                                                () -> indexCodeLists(release.codelistRevisions, inputs.revisionData, dictionaries),
+                                                                built -> built.getTables().size()));
+            log.info("Release {} - {} code lists indexed from {} revisions",
+                     release.name,
+                     index.getTables().size(),
+                     index.getRevisions().size());
+        } else {
+            index = null;
+        }
+
+        addTypes(dictionaries.getTypes(inputs.elementsKey, () -> parseTypes(GenerationMetrics.Phase.ELEMENTS, elementsData.length, () -> {
+            Map<String, CodeValues> values = dictionaries.getCodeList(inputs.codelistKey,
+                                                                       () -> index != null
+                                                                               ? index.getCodeList(index.getRevisions().size() - 1, dictionaries)
+                                                                               : measure(GenerationMetrics.Phase.CODE_LISTS,
+                                                                                         codelistData.length,
+                                                                                         () -> loadCodeList(new ByteArrayInputStream(codelistData), dictionaries),
+                                                                                         Map::size));
+            loadElements(new ByteArrayInputStream(elementsData), values);
+        })));
+        addTypes(dictionaries.getTypes(inputs.compositesKey,
+                                       () -> parseTypes(GenerationMetrics.Phase.COMPOSITES,
+                                                        compositesData.length,
+                                                        () -> loadComposites(new ByteArrayInputStream(compositesData)))));
+        addTypes(dictionaries.getTypes(inputs.segmentsKey,
+                                       () -> parseTypes(GenerationMetrics.Phase.SEGMENTS,
+                                                        segmentsData.length,
+                                                        () -> loadSegments(new ByteArrayInputStream(segmentsData)))));
+    }
+
+    /**
+     * @return the file of a message's schema: {@code <release>/<initial>/<message>}
+     *         for a directory release, {@code <release>-<message>} for a
+     *         syntax version
+     */
+    Path messageFilename(Release release, String name) {
+        if (release.syntaxVersion) {
+            return OUTPUT.resolve(release.name + "-" + name + writer.getExtension());
+        }
+
+        Path subdir = OUTPUT.resolve(release.name).resolve(name.substring(0, 1));
+        return subdir.resolve(name + writer.getExtension());
+    }
+
+    /**
+     * Read the sources of a release, parse its types and read the segment
+     * table of each of its messages, for the messages to be generated one at
+     * a time by {@link #messageSchema(String)}. Nothing is written.
+     */
+    void prepare(Release release) throws IOException {
+        releaseName = release.name;
+        Inputs inputs = readInputs(release);
+        loadTypes(release, inputs);
+
+        Map<String, byte[]> tables = new TreeMap<>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(inputs.messagesData));
+        ZipEntry entry;
+
+        while ((entry = zis.getNextEntry()) != null) {
+            String name = messageName(entry);
+
+            if (name != null) {
+                tables.put(name, readMessage(zis, release.version, name));
+            }
+        }
+
+        messageTables = tables;
+    }
+
+    /**
+     * Parse the schema of a message of the prepared release, with its own
+     * types sorted.
+     *
+     * @return the schema, or null if the release has no such message
+     */
+    Schema messageSchema(String name) throws IOException {
+        byte[] data = messageTables.get(name);
+
+        if (data == null) {
+            return null;
+        }
+
+        return parseMessage(name, releaseName, data);
+    }
+
+    /**
+     * @return the next entry of the archive for the schema file, relative to
+     *         the base directory of the release, or null when not bundled
+     */
+    static SchemaBundle.Entry reserve(SchemaBundle archive, Path base, Path filename) {
+        if (archive == null) {
+            return null;
+        }
+
+        return archive.reserve(relativePath(base, filename));
+    }
+
+    /**
+     * Write a schema of the release to its entry of the archive, when
+     * bundled, or else to the sink at the file's path.
+     *
+     * @param unit
+     *            the unit of the release the schema is measured as
+     * @return the output recorded for the schema: the file written or the
+     *         release's archive
+     */
+    Path write(Schema schema, String unit, Path filename, SchemaBundle archive, SchemaBundle.Entry archiveEntry) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(GenerationMetrics.Phase.WRITE, releaseName, unit);
+        final Path output;
+
+        if (archive != null) {
+            measurement.written(archive.write(archiveEntry, schema, writer));
+            output = archive.getArchive();
+        } else {
+            GenerationMetrics.CountingOutputStream out = new GenerationMetrics.CountingOutputStream(sink.open(relativePath(OUTPUT, filename)));
+
+            try (OutputStream document = out) {
+                writer.write(schema, document);
             }
+
+            measurement.written(out.count);
+            output = filename;
         }
+
+        measurement.types(schema.getTypes().size()).end();
+        return output;
+    }
+
+    /**
+     * Run a loader of a dictionary as a phase of the release.
+     *
+     * @param bytes
+     *            size of the dictionary's source
+     * @param entries
+     *            counts the entries of the dictionary loaded
+     */
+    <T> T measure(GenerationMetrics.Phase phase, long bytes, DictionaryCache.Loader<T> loader, ToIntFunction<T> entries) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(phase, releaseName, null).bytesRead(bytes);
+        T loaded = loader.load();
+        measurement.entries(entries.applyAsInt(loaded)).end();
+        return loaded;
+    }
+
+    String dictionaryKey(String dependencyKey, byte[] data) {
+        return new GenerationManifest.Digest().update(String.valueOf(includeTitles)).update(dependencyKey).update(data).value();
+    }
+
+    /**
+     * Run a parse step as a phase of the release and collect the types it
+     * added.
+     *
+     * @param bytes
+     *            size of the directory parsed
+     */
+    List<BaseType> parseTypes(GenerationMetrics.Phase phase, long bytes, ParseTask task) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(phase, releaseName, null).bytesRead(bytes);
+        Set<String> existing = new HashSet<>(types.keySet());
+        task.run();
+
+        List<BaseType> parsed = types.entrySet()
+                                     .stream()
+                                     .filter(e -> !existing.contains(e.getKey()))
+                                     .map(Map.Entry::getValue)
+                                     .collect(Collectors.toList());
+
+        measurement.entries(parsed.size()).types(parsed.size()).end();
+        return parsed;
+    }
+
+    void addTypes(List<BaseType> parsed) {
+        for (BaseType type : parsed) {
+            types.putIfAbsent(typeName(type), type);
+        }
+    }
+
+    static String typeName(BaseType type) {
+        if (type instanceof ElementType) {
+            return ((ElementType) type).getName();
+        }
+        if (type instanceof CompositeType) {
+            return ((CompositeType) type).getName();
+        }
+        return ((SegmentType) type).getName();
+    }
+
+    /**
+     * Run a write on the writer stage. Once a schema is submitted it is no
+     * longer modified by the parser, only read by the writer.
+     */
+    CompletableFuture<Void> submit(WriteTask task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, writers);
+    }
+
+    /**
+     * Write the schema of a message unless the previous run wrote it from the
+     * same directory and message definition (and it is not bundled).
+     *
+     * @param typesLocation
+     *            location of the release's types document to include in
+     *            place of the message's types, or null to write the types
+     * @param archive
+     *            archive of the release, or null
+     * @param archiveEntry
+     *            entry of the message in the archive
+     */
+    void writeMessage(String group,
+                      String dictionaryDigest,
+                      Map.Entry<String, Schema> message,
+                      Path filename,
+                      String typesLocation,
+                      SchemaBundle archive,
+                      SchemaBundle.Entry archiveEntry) throws IOException {
+        String name = message.getKey();
+        String digest = new GenerationManifest.Digest().update(dictionaryDigest).update(messageDigests.get(name)).value();
+
+        if (archive == null && manifest.isCurrent(group, name, digest)) {
+            return;
+        }
+
+        Schema schema = message.getValue();
+
+        if (typesLocation != null) {
+            schema = includingSchema(schema, typesLocation);
+        }
+
+        manifest.record(group, name, digest, write(schema, name, filename, archive, archiveEntry));
+    }
+
+    /**
+     * Read the complete content of a (possibly nested) resource so that it may
+     * be digested before it is parsed. Resolving and reading the resource is
+     * measured as a unit of the release.
+     *
+     * @param resource
+     *            the resource, see {@link ArchiveResolver#getInputStream(String)}
+     * @param digest
+     *            digest to be updated with the resource name and content
+     * @return the resource content
+     */
+    byte[] readResource(String resource, GenerationManifest.Digest digest) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(GenerationMetrics.Phase.RESOLVE, releaseName, resource);
+        final byte[] data;
+
+        try (InputStream stream = archives.getInputStream(resource, measurement)) {
+            data = stream.readAllBytes();
+        }
+
+        measurement.bytesRead(data.length).end();
+        digest.update(resource, data);
+        return data;
     }
 
     static String resolve(String value, String revision) {
@@ -291,68 +1065,50 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
         return resolve(value, revision).replaceAll("\\{version\\}", version);
     }
 
-    static InputStream getInputStream(String resource) throws IOException {
-        String[] elements = resource.split("\\$");
-        InputStream stream = EdifactSchemaXmlGenerator.class.getResourceAsStream('/' + elements[0]);
-
-        for (int i = 1; i < elements.length; i++) {
-            String entryName = elements[i].toLowerCase();
-            ZipInputStream zip = new ZipInputStream(stream);
-            ZipEntry entry;
-
-            do {
-                entry = zip.getNextEntry();
+    /**
+     * @param dictionaries
+     *            cache owning the code list's canonical strings and code lists
+     */
+    static Map<String, CodeValues> loadCodeList(InputStream archive, DictionaryCache dictionaries) throws IOException {
+        Map<String, CodeValues> codeList = parseCodeList(archive, dictionaries);
 
-                if (entry != null) {
-                    String name = entry.getName().toLowerCase();
-
-                    if (name.equals(entryName) || name.endsWith("/" + entryName)) {
-                        stream = zip;
-                        break;
-                    }
-                }
-            } while (entry != null);
+        if (codeList.isEmpty()) {
+            throw new IllegalStateException("Missing codelist");
         }
 
-        return stream;
+        return codeList;
+    }
+
+    /**
+     * Pattern of the code values of a data element with the given
+     * representation, shared by all code lists.
+     */
+    static Pattern valueFormat(int min, int max) {
+        return VALUE_FORMATS.computeIfAbsent(((long) min << 32) | max,
+                                             k -> Pattern.compile("^[\\+\\*\\#\\|\\-X]*\\s*([A-Z0-9]{" + min + ',' + max
+                                                     + "})\\s+.*$"));
     }
 
-    static Map<String, Set<String>> loadCodeList(InputStream archive) throws IOException {
+    /**
+     * Parse a code list directory in a single pass.
+     *
+     * @param dictionaries
+     *            cache owning the code list's canonical strings and code lists
+     * @return the codes by data element identifier, possibly empty
+     */
+    static Map<String, CodeValues> parseCodeList(InputStream archive, DictionaryCache dictionaries) throws IOException {
         int blankCount = 0;
-        Pattern ibm350Dashes = Pattern.compile("[─-]+");
-        Pattern declaration = Pattern.compile("^[\\+\\*\\#\\|\\-X]*[ \\t]*" // Change indicator
-                + "(\\d+)" // Element number
-                + "[^\\[]+" // Skip the description
-                + "(?:\\[.\\])?" // Usage indicator
-                + "\\s*\\|?\\s*"
-                + "Desc: .*",
-                                              Pattern.MULTILINE +
-                                                      Pattern.DOTALL);
         boolean declarationSearch = false;
         boolean declarationFound = false;
 
-        Pattern fieldFormat = Pattern.compile("^Repr: (a|an|n)(\\.\\.)?(\\d*)$");
         Pattern valueFormat = null;
 
-        Map<String, Set<String>> codeList = new HashMap<>(250);
-
-        /*Pattern def = Pattern.compile(
-        		"^[\\n\\r]+[ \\t]*[\\+\\*\\#\\|\\-X]*[ \\t]*" // Change indicator
-        		+ "(\\d+)" // Element number
-        		+ "[^\\[]+" // Skip description
-        		+ "(?:\\[.\\])?" // Usage indicator
-        		+ "\\s*\\|?\\s*"
-        		+ "Desc: .*"
-        		+ "Repr: (a|an|n)(\\.\\.)?(\\d*)$",
-        		Pattern.MULTILINE +
-        		Pattern.DOTALL);*/
+        Map<String, List<String>> declarations = new HashMap<>(250);
 
         BufferedReader reader = new BufferedReader(new InputStreamReader(archive, "IBM850"));
         StringBuilder declarationBuffer = new StringBuilder(1000);
         String line;
-        Set<String> values = Collections.emptySet();
-        /*Pattern codePattern = null;
-        boolean codesBegin = false;*/
+        List<String> values = Collections.emptyList();
         Matcher m;
 
         while ((line = reader.readLine()) != null) {
@@ -364,7 +1120,7 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
             }
             line = line.trim();
 
-            if (line.isEmpty() || ibm350Dashes.matcher(line).matches()) {
+            if (line.isEmpty() || CODE_LIST_DASHES.matcher(line).matches()) {
                 if (!declarationSearch) {
                     declarationBuffer.setLength(0);
                 }
@@ -384,26 +1140,19 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
                 }
                 declarationBuffer.append(line);
 
-                if ((m = declaration.matcher(declarationBuffer.toString())).matches()) {
+                if ((m = CODE_LIST_DECLARATION.matcher(declarationBuffer)).matches()) {
                     final String id = "DE" + m.group(1).trim();
-                    codeList.put(id, values = new TreeSet<>((val1, val2) -> {
-                        int result;
-                        if ((result = Integer.compare(val1.length(), val2.length())) != 0) {
-                            return result;
-                        }
-                        return val1.compareTo(val2);
-                    }));
+                    declarations.put(id, values = new ArrayList<>());
                     valueFormat = null;
                     declarationSearch = false;
                     declarationFound = true;
                 }
             } else if (declarationFound) {
                 if (valueFormat == null) {
-                    if (line.startsWith("Repr:") && (m = fieldFormat.matcher(line)).matches()) {
+                    if (line.startsWith("Repr:") && (m = CODE_LIST_FIELD_FORMAT.matcher(line)).matches()) {
                         final int max = Integer.parseInt(m.group(3));
                         final int min = m.group(2) != null ? 0 : max;
-                        valueFormat = Pattern.compile("^[\\+\\*\\#\\|\\-X]*\\s*([A-Z0-9]{" + min + ',' + max
-                                + "})\\s+.*$");
+                        valueFormat = valueFormat(min, max);
                     }
                 } else {
                     if (indent < 10 && (m = valueFormat.matcher(line)).matches()) {
@@ -413,133 +1162,117 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
             }
         }
 
-        if (codeList.isEmpty()) {
-            throw new IllegalStateException("Missing codelist");
+        reader.close();
+
+        Map<String, CodeValues> codeList = new HashMap<>(declarations.size() * 2);
+
+        for (Map.Entry<String, List<String>> entry : declarations.entrySet()) {
+            codeList.put(entry.getKey(), dictionaries.codeValues(entry.getValue()));
         }
 
-        reader.close();
         return codeList;
     }
 
-    static void loadElements(InputStream archive, Map<String, Set<String>> codeList) throws IOException {
-        Pattern def = Pattern.compile(
-                                      "^[\\n\\r]+[ \\t]*[\\+\\*\\#\\|\\-X]*[ \\t]*"
-                                              + "(\\d+)"
-                                              + "([^\\[]+)"
-                                              + "(\\[.\\])?"
-                                              + "\\s*\\|?\\s*"
-                                              + "Desc: (.*)"
-                                              + "Repr: (a|an|n)(\\.\\.)?(\\d*)$",
-                                      Pattern.MULTILINE +
-                                              Pattern.DOTALL);
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(archive, "IBM850"));
-        StringBuilder buffer = new StringBuilder(1000);
-        String line;
+    /**
+     * Parse every revision of a syntax version's code list directory, each
+     * in one pass, and index them.
+     *
+     * @param revisions
+     *            the revisions' resource names, oldest first
+     * @param data
+     *            the revisions' content, in the same order
+     * @param dictionaries
+     *            cache owning the index's canonical strings and code lists
+     */
+    static CodeListIndex indexCodeLists(List<String> revisions, List<byte[]> data, DictionaryCache dictionaries) throws IOException {
+        CodeListIndex.Builder builder = new CodeListIndex.Builder(dictionaries);
+
+        for (int i = 0; i < revisions.size(); i++) {
+            builder.add(revisionName(revisions.get(i)), parseCodeList(new ByteArrayInputStream(data.get(i)), dictionaries));
+        }
 
-        while ((line = reader.readLine()) != null) {
-            line = line.trim();
-            buffer.append(line);
-            buffer.append('\n');
+        return builder.build();
+    }
 
-            if (!line.startsWith("Repr:")) {
-                continue;
-            }
+    /**
+     * @return the name of the innermost entry of a code list resource, e.g.
+     *         {@code unsl.99a}
+     */
+    static String revisionName(String resource) {
+        return resource.substring(resource.lastIndexOf('$') + 1);
+    }
 
-            Matcher m = def.matcher(buffer.toString());
+    void loadElements(InputStream archive, Map<String, CodeValues> codeList) throws IOException {
+        ElementDirectoryReader reader = new ElementDirectoryReader(new InputStreamReader(archive, "IBM850"), dictionaries.strings);
 
-            if (m.find()) {
-                String number = m.group(1).trim();
-                String id = "DE" + number;
-                String title = m.group(2).trim();
-                String desc = m.group(4).trim().replaceAll("[\\r\\n ]+", " ");
-                String base = m.group(5);
-                final int max = Integer.parseInt(m.group(7));
-                final int min = m.group(6) != null ? 0 : max;
-                final ElementBaseType baseCode;
+        while (reader.next()) {
+            String id = reader.getId();
+            String base = reader.getBase();
+            final int max = reader.getMaxLength();
+            final int min = reader.getMinLength();
+            final ElementBaseType baseCode;
 
-                boolean identifier = false;
+            boolean identifier = false;
 
-                if ("a".equals(base)) {
-                    if (codeList.containsKey(id)) {
-                        identifier = true;
-                        baseCode = ElementBaseType.IDENTIFIER;
-                    } else {
-                        baseCode = ElementBaseType.STRING;
-                    }
-                } else if ("an".equals(base)) {
-                    if (codeList.containsKey(id)) {
-                        identifier = true;
-                        baseCode = ElementBaseType.IDENTIFIER;
-                    } else {
-                        baseCode = ElementBaseType.STRING;
-                    }
+            if ("a".equals(base)) {
+                if (codeList.containsKey(id)) {
+                    identifier = true;
+                    baseCode = ElementBaseType.IDENTIFIER;
                 } else {
-                    baseCode = ElementBaseType.DECIMAL;
+                    baseCode = ElementBaseType.STRING;
                 }
-
-                final ElementType element = new ElementType();
-                element.setName(id);
-                element.setCode(Integer.valueOf(number).toString());
-
-                if (includeTitles) {
-                    element.setTitle(title);
-                    element.setDescription(desc);
+            } else if ("an".equals(base)) {
+                if (codeList.containsKey(id)) {
+                    identifier = true;
+                    baseCode = ElementBaseType.IDENTIFIER;
+                } else {
+                    baseCode = ElementBaseType.STRING;
                 }
+            } else {
+                baseCode = ElementBaseType.DECIMAL;
+            }
 
-                element.setBase(baseCode);
-                element.setMinLength(min > 1 ? BigInteger.valueOf(min) : null);
-                element.setMaxLength(max != 1 ? BigInteger.valueOf(max) : null);
+            final ElementType element = new ElementType();
+            element.setName(id);
+            element.setCode(reader.getCode());
 
-                if (identifier) {
-                    element.setEnumeration(codeList.get(id).stream().map(v -> {
-                        var val = new Value();
-                        val.setValue(v);
-                        return val;
-                    }).collect(Collectors.toList()));
-                }
+            if (includeTitles) {
+                element.setTitle(reader.getTitle());
+                element.setDescription(reader.getDescription());
+            }
 
-                types.put(id, element);
-                //schema.getElementTypeOrCompositeTypeOrSegmentType().add(element);
+            element.setBase(baseCode);
+            element.setMinLength(min > 1 ? BigInteger.valueOf(min) : null);
+            element.setMaxLength(max != 1 ? BigInteger.valueOf(max) : null);
 
-                if (log.isDebugEnabled()) {
-                    log.debug(id + " | " + title + " | " + desc + " | " + base + "(" + min + "," + max
-                            + ") | identifier: " + identifier);
-                }
+            if (identifier) {
+                element.setEnumeration(codeList.get(id));
+            }
 
-                buffer.setLength(0);
+            types.put(id, element);
+
+            if (log.isDebugEnabled()) {
+                log.debug("{} | {} | {} | {}({},{}) | identifier: {}",
+                          id, reader.getTitle(), reader.getDescription(), base, min, max, identifier);
             }
         }
 
         reader.close();
     }
 
-    static void loadComposites(InputStream archive) throws IOException {
-        Pattern def = Pattern.compile("^[\\n\\r]+[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*([A-Z0-9]{4})(.*)Desc:(.*)[\\n\\r]{2,}",
-                                      Pattern.MULTILINE + Pattern.DOTALL);
-
-        Pattern elem = Pattern.compile("^\\d{3}\\s+(\\d+).*\\s+(C|M)\\s+(?:a|an|n)(?:\\.\\.)?\\d*(?:\\s+)?(\\d+,?)*$",
-                                       Pattern.MULTILINE + Pattern.DOTALL);
-
+    void loadComposites(InputStream archive) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(archive, "IBM850"));
-        StringBuilder buffer = new StringBuilder(1000);
-        String line;
+        DirectoryTokenizer tokenizer = DirectoryTokenizer.composites(reader);
+        DirectoryTokenizer.Token token;
 
         String id = null;
-        String title = null;
-        String desc = null;
-
-        while ((line = reader.readLine()) != null) {
-            buffer.append(line);
-            buffer.append('\n');
-
-            String buf = buffer.toString();
-            Matcher m = def.matcher(buf);
 
-            if (m.find()) {
-                id = "CE" + m.group(1).trim();
-                title = m.group(2).trim();
-                desc = m.group(3).trim().replaceAll("[\r\n ]+", " ");
+        while ((token = tokenizer.next()) != null) {
+            switch (token) {
+            case HEADER: {
+                id = "CE" + tokenizer.getId();
+                String title = tokenizer.getTitle();
+                String desc = tokenizer.getDescription();
 
                 composite = new CompositeType();
                 composite.setName(id);
@@ -553,80 +1286,45 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
                 types.put(id, composite);
 
                 log.debug("{}|{}|{}", id, title, desc);
-                buffer.setLength(0);
-            } else {
-                Matcher m2 = elem.matcher(buf);
-
-                if (m2.find()) {
-                    String refId = "DE" + m2.group(1);
-                    ElementStandard elementRef = new ElementStandard();
-                    if (!types.containsKey(refId)) {
-                        throw new RuntimeException("Referenced ID " + refId + " does not exist");
-                    }
-                    elementRef.setType(refId);
-                    int min = "M".equals(m2.group(2)) ? 1 : 0;
-                    elementRef.setMinOccurs(min != 0 ? BigInteger.valueOf(min) : null);
-                    composite.getSequence().add(elementRef);
-
-                    log.debug("\t\t{}", refId);
-                    buffer.setLength(0);
-                } else {
-                    Syntax s = loadSyntax(id, buf);
-                    if (s != null) {
-                        composite.getSyntax().add(s);
-                        buffer.setLength(0);
-                    }
+                break;
+            }
+            case ENTRY: {
+                MatchResult m2 = tokenizer.getEntry();
+                String refId = "DE" + m2.group(1);
+                ElementStandard elementRef = new ElementStandard();
+                if (!types.containsKey(refId)) {
+                    throw new RuntimeException("Referenced ID " + refId + " does not exist");
                 }
+                elementRef.setType(refId);
+                int min = "M".equals(m2.group(2)) ? 1 : 0;
+                elementRef.setMinOccurs(min != 0 ? BigInteger.valueOf(min) : null);
+                composite.getSequence().add(elementRef);
+
+                log.debug("\t\t{}", refId);
+                break;
+            }
+            case SYNTAX:
+                composite.getSyntax().add(loadSyntax(id, tokenizer.getSyntaxText()));
+                break;
             }
         }
 
         reader.close();
     }
 
-    static void loadSegments(InputStream archive) throws IOException {
-        Pattern def = Pattern.compile(""
-                + "^\\s*"
-                + "[\\n\\r]+[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*"
-                + "([A-Z0-9]{3})"
-                + "(.*)"
-                + "Function:(.*)"
-                + "[\\n\\r]{2,}",
-                                      Pattern.MULTILINE + Pattern.DOTALL);
-
-        Pattern entr = Pattern.compile(""
-                + "^"
-                + "\\d{3}"
-                + "\\s+[\\+\\*\\#\\|\\-X]*\\s+"
-                + "([A-Z0-9]{4})"
-                + "(.*)"
-                + "\\s+"
-                + "(C|M)"
-                + "\\s+"
-                + "(\\d+)?"
-                + "(\\s+(?:a|an|n)(?:\\.\\.)?\\d*)?"
-                + "(?:\\s+)?(\\d+,?)*"
-                + "$",
-                                       Pattern.MULTILINE + Pattern.DOTALL);
-
+    void loadSegments(InputStream archive) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(archive, "IBM850"));
-        StringBuilder buffer = new StringBuilder(1000);
-        String line;
+        DirectoryTokenizer tokenizer = DirectoryTokenizer.segments(reader);
+        DirectoryTokenizer.Token token;
 
         String id = null;
-        String title = null;
-        String desc = null;
 
-        while ((line = reader.readLine()) != null) {
-            buffer.append(line);
-            buffer.append('\n');
-
-            String buf = buffer.toString();
-            Matcher m = def.matcher(buf);
-
-            if (m.find()) {
-                id = m.group(1).trim();
-                title = m.group(2).trim();
-                desc = m.group(3).trim().replaceAll("[\\r\\n ]+", " ");
+        while ((token = tokenizer.next()) != null) {
+            switch (token) {
+            case HEADER: {
+                id = tokenizer.getId();
+                String title = tokenizer.getTitle();
+                String desc = tokenizer.getDescription();
 
                 segment = new SegmentType();
                 segment.setName(id);
@@ -640,316 +1338,352 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
                 types.put(id, segment);
 
                 log.debug("{}|{}|{}", id, title, desc);
+                break;
+            }
+            case ENTRY: {
+                MatchResult m2 = tokenizer.getEntry();
+                BaseType ref;
+                long minOccurs = "M".equals(m2.group(3)) ? 1 : 0;
+                String max = m2.group(4);
+                long maxOccurs = (max == null) ? 1 : Integer.parseInt(max);
+                String refId;
+
+                if (m2.group(5) != null) {
+                    ElementStandard std = new ElementStandard();
+                    refId = "DE" + m2.group(1);
+                    std.setType(refId);
+                    std.setMinOccurs(minOccurs != 0 ? BigInteger.valueOf(minOccurs) : null);
+                    std.setMaxOccurs(maxOccurs != 1 ? BigInteger.valueOf(maxOccurs) : null);
+                    ref = std;
+                } else {
+                    CompositeStandard std = new CompositeStandard();
+                    refId = "CE" + m2.group(1);
+                    std.setType(refId);
+                    std.setMinOccurs(minOccurs != 0 ? BigInteger.valueOf(minOccurs) : null);
+                    std.setMaxOccurs(maxOccurs != 1 ? BigInteger.valueOf(maxOccurs) : null);
+                    ref = std;
+                }
 
-                buffer.setLength(0);
-            } else {
-                Matcher m2 = entr.matcher(buf);
-
-                if (m2.find()) {
-                    BaseType ref;
-                    long minOccurs = "M".equals(m2.group(3)) ? 1 : 0;
-                    String max = m2.group(4);
-                    long maxOccurs = (max == null) ? 1 : Integer.parseInt(max);
-                    String refId;
-
-                    if (m2.group(5) != null) {
-                        ElementStandard std = new ElementStandard();
-                        refId = "DE" + m2.group(1);
-                        std.setType(refId);
-                        std.setMinOccurs(minOccurs != 0 ? BigInteger.valueOf(minOccurs) : null);
-                        std.setMaxOccurs(maxOccurs != 1 ? BigInteger.valueOf(maxOccurs) : null);
-                        ref = std;
-                    } else {
-                        CompositeStandard std = new CompositeStandard();
-                        refId = "CE" + m2.group(1);
-                        std.setType(refId);
-                        std.setMinOccurs(minOccurs != 0 ? BigInteger.valueOf(minOccurs) : null);
-                        std.setMaxOccurs(maxOccurs != 1 ? BigInteger.valueOf(maxOccurs) : null);
-                        ref = std;
-                    }
-
-                    if (!types.containsKey(refId)) {
-                        throw new RuntimeException("Referenced ID " + refId + " does not exist");
-                    }
+                if (!types.containsKey(refId)) {
+                    throw new RuntimeException("Referenced ID " + refId + " does not exist");
+                }
 
-                    segment.getSequence().add(ref);
+                segment.getSequence().add(ref);
 
-                    if (log.isDebugEnabled()) {
-                        log.debug("\t\t{} {}", m2.group(1), m2.group(2).replaceAll("[\\r\\n ]+", " "));
-                    }
-                    buffer.setLength(0);
-                } else {
-                    Syntax s = loadSyntax(id, buf);
-                    if (s != null) {
-                        segment.getSyntax().add(s);
-                        buffer.setLength(0);
-                    }
+                if (log.isDebugEnabled()) {
+                    log.debug("\t\t{} {}", m2.group(1), m2.group(2).replaceAll("[\\r\\n ]+", " "));
                 }
+                break;
+            }
+            case SYNTAX:
+                segment.getSyntax().add(loadSyntax(id, tokenizer.getSyntaxText()));
+                break;
             }
         }
 
         reader.close();
     }
 
-    static void loadMessages(InputStream archive, String version) throws IOException {
-        final Pattern loopPattern = Pattern.compile("^\\d+ +.* +([MC]) +(\\d+).*$");
-        final Pattern segmentPattern = Pattern.compile("(^\\d+) +[\\+\\*\\#\\|\\-X]? +([A-Z]{3}).* +([MC]) +(\\d+)( *)([^A-Z0-9a-z ]*)$");
-
+    /**
+     * Load the message layouts of a messages archive into
+     * {@link #messages}, with their digests. The archive is read (and
+     * decompressed) by the calling thread. When a pool of
+     * {@link #messageParsers} is given, the segment table of each message is
+     * then parsed on the pool, which requires the types of the release to be
+     * complete; the messages are added once all are parsed, in the order of
+     * the archive, so that the result does not depend on the pool.
+     */
+    void loadMessages(InputStream archive, String version) throws IOException {
         ZipInputStream zis = new ZipInputStream(archive);
-        BufferedReader reader;
-
         ZipEntry entry;
-        Schema messageSchema = null;
+        List<String> names = new ArrayList<>();
+        List<String> digests = new ArrayList<>();
+        List<CompletableFuture<Schema>> schemas = new ArrayList<>();
 
         while ((entry = zis.getNextEntry()) != null) {
-            String name = entry.getName().toUpperCase();
-            int uscore = name.indexOf('_');
-            int slash = name.lastIndexOf('/');
-
-            if (uscore < 0) {
-                if (name.startsWith("CONTRL")) {
-                    int period = name.indexOf('.');
-                    name = name.substring(slash + 1, period);
-                } else {
-                    continue;
-                }
+            String name = messageName(entry);
+
+            if (name == null) {
+                continue;
+            }
+
+            String key = correctionKey(version, name);
+            final byte[] data = readMessage(zis, version, name);
+
+            names.add(name);
+            digests.add(new GenerationManifest.Digest().update(key).update(data).value());
+
+            if (messageParsers != null) {
+                schemas.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return parseMessage(name, version, data);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, messageParsers));
             } else {
-                name = name.substring(slash + 1, uscore);
+                schemas.add(CompletableFuture.completedFuture(parseMessage(name, version, data)));
             }
+        }
 
-            String key = "edifact/directories/corrections/" + version + ".messages." + name;
+        for (int i = 0; i < names.size(); i++) {
+            final Schema messageSchema;
 
-            log.info("Message: {}; release: {}", name, version);
-            final InputStream correction = getInputStream(key);
-            final Reader input;
+            try {
+                messageSchema = schemas.get(i).join();
+            } catch (CompletionException e) {
+                Exception cause = unwrap(e);
 
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+
+            messages.put(names.get(i), messageSchema);
+            messageDigests.put(names.get(i), digests.get(i));
+        }
+    }
+
+    /**
+     * Read the segment table of a message from the current entry of the
+     * messages archive, or from its corrected layout when one is present.
+     */
+    byte[] readMessage(ZipInputStream zis, String version, String name) throws IOException {
+        String key = correctionKey(version, name);
+        GenerationMetrics.Measurement measurement = metrics.start(GenerationMetrics.Phase.RESOLVE, releaseName, name);
+        final byte[] data;
+
+        try (InputStream correction = archives.getInputStream(key, measurement)) {
             if (correction != null) {
                 log.info("Loading corrected message layout: {}", key);
-                input = new InputStreamReader(correction, "IBM850");
+                data = correction.readAllBytes();
             } else {
-                input = new InputStreamReader(zis, "IBM850");
+                data = zis.readAllBytes();
             }
+        }
 
-            reader = new BufferedReader(input);
-
-            String line;
-            boolean table = false;
-            int lastDepth = 0;
-            int loopCount = 0;
-            messageSchema = new Schema();
-            Deque<List<BaseType>> refStack = new ArrayDeque<>();
-            Deque<Integer> loopIds = new ArrayDeque<>();
-            Deque<String> loopUses = new ArrayDeque<>();
-            Deque<String> loopMaxes = new ArrayDeque<>();
-            List<BaseType> refs;
-
-            refs = new ArrayList<>();
-            refStack.add(refs);
-
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("4.3.1  Segment table")) {
-                    table = true;
-                    continue;
-                }
+        measurement.bytesRead(data.length).entries(1).end();
+        return data;
+    }
 
-                if (!table) {
-                    continue;
-                }
+    /**
+     * Parse the segment table of a message into a schema with the message's
+     * layout and types, and log a summary of the message. Only the (complete)
+     * types of the release are shared with other messages. The nesting of the
+     * message's loops is traced as configured by {@link LoopTrace#PROPERTY}
+     * and logged after the summary, or when the table can not be parsed.
+     */
+    Schema parseMessage(String name, String version, byte[] data) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(GenerationMetrics.Phase.MESSAGE_TABLE, releaseName, name);
+        LoopTrace trace = LoopTrace.create();
+        Schema messageSchema;
+
+        try {
+            messageSchema = parseSegmentTable(name, data, trace);
+        } catch (IOException | RuntimeException e) {
+            if (trace.isEnabled()) {
+                log.error("Message: {}; release: {} - loop trace:\n{}", name, version, trace);
+            }
+            throw e;
+        }
 
-                line = line.trim();
-                Matcher m = segmentPattern.matcher(line);
-
-                if (m.matches()) {
-                    @SuppressWarnings("unused")
-                    String pos = m.group(1);
-                    String tag = m.group(2);
-                    String use = m.group(3);
-                    String max = m.group(4);
-                    String gap = m.group(5);
-                    String lne = m.group(6);
-
-                    int depth;
-
-                    if (gap.isEmpty()) {
-                        if (lne.length() > 0) {
-                            depth = lastDepth;
-                        } else {
-                            depth = 0;
-                            while (refStack.size() > 1) {
-                                int loopId = loopIds.removeLast();
-                                lastDepth--;
-                                StringBuilder tabs = new StringBuilder(lastDepth);
-                                for (int i = 0; i < lastDepth; i++) {
-                                    tabs.append('\t');
-                                }
-
-                                log.info("{}END-LOOP." + loopId + " | " + lastDepth + "<-- LEVEL ZERO SEGMENT", tabs);
-
-                                refs = refStack.removeLast();
-                                String id = String.format("L%04d", loopId);
-
-                                LoopStandard l = new LoopStandard();
-                                l.setCode(id);
-                                setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
-                                l.getSequence().addAll(refs);
-
-                                refs = refStack.getLast();
-                                refs.add(l);
-                            }
-                        }
-                    } else {
-                        depth = lne.length();
-
-                        if (depth > lastDepth) {
-                            refs = new ArrayList<>();
-                            refStack.add(refs);
-                        } else if (depth < lastDepth) {
-                            while (refStack.size() > depth + 1) {
-                                int loopId = loopIds.removeLast();
-                                lastDepth--;
-                                StringBuilder tabs = new StringBuilder(lastDepth);
-                                for (int i = 0; i < lastDepth; i++) {
-                                    tabs.append('\t');
-                                }
-
-                                log.info("{}END-LOOP." + loopId + " | " + lastDepth + " <-- DECREASED DEPTH", tabs);
-
-                                refs = refStack.removeLast();
-                                String id = String.format("L%04d", loopId);
-
-                                LoopStandard l = new LoopStandard();
-                                l.setCode(id);
-                                setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
-                                l.getSequence().addAll(refs);
-
-                                refs = refStack.getLast();
-                                refs.add(l);
-                            }
-                            refs = refStack.getLast();
-                        }
-                    }
+        if (trace.isEnabled()) {
+            log.info("Message: {}; release: {} - loop trace:\n{}", name, version, trace);
+        }
+
+        int[] counts = new int[3];
+        countLayout(((Transaction) messageSchema.getLayout().get(0)).getSequence(), 0, counts);
+        log.info("Message: {}; release: {} - {} segments, {} loops, depth {}, {} types",
+                 name,
+                 version,
+                 counts[0],
+                 counts[1],
+                 counts[2],
+                 messageSchema.getTypes().size());
+
+        measurement.bytesRead(data.length).entries(counts[0] + counts[1]).types(messageSchema.getTypes().size()).end();
+
+        return messageSchema;
+    }
 
-                    if (!"UNH".equals(tag) && !"UNT".equals(tag)) {
-                        log.info("{}" + tag + " | " + use + " | " + max + " | " + depth, "\t".repeat(depth));
+    /**
+     * Parse the segment table of a message, recording the loop nesting to the
+     * trace.
+     */
+    Schema parseSegmentTable(String name, byte[] data, LoopTrace trace) throws IOException {
+        final Reader input = new InputStreamReader(new ByteArrayInputStream(data), "IBM850");
+        BufferedReader reader = new BufferedReader(input);
 
-                        SegmentStandard seg = new SegmentStandard();
+        String line;
+        boolean table = false;
+        int loopCount = 0;
+        Schema messageSchema = new Schema();
+        TypeClosure.SchemaTypes messageTypes = closure.of(messageSchema);
+        OpenLoops loops = new OpenLoops(trace);
 
-                        if ("M".equals(use)) {
-                            seg.setMinOccurs(BigInteger.valueOf(1));
-                        }
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("4.3.1  Segment table")) {
+                table = true;
+                continue;
+            }
 
-                        int maxOccurs = Integer.parseInt(max);
-                        if (maxOccurs > 1) {
-                            seg.setMaxOccurs(BigInteger.valueOf(maxOccurs));
-                        }
+            if (!table) {
+                continue;
+            }
 
-                        //Object referenced = types.get(tag);
-                        seg.setType(fetchSegment(messageSchema, tag));
-                        //refs.add(seg);
-                        refStack.getLast().add(seg);
+            line = line.trim();
+            Matcher m = MESSAGE_SEGMENT.matcher(line);
+
+            if (m.matches()) {
+                @SuppressWarnings("unused")
+                String pos = m.group(1);
+                String tag = m.group(2);
+                String use = m.group(3);
+                String max = m.group(4);
+                String gap = m.group(5);
+                String lne = m.group(6);
+
+                int depth;
+
+                if (gap.isEmpty()) {
+                    if (lne.length() > 0) {
+                        depth = loops.lastDepth;
+                    } else {
+                        depth = 0;
+                        loops.closeLoops(0, LoopTrace.Cause.LEVEL_ZERO_SEGMENT);
                     }
+                } else {
+                    depth = lne.length();
 
-                    if (gap.isEmpty() && lne.length() > 0) {
-                        int closeCount;
+                    if (depth > loops.lastDepth) {
+                        loops.refStack.add(new ArrayList<>());
+                    } else if (depth < loops.lastDepth) {
+                        loops.closeLoops(depth, LoopTrace.Cause.DECREASED_DEPTH);
+                    }
+                }
 
-                        if (lne.indexOf('-') > 0) {
-                            closeCount = lne.lastIndexOf('+') - lne.lastIndexOf('-');
-                        } else {
-                            closeCount = lne.lastIndexOf('┘') - lne.lastIndexOf('─');
-                        }
+                if (!"UNH".equals(tag) && !"UNT".equals(tag)) {
+                    trace.segment(tag, use, max, depth);
 
-                        while (closeCount-- > 0) {
-                            lastDepth = --depth;
-                            int loopId = loopIds.removeLast();
-                            log.info("{}END-LOOP." + loopId + " | " + lastDepth + " <-- SEGMENT LINES", "\t".repeat(lastDepth));
+                    SegmentStandard seg = new SegmentStandard();
 
-                            refs = refStack.removeLast();
-                            String id = String.format("L%04d", loopId);
+                    if ("M".equals(use)) {
+                        seg.setMinOccurs(BigInteger.valueOf(1));
+                    }
 
-                            LoopStandard l = new LoopStandard();
-                            l.setCode(id);
-                            setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
-                            l.getSequence().addAll(refs);
+                    int maxOccurs = Integer.parseInt(max);
+                    if (maxOccurs > 1) {
+                        seg.setMaxOccurs(BigInteger.valueOf(maxOccurs));
+                    }
 
-                            refs = refStack.getLast();
-                            refs.add(l);
-                        }
+                    seg.setType(fetchSegment(messageTypes, tag));
+                    loops.refStack.getLast().add(seg);
+                }
+
+                if (gap.isEmpty() && lne.length() > 0) {
+                    int closeCount;
+
+                    if (lne.indexOf('-') > 0) {
+                        closeCount = lne.lastIndexOf('+') - lne.lastIndexOf('-');
                     } else {
-                        lastDepth = depth;
-                    }
-                } else if ((m = loopPattern.matcher(line)).matches()) {
-                    loopCount++;
-                    loopIds.add(loopCount);
-                    loopUses.addLast(m.group(1));
-                    loopMaxes.addLast(m.group(2));
-                    StringBuilder tabs = new StringBuilder(lastDepth);
-                    for (int i = 0; i < lastDepth; i++) {
-                        tabs.append('\t');
+                        closeCount = lne.lastIndexOf('┘') - lne.lastIndexOf('─');
                     }
-                    log.info("{}LOOP.{} | {} | {} | {}", tabs, String.valueOf(loopCount), loopUses.peekLast(), loopMaxes.peekLast(), lastDepth);
-
-                    refs = new ArrayList<>();
-                    refStack.add(refs);
-                    lastDepth++;
-                } else if (line.isEmpty()) {
-                    while (refStack.size() > 1) {
-                        int loopId = loopIds.removeLast();
-                        lastDepth--;
-                        StringBuilder tabs = new StringBuilder(lastDepth);
-                        for (int i = 0; i < lastDepth; i++) {
-                            tabs.append('\t');
-                        }
-
-                        log.info("{}END-LOOP." + loopId + " | " + lastDepth + "<-- BLANK LINE", tabs);
-
-                        refs = refStack.removeLast();
-                        String id = String.format("L%04d", loopId);
-
-                        LoopStandard l = new LoopStandard();
-                        l.setCode(id);
-                        setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
-                        l.getSequence().addAll(refs);
-
-                        refs = refStack.getLast();
-                        refs.add(l);
+
+                    while (closeCount-- > 0) {
+                        loops.closeLoop(LoopTrace.Cause.SEGMENT_LINES);
                     }
-                    lastDepth = 0;
                 } else {
-                    int depth = line.trim().length();
-                    if (depth < lastDepth) {
-                        while (refStack.size() > depth + 1) {
-                            int loopId = loopIds.removeLast();
-                            lastDepth--;
-                            StringBuilder tabs = new StringBuilder(lastDepth);
-                            for (int i = 0; i < lastDepth; i++) {
-                                tabs.append('\t');
-                            }
-
-                            log.info("{}END-LOOP." + loopId + " | " + lastDepth + " <-------- NONBLANK", tabs);
-
-                            refs = refStack.removeLast();
-                            String id = String.format("L%04d", loopId);
-
-                            LoopStandard l = new LoopStandard();
-                            l.setCode(id);
-                            setLoopOccurs(l, loopUses.removeLast(), loopMaxes.removeLast());
-                            l.getSequence().addAll(refs);
-
-                            refs = refStack.getLast();
-                            refs.add(l);
-                        }
-                        refs = refStack.getLast();
-                        lastDepth = depth;
-                    }
+                    loops.lastDepth = depth;
                 }
+            } else if ((m = MESSAGE_LOOP.matcher(line)).matches()) {
+                loops.openLoop(++loopCount, m.group(1), m.group(2));
+            } else if (line.isEmpty()) {
+                loops.closeLoops(0, LoopTrace.Cause.BLANK_LINE);
+                loops.lastDepth = 0;
+            } else {
+                int depth = line.trim().length();
+                if (depth < loops.lastDepth) {
+                    loops.closeLoops(depth, LoopTrace.Cause.NONBLANK);
+                    loops.lastDepth = depth;
+                }
+            }
+        }
+
+        Transaction main = new Transaction();
+        main.setSequence(loops.refStack.getFirst());
+
+        messageSchema.getLayout().add(main);
+        GenerationMetrics.Measurement sort = metrics.start(GenerationMetrics.Phase.SORT, releaseName, name);
+        messageTypes.sort();
+        sort.types(messageSchema.getTypes().size()).end();
+        return messageSchema;
+    }
+
+    /**
+     * Count the segments and loops of a layout, and its maximum depth.
+     *
+     * @param counts
+     *            the segments, loops and depth counted so far
+     */
+    static void countLayout(List<BaseType> sequence, int depth, int[] counts) {
+        counts[2] = Math.max(counts[2], depth);
+
+        for (BaseType entry : sequence) {
+            if (entry instanceof LoopStandard) {
+                counts[1]++;
+                countLayout(((LoopStandard) entry).getSequence(), depth + 1, counts);
+            } else {
+                counts[0]++;
+            }
+        }
+    }
+
+    /**
+     * Determine the message name of an entry in a messages archive.
+     *
+     * @return the message name, or null if the entry is not a message
+     */
+    static String messageName(ZipEntry entry) {
+        String name = entry.getName().toUpperCase();
+        int uscore = name.indexOf('_');
+        int slash = name.lastIndexOf('/');
+
+        if (uscore < 0) {
+            if (name.startsWith("CONTRL")) {
+                int period = name.indexOf('.');
+                return name.substring(slash + 1, period);
             }
+            return null;
+        }
+
+        return name.substring(slash + 1, uscore);
+    }
+
+    static String correctionKey(String version, String name) {
+        return "edifact/directories/corrections/" + version + ".messages." + name;
+    }
+
+    /**
+     * Update the digest with the corrected message layouts that override
+     * messages of the archive.
+     */
+    void digestCorrections(byte[] archive, String version, GenerationManifest.Digest digest) throws IOException {
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(archive));
+        ZipEntry entry;
 
-            Transaction main = new Transaction();
-            main.setSequence(refStack.getFirst());
+        while ((entry = zis.getNextEntry()) != null) {
+            String name = messageName(entry);
 
-            messageSchema.getLayout().add(main);
+            if (name != null) {
+                String key = correctionKey(version, name);
 
-            messages.put(name, messageSchema);
+                try (InputStream correction = archives.getInputStream(key)) {
+                    if (correction != null) {
+                        digest.update(key, correction.readAllBytes());
+                    }
+                }
+            }
         }
     }
 
@@ -1015,22 +1749,23 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
         return null;
     }
 
-    static void buildControlStructure(Schema schema) {
+    void buildControlStructure(Schema schema) {
+        TypeClosure.SchemaTypes schemaTypes = closure.of(schema);
         Interchange main = new Interchange();
-        main.setHeader(fetchSegment(schema, "UNB"));
-        main.setTrailer(fetchSegment(schema, "UNZ"));
+        main.setHeader(fetchSegment(schemaTypes, "UNB"));
+        main.setTrailer(fetchSegment(schemaTypes, "UNZ"));
 
         GroupControlType group = new GroupControlType();
-        group.setHeader(fetchSegment(schema, "UNG"));
-        group.setTrailer(fetchSegment(schema, "UNE"));
+        group.setHeader(fetchSegment(schemaTypes, "UNG"));
+        group.setTrailer(fetchSegment(schemaTypes, "UNE"));
         TransactionControlType groupTransaction = new TransactionControlType();
-        groupTransaction.setHeader(fetchSegment(schema, "UNH"));
-        groupTransaction.setTrailer(fetchSegment(schema, "UNT"));
+        groupTransaction.setHeader(fetchSegment(schemaTypes, "UNH"));
+        groupTransaction.setTrailer(fetchSegment(schemaTypes, "UNT"));
         group.setTransaction(groupTransaction);
 
         TransactionControlType transaction = new TransactionControlType();
-        transaction.setHeader(fetchSegment(schema, "UNH"));
-        transaction.setTrailer(fetchSegment(schema, "UNT"));
+        transaction.setHeader(fetchSegment(schemaTypes, "UNH"));
+        transaction.setTrailer(fetchSegment(schemaTypes, "UNT"));
 
         Interchange.Sequence sequence = new Interchange.Sequence();
         sequence.setGroup(group);
@@ -1045,37 +1780,13 @@ public class EdifactSchemaXmlGenerator extends XmlGenerator {
         main.getSyntax().add(interchangeSyntax);
 
         schema.getLayout().add(main);
+        GenerationMetrics.Measurement sort = metrics.start(GenerationMetrics.Phase.SORT, releaseName, releaseName);
+        schemaTypes.sort();
+        sort.types(schema.getTypes().size()).end();
     }
 
-    static String fetchSegment(Schema messageSchema, String id) {
-        addIfAbsent(messageSchema, id);
+    String fetchSegment(TypeClosure.SchemaTypes messageTypes, String id) {
+        messageTypes.add(id);
         return id;
     }
-
-    static void addIfAbsent(Schema messageSchema, String typeId) {
-        BaseType type = types.get(typeId);
-        List<BaseType> schemaTypes = messageSchema.getTypes();
-
-        if (!schemaTypes.contains(type)) {
-            schemaTypes.add(type);
-
-            if (type instanceof SegmentType) {
-                for (BaseType target : ((SegmentType) type).getSequence()) {
-                    if (target instanceof ElementStandard) {
-                        addIfAbsent(messageSchema, ((ElementStandard) target).getType());
-                    } else if (target instanceof CompositeStandard) {
-                        addIfAbsent(messageSchema, ((CompositeStandard) target).getType());
-                    }
-                }
-            } else if (type instanceof CompositeType) {
-                for (BaseType target : ((CompositeType) type).getSequence()) {
-                    if (target instanceof ElementStandard) {
-                        addIfAbsent(messageSchema, ((ElementStandard) target).getType());
-                    }
-                }
-            }
-        } else {
-            log.debug("{} already in messageTypes", type);
-        }
-    }
 }
@@ -0,0 +1,499 @@
+package io.xlate.edi.schematools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reader of the UN/EDIFACT data element directory (EDED). Each call to
+ * {@link #next()} advances to the next element declaration, i.e. an element
+ * number and title, its {@code Desc:} and its {@code Repr:}:
+ *
+ * <pre>
+ *      1000  Document name                                           [C]
+ *
+ *      Desc: Name of a document.
+ *
+ *      Repr: an..35
+ * </pre>
+ *
+ * Lines are read (and trimmed) directly into a character window holding the
+ * lines since the previous declaration, and each declaration is recognized
+ * within that window when a {@code Repr:} line is read, with the same
+ * results as the pattern
+ *
+ * <pre>
+ * ^[\n\r]+[ \t]*[+*#|\-X]*[ \t]*(\d+)([^\[]+)(\[.\])?\s*\|?\s*Desc: (.*)Repr: (a|an|n)(\.\.)?(\d*)$
+ * </pre>
+ *
+ * (multi-line and dot-all) formerly applied to the window as a String. The
+ * values of a declaration are created only when requested, and (other than
+ * the free-text description) are {@link StringInterner interned}.
+ */
+class ElementDirectoryReader implements Closeable {
+
+    static final String[] BASES = { "a", "an", "n" };
+    static final char[][] BASE_CHARS = { { 'a' }, { 'a', 'n' }, { 'n' } };
+    static final char[] DESC = "Desc: ".toCharArray();
+    static final char[] REPR = "Repr: ".toCharArray();
+    static final String INDICATORS = "+*#|-X";
+
+    private final Reader reader;
+    private final StringInterner strings;
+    private final char[] input = new char[8192];
+    private int position;
+    private int limit;
+    private boolean skipLF;
+
+    private char[] window = new char[1024];
+    private int length;
+    private boolean matched;
+    private char[] scratch = new char[256];
+
+    // Declaration found in the window
+    private int numberStart;
+    private int numberEnd;
+    private int titleEnd;
+    private int descriptionStart;
+    private int descriptionEnd;
+    private int base;
+    private boolean variable;
+    private int lengthStart;
+    private int lengthEnd;
+
+    /**
+     * @param strings
+     *            table of the values' canonical strings
+     */
+    ElementDirectoryReader(Reader reader, StringInterner strings) {
+        this.reader = reader;
+        this.strings = strings;
+    }
+
+    /**
+     * Advance to the next element declaration.
+     *
+     * @return false when no further declaration exists
+     */
+    boolean next() throws IOException {
+        if (matched) {
+            length = 0;
+            matched = false;
+        }
+
+        int start;
+
+        while ((start = readLine()) >= 0) {
+            if (regionMatches(start, REPR, 5) && match()) {
+                matched = true;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    String getNumber() {
+        return strings.intern(window, numberStart, numberEnd);
+    }
+
+    /**
+     * @return the element's identifier, {@code DE} followed by its number
+     */
+    String getId() {
+        int count = numberEnd - numberStart;
+        char[] chars = scratch(count + 2);
+        chars[0] = 'D';
+        chars[1] = 'E';
+        System.arraycopy(window, numberStart, chars, 2, count);
+        return strings.intern(chars, 0, count + 2);
+    }
+
+    /**
+     * @return the element's number without leading zeros
+     */
+    String getCode() {
+        if (numberEnd - numberStart > 9) {
+            return Integer.valueOf(getNumber()).toString();
+        }
+
+        int start = numberStart;
+
+        while (start < numberEnd - 1 && window[start] == '0') {
+            start++;
+        }
+
+        return strings.intern(window, start, numberEnd);
+    }
+
+    String getTitle() {
+        int start = numberEnd;
+        int end = titleEnd;
+
+        while (start < end && window[start] <= ' ') {
+            start++;
+        }
+        while (end > start && window[end - 1] <= ' ') {
+            end--;
+        }
+
+        return strings.intern(window, start, end);
+    }
+
+    /**
+     * @return the description, with each run of spaces and line breaks
+     *         replaced by a single space
+     */
+    String getDescription() {
+        int start = descriptionStart;
+        int end = descriptionEnd;
+
+        while (start < end && window[start] <= ' ') {
+            start++;
+        }
+        while (end > start && window[end - 1] <= ' ') {
+            end--;
+        }
+
+        char[] chars = scratch(end - start);
+        int count = 0;
+        boolean space = false;
+
+        for (int i = start; i < end; i++) {
+            char c = window[i];
+
+            if (c == ' ' || c == '\n' || c == '\r') {
+                space = true;
+            } else {
+                if (space) {
+                    chars[count++] = ' ';
+                    space = false;
+                }
+                chars[count++] = c;
+            }
+        }
+
+        // Descriptions are seldom repeated, not worth keeping in the table
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * @return the representation's character class: {@code a}, {@code an}
+     *         or {@code n}
+     */
+    String getBase() {
+        return BASES[base];
+    }
+
+    int getMaxLength() {
+        int count = lengthEnd - lengthStart;
+
+        if (count == 0 || count > 9) {
+            // Not a valid int (or possibly not), fail as Integer.parseInt
+            return Integer.parseInt(new String(window, lengthStart, count));
+        }
+
+        int value = 0;
+
+        for (int i = lengthStart; i < lengthEnd; i++) {
+            value = value * 10 + (window[i] - '0');
+        }
+
+        return value;
+    }
+
+    int getMinLength() {
+        return variable ? 0 : getMaxLength();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Read the next line into the window, without its leading and trailing
+     * whitespace, and followed by a line feed. Lines end as for
+     * {@link java.io.BufferedReader#readLine()}.
+     *
+     * @return the position of the line in the window, or -1 at the end of
+     *         the input
+     */
+    int readLine() throws IOException {
+        int start = length;
+        int end = start;
+        boolean found = false;
+        boolean leading = true;
+
+        for (;;) {
+            if (position >= limit && !fill()) {
+                if (!found) {
+                    return -1;
+                }
+                break;
+            }
+
+            char c = input[position++];
+
+            if (skipLF) {
+                skipLF = false;
+
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            found = true;
+
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                skipLF = true;
+                break;
+            }
+            if (leading && c <= ' ') {
+                continue;
+            }
+
+            leading = false;
+
+            if (length == window.length) {
+                window = Arrays.copyOf(window, length * 2);
+            }
+
+            window[length++] = c;
+
+            if (c > ' ') {
+                end = length;
+            }
+        }
+
+        length = end;
+
+        if (length == window.length) {
+            window = Arrays.copyOf(window, length * 2);
+        }
+
+        window[length++] = '\n';
+        return start;
+    }
+
+    boolean fill() throws IOException {
+        int count = reader.read(input, 0, input.length);
+        position = 0;
+        limit = Math.max(count, 0);
+        return count > 0;
+    }
+
+    /**
+     * Find the leftmost declaration in the window, trying the alternatives
+     * in the order the pattern's quantifiers would.
+     */
+    boolean match() {
+        int repr = lastRepresentation();
+
+        if (repr < 0) {
+            return false;
+        }
+
+        for (int start = 0; start < length; start++) {
+            if (window[start] != '\n' || (start > 0 && !isLineTerminator(window[start - 1]))) {
+                continue;
+            }
+
+            int p = start;
+
+            while (p < length && window[p] == '\n') {
+                p++;
+            }
+
+            if (matchDeclaration(p, repr)) {
+                return true;
+            }
+
+            // Every start within the run of empty lines continues at p
+            start = p - 1;
+        }
+
+        return false;
+    }
+
+    boolean matchDeclaration(int p, int repr) {
+        while (p < length && (window[p] == ' ' || window[p] == '\t')) {
+            p++;
+        }
+        while (p < length && INDICATORS.indexOf(window[p]) >= 0) {
+            p++;
+        }
+        while (p < length && (window[p] == ' ' || window[p] == '\t')) {
+            p++;
+        }
+
+        int digits = p;
+
+        while (p < length && isDigit(window[p])) {
+            p++;
+        }
+
+        for (int end = p; end > digits; end--) {
+            if (matchTitle(end, repr)) {
+                numberStart = digits;
+                numberEnd = end;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    boolean matchTitle(int start, int repr) {
+        int bracket = start;
+
+        while (bracket < length && window[bracket] != '[') {
+            bracket++;
+        }
+
+        for (int end = bracket; end > start; end--) {
+            int desc = -1;
+
+            if (end + 2 < length && window[end] == '[' && window[end + 2] == ']') {
+                desc = findDescription(end + 3);
+            }
+            if (desc < 0) {
+                desc = findDescription(end);
+            }
+
+            if (desc >= 0 && desc + DESC.length <= repr) {
+                titleEnd = end;
+                descriptionStart = desc + DESC.length;
+                descriptionEnd = repr;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the position of {@code Desc: } following optional whitespace
+     *         and an optional vertical bar, or -1
+     */
+    int findDescription(int p) {
+        p = skipWhitespace(p);
+
+        if (p < length && window[p] == '|') {
+            int q = skipWhitespace(p + 1);
+            return regionMatches(q, DESC, DESC.length) ? q : -1;
+        }
+
+        return regionMatches(p, DESC, DESC.length) ? p : -1;
+    }
+
+    /**
+     * Find the last {@code Repr: } in the window followed by a valid
+     * representation and the end of its line, and record the
+     * representation.
+     *
+     * @return the position of the representation, or -1
+     */
+    int lastRepresentation() {
+        for (int r = length - REPR.length; r >= 0; r--) {
+            if (regionMatches(r, REPR, REPR.length) && matchRepresentation(r + REPR.length)) {
+                return r;
+            }
+        }
+
+        return -1;
+    }
+
+    boolean matchRepresentation(int p) {
+        for (int b = 0; b < BASES.length; b++) {
+            char[] name = BASE_CHARS[b];
+
+            if (!regionMatches(p, name, name.length)) {
+                continue;
+            }
+
+            int q = p + name.length;
+
+            if (q + 1 < length && window[q] == '.' && window[q + 1] == '.' && matchLength(q + 2)) {
+                base = b;
+                variable = true;
+                return true;
+            }
+
+            if (matchLength(q)) {
+                base = b;
+                variable = false;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    boolean matchLength(int p) {
+        int q = p;
+
+        while (q < length && isDigit(window[q])) {
+            q++;
+        }
+
+        if (q == length || isLineTerminator(window[q])) {
+            lengthStart = p;
+            lengthEnd = q;
+            return true;
+        }
+
+        return false;
+    }
+
+    int skipWhitespace(int p) {
+        while (p < length && isWhitespace(window[p])) {
+            p++;
+        }
+        return p;
+    }
+
+    boolean regionMatches(int p, char[] text, int count) {
+        if (p + count > length) {
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (window[p + i] != text[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    char[] scratch(int count) {
+        if (scratch.length < count) {
+            scratch = new char[Math.max(count, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Whitespace as matched by {@code \s} in a pattern.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Line terminators recognized by {@code ^} and {@code $} in a
+     * multi-line pattern.
+     */
+    static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,315 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record of the inputs used to generate each output file, allowing unchanged
+ * outputs to be skipped by later runs.
+ *
+ * Outputs are tracked as <em>units</em> (e.g. one X12 transaction or one
+ * EDIFACT message) that belong to a <em>group</em> (e.g. one X12 version or
+ * one EDIFACT directory). The caller computes a {@link Digest} over every
+ * input of a unit or group. A unit is current when the digest recorded by the
+ * previous run is the same and its output file still exists; a group is
+ * current when its digest is the same and every unit recorded for it is
+ * current. Groups allow an entire version to be skipped without parsing any of
+ * its inputs.
+ *
+ * The manifest also records a fingerprint of the generator classes, so that
+ * any change to the generator (rather than to the inputs) regenerates
+ * everything. Setting the {@value #FORCE_PROPERTY} system property to
+ * {@code true} ignores the previous manifest entirely.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class GenerationManifest {
+
+    static final Logger log = LoggerFactory.getLogger(GenerationManifest.class);
+
+    static final String FILENAME = ".schemagen-manifest";
+    static final String FORCE_PROPERTY = "schemagen.force";
+
+    static final String GENERATOR = "generator";
+    static final String GROUP = "group";
+    static final String UNIT = "unit";
+
+    /**
+     * Incremental SHA-256 digest of a set of inputs. Each input is prefixed by
+     * its length so that the boundaries between inputs are significant.
+     */
+    static class Digest {
+        private final MessageDigest digest;
+
+        Digest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Digest update(byte[] input) {
+            digest.update(length(input.length));
+            digest.update(input);
+            return this;
+        }
+
+        Digest update(String input) {
+            return update(String.valueOf(input).getBytes(StandardCharsets.UTF_8));
+        }
+
+        Digest update(String name, byte[] input) {
+            return update(name).update(input);
+        }
+
+        static byte[] length(int length) {
+            return new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length };
+        }
+
+        /**
+         * Complete the digest, after which this instance may not be updated.
+         *
+         * @return the hexadecimal digest value
+         */
+        String value() {
+            byte[] value = digest.digest();
+            StringBuilder hex = new StringBuilder(value.length * 2);
+
+            for (byte b : value) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        }
+    }
+
+    static final class Unit {
+        final String digest;
+        final String output;
+
+        Unit(String digest, String output) {
+            this.digest = digest;
+            this.output = output;
+        }
+    }
+
+    private final Path directory;
+    private final String fingerprint;
+    private final Map<String, String> previousGroups;
+    private final Map<String, Unit> previousUnits;
+
+    private final Map<String, String> groups = new ConcurrentHashMap<>();
+    private final Map<String, Unit> units = new ConcurrentHashMap<>();
+    private final Set<String> visited = ConcurrentHashMap.newKeySet();
+
+    GenerationManifest(Path directory, String fingerprint, Map<String, String> previousGroups, Map<String, Unit> previousUnits) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.previousGroups = previousGroups;
+        this.previousUnits = previousUnits;
+        this.groups.putAll(previousGroups);
+        this.units.putAll(previousUnits);
+    }
+
+    /**
+     * Load the manifest of the given output directory. Entries of the previous
+     * run are ignored when the generator fingerprint differs or when the
+     * {@value #FORCE_PROPERTY} system property is set.
+     *
+     * @param directory
+     *            root output directory of the generator, outputs are recorded
+     *            relative to this directory
+     * @param generatorClasses
+     *            classes whose byte code determines the generator's output
+     * @return the manifest
+     * @throws IOException
+     *             if an existing manifest can not be read
+     */
+    static GenerationManifest load(Path directory, Class<?>... generatorClasses) throws IOException {
+        String fingerprint = fingerprint(generatorClasses);
+        Map<String, String> groups = new TreeMap<>();
+        Map<String, Unit> units = new TreeMap<>();
+
+        if (Boolean.getBoolean(FORCE_PROPERTY)) {
+            log.info("Regenerating all outputs in {}", directory);
+            return new GenerationManifest(directory, fingerprint, groups, units);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(directory.resolve(FILENAME), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+
+            if (line == null || !line.equals(GENERATOR + ' ' + fingerprint)) {
+                log.info("Generator changed, regenerating all outputs in {}", directory);
+            } else {
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ");
+
+                    if (GROUP.equals(fields[0]) && fields.length == 3) {
+                        groups.put(fields[1], fields[2]);
+                    } else if (UNIT.equals(fields[0]) && fields.length == 4) {
+                        units.put(fields[1], new Unit(fields[2], fields[3]));
+                    } else {
+                        throw new IOException("Malformed manifest entry: " + line);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("No manifest found in {}", directory);
+        }
+
+        return new GenerationManifest(directory, fingerprint, groups, units);
+    }
+
+    /**
+     * Compute a fingerprint over the class files of the given classes and all
+     * of their nested classes.
+     */
+    static String fingerprint(Class<?>... classes) throws IOException {
+        Digest digest = new Digest();
+
+        for (Class<?> type : classes) {
+            fingerprint(digest, type);
+        }
+
+        return digest.value();
+    }
+
+    static void fingerprint(Digest digest, Class<?> type) throws IOException {
+        String name = type.getName();
+
+        try (InputStream stream = type.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            if (stream == null) {
+                throw new IOException("Class file not found: " + name);
+            }
+            digest.update(name, stream.readAllBytes());
+        }
+
+        for (Class<?> nested : type.getDeclaredClasses()) {
+            fingerprint(digest, nested);
+        }
+    }
+
+    /**
+     * @return the fingerprint of the generator classes given to
+     *         {@link #load(Path, Class...)}
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    static String unitKey(String group, String unit) {
+        return group + '/' + unit;
+    }
+
+    /**
+     * Determine whether a group and all of its units are unchanged since the
+     * previous run. When not current, the group's entry is removed until it
+     * is recorded again by {@link #record(String, String)}.
+     */
+    boolean isCurrent(String group, String digest) {
+        if (!digest.equals(previousGroups.get(group))) {
+            groups.remove(group);
+            return false;
+        }
+
+        String prefix = group + '/';
+        boolean unitsCurrent = previousUnits.entrySet()
+                                            .stream()
+                                            .filter(e -> e.getKey().startsWith(prefix))
+                                            .allMatch(e -> Files.isRegularFile(directory.resolve(e.getValue().output)));
+
+        if (!unitsCurrent) {
+            groups.remove(group);
+            return false;
+        }
+
+        previousUnits.keySet().stream().filter(key -> key.startsWith(prefix)).forEach(visited::add);
+        return true;
+    }
+
+    /**
+     * Determine whether a single unit of a group is unchanged since the
+     * previous run and its output still exists.
+     */
+    boolean isCurrent(String group, String unit, String digest) {
+        String key = unitKey(group, unit);
+        Unit previous = previousUnits.get(key);
+
+        if (previous != null && previous.digest.equals(digest) && Files.isRegularFile(directory.resolve(previous.output))) {
+            visited.add(key);
+            return true;
+        }
+
+        units.remove(key);
+        return false;
+    }
+
+    /**
+     * Record a unit whose output has been written successfully.
+     *
+     * @param output
+     *            path of the unit's output file
+     */
+    void record(String group, String unit, String digest, Path output) {
+        String key = unitKey(group, unit);
+        String relative = directory.toAbsolutePath().normalize().relativize(output.toAbsolutePath().normalize()).toString();
+        units.put(key, new Unit(digest, relative.replace('\\', '/')));
+        visited.add(key);
+    }
+
+    /**
+     * Record a group for which every unit has been written successfully.
+     * Units previously recorded for the group that were neither found current
+     * nor written by this run no longer exist in the inputs and are dropped.
+     */
+    void record(String group, String digest) {
+        String prefix = group + '/';
+        units.keySet().removeIf(key -> key.startsWith(prefix) && !visited.contains(key));
+        groups.put(group, digest);
+    }
+
+    /**
+     * Write the manifest to the output directory, replacing the manifest of
+     * the previous run.
+     */
+    void save() throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(FILENAME);
+        Path temp = Files.createTempFile(directory, FILENAME, ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(GENERATOR + ' ' + fingerprint);
+            writer.newLine();
+
+            for (Map.Entry<String, String> group : new TreeMap<>(groups).entrySet()) {
+                writer.write(GROUP + ' ' + group.getKey() + ' ' + group.getValue());
+                writer.newLine();
+            }
+
+            for (Map.Entry<String, Unit> unit : new TreeMap<>(units).entrySet()) {
+                writer.write(UNIT + ' ' + unit.getKey() + ' ' + unit.getValue().digest + ' ' + unit.getValue().output);
+                writer.newLine();
+            }
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
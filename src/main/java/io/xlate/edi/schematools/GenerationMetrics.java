@@ -0,0 +1,420 @@
+package io.xlate.edi.schematools;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Metrics of a generation run: the time spent in each phase of the pipeline,
+ * with the bytes read, entries scanned, types created, files written and bytes
+ * written, for each version and for each unit of a version (a message, a
+ * transaction or a resource).
+ *
+ * Each measurement is also committed as a {@link PhaseEvent} to JDK Flight
+ * Recorder, when a recording enables the event, e.g. with
+ * {@code -XX:StartFlightRecording:filename=schemagen.jfr}. At the end of the
+ * run the totals of each phase are logged and every measurement is written to
+ * a JSON {@link #REPORT report} in the output directory.
+ *
+ * Phases are measured where they run, on whichever thread, so phases may nest
+ * (e.g. the closures computed while a message table is parsed are counted by
+ * both) and, with several workers, the time of a phase may exceed the
+ * elapsed time of the run. Setting the {@value #PROPERTY} system property to
+ * {@code false} disables the metrics and the report.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+final class GenerationMetrics {
+
+    static final Logger log = LoggerFactory.getLogger(GenerationMetrics.class);
+
+    static final String PROPERTY = "schemagen.metrics";
+    static final String REPORT = ".schemagen-metrics.json";
+
+    /**
+     * Metrics that measure nothing, for callers without a run.
+     */
+    static final GenerationMetrics DISABLED = new GenerationMetrics(null);
+
+    enum Phase {
+        /** Resolving and reading an input resource, e.g. an archive entry */
+        RESOLVE("resolve"),
+        /** Parsing a code list directory */
+        CODE_LISTS("code-lists"),
+        /** Parsing an element directory */
+        ELEMENTS("elements"),
+        /** Parsing a composite directory */
+        COMPOSITES("composites"),
+        /** Parsing a segment directory */
+        SEGMENTS("segments"),
+        /** Parsing record definitions (elements, composites and segments) */
+        RECORDS("records"),
+        /** Parsing the segment table of a message or transaction */
+        MESSAGE_TABLE("message-table"),
+        /** Computing the closure of a type */
+        CLOSURE("closure"),
+        /** Sorting types */
+        SORT("sort"),
+        /** Serializing and writing a schema */
+        WRITE("write");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Flight Recorder event of a single measurement.
+     */
+    @Name("io.xlate.edi.schematools.Phase")
+    @Label("Generation Phase")
+    @Description("A phase of schema generation for a version or one of its units")
+    @Category("EDI Schema Generation")
+    @StackTrace(false)
+    static final class PhaseEvent extends Event {
+        @Label("Generator")
+        String generator;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Version")
+        String version;
+
+        @Label("Unit")
+        String unit;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Entries Scanned")
+        @Description("Archive entries read or indexed, or definitions parsed")
+        long entries;
+
+        @Label("Types Created")
+        @Description("Types parsed, or the types of a closure, sort or message schema")
+        long types;
+
+        @Label("Files Written")
+        long files;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    /**
+     * Counters of a phase, either of one measurement or summed over several.
+     */
+    static class Counters {
+        long count;
+        long nanos;
+        long bytesRead;
+        long entries;
+        long types;
+        long files;
+        long bytesWritten;
+
+        void add(Counters other) {
+            count += other.count;
+            nanos += other.nanos;
+            bytesRead += other.bytesRead;
+            entries += other.entries;
+            types += other.types;
+            files += other.files;
+            bytesWritten += other.bytesWritten;
+        }
+    }
+
+    /**
+     * A measurement in progress, ended by the thread that started it. The
+     * measurements of {@link #DISABLED} metrics record nothing.
+     */
+    final class Measurement extends Counters {
+        final Phase phase;
+        final String version;
+        final String unit;
+        final PhaseEvent event;
+        final long start;
+
+        Measurement(Phase phase, String version, String unit) {
+            this.phase = phase;
+            this.version = version != null ? version : "";
+            this.unit = unit;
+            this.event = generator != null ? new PhaseEvent() : null;
+            this.start = event != null ? System.nanoTime() : 0;
+
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        Measurement bytesRead(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        Measurement entries(long count) {
+            entries += count;
+            return this;
+        }
+
+        Measurement types(long count) {
+            types += count;
+            return this;
+        }
+
+        Measurement written(long bytes) {
+            files++;
+            bytesWritten += bytes;
+            return this;
+        }
+
+        void end() {
+            if (event == null) {
+                return;
+            }
+
+            nanos = System.nanoTime() - start;
+            count = 1;
+            event.end();
+
+            if (event.shouldCommit()) {
+                event.generator = generator;
+                event.phase = phase.label;
+                event.version = version;
+                event.unit = unit;
+                event.bytesRead = bytesRead;
+                event.entries = entries;
+                event.types = types;
+                event.files = files;
+                event.bytesWritten = bytesWritten;
+                event.commit();
+            }
+
+            measurements.add(this);
+        }
+    }
+
+    /**
+     * Stream counting the bytes written through it, e.g. to a
+     * {@link SchemaSink}.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    final String generator;
+    final ConcurrentLinkedQueue<Measurement> measurements = new ConcurrentLinkedQueue<>();
+    final long started = System.nanoTime();
+
+    /**
+     * @param generator
+     *            name of the generator in the events and report, e.g.
+     *            {@code EDIFACT}
+     */
+    GenerationMetrics(String generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * @return new metrics for the generator, or {@link #DISABLED} when
+     *         disabled by the {@value #PROPERTY} system property
+     */
+    static GenerationMetrics fromSystemProperties(String generator) {
+        return Boolean.parseBoolean(System.getProperty(PROPERTY, "true")) ? new GenerationMetrics(generator) : DISABLED;
+    }
+
+    /**
+     * Start measuring a phase.
+     *
+     * @param version
+     *            the version the phase belongs to
+     * @param unit
+     *            the unit of the version, or null for the version as a whole
+     *            (the measurement is then only counted in the version's
+     *            totals)
+     */
+    Measurement start(Phase phase, String version, String unit) {
+        return new Measurement(phase, version, unit);
+    }
+
+    /**
+     * Log the totals of each phase and write the report to the directory.
+     */
+    void report(Path directory) throws IOException {
+        if (generator == null) {
+            return;
+        }
+
+        Map<Phase, Counters> totals = new EnumMap<>(Phase.class);
+        Map<String, Map<Phase, Counters>> versions = new TreeMap<>();
+        Map<String, Map<String, List<Measurement>>> units = new TreeMap<>();
+
+        for (Measurement measurement : measurements) {
+            totals.computeIfAbsent(measurement.phase, p -> new Counters()).add(measurement);
+            versions.computeIfAbsent(measurement.version, v -> new EnumMap<>(Phase.class))
+                    .computeIfAbsent(measurement.phase, p -> new Counters())
+                    .add(measurement);
+
+            if (measurement.unit != null) {
+                units.computeIfAbsent(measurement.version, v -> new TreeMap<>())
+                     .computeIfAbsent(measurement.unit, u -> new ArrayList<>())
+                     .add(measurement);
+            }
+        }
+
+        long elapsed = System.nanoTime() - started;
+
+        for (Map.Entry<Phase, Counters> total : totals.entrySet()) {
+            Counters counters = total.getValue();
+            log.info("{} {}: {} ms in {} measurements; {} bytes read, {} entries scanned, {} types created, {} files ({} bytes) written",
+                     generator,
+                     total.getKey().label,
+                     TimeUnit.NANOSECONDS.toMillis(counters.nanos),
+                     counters.count,
+                     counters.bytesRead,
+                     counters.entries,
+                     counters.types,
+                     counters.files,
+                     counters.bytesWritten);
+        }
+
+        Path report = directory.resolve(REPORT);
+        Files.createDirectories(directory);
+
+        try (Writer out = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            out.write("{\n  \"generator\": ");
+            string(out, generator);
+            out.write(",\n  \"elapsedNanos\": " + elapsed);
+            out.write(",\n  \"phases\": ");
+            phases(out, totals, "  ");
+            out.write(",\n  \"versions\": {");
+
+            String separator = "\n";
+
+            for (Map.Entry<String, Map<Phase, Counters>> version : versions.entrySet()) {
+                out.write(separator);
+                out.write("    ");
+                string(out, version.getKey());
+                out.write(": {\n      \"phases\": ");
+                phases(out, version.getValue(), "      ");
+                out.write(",\n      \"units\": {");
+
+                Map<String, List<Measurement>> versionUnits = units.getOrDefault(version.getKey(), new TreeMap<>());
+                String unitSeparator = "\n";
+
+                for (Map.Entry<String, List<Measurement>> unit : versionUnits.entrySet()) {
+                    Map<Phase, Counters> unitPhases = new EnumMap<>(Phase.class);
+
+                    for (Measurement measurement : unit.getValue()) {
+                        unitPhases.computeIfAbsent(measurement.phase, p -> new Counters()).add(measurement);
+                    }
+
+                    out.write(unitSeparator);
+                    out.write("        ");
+                    string(out, unit.getKey());
+                    out.write(": ");
+                    phases(out, unitPhases, "        ");
+                    unitSeparator = ",\n";
+                }
+
+                out.write(versionUnits.isEmpty() ? "}\n    }" : "\n      }\n    }");
+                separator = ",\n";
+            }
+
+            out.write(versions.isEmpty() ? "}\n}\n" : "\n  }\n}\n");
+        }
+
+        log.info("{} metrics written to {}", generator, report);
+    }
+
+    static void phases(Writer out, Map<Phase, Counters> phases, String indent) throws IOException {
+        out.write('{');
+        String separator = "\n";
+
+        for (Map.Entry<Phase, Counters> phase : phases.entrySet()) {
+            Counters counters = phase.getValue();
+            out.write(separator);
+            out.write(indent);
+            out.write("  ");
+            string(out, phase.getKey().label);
+            out.write(": { \"count\": " + counters.count
+                    + ", \"nanos\": " + counters.nanos
+                    + ", \"bytesRead\": " + counters.bytesRead
+                    + ", \"entries\": " + counters.entries
+                    + ", \"types\": " + counters.types
+                    + ", \"files\": " + counters.files
+                    + ", \"bytesWritten\": " + counters.bytesWritten
+                    + " }");
+            separator = ",\n";
+        }
+
+        if (!phases.isEmpty()) {
+            out.write('\n');
+            out.write(indent);
+        }
+
+        out.write('}');
+    }
+
+    static void string(Writer out, String value) throws IOException {
+        out.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+
+        out.write('"');
+    }
+}
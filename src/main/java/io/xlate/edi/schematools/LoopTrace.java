@@ -0,0 +1,156 @@
+package io.xlate.edi.schematools;
+
+/**
+ * Trace of the loop nesting state machine for the segment table of one
+ * message: each segment, loop start and loop end, with the nesting depth and
+ * (for a loop end) the line that caused it.
+ *
+ * The trace keeps the last {@value #PROPERTY} events (none by default) in
+ * arrays allocated with the trace, overwriting the oldest, and is rendered on
+ * demand with one line per event, indented by depth. When disabled, the
+ * shared {@link #DISABLED} trace is used, whose methods return at once: no
+ * event records, strings or indentation are created.
+ *
+ * Instances are not safe for use by multiple threads; each message being
+ * parsed has its own.
+ */
+final class LoopTrace {
+
+    /**
+     * System property giving the number of events kept for each message, 0
+     * (the default) to disable the trace.
+     */
+    static final String PROPERTY = "EDIFACT.loopTrace";
+
+    static final int CAPACITY = Integer.getInteger(PROPERTY, 0);
+
+    static final LoopTrace DISABLED = new LoopTrace(0);
+
+    static final byte SEGMENT = 0;
+    static final byte LOOP = 1;
+    static final byte END_LOOP = 2;
+
+    /**
+     * The cause of a loop end, as rendered.
+     */
+    enum Cause {
+        LEVEL_ZERO_SEGMENT("LEVEL ZERO SEGMENT"),
+        DECREASED_DEPTH("DECREASED DEPTH"),
+        SEGMENT_LINES("SEGMENT LINES"),
+        BLANK_LINE("BLANK LINE"),
+        NONBLANK("NONBLANK");
+
+        final String text;
+
+        Cause(String text) {
+            this.text = text;
+        }
+    }
+
+    static final Cause[] CAUSES = Cause.values();
+
+    private final byte[] events;
+    private final byte[] causes;
+    private final int[] depths;
+    private final int[] loopIds;
+    private final String[] tags;
+    private final String[] uses;
+    private final String[] maxes;
+    private long count;
+
+    private LoopTrace(int capacity) {
+        events = new byte[capacity];
+        causes = new byte[capacity];
+        depths = new int[capacity];
+        loopIds = new int[capacity];
+        tags = new String[capacity];
+        uses = new String[capacity];
+        maxes = new String[capacity];
+    }
+
+    /**
+     * @return a new trace for a message, or {@link #DISABLED}
+     */
+    static LoopTrace create() {
+        return CAPACITY > 0 ? new LoopTrace(CAPACITY) : DISABLED;
+    }
+
+    boolean isEnabled() {
+        return events.length > 0;
+    }
+
+    void segment(String tag, String use, String max, int depth) {
+        if (events.length > 0) {
+            int i = next(SEGMENT, depth);
+            tags[i] = tag;
+            uses[i] = use;
+            maxes[i] = max;
+        }
+    }
+
+    void loop(int loopId, String use, String max, int depth) {
+        if (events.length > 0) {
+            int i = next(LOOP, depth);
+            loopIds[i] = loopId;
+            uses[i] = use;
+            maxes[i] = max;
+        }
+    }
+
+    void endLoop(int loopId, int depth, Cause cause) {
+        if (events.length > 0) {
+            int i = next(END_LOOP, depth);
+            loopIds[i] = loopId;
+            causes[i] = (byte) cause.ordinal();
+        }
+    }
+
+    private int next(byte event, int depth) {
+        int i = (int) (count++ % events.length);
+        events[i] = event;
+        depths[i] = depth;
+        return i;
+    }
+
+    /**
+     * Render the events kept, oldest first.
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        long first = Math.max(0, count - events.length);
+
+        if (first > 0) {
+            out.append("... ").append(first).append(" earlier events");
+        }
+
+        for (long e = first; e < count; e++) {
+            int i = (int) (e % events.length);
+
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+
+            for (int d = 0; d < depths[i]; d++) {
+                out.append('\t');
+            }
+
+            switch (events[i]) {
+            case SEGMENT:
+                out.append(tags[i]).append(" | ").append(uses[i]).append(" | ").append(maxes[i]);
+                out.append(" | ").append(depths[i]);
+                break;
+            case LOOP:
+                out.append("LOOP.").append(loopIds[i]).append(" | ").append(uses[i]).append(" | ").append(maxes[i]);
+                out.append(" | ").append(depths[i]);
+                break;
+            default:
+                out.append("END-LOOP.").append(loopIds[i]).append(" | ").append(depths[i]);
+                out.append(" <-- ").append(CAUSES[causes[i]].text);
+                break;
+            }
+        }
+
+        return out.toString();
+    }
+}
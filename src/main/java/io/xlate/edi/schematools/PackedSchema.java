@@ -0,0 +1,589 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.xlate.edischema.v4.AnyElementType;
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.GroupControlType;
+import io.xlate.edischema.v4.Include;
+import io.xlate.edischema.v4.Interchange;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Syntax;
+import io.xlate.edischema.v4.SyntaxType;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.TransactionControlType;
+import io.xlate.edischema.v4.UseType;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Reader of a schema in the packed format written by
+ * {@link PackedSchemaWriter}. The document is read in place (e.g. from a
+ * memory-mapped file): a type or loop is found through the indexes by
+ * comparing its name with the bytes of the string table, and only its own
+ * record (and the strings it uses) are decoded.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+public final class PackedSchema {
+
+    static final ElementBaseType[] BASES = ElementBaseType.values();
+    static final UseType[] USES = UseType.values();
+    static final SyntaxType[] SYNTAX_TYPES = SyntaxType.values();
+
+    private final ByteBuffer buffer;
+    private final int formatVersion;
+    private final int stringCount;
+    private final int stringsOffset;
+    private final int stringData;
+    private final int typeCount;
+    private final int typesOffset;
+    private final int loopCount;
+    private final int loopsOffset;
+    private final int recordsOffset;
+    private final int schemaRecord;
+    private final String[] strings;
+
+    private PackedSchema(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        if (buffer.capacity() < PackedSchemaWriter.HEADER_SIZE || buffer.getInt(0) != PackedSchemaWriter.MAGIC) {
+            throw new IllegalArgumentException("Not a packed schema");
+        }
+
+        formatVersion = buffer.getShort(4);
+
+        if (formatVersion > PackedSchemaWriter.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported packed schema version " + formatVersion);
+        }
+
+        stringCount = buffer.getInt(8);
+        stringsOffset = buffer.getInt(12);
+        stringData = stringsOffset + 4 * (stringCount + 1);
+        typeCount = buffer.getInt(16);
+        typesOffset = buffer.getInt(20);
+        loopCount = buffer.getInt(24);
+        loopsOffset = buffer.getInt(28);
+        recordsOffset = loopsOffset + 8 * loopCount;
+        schemaRecord = buffer.getInt(32);
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Map a packed schema file into memory.
+     */
+    public static PackedSchema open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new PackedSchema(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Read a packed schema from the remaining bytes of the buffer, which are
+     * not copied.
+     */
+    public static PackedSchema wrap(ByteBuffer buffer) {
+        return new PackedSchema(buffer.slice());
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public int getTypeCount() {
+        return typeCount;
+    }
+
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    String getString(int index) {
+        String value = strings[index];
+
+        if (value == null) {
+            int start = buffer.getInt(stringsOffset + 4 * index);
+            int end = buffer.getInt(stringsOffset + 4 * index + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer data = buffer.duplicate();
+            data.position(stringData + start);
+            data.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            // Strings are immutable, a racing thread decodes an equal value
+            strings[index] = value;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the element type with the name, or null
+     */
+    public ElementType getElement(String name) {
+        return (ElementType) type(0, name);
+    }
+
+    /**
+     * @return the composite type with the name, or null
+     */
+    public CompositeType getComposite(String name) {
+        return (CompositeType) type(1, name);
+    }
+
+    /**
+     * @return the segment type with the name, or null
+     */
+    public SegmentType getSegment(String name) {
+        return (SegmentType) type(2, name);
+    }
+
+    /**
+     * @return the loop with the code, with its sequence of segments and
+     *         loops, or null
+     */
+    public LoopStandard getLoop(String code) {
+        byte[] key = code.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = loopCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = loopsOffset + 8 * mid;
+            int c = compareString(buffer.getInt(entry), key);
+
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                Input input = new Input(buffer.getInt(entry + 4));
+                input.readByte(); // PackedSchemaWriter.LOOP
+                return input.loop();
+            }
+        }
+
+        return null;
+    }
+
+    BaseType type(int kind, String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = typeCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = typesOffset + 12 * mid;
+            int c = Integer.compare(buffer.getInt(entry), kind);
+
+            if (c == 0) {
+                c = compareString(buffer.getInt(entry + 4), key);
+            }
+
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return new Input(buffer.getInt(entry + 8)).type();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Compare a string of the table with the UTF-8 bytes of a name, as
+     * unsigned bytes, without decoding the string.
+     */
+    int compareString(int index, byte[] key) {
+        int start = stringData + buffer.getInt(stringsOffset + 4 * index);
+        int length = stringData + buffer.getInt(stringsOffset + 4 * index + 4) - start;
+        int count = Math.min(length, key.length);
+
+        for (int i = 0; i < count; i++) {
+            int c = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return Integer.compare(length, key.length);
+    }
+
+    /**
+     * Decode the whole document.
+     */
+    public Schema toSchema() {
+        Input input = new Input(schemaRecord);
+        Schema schema = new Schema();
+        int count = input.readCount();
+
+        for (int i = 0; i < count; i++) {
+            Include include = new Include();
+            include.setSchemaLocation(input.readString());
+            schema.getInclude().add(include);
+        }
+
+        count = input.readCount();
+
+        if (count >= 0) {
+            List<BaseType> layout = schema.getLayout();
+
+            for (int i = 0; i < count; i++) {
+                byte tag = input.readByte();
+
+                if (tag == PackedSchemaWriter.TRANSACTION) {
+                    layout.add(input.transaction());
+                } else {
+                    layout.add(input.interchange());
+                }
+            }
+        }
+
+        count = input.readCount();
+
+        if (count >= 0) {
+            List<BaseType> types = schema.getTypes();
+            Map<Integer, BaseType> decoded = new HashMap<>();
+
+            for (int i = 0; i < count; i++) {
+                int record = recordsOffset + input.readVarInt();
+                types.add(decoded.computeIfAbsent(record, r -> new Input(r).type()));
+            }
+        }
+
+        return schema;
+    }
+
+    /**
+     * Sequential decoder of the records from a position.
+     */
+    final class Input {
+        int position;
+
+        Input(int position) {
+            this.position = position;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            return value;
+        }
+
+        String readString() {
+            int index = readVarInt();
+            return index != 0 ? getString(index - 1) : null;
+        }
+
+        BigInteger readNumber() {
+            int value = readVarInt();
+            return value != 0 ? BigInteger.valueOf(value - 1L) : null;
+        }
+
+        /**
+         * @return the count of a list, or -1 for an absent list
+         */
+        int readCount() {
+            return readVarInt() - 1;
+        }
+
+        boolean readFlag() {
+            return readByte() != 0;
+        }
+
+        void base(BaseType type) {
+            type.setTitle(readString());
+            type.setDescription(readString());
+        }
+
+        UseType use() {
+            int use = readByte();
+            return use != 0 ? USES[use - 1] : null;
+        }
+
+        Interchange interchange() {
+            Interchange interchange = new Interchange();
+            interchange.setHeader(readString());
+            interchange.setTrailer(readString());
+            base(interchange);
+
+            if (readFlag()) {
+                Interchange.Sequence sequence = new Interchange.Sequence();
+                int count = readCount();
+
+                for (int i = 0; i < count; i++) {
+                    readByte(); // PackedSchemaWriter.SEGMENT
+                    sequence.getSegment().add(segmentRef());
+                }
+
+                if (readFlag()) {
+                    GroupControlType group = new GroupControlType();
+                    group.setUse(use());
+                    group.setHeader(readString());
+                    group.setTrailer(readString());
+                    base(group);
+
+                    if (readFlag()) {
+                        group.setTransaction(transactionControl());
+                    }
+
+                    sequence.setGroup(group);
+                }
+
+                if (readFlag()) {
+                    sequence.setTransaction(transactionControl());
+                }
+
+                interchange.setSequence(sequence);
+            }
+
+            syntax(interchange::getSyntax);
+            return interchange;
+        }
+
+        TransactionControlType transactionControl() {
+            TransactionControlType transaction = new TransactionControlType();
+            transaction.setUse(use());
+            transaction.setHeader(readString());
+            transaction.setTrailer(readString());
+            base(transaction);
+            return transaction;
+        }
+
+        Transaction transaction() {
+            Transaction transaction = new Transaction();
+            base(transaction);
+            transaction.setSequence(layoutSequence());
+            syntax(transaction::getSyntax);
+            return transaction;
+        }
+
+        List<BaseType> layoutSequence() {
+            int count = readCount();
+
+            if (count < 0) {
+                return null;
+            }
+
+            List<BaseType> sequence = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                byte tag = readByte();
+                sequence.add(tag == PackedSchemaWriter.SEGMENT ? segmentRef() : loop());
+            }
+
+            return sequence;
+        }
+
+        LoopStandard loop() {
+            LoopStandard loop = new LoopStandard();
+            loop.setCode(readString());
+            loop.setMinOccurs(readNumber());
+            loop.setMaxOccurs(readNumber());
+            base(loop);
+            loop.setSequence(layoutSequence());
+            syntax(loop::getSyntax);
+            return loop;
+        }
+
+        SegmentStandard segmentRef() {
+            SegmentStandard segment = new SegmentStandard();
+            segment.setType(readString());
+            segment.setMinOccurs(readNumber());
+            segment.setMaxOccurs(readNumber());
+            base(segment);
+            return segment;
+        }
+
+        BaseType type() {
+            byte tag = readByte();
+
+            if (tag == PackedSchemaWriter.ELEMENT) {
+                return elementType();
+            }
+
+            if (tag == PackedSchemaWriter.COMPOSITE) {
+                CompositeType composite = new CompositeType();
+                composite.setName(readString());
+                base(composite);
+                composite.setSequence(sequence());
+                syntax(composite::getSyntax);
+                return composite;
+            }
+
+            SegmentType segment = new SegmentType();
+            segment.setName(readString());
+            base(segment);
+            segment.setSequence(sequence());
+            syntax(segment::getSyntax);
+            return segment;
+        }
+
+        ElementType elementType() {
+            ElementType element = new ElementType();
+            element.setName(readString());
+            element.setCode(readString());
+            BigInteger number = readNumber();
+            element.setNumber(number != null ? number.intValue() : null);
+            int base = readByte();
+            element.setBase(base != 0 ? BASES[base - 1] : null);
+            element.setScale(readNumber());
+            element.setMinLength(readNumber());
+            element.setMaxLength(readNumber());
+            base(element);
+            element.setEnumeration(enumeration());
+
+            int count = readCount();
+
+            for (int i = 0; i < count; i++) {
+                ElementType.Version version = new ElementType.Version();
+                version.setMinVersion(readString());
+                version.setMaxVersion(readString());
+                version.setMinLength(readNumber());
+                version.setMaxLength(readNumber());
+                version.setEnumeration(enumeration());
+                element.getVersion().add(version);
+            }
+
+            return element;
+        }
+
+        List<Value> enumeration() {
+            int count = readCount();
+
+            if (count < 0) {
+                return null;
+            }
+
+            List<Value> enumeration = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                Value value = new Value();
+                value.setValue(readString());
+                value.setTitle(readString());
+                enumeration.add(value);
+            }
+
+            return enumeration;
+        }
+
+        List<BaseType> sequence() {
+            int count = readCount();
+
+            if (count < 0) {
+                return null;
+            }
+
+            List<BaseType> sequence = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                byte tag = readByte();
+
+                if (tag == PackedSchemaWriter.ELEMENT) {
+                    ElementStandard ref = new ElementStandard();
+                    ref.setType(readString());
+                    ref.setMinOccurs(readNumber());
+                    ref.setMaxOccurs(readNumber());
+                    base(ref);
+                    int versions = readCount();
+
+                    for (int v = 0; v < versions; v++) {
+                        ElementStandard.Version version = new ElementStandard.Version();
+                        version.setMinVersion(readString());
+                        version.setMaxVersion(readString());
+                        version.setMinOccurs(readNumber());
+                        version.setMaxOccurs(readNumber());
+                        ref.getVersion().add(version);
+                    }
+
+                    sequence.add(ref);
+                } else if (tag == PackedSchemaWriter.COMPOSITE) {
+                    CompositeStandard ref = new CompositeStandard();
+                    ref.setType(readString());
+                    ref.setMinOccurs(readNumber());
+                    ref.setMaxOccurs(readNumber());
+                    base(ref);
+                    int versions = readCount();
+
+                    for (int v = 0; v < versions; v++) {
+                        CompositeStandard.Version version = new CompositeStandard.Version();
+                        version.setMinVersion(readString());
+                        version.setMaxVersion(readString());
+                        version.setMinOccurs(readNumber());
+                        version.setMaxOccurs(readNumber());
+                        ref.getVersion().add(version);
+                    }
+
+                    sequence.add(ref);
+                } else {
+                    AnyElementType any = new AnyElementType();
+                    any.setMinOccurs(readNumber());
+                    any.setMaxOccurs(readNumber());
+                    base(any);
+                    sequence.add(any);
+                }
+            }
+
+            return sequence;
+        }
+
+        /**
+         * Decode syntax rules, adding them to the list supplied only when
+         * present, since the model creates the list when it is requested.
+         */
+        void syntax(Supplier<List<Syntax>> syntax) {
+            int count = readCount();
+
+            if (count < 0) {
+                return;
+            }
+
+            List<Syntax> rules = syntax.get();
+
+            for (int i = 0; i < count; i++) {
+                Syntax rule = new Syntax();
+                int type = readByte();
+                rule.setType(type != 0 ? SYNTAX_TYPES[type - 1] : null);
+                int positions = readCount();
+
+                for (int p = 0; p < positions; p++) {
+                    rule.getPosition().add(readNumber());
+                }
+
+                rules.add(rule);
+            }
+        }
+    }
+}
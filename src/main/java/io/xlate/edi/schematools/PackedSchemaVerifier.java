@@ -0,0 +1,182 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.Transaction;
+
+/**
+ * Verifies the packed format against the XML output of the generators. Every
+ * schema (*.xml) in the given directories (by default {@code target}), and in
+ * the bundles (*.zip) found there, is packed and read back, and must then be
+ * written as the same bytes as the file. Each of its types and loops must also
+ * be found through the packed indexes and be written as the original.
+ */
+public class PackedSchemaVerifier {
+
+    static final Logger log = LoggerFactory.getLogger(PackedSchemaVerifier.class);
+
+    final Unmarshaller unmarshaller;
+    final PackedSchemaWriter packer = new PackedSchemaWriter();
+    final StaxSchemaWriter writer = new StaxSchemaWriter();
+    int count;
+    int failures;
+    long xmlSize;
+    long packedSize;
+
+    PackedSchemaVerifier() throws JAXBException {
+        unmarshaller = JAXBContext.newInstance(Schema.class).createUnmarshaller();
+    }
+
+    public static void main(String[] args) throws IOException, JAXBException {
+        List<Path> directories = new ArrayList<>();
+
+        for (String arg : args.length > 0 ? args : new String[] { "target" }) {
+            directories.add(Paths.get(arg));
+        }
+
+        PackedSchemaVerifier verifier = new PackedSchemaVerifier();
+
+        for (Path directory : directories) {
+            verifier.verifyDirectory(directory);
+        }
+
+        log.info("{} schemas verified, {} bytes packed from {} bytes of XML",
+                 verifier.count - verifier.failures,
+                 verifier.packedSize,
+                 verifier.xmlSize);
+
+        if (verifier.failures > 0) {
+            throw new IllegalStateException(verifier.failures + " of " + verifier.count + " schemas failed verification");
+        }
+    }
+
+    void verifyDirectory(Path directory) throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+
+            if (name.endsWith(".xml")) {
+                byte[] xml = Files.readAllBytes(file);
+                count++;
+
+                try {
+                    byte[] packed = verify(xml);
+                    xmlSize += xml.length;
+                    packedSize += packed.length;
+                } catch (Exception e) {
+                    log.error("Verification failed: {}", file.toUri(), e);
+                    failures++;
+                }
+            } else if (name.endsWith(SchemaBundle.EXTENSION)) {
+                try (FileSystem archive = SchemaBundle.open(file)) {
+                    verifyDirectory(archive.getPath("/"));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the packed schema
+     * @throws IllegalStateException
+     *             when the schema read back differs from the XML
+     */
+    byte[] verify(byte[] xml) throws IOException, JAXBException {
+        Schema schema = (Schema) unmarshaller.unmarshal(new ByteArrayInputStream(xml));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packer.write(schema, out);
+        byte[] packed = out.toByteArray();
+        PackedSchema reader = PackedSchema.wrap(ByteBuffer.wrap(packed));
+
+        compare("document", xml, write(reader.toSchema()));
+
+        for (BaseType type : schema.getTypes()) {
+            int kind = XmlGenerator.kind(type);
+            String name = XmlGenerator.name(type, kind);
+            compare(name, write(typeSchema(type)), write(typeSchema(reader.type(kind, name))));
+        }
+
+        for (BaseType layout : schema.getLayout()) {
+            if (layout instanceof Transaction) {
+                verifyLoops(reader, ((Transaction) layout).getSequence());
+            }
+        }
+
+        return packed;
+    }
+
+    void verifyLoops(PackedSchema reader, List<BaseType> sequence) throws IOException {
+        for (BaseType entry : sequence) {
+            if (entry instanceof LoopStandard) {
+                LoopStandard loop = (LoopStandard) entry;
+                compare(loop.getCode(), write(loopSchema(loop)), write(loopSchema(reader.getLoop(loop.getCode()))));
+                verifyLoops(reader, loop.getSequence());
+            } else if (!(entry instanceof SegmentStandard)) {
+                throw new IllegalStateException("Unexpected layout entry " + entry);
+            }
+        }
+    }
+
+    static Schema typeSchema(BaseType type) {
+        if (type == null) {
+            throw new IllegalStateException("Type not found");
+        }
+
+        Schema schema = new Schema();
+        schema.getTypes().add(type);
+        return schema;
+    }
+
+    static Schema loopSchema(LoopStandard loop) {
+        if (loop == null) {
+            throw new IllegalStateException("Loop not found");
+        }
+
+        Transaction transaction = new Transaction();
+        transaction.getSequence().add(loop);
+        Schema schema = new Schema();
+        schema.getLayout().add(transaction);
+        return schema;
+    }
+
+    byte[] write(Schema schema) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(schema, out);
+        return out.toByteArray();
+    }
+
+    static void compare(String name, byte[] expected, byte[] actual) {
+        int mismatch = Arrays.mismatch(expected, actual);
+
+        if (mismatch >= 0) {
+            throw new IllegalStateException(name + " differs at byte " + mismatch);
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.xlate.edischema.v4.AnyElementType;
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.GroupControlType;
+import io.xlate.edischema.v4.Include;
+import io.xlate.edischema.v4.Interchange;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Syntax;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.TransactionControlType;
+import io.xlate.edischema.v4.UseType;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Schema writer backend for the packed binary format, selected with
+ * {@code -Dschemagen.writer=packed}, and read by {@link PackedSchema}.
+ *
+ * A packed schema holds the same model as the XML output (a document written
+ * with either writer converts to the other without loss) in four sections
+ * following a fixed header:
+ *
+ * <pre>
+ * header     int magic ({@value #MAGIC}), short format version, short flags,
+ *            then int count and int offset of each of: strings, type index,
+ *            loop index, followed by the int offset of the schema record and
+ *            an int reserved for later versions
+ * strings    int[count + 1] end offsets into the UTF-8 data that follows
+ * type index {int kind, int name, int record} per type, by kind then name
+ * loop index {int code, int record} per loop, by code
+ * records    one record per type, then the schema record: its includes,
+ *            its layout tree and the offsets of its types' records (from
+ *            the start of the records) in document order
+ * </pre>
+ *
+ * Offsets are from the start of the document and big-endian, so that a
+ * document may be memory-mapped and searched without decoding it. Within a
+ * record, counts, string indexes and numbers are unsigned variable-length
+ * integers (7 bits per byte, low bits first), stored plus one where the model
+ * distinguishes an absent value (0) from present ones; names are UTF-8 and
+ * compared as unsigned bytes.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class PackedSchemaWriter implements SchemaWriter {
+
+    static final int MAGIC = 0x45444953; // EDIS
+    static final short FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 40;
+
+    static final String EXTENSION = ".edis";
+
+    static final byte TRANSACTION = 'T';
+    static final byte INTERCHANGE = 'I';
+    static final byte SEGMENT = 'S';
+    static final byte LOOP = 'L';
+    static final byte ELEMENT = 'E';
+    static final byte COMPOSITE = 'C';
+    static final byte ANY = 'A';
+
+    @Override
+    public void write(Schema schema, OutputStream out) throws IOException {
+        out.write(new Encoder().encode(schema));
+    }
+
+    @Override
+    public String getName() {
+        return "packed";
+    }
+
+    @Override
+    public String getExtension() {
+        return EXTENSION;
+    }
+
+    /**
+     * Growable big-endian byte buffer.
+     */
+    static final class Bytes {
+        byte[] data = new byte[1024];
+        int size;
+
+        void ensure(int count) {
+            if (size + count > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + count));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        void writeShort(int value) {
+            ensure(2);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            putInt(size, value);
+            size += 4;
+        }
+
+        void putInt(int position, int value) {
+            data[position] = (byte) (value >>> 24);
+            data[position + 1] = (byte) (value >>> 16);
+            data[position + 2] = (byte) (value >>> 8);
+            data[position + 3] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            data[size++] = (byte) value;
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void write(Bytes bytes) {
+            ensure(bytes.size);
+            System.arraycopy(bytes.data, 0, data, size, bytes.size);
+            size += bytes.size;
+        }
+    }
+
+    /**
+     * An entry of the type or loop index: a name, its UTF-8 bytes and the
+     * offset of its record within the records.
+     */
+    static final class IndexEntry implements Comparable<IndexEntry> {
+        final int kind;
+        final int name;
+        final byte[] key;
+        final int record;
+
+        IndexEntry(int kind, int name, byte[] key, int record) {
+            this.kind = kind;
+            this.name = name;
+            this.key = key;
+            this.record = record;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other) {
+            int result = Integer.compare(kind, other.kind);
+            return result != 0 ? result : Arrays.compareUnsigned(key, other.key);
+        }
+    }
+
+    /**
+     * Per-document state: the string table, the indexes and the records.
+     */
+    static final class Encoder {
+        final Map<String, Integer> strings = new HashMap<>();
+        final List<byte[]> stringBytes = new ArrayList<>();
+        final List<IndexEntry> types = new ArrayList<>();
+        final List<IndexEntry> loops = new ArrayList<>();
+        final Bytes records = new Bytes();
+
+        byte[] encode(Schema schema) {
+            List<BaseType> typeList = StaxSchemaWriter.list(StaxSchemaWriter.SCHEMA_TYPES, schema);
+            Map<BaseType, Integer> typeRecords = new IdentityHashMap<>();
+
+            // Types first, so that the schema record can refer to them
+            if (typeList != null) {
+                for (BaseType type : typeList) {
+                    int kind = XmlGenerator.kind(type);
+
+                    if (kind < 0) {
+                        throw new IllegalArgumentException("Unsupported type " + type.getClass().getName());
+                    }
+
+                    String name = XmlGenerator.name(type, kind);
+                    int record = records.size;
+                    typeRecords.put(type, record);
+                    type(kind, type);
+                    types.add(new IndexEntry(kind, string(name), utf8(name), record));
+                }
+            }
+
+            int schemaRecord = records.size;
+            schema(schema, typeList, typeRecords);
+
+            Bytes document = new Bytes();
+            document.ensure(HEADER_SIZE + records.size);
+            document.writeInt(MAGIC);
+            document.writeShort(FORMAT_VERSION);
+            document.writeShort(0);
+            document.size = HEADER_SIZE;
+
+            int stringsOffset = document.size;
+            int end = 0;
+
+            for (byte[] bytes : stringBytes) {
+                document.writeInt(end);
+                end += bytes.length;
+            }
+
+            document.writeInt(end);
+
+            for (byte[] bytes : stringBytes) {
+                document.write(bytes);
+            }
+
+            int typesOffset = document.size;
+            int recordsOffset = typesOffset + 12 * types.size() + 8 * loops.size();
+            types.sort(null);
+
+            for (IndexEntry entry : types) {
+                document.writeInt(entry.kind);
+                document.writeInt(entry.name);
+                document.writeInt(recordsOffset + entry.record);
+            }
+
+            int loopsOffset = document.size;
+            loops.sort(null);
+
+            for (IndexEntry entry : loops) {
+                document.writeInt(entry.name);
+                document.writeInt(recordsOffset + entry.record);
+            }
+
+            document.write(records);
+
+            document.putInt(8, stringBytes.size());
+            document.putInt(12, stringsOffset);
+            document.putInt(16, types.size());
+            document.putInt(20, typesOffset);
+            document.putInt(24, loops.size());
+            document.putInt(28, loopsOffset);
+            document.putInt(32, recordsOffset + schemaRecord);
+            document.putInt(36, 0);
+
+            return Arrays.copyOf(document.data, document.size);
+        }
+
+        static byte[] utf8(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int string(String value) {
+            Integer index = strings.get(value);
+
+            if (index == null) {
+                index = stringBytes.size();
+                strings.put(value, index);
+                stringBytes.add(utf8(value));
+            }
+
+            return index;
+        }
+
+        void writeString(String value) {
+            records.writeVarInt(value != null ? string(value) + 1 : 0);
+        }
+
+        void writeNumber(Object value) {
+            if (value == null) {
+                records.writeVarInt(0);
+                return;
+            }
+
+            long number = value instanceof BigInteger ? ((BigInteger) value).longValueExact() : ((Integer) value).longValue();
+
+            if (number < 0 || number >= Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Value out of range: " + value);
+            }
+
+            records.writeVarInt((int) number + 1);
+        }
+
+        /**
+         * @return true when the list is present, its count having been written
+         */
+        boolean writeCount(List<?> list) {
+            records.writeVarInt(list != null ? list.size() + 1 : 0);
+            return list != null;
+        }
+
+        void writeFlag(Object value) {
+            records.writeByte(value != null ? 1 : 0);
+        }
+
+        void schema(Schema schema, List<BaseType> typeList, Map<BaseType, Integer> typeRecords) {
+            List<Include> include = StaxSchemaWriter.list(StaxSchemaWriter.SCHEMA_INCLUDE, schema);
+            List<BaseType> layout = StaxSchemaWriter.list(StaxSchemaWriter.SCHEMA_LAYOUT, schema);
+
+            if (writeCount(include)) {
+                for (Include i : include) {
+                    writeString(i.getSchemaLocation());
+                }
+            }
+
+            if (writeCount(layout)) {
+                for (BaseType l : layout) {
+                    if (l instanceof Transaction) {
+                        transaction((Transaction) l);
+                    } else if (l instanceof Interchange) {
+                        interchange((Interchange) l);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported layout " + l.getClass().getName());
+                    }
+                }
+            }
+
+            // The types in document order, by the offsets of their records
+            if (writeCount(typeList)) {
+                for (BaseType type : typeList) {
+                    records.writeVarInt(typeRecords.get(type));
+                }
+            }
+        }
+
+        void base(BaseType type) {
+            writeString(type.getTitle());
+            writeString(type.getDescription());
+        }
+
+        void interchange(Interchange interchange) {
+            records.writeByte(INTERCHANGE);
+            writeString(interchange.getHeader());
+            writeString(interchange.getTrailer());
+            base(interchange);
+
+            Interchange.Sequence sequence = interchange.getSequence();
+            writeFlag(sequence);
+
+            if (sequence != null) {
+                List<SegmentStandard> segments = StaxSchemaWriter.list(StaxSchemaWriter.INTERCHANGE_SEGMENT, sequence);
+
+                if (writeCount(segments)) {
+                    for (SegmentStandard segment : segments) {
+                        segmentRef(segment);
+                    }
+                }
+
+                GroupControlType group = sequence.getGroup();
+                writeFlag(group);
+
+                if (group != null) {
+                    use(StaxSchemaWriter.value(StaxSchemaWriter.GROUP_USE, group));
+                    writeString(group.getHeader());
+                    writeString(group.getTrailer());
+                    base(group);
+                    writeFlag(group.getTransaction());
+
+                    if (group.getTransaction() != null) {
+                        transactionControl(group.getTransaction());
+                    }
+                }
+
+                writeFlag(sequence.getTransaction());
+
+                if (sequence.getTransaction() != null) {
+                    transactionControl(sequence.getTransaction());
+                }
+            }
+
+            syntax(StaxSchemaWriter.list(StaxSchemaWriter.INTERCHANGE_SYNTAX, interchange));
+        }
+
+        void use(Object use) {
+            records.writeByte(use != null ? ((UseType) use).ordinal() + 1 : 0);
+        }
+
+        void transactionControl(TransactionControlType transaction) {
+            use(StaxSchemaWriter.value(StaxSchemaWriter.TRANSACTION_USE, transaction));
+            writeString(transaction.getHeader());
+            writeString(transaction.getTrailer());
+            base(transaction);
+        }
+
+        void transaction(Transaction transaction) {
+            records.writeByte(TRANSACTION);
+            base(transaction);
+            layoutSequence(StaxSchemaWriter.list(StaxSchemaWriter.TRANSACTION_SEQUENCE, transaction));
+            syntax(StaxSchemaWriter.list(StaxSchemaWriter.TRANSACTION_SYNTAX, transaction));
+        }
+
+        void layoutSequence(List<BaseType> sequence) {
+            if (writeCount(sequence)) {
+                for (BaseType entry : sequence) {
+                    if (entry instanceof SegmentStandard) {
+                        segmentRef((SegmentStandard) entry);
+                    } else if (entry instanceof LoopStandard) {
+                        loop((LoopStandard) entry);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported layout entry " + entry.getClass().getName());
+                    }
+                }
+            }
+        }
+
+        void loop(LoopStandard loop) {
+            if (loop.getCode() != null) {
+                loops.add(new IndexEntry(0, string(loop.getCode()), utf8(loop.getCode()), records.size));
+            }
+
+            records.writeByte(LOOP);
+            writeString(loop.getCode());
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.LOOP_MIN_OCCURS, loop));
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.LOOP_MAX_OCCURS, loop));
+            base(loop);
+            layoutSequence(StaxSchemaWriter.list(StaxSchemaWriter.LOOP_SEQUENCE, loop));
+            syntax(StaxSchemaWriter.list(StaxSchemaWriter.LOOP_SYNTAX, loop));
+        }
+
+        void segmentRef(SegmentStandard segment) {
+            records.writeByte(SEGMENT);
+            writeString(segment.getType());
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.SEGMENT_REF_MIN_OCCURS, segment));
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.SEGMENT_REF_MAX_OCCURS, segment));
+            base(segment);
+        }
+
+        void type(int kind, BaseType type) {
+            switch (kind) {
+            case 0:
+                elementType((ElementType) type);
+                break;
+            case 1:
+                records.writeByte(COMPOSITE);
+                writeString(((CompositeType) type).getName());
+                structure(type,
+                          StaxSchemaWriter.list(StaxSchemaWriter.COMPOSITE_SEQUENCE, type),
+                          StaxSchemaWriter.list(StaxSchemaWriter.COMPOSITE_SYNTAX, type));
+                break;
+            default:
+                records.writeByte(SEGMENT);
+                writeString(((SegmentType) type).getName());
+                structure(type,
+                          StaxSchemaWriter.list(StaxSchemaWriter.SEGMENT_SEQUENCE, type),
+                          StaxSchemaWriter.list(StaxSchemaWriter.SEGMENT_SYNTAX, type));
+                break;
+            }
+        }
+
+        void elementType(ElementType element) {
+            records.writeByte(ELEMENT);
+            writeString(element.getName());
+            writeString(element.getCode());
+            writeNumber(element.getNumber());
+            ElementBaseType base = (ElementBaseType) StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_BASE, element);
+            records.writeByte(base != null ? base.ordinal() + 1 : 0);
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_SCALE, element));
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_MIN_LENGTH, element));
+            writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_MAX_LENGTH, element));
+            base(element);
+            enumeration(StaxSchemaWriter.list(StaxSchemaWriter.ELEMENT_ENUMERATION, element));
+
+            List<ElementType.Version> versions = StaxSchemaWriter.list(StaxSchemaWriter.ELEMENT_VERSION, element);
+
+            if (writeCount(versions)) {
+                for (ElementType.Version version : versions) {
+                    writeString(version.getMinVersion());
+                    writeString(version.getMaxVersion());
+                    writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_VERSION_MIN_LENGTH, version));
+                    writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_VERSION_MAX_LENGTH, version));
+                    enumeration(StaxSchemaWriter.list(StaxSchemaWriter.ELEMENT_VERSION_ENUMERATION, version));
+                }
+            }
+        }
+
+        void enumeration(List<Value> enumeration) {
+            if (!writeCount(enumeration)) {
+                return;
+            }
+
+            if (enumeration instanceof CodeValues) {
+                CodeValues codes = (CodeValues) enumeration;
+
+                for (int i = 0, m = codes.size(); i < m; i++) {
+                    writeString(codes.getCode(i));
+                    writeString(null);
+                }
+            } else {
+                for (Value value : enumeration) {
+                    writeString(value.getValue());
+                    writeString(value.getTitle());
+                }
+            }
+        }
+
+        void structure(BaseType type, List<BaseType> sequence, List<Syntax> syntax) {
+            base(type);
+
+            if (writeCount(sequence)) {
+                for (BaseType entry : sequence) {
+                    if (entry instanceof ElementStandard) {
+                        records.writeByte(ELEMENT);
+                        ElementStandard ref = (ElementStandard) entry;
+                        writeString(ref.getType());
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_REF_MIN_OCCURS, ref));
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_REF_MAX_OCCURS, ref));
+                        base(ref);
+
+                        List<ElementStandard.Version> versions = StaxSchemaWriter.list(StaxSchemaWriter.ELEMENT_REF_VERSION, ref);
+
+                        if (writeCount(versions)) {
+                            for (ElementStandard.Version version : versions) {
+                                writeString(version.getMinVersion());
+                                writeString(version.getMaxVersion());
+                                writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_REF_VERSION_MIN_OCCURS, version));
+                                writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ELEMENT_REF_VERSION_MAX_OCCURS, version));
+                            }
+                        }
+                    } else if (entry instanceof CompositeStandard) {
+                        records.writeByte(COMPOSITE);
+                        CompositeStandard ref = (CompositeStandard) entry;
+                        writeString(ref.getType());
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.COMPOSITE_REF_MIN_OCCURS, ref));
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.COMPOSITE_REF_MAX_OCCURS, ref));
+                        base(ref);
+
+                        List<CompositeStandard.Version> versions = StaxSchemaWriter.list(StaxSchemaWriter.COMPOSITE_REF_VERSION, ref);
+
+                        if (writeCount(versions)) {
+                            for (CompositeStandard.Version version : versions) {
+                                writeString(version.getMinVersion());
+                                writeString(version.getMaxVersion());
+                                writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.COMPOSITE_REF_VERSION_MIN_OCCURS, version));
+                                writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.COMPOSITE_REF_VERSION_MAX_OCCURS, version));
+                            }
+                        }
+                    } else if (entry instanceof AnyElementType) {
+                        records.writeByte(ANY);
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ANY_MIN_OCCURS, entry));
+                        writeNumber(StaxSchemaWriter.value(StaxSchemaWriter.ANY_MAX_OCCURS, entry));
+                        base(entry);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported sequence entry " + entry.getClass().getName());
+                    }
+                }
+            }
+
+            syntax(syntax);
+        }
+
+        void syntax(List<Syntax> syntax) {
+            if (!writeCount(syntax)) {
+                return;
+            }
+
+            for (Syntax rule : syntax) {
+                records.writeByte(rule.getType() != null ? rule.getType().ordinal() + 1 : 0);
+                List<BigInteger> positions = StaxSchemaWriter.list(StaxSchemaWriter.SYNTAX_POSITION, rule);
+
+                if (writeCount(positions)) {
+                    for (BigInteger position : positions) {
+                        writeNumber(position);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Archive of the schemas of one version, written in place of a directory of
+ * schema files when the {@value #PROPERTY} system property is {@code true}.
+ *
+ * The archive is a ZIP file whose entries are stored uncompressed, at the
+ * paths the schemas would have relative to the version's directory (so that
+ * includes resolve as they do between files). A schema can be read from it
+ * with {@link java.util.zip.ZipFile}: the central directory gives the offset
+ * of each entry, whose bytes are then read with a single seek.
+ *
+ * Entries are written in the order they are {@link #reserve(String)
+ * reserved}, regardless of the order in which the schemas are completed, and
+ * with a fixed time, so that the same schemas always produce the same
+ * archive. The archive is written to a temporary file that replaces the
+ * previous archive once {@link #commit() committed}; a bundle closed without
+ * being committed leaves the previous archive in place.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class SchemaBundle implements Closeable {
+
+    /**
+     * System property enabling the bundle output.
+     */
+    static final String PROPERTY = "schemagen.bundle";
+
+    static final String EXTENSION = ".zip";
+
+    /**
+     * Time of every entry: the earliest a ZIP file can record.
+     */
+    static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+
+    /**
+     * An entry whose schema may not be written yet.
+     */
+    static final class Entry {
+        final String name;
+        byte[] data;
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Path archive;
+    private final Path temp;
+    private final ZipOutputStream zip;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * @param archive
+     *            the archive to write, replaced when the bundle is committed
+     */
+    SchemaBundle(Path archive) throws IOException {
+        this.archive = archive;
+        Files.createDirectories(archive.getParent());
+        this.temp = Files.createTempFile(archive.getParent(), archive.getFileName().toString(), ".tmp");
+        this.zip = new ZipOutputStream(Files.newOutputStream(temp));
+    }
+
+    static boolean fromSystemProperties() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Open an archive as a file system, whose root takes the place of the
+     * version's directory.
+     */
+    static FileSystem open(Path archive) throws IOException {
+        return FileSystems.newFileSystem(archive, (ClassLoader) null);
+    }
+
+    Path getArchive() {
+        return archive;
+    }
+
+    /**
+     * Reserve the next entry of the archive.
+     *
+     * @param name
+     *            path of the entry
+     */
+    synchronized Entry reserve(String name) {
+        Entry entry = new Entry(name);
+        pending.addLast(entry);
+        return entry;
+    }
+
+    /**
+     * Write the schema of a reserved entry. The schema is serialized by the
+     * calling thread, then the entry (and any completed entries reserved
+     * after it) is written once every entry reserved before it is.
+     *
+     * @return the size of the entry
+     */
+    int write(Entry entry, Schema schema, SchemaWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(schema, out);
+
+        synchronized (this) {
+            entry.data = out.toByteArray();
+
+            while (!pending.isEmpty() && pending.peekFirst().data != null) {
+                put(pending.removeFirst());
+            }
+        }
+
+        return out.size();
+    }
+
+    /**
+     * Reserve an entry and write its schema.
+     *
+     * @return the size of the entry
+     */
+    int write(String name, Schema schema, SchemaWriter writer) throws IOException {
+        return write(reserve(name), schema, writer);
+    }
+
+    private void put(Entry entry) throws IOException {
+        if (closed) {
+            throw new IOException("Bundle closed: " + archive);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(entry.data);
+
+        ZipEntry zipEntry = new ZipEntry(entry.name);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(entry.data.length);
+        zipEntry.setCompressedSize(entry.data.length);
+        zipEntry.setCrc(crc.getValue());
+        zipEntry.setTimeLocal(ENTRY_TIME);
+
+        zip.putNextEntry(zipEntry);
+        zip.write(entry.data);
+        zip.closeEntry();
+        entry.data = null;
+    }
+
+    /**
+     * Complete the archive and replace the previous archive with it.
+     *
+     * @throws IOException
+     *             if an entry reserved was not written
+     */
+    synchronized void commit() throws IOException {
+        if (!pending.isEmpty()) {
+            throw new IOException("Bundle " + archive + " incomplete, entries not written: "
+                    + pending.stream().map(entry -> entry.name).collect(Collectors.toList()));
+        }
+
+        zip.close();
+        Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        closed = true;
+    }
+
+    /**
+     * Discard the archive unless it was committed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pending.clear();
+
+            try {
+                zip.close();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-running process answering requests for the schemas of single messages,
+ * generated by one {@link SchemaGenerator} that keeps its schema writer (e.g.
+ * the JAXB context) and the most recently used versions, with their parsed
+ * dictionaries and types, between requests.
+ *
+ * Each request is a line {@code <dialect> <version> <message>}, e.g.
+ * {@code X12 005010 850} or {@code EDIFACT D13B ORDERS}. A schema is answered
+ * by the line {@code OK <length> <path>} followed by the {@code <length>} bytes
+ * of the document, where the path is relative to the dialect's output
+ * directory (e.g. {@code d13b/O/ORDERS.xml}); a failed request is answered by
+ * the line {@code ERROR <reason>}. Lines are UTF-8, ended by a line feed.
+ * Blank lines are ignored and {@code QUIT} ends the session.
+ *
+ * When the {@value #PORT_PROPERTY} system property is set, the daemon listens
+ * on that port of the loopback address and serves each connection on its own
+ * thread until the process is stopped. Otherwise it serves standard input and
+ * output until the input ends, the console log being written to standard
+ * error instead. At most {@value #VERSIONS_PROPERTY} versions (4 by default)
+ * are kept prepared, the least recently used being dropped.
+ */
+final class SchemaDaemon {
+
+    static final Logger log = LoggerFactory.getLogger(SchemaDaemon.class);
+
+    static final String PORT_PROPERTY = "schemagen.daemon.port";
+    static final String VERSIONS_PROPERTY = "schemagen.daemon.versions";
+    static final String QUIT = "QUIT";
+
+    final SchemaGenerator generator;
+
+    SchemaDaemon(SchemaGenerator generator) {
+        this.generator = generator;
+    }
+
+    public static void main(String[] args) throws IOException, JAXBException {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        PrintStream standardOutput = System.out;
+
+        if (port == null) {
+            // The console appender writes to whichever stream is System.out when logging
+            System.setOut(System.err);
+        }
+
+        SchemaGenerator.Builder builder = SchemaGenerator.builder().writer(System.getProperty(SchemaWriter.PROPERTY, "jaxb"));
+        Integer versions = Integer.getInteger(VERSIONS_PROPERTY);
+
+        if (versions != null) {
+            builder.preparedVersions(versions);
+        }
+
+        try (SchemaGenerator schemaGenerator = builder.build()) {
+            SchemaDaemon daemon = new SchemaDaemon(schemaGenerator);
+
+            if (port != null) {
+                daemon.listen(port);
+            } else {
+                log.info("Serving standard input");
+                daemon.serve(System.in, standardOutput);
+            }
+        }
+    }
+
+    /**
+     * Serve each connection to the port of the loopback address on its own
+     * thread, until the process is stopped.
+     */
+    void listen(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            log.info("Listening on {}", server.getLocalSocketAddress());
+
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+
+                connections.execute(() -> {
+                    try (Socket connection = socket) {
+                        serve(connection.getInputStream(), connection.getOutputStream());
+                    } catch (IOException e) {
+                        log.warn("Connection from {} failed", socket.getRemoteSocketAddress(), e);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    /**
+     * Answer the requests read from the input, in order, until it ends or a
+     * {@value #QUIT} request.
+     */
+    void serve(InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        OutputStream out = new BufferedOutputStream(output);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            String request = line.trim();
+
+            if (request.isEmpty()) {
+                continue;
+            }
+
+            if (QUIT.equalsIgnoreCase(request)) {
+                break;
+            }
+
+            answer(request, out);
+            out.flush();
+        }
+
+        out.flush();
+    }
+
+    void answer(String request, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        Map<String, byte[]> documents = new TreeMap<>();
+
+        try {
+            String[] fields = request.split("\\s+");
+
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Expected <dialect> <version> <message>: " + request);
+            }
+
+            generator.generate(dialect(fields[0]), fields[1], fields[2], SchemaSink.memory(documents));
+        } catch (IllegalArgumentException e) {
+            log.info("Request {} rejected: {}", request, e.getMessage());
+            line(out, "ERROR " + reason(e));
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Request {} failed", request, e);
+            line(out, "ERROR " + reason(e));
+            return;
+        }
+
+        Map.Entry<String, byte[]> document = documents.entrySet().iterator().next();
+        log.info("Request {} answered in {} ms", request, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        line(out, "OK " + document.getValue().length + " " + document.getKey());
+        out.write(document.getValue());
+    }
+
+    static SchemaGenerator.Dialect dialect(String name) {
+        for (SchemaGenerator.Dialect dialect : SchemaGenerator.Dialect.values()) {
+            if (dialect.name().equalsIgnoreCase(name)) {
+                return dialect;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown dialect: " + name);
+    }
+
+    /**
+     * @return the message of the exception on a single line
+     */
+    static String reason(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        return message.replaceAll("\\s+", " ");
+    }
+
+    static void line(OutputStream out, String text) throws IOException {
+        out.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
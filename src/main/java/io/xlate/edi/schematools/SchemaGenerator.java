@@ -1,6 +1,123 @@
 package io.xlate.edi.schematools;
 
-public class SchemaGenerator {
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
+
+import javax.xml.bind.JAXBException;
+
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Generates the schemas of X12 versions and EDIFACT releases.
+ *
+ * Run as a program, the generator of the dialect given by the {@code dialect}
+ * system property ({@code X12} or {@code EDIFACT}) writes every configured
+ * version to {@code target/<dialect>}, as configured by system properties.
+ * With {@code dialect} set to {@code daemon}, a {@link SchemaDaemon} serves
+ * single messages on request instead.
+ *
+ * Used as a library, an instance created by {@link #builder()} generates one
+ * version at a time on request, reading the standards from a class loader and
+ * writing the schemas to a {@link SchemaSink}. The instance keeps its schema
+ * writer (e.g. the JAXB context) and the archives of the standards it has
+ * opened, so that later requests do not repeat that work. A request generates
+ * either the whole version or a single message (or X12 transaction) of it: no
+ * manifest is kept and the schemas are not bundled.
+ *
+ * The most recently used versions are kept, each with the EDIFACT dictionaries
+ * parsed for it and, once a single message of it is requested, prepared with
+ * its types parsed, so that a request only parses the message's own table. A
+ * version dropped from the cache is dropped with its dictionaries, the memory
+ * held being bounded by the number of versions kept.
+ *
+ * Instances are safe for use by multiple threads, each request being
+ * generated by the calling thread. An instance is to be closed once no longer
+ * used, which deletes the archives extracted to temporary files.
+ */
+public final class SchemaGenerator implements Closeable {
+
+    public enum Dialect {
+        X12,
+        EDIFACT
+    }
+
+    /**
+     * Configuration of a {@link SchemaGenerator}.
+     */
+    public static final class Builder {
+        private ClassLoader resources = SchemaGenerator.class.getClassLoader();
+        private String writer = "jaxb";
+        private boolean sharedTypes;
+        private int preparedVersions = 4;
+
+        Builder() {
+        }
+
+        /**
+         * @param resources
+         *            class loader of the standards and their configuration
+         *            ({@code x12-versions.properties},
+         *            {@code edifact-versions.properties}), by default the
+         *            generator's own
+         */
+        public Builder resources(ClassLoader resources) {
+            this.resources = resources;
+            return this;
+        }
+
+        /**
+         * @param writer
+         *            name of the schema writer: {@code jaxb} (the default),
+         *            {@code stax} or {@code packed}
+         */
+        public Builder writer(String writer) {
+            this.writer = writer;
+            return this;
+        }
+
+        /**
+         * @param sharedTypes
+         *            whether the types of a version are written to a types
+         *            document included by its messages
+         */
+        public Builder sharedTypes(boolean sharedTypes) {
+            this.sharedTypes = sharedTypes;
+            return this;
+        }
+
+        /**
+         * @param preparedVersions
+         *            maximum number of versions kept with their dictionaries
+         *            and prepared for single messages (4 by default), the
+         *            least recently used being dropped
+         */
+        public Builder preparedVersions(int preparedVersions) {
+            if (preparedVersions < 1) {
+                throw new IllegalArgumentException("At least one prepared version must be kept");
+            }
+            this.preparedVersions = preparedVersions;
+            return this;
+        }
+
+        /**
+         * @throws JAXBException
+         *             if the JAXB writer is selected and its context can not
+         *             be created
+         */
+        public SchemaGenerator build() throws JAXBException {
+            return new SchemaGenerator(resources, SchemaWriter.forName(writer), sharedTypes, preparedVersions);
+        }
+    }
 
     public static void main(String[] args) throws Exception {
         final String dialect = System.getProperty("dialect", "<Not specified>");
@@ -9,9 +126,337 @@ public class SchemaGenerator {
             X12SchemaXmlGenerator.main(args);
         } else if ("EDIFACT".equals(dialect)) {
             EdifactSchemaXmlGenerator.main(args);
+        } else if ("daemon".equals(dialect)) {
+            SchemaDaemon.main(args);
         } else {
             System.err.println("Unknown dialect: " + dialect);
         }
     }
 
+    final ClassLoader resources;
+    final SchemaWriter writer;
+    final boolean sharedTypes;
+    final ArchiveResolver archives;
+
+    /**
+     * The versions kept, by dialect and version, in order of use. Guarded by
+     * itself.
+     */
+    final Map<String, CachedVersion> versions;
+
+    private List<String> x12Versions;
+    private Properties edifactConfig;
+    private List<EdifactSchemaXmlGenerator.Release> edifactReleases;
+
+    /**
+     * A version with its types parsed, generating its messages one at a time.
+     * Not safe for use by multiple threads.
+     */
+    interface PreparedVersion {
+        /**
+         * Write the schema of a message to the sink.
+         *
+         * @return false if the version has no such message
+         */
+        boolean generate(String message, SchemaSink sink) throws IOException;
+    }
+
+    /**
+     * A version kept between requests, with the dictionaries parsed for it.
+     */
+    static final class CachedVersion {
+        final DictionaryCache dictionaries = new DictionaryCache(null, null, Collections.emptyMap());
+
+        /**
+         * The version prepared for single messages, once requested. Guarded by
+         * this.
+         */
+        PreparedVersion prepared;
+    }
+
+    SchemaGenerator(ClassLoader resources, SchemaWriter writer, boolean sharedTypes, int preparedVersions) {
+        this.resources = resources;
+        this.writer = writer;
+        this.sharedTypes = sharedTypes;
+        this.archives = new ArchiveResolver(resources);
+        this.versions = new LinkedHashMap<String, CachedVersion>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedVersion> eldest) {
+                return size() > preparedVersions;
+            }
+        };
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the configured versions of the dialect, e.g. {@code 005010}
+     *         for X12 or {@code d13b} for EDIFACT
+     */
+    public List<String> getVersions(Dialect dialect) throws IOException {
+        if (dialect == Dialect.X12) {
+            return getX12Versions();
+        }
+
+        List<String> names = new ArrayList<>();
+
+        for (EdifactSchemaXmlGenerator.Release release : getEdifactReleases()) {
+            names.add(release.name);
+        }
+
+        return names;
+    }
+
+    /**
+     * Generate the schemas of a version, written to the sink at their paths
+     * relative to the dialect's output directory, e.g.
+     * {@code 005010/8XX/850.xml} or {@code d13b/O/ORDERS.xml}.
+     *
+     * @param version
+     *            the version, one of {@link #getVersions(Dialect)} (an EDIFACT
+     *            release in any case)
+     * @throws IllegalArgumentException
+     *             if the version is not configured
+     */
+    public void generate(Dialect dialect, String version, SchemaSink sink) throws IOException {
+        if (dialect == Dialect.X12) {
+            generateX12(version, sink);
+        } else {
+            generateEdifact(version, sink);
+        }
+    }
+
+    void generateX12(String version, SchemaSink sink) throws IOException {
+        if (!getX12Versions().contains(version)) {
+            throw new IllegalArgumentException("Unknown X12 version: " + version);
+        }
+
+        X12SchemaXmlGenerator generator = new X12SchemaXmlGenerator(writer,
+                                                                    newManifest(X12SchemaXmlGenerator.OUTPUT),
+                                                                    sharedTypes,
+                                                                    false,
+                                                                    GenerationMetrics.DISABLED,
+                                                                    resources,
+                                                                    sink);
+        generator.addVersion(generator.findZip(version), version);
+    }
+
+    void generateEdifact(String version, SchemaSink sink) throws IOException {
+        EdifactSchemaXmlGenerator.Release release = getEdifactRelease(version);
+        boolean includeTitles = Boolean.parseBoolean(getEdifactConfig().getProperty("includeTitles", "false"));
+
+        // Schemas are written by the calling thread as they are submitted
+        EdifactSchemaXmlGenerator generator = new EdifactSchemaXmlGenerator(writer,
+                                                                            newManifest(EdifactSchemaXmlGenerator.OUTPUT),
+                                                                            includeTitles,
+                                                                            sharedTypes,
+                                                                            false,
+                                                                            Runnable::run,
+                                                                            null,
+                                                                            cached(Dialect.EDIFACT + " " + release.name).dictionaries,
+                                                                            GenerationMetrics.DISABLED,
+                                                                            archives,
+                                                                            sink);
+
+        try {
+            generator.generate(release).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Generate the schema of a single message (or X12 transaction) of a
+     * version, written to the sink at its path relative to the dialect's
+     * output directory, e.g. {@code 005010/8XX/850.xml} or
+     * {@code d13b/O/ORDERS.xml}. The schema always includes its own types.
+     *
+     * The version is prepared by the first request for one of its messages
+     * and kept for later requests, up to the configured number of versions
+     * kept. Requests for the messages of one version are generated one at a
+     * time.
+     *
+     * @param version
+     *            the version, one of {@link #getVersions(Dialect)} (an EDIFACT
+     *            release in any case)
+     * @param message
+     *            the message, e.g. {@code 850} or {@code ORDERS} (in any case)
+     * @throws IllegalArgumentException
+     *             if the version is not configured or has no such message
+     */
+    public void generate(Dialect dialect, String version, String message, SchemaSink sink) throws IOException {
+        PreparedVersion preparedVersion = prepare(dialect, version);
+        boolean found;
+
+        synchronized (preparedVersion) {
+            found = preparedVersion.generate(message.toUpperCase(), sink);
+        }
+
+        if (!found) {
+            throw new IllegalArgumentException("Unknown " + dialect + " message: " + version + " " + message);
+        }
+    }
+
+    /**
+     * @return the prepared version, prepared by the calling thread unless kept
+     *         or being prepared by another
+     */
+    PreparedVersion prepare(Dialect dialect, String version) throws IOException {
+        final EdifactSchemaXmlGenerator.Release release;
+        final CachedVersion cached;
+
+        if (dialect == Dialect.X12) {
+            if (!getX12Versions().contains(version)) {
+                throw new IllegalArgumentException("Unknown X12 version: " + version);
+            }
+            release = null;
+            cached = cached(dialect + " " + version);
+        } else {
+            release = getEdifactRelease(version);
+            cached = cached(dialect + " " + release.name);
+        }
+
+        synchronized (cached) {
+            // A failed preparation is not kept, the next request trying again
+            if (cached.prepared == null) {
+                cached.prepared = release != null ? prepareEdifact(release, cached.dictionaries) : prepareX12(version);
+            }
+
+            return cached.prepared;
+        }
+    }
+
+    /**
+     * @return the version kept by the key, kept from now on if it was not,
+     *         possibly dropping the least recently used
+     */
+    CachedVersion cached(String key) {
+        synchronized (versions) {
+            return versions.computeIfAbsent(key, k -> new CachedVersion());
+        }
+    }
+
+    PreparedVersion prepareX12(String version) throws IOException {
+        X12SchemaXmlGenerator generator = new X12SchemaXmlGenerator(writer,
+                                                                    newManifest(X12SchemaXmlGenerator.OUTPUT),
+                                                                    false,
+                                                                    false,
+                                                                    GenerationMetrics.DISABLED,
+                                                                    resources,
+                                                                    null);
+        generator.prepare(generator.findZip(version), version);
+
+        return (message, sink) -> {
+            Schema schema = generator.transactionSchema(message);
+
+            if (schema == null) {
+                return false;
+            }
+
+            write(schema, version + "/" + X12SchemaXmlGenerator.transactionPath(message, writer.getExtension()), sink);
+            return true;
+        };
+    }
+
+    PreparedVersion prepareEdifact(EdifactSchemaXmlGenerator.Release release, DictionaryCache dictionaries) throws IOException {
+        boolean includeTitles = Boolean.parseBoolean(getEdifactConfig().getProperty("includeTitles", "false"));
+
+        EdifactSchemaXmlGenerator generator = new EdifactSchemaXmlGenerator(writer,
+                                                                            newManifest(EdifactSchemaXmlGenerator.OUTPUT),
+                                                                            includeTitles,
+                                                                            false,
+                                                                            false,
+                                                                            Runnable::run,
+                                                                            null,
+                                                                            dictionaries,
+                                                                            GenerationMetrics.DISABLED,
+                                                                            archives,
+                                                                            null);
+        generator.prepare(release);
+
+        return (message, sink) -> {
+            Schema schema = generator.messageSchema(message);
+
+            if (schema == null) {
+                return false;
+            }
+
+            write(schema, XmlGenerator.relativePath(EdifactSchemaXmlGenerator.OUTPUT, generator.messageFilename(release, message)), sink);
+            return true;
+        };
+    }
+
+    void write(Schema schema, String path, SchemaSink sink) throws IOException {
+        try (OutputStream out = sink.open(path)) {
+            writer.write(schema, out);
+        }
+    }
+
+    /**
+     * @return the cause of a failed generation to be thrown, unless it is
+     *         itself unchecked and thrown at once
+     */
+    static IOException unwrap(CompletionException e) {
+        Exception cause = EdifactSchemaXmlGenerator.unwrap(e);
+
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    EdifactSchemaXmlGenerator.Release getEdifactRelease(String version) throws IOException {
+        for (EdifactSchemaXmlGenerator.Release release : getEdifactReleases()) {
+            if (release.name.equalsIgnoreCase(version)) {
+                return release;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown EDIFACT release: " + version);
+    }
+
+    /**
+     * @return an empty manifest, for which every output is to be generated
+     */
+    static GenerationManifest newManifest(Path directory) {
+        return new GenerationManifest(directory, null, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    synchronized List<String> getX12Versions() throws IOException {
+        if (x12Versions == null) {
+            Properties config = XmlGenerator.loadProperties(resources, X12SchemaXmlGenerator.CONFIGURATION);
+            x12Versions = Collections.unmodifiableList(Arrays.asList(config.getProperty("versions").split(",")));
+        }
+
+        return x12Versions;
+    }
+
+    synchronized Properties getEdifactConfig() throws IOException {
+        if (edifactConfig == null) {
+            edifactConfig = XmlGenerator.loadProperties(resources, EdifactSchemaXmlGenerator.CONFIGURATION);
+        }
+
+        return edifactConfig;
+    }
+
+    synchronized List<EdifactSchemaXmlGenerator.Release> getEdifactReleases() throws IOException {
+        if (edifactReleases == null) {
+            edifactReleases = EdifactSchemaXmlGenerator.getReleases(getEdifactConfig(), false);
+        }
+
+        return edifactReleases;
+    }
+
+    /**
+     * Close the archives of the standards and delete those extracted. The
+     * generator may be used again afterward, re-opening archives as needed.
+     */
+    @Override
+    public void close() throws IOException {
+        archives.close();
+    }
 }
@@ -0,0 +1,60 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Thread-safe marshalling service for {@link Schema} documents. A single
+ * {@link JAXBContext} is created per instance and each thread lazily obtains
+ * its own {@link Marshaller} configured by
+ * {@link XmlGenerator#createMarshaller(JAXBContext)}, since marshallers
+ * themselves may not be shared between threads.
+ */
+class SchemaMarshaller implements SchemaWriter {
+
+    private final JAXBContext context;
+    private final ThreadLocal<Marshaller> marshallers;
+
+    SchemaMarshaller() throws JAXBException {
+        this(JAXBContext.newInstance(Schema.class));
+    }
+
+    SchemaMarshaller(JAXBContext context) {
+        this.context = context;
+        this.marshallers = ThreadLocal.withInitial(() -> {
+            try {
+                return XmlGenerator.createMarshaller(this.context);
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Unable to create marshaller", e);
+            }
+        });
+    }
+
+    JAXBContext getContext() {
+        return context;
+    }
+
+    void marshal(Schema schema, OutputStream out) throws JAXBException {
+        marshallers.get().marshal(schema, out);
+    }
+
+    @Override
+    public String getName() {
+        return "jaxb";
+    }
+
+    @Override
+    public void write(Schema schema, OutputStream out) throws IOException {
+        try {
+            marshal(schema, out);
+        } catch (JAXBException e) {
+            throw new IOException("Unable to marshal schema", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Destination of the schema documents written by the generators. Each
+ * document is identified by its path relative to the root of the output, with
+ * {@code /} separators, e.g. {@code 005010/8XX/850.xml} or
+ * {@code d13b/O/ORDERS.xml}.
+ *
+ * Implementations must be safe for use by multiple threads: the documents of
+ * a version may be written concurrently.
+ */
+@FunctionalInterface
+public interface SchemaSink {
+
+    /**
+     * Open a document for writing. The document is complete once the stream
+     * is closed.
+     *
+     * @param path
+     *            path of the document relative to the root of the output
+     */
+    OutputStream open(String path) throws IOException;
+
+    /**
+     * @return a sink writing each document to a file at its path within the
+     *         directory, creating parent directories as needed
+     */
+    static SchemaSink directory(Path directory) {
+        return path -> {
+            Path file = directory.resolve(path);
+            Files.createDirectories(file.getParent());
+            return new FileOutputStream(file.toFile());
+        };
+    }
+
+    /**
+     * @return a sink putting the content of each document into the map by
+     *         its path, once complete. The map is synchronized on while
+     *         modified.
+     */
+    static SchemaSink memory(Map<String, byte[]> documents) {
+        return path -> new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                synchronized (documents) {
+                    documents.put(path, toByteArray());
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a sink writing each document as an entry of the ZIP stream,
+     *         once complete. The stream is synchronized on while written and
+     *         is to be finished by the caller.
+     */
+    static SchemaSink zip(ZipOutputStream zip) {
+        return path -> new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                synchronized (zip) {
+                    zip.putNextEntry(new ZipEntry(path));
+                    writeTo(zip);
+                    zip.closeEntry();
+                }
+            }
+        };
+    }
+}
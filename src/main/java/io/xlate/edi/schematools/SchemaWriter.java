@@ -0,0 +1,62 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBException;
+
+import io.xlate.edischema.v4.Schema;
+
+/**
+ * Output backend used by the generators to serialize a {@link Schema}
+ * document. Implementations must be safe for use by multiple threads.
+ */
+interface SchemaWriter {
+
+    /**
+     * Name of the system property used to select the writer backend for a run.
+     */
+    static final String PROPERTY = "schemagen.writer";
+
+    void write(Schema schema, OutputStream out) throws IOException;
+
+    /**
+     * @return the name selecting this writer with the {@value #PROPERTY}
+     *         system property
+     */
+    String getName();
+
+    /**
+     * @return the file name extension of the documents written, including
+     *         the dot
+     */
+    default String getExtension() {
+        return ".xml";
+    }
+
+    /**
+     * Create the writer backend selected by the {@value #PROPERTY} system
+     * property: {@code jaxb} (the default), {@code stax} or {@code packed}.
+     *
+     * @return the selected writer
+     * @throws JAXBException
+     *             if the JAXB backend is selected and its context can not be
+     *             created
+     */
+    static SchemaWriter fromSystemProperties() throws JAXBException {
+        return forName(System.getProperty(PROPERTY, "jaxb"));
+    }
+
+    static SchemaWriter forName(String name) throws JAXBException {
+        switch (name) {
+        case "jaxb":
+            return new SchemaMarshaller();
+        case "stax":
+            return new StaxSchemaWriter();
+        case "packed":
+            return new PackedSchemaWriter();
+        default:
+            throw new IllegalArgumentException("Unknown schema writer: " + name);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Minimal UTF-8 {@link XMLStreamWriter} for schema documents. Unlike the
+ * JDK's implementation, characters are escaped exactly as the JAXB runtime
+ * escapes them: markup characters and carriage returns always, quotes and
+ * line feeds only within attribute values. Namespaces are written as given
+ * (no repairing) and the XML declaration always declares
+ * {@code standalone="yes"}, the same as the JAXB marshaller does.
+ *
+ * Characters are encoded directly into an internal byte buffer which is only
+ * written to the underlying stream when full or flushed. Output matches the
+ * JAXB runtime's for well-formed text; the JAXB runtime's handling of
+ * unpaired surrogates is inconsistent and is not reproduced.
+ */
+class SchemaXmlStreamWriter implements XMLStreamWriter {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private final Deque<String> elements = new ArrayDeque<>();
+    private boolean startTagOpen = false;
+    private boolean emptyElement = false;
+    private NamespaceContext namespaceContext;
+
+    SchemaXmlStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        closeStartTag();
+        write('<');
+        write(localName);
+        elements.push(localName);
+        startTagOpen = true;
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeStartElement(localName);
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        writeStartElement(prefix.isEmpty() ? localName : prefix + ':' + localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        closeStartTag();
+        write('<');
+        write(localName);
+        startTagOpen = true;
+        emptyElement = true;
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        writeEmptyElement(prefix.isEmpty() ? localName : prefix + ':' + localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        closeStartTag();
+        write("</");
+        write(elements.pop());
+        write('>');
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (!elements.isEmpty()) {
+            writeEndElement();
+        }
+        closeStartTag();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        // The underlying output stream is not closed
+        flush();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        if (!startTagOpen) {
+            throw new XMLStreamException("Attribute written outside of a start tag: " + localName);
+        }
+        write(' ');
+        write(localName);
+        write("=\"");
+        escape(value, true);
+        write('"');
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        writeAttribute(prefix.isEmpty() ? localName : prefix + ':' + localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (prefix == null || prefix.isEmpty() || "xmlns".equals(prefix)) {
+            writeDefaultNamespace(namespaceURI);
+        } else {
+            writeAttribute("xmlns:" + prefix, namespaceURI);
+        }
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        writeAttribute("xmlns", namespaceURI);
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        closeStartTag();
+        write("<!--");
+        write(data);
+        write("-->");
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        writeProcessingInstruction(target, null);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        closeStartTag();
+        write("<?");
+        write(target);
+        if (data != null) {
+            write(' ');
+            write(data);
+        }
+        write("?>");
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        closeStartTag();
+        write("<![CDATA[");
+        write(data);
+        write("]]>");
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        write(dtd);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        closeStartTag();
+        write('&');
+        write(name);
+        write(';');
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        writeStartDocument("UTF-8", "1.0");
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        writeStartDocument("UTF-8", version);
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        if (!"UTF-8".equalsIgnoreCase(encoding)) {
+            throw new XMLStreamException("Unsupported encoding: " + encoding);
+        }
+        write("<?xml version=\"");
+        write(version);
+        write("\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        closeStartTag();
+        escape(text, false);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        writeCharacters(new String(text, start, len));
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return namespaceContext != null ? namespaceContext.getPrefix(uri) : null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        // Namespace repairing is not supported, prefixes are written as given
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        // Namespace repairing is not supported, prefixes are written as given
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        this.namespaceContext = context;
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        throw new IllegalArgumentException("Unsupported property: " + name);
+    }
+
+    void closeStartTag() throws XMLStreamException {
+        if (startTagOpen) {
+            write(emptyElement ? "/>" : ">");
+            startTagOpen = false;
+            emptyElement = false;
+        }
+    }
+
+    void escape(String value, boolean attribute) throws XMLStreamException {
+        int start = 0;
+
+        for (int i = 0, m = value.length(); i < m; i++) {
+            String entity;
+
+            switch (value.charAt(i)) {
+            case '&':
+                entity = "&amp;";
+                break;
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '\r':
+                entity = "&#13;";
+                break;
+            case '"':
+                entity = attribute ? "&quot;" : null;
+                break;
+            case '\n':
+                entity = attribute ? "&#10;" : null;
+                break;
+            default:
+                entity = null;
+                break;
+            }
+
+            if (entity != null) {
+                write(value, start, i);
+                write(entity);
+                start = i + 1;
+            }
+        }
+
+        write(value, start, value.length());
+    }
+
+    void write(String value) throws XMLStreamException {
+        write(value, 0, value.length());
+    }
+
+    /**
+     * Encode the characters of value from start (inclusive) to end (exclusive)
+     * as UTF-8. Malformed surrogates are replaced with '?', the same as the
+     * JDK's encoder.
+     */
+    void write(String value, int start, int end) throws XMLStreamException {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                write(0xF0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3F));
+                write(0x80 | ((codePoint >> 6) & 0x3F));
+                write(0x80 | (codePoint & 0x3F));
+            } else {
+                write('?');
+            }
+        }
+    }
+
+    void write(int value) throws XMLStreamException {
+        if (position == buffer.length) {
+            try {
+                out.write(buffer, 0, position);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+            position = 0;
+        }
+
+        buffer[position++] = (byte) value;
+    }
+}
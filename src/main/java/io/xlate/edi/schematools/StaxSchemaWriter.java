@@ -0,0 +1,607 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import io.xlate.edischema.v4.AnyElementType;
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.GroupControlType;
+import io.xlate.edischema.v4.Include;
+import io.xlate.edischema.v4.Interchange;
+import io.xlate.edischema.v4.LoopBase;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Syntax;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.TransactionControlType;
+import io.xlate.edischema.v4.UseType;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Writes EDISchema-v4 documents directly to an {@link XMLStreamWriter}
+ * without the JAXB runtime. The output is byte-identical to that of
+ * {@link SchemaMarshaller}: the same XML declaration, 4-space indentation and
+ * attribute order (declared attributes before inherited ones) are produced
+ * here, and {@link SchemaXmlStreamWriter} applies the JAXB character escaping.
+ *
+ * The model's list getters lazily create empty lists (JAXB writes an empty
+ * wrapper element for an empty but not for a null list) and several attribute
+ * getters return the schema's default value when the attribute is not set, so
+ * those fields are read directly through {@link VarHandle}s. This also avoids
+ * modifying the model while it is being written.
+ */
+class StaxSchemaWriter implements SchemaWriter {
+
+    static final String INDENT = "    ";
+
+    static final VarHandle SCHEMA_INCLUDE = field(Schema.class, "include");
+    static final VarHandle SCHEMA_LAYOUT = field(Schema.class, "layout");
+    static final VarHandle SCHEMA_TYPES = field(Schema.class, "types");
+    static final VarHandle ELEMENT_ENUMERATION = field(ElementType.class, "enumeration");
+    static final VarHandle ELEMENT_VERSION = field(ElementType.class, "version");
+    static final VarHandle ELEMENT_VERSION_ENUMERATION = field(ElementType.Version.class, "enumeration");
+    static final VarHandle COMPOSITE_SEQUENCE = field(CompositeType.class, "sequence");
+    static final VarHandle COMPOSITE_SYNTAX = field(CompositeType.class, "syntax");
+    static final VarHandle SEGMENT_SEQUENCE = field(SegmentType.class, "sequence");
+    static final VarHandle SEGMENT_SYNTAX = field(SegmentType.class, "syntax");
+    static final VarHandle ELEMENT_REF_VERSION = field(ElementStandard.class, "version");
+    static final VarHandle COMPOSITE_REF_VERSION = field(CompositeStandard.class, "version");
+    static final VarHandle TRANSACTION_SEQUENCE = field(Transaction.class, "sequence");
+    static final VarHandle TRANSACTION_SYNTAX = field(Transaction.class, "syntax");
+    static final VarHandle LOOP_SEQUENCE = field(LoopStandard.class, "sequence");
+    static final VarHandle LOOP_SYNTAX = field(LoopStandard.class, "syntax");
+    static final VarHandle INTERCHANGE_SYNTAX = field(Interchange.class, "syntax");
+    static final VarHandle INTERCHANGE_SEGMENT = field(Interchange.Sequence.class, "segment");
+    static final VarHandle SYNTAX_POSITION = field(Syntax.class, "position");
+
+    static final VarHandle ELEMENT_BASE = field(ElementType.class, "base");
+    static final VarHandle ELEMENT_SCALE = field(ElementType.class, "scale");
+    static final VarHandle ELEMENT_MIN_LENGTH = field(ElementType.class, "minLength");
+    static final VarHandle ELEMENT_MAX_LENGTH = field(ElementType.class, "maxLength");
+    static final VarHandle ELEMENT_VERSION_MIN_LENGTH = field(ElementType.Version.class, "minLength");
+    static final VarHandle ELEMENT_VERSION_MAX_LENGTH = field(ElementType.Version.class, "maxLength");
+    static final VarHandle ELEMENT_REF_MIN_OCCURS = field(ElementStandard.class, "minOccurs");
+    static final VarHandle ELEMENT_REF_MAX_OCCURS = field(ElementStandard.class, "maxOccurs");
+    static final VarHandle ELEMENT_REF_VERSION_MIN_OCCURS = field(ElementStandard.Version.class, "minOccurs");
+    static final VarHandle ELEMENT_REF_VERSION_MAX_OCCURS = field(ElementStandard.Version.class, "maxOccurs");
+    static final VarHandle COMPOSITE_REF_MIN_OCCURS = field(CompositeStandard.class, "minOccurs");
+    static final VarHandle COMPOSITE_REF_MAX_OCCURS = field(CompositeStandard.class, "maxOccurs");
+    static final VarHandle COMPOSITE_REF_VERSION_MIN_OCCURS = field(CompositeStandard.Version.class, "minOccurs");
+    static final VarHandle COMPOSITE_REF_VERSION_MAX_OCCURS = field(CompositeStandard.Version.class, "maxOccurs");
+    static final VarHandle SEGMENT_REF_MIN_OCCURS = field(SegmentStandard.class, "minOccurs");
+    static final VarHandle SEGMENT_REF_MAX_OCCURS = field(SegmentStandard.class, "maxOccurs");
+    static final VarHandle LOOP_MIN_OCCURS = field(LoopBase.class, "minOccurs");
+    static final VarHandle LOOP_MAX_OCCURS = field(LoopBase.class, "maxOccurs");
+    static final VarHandle ANY_MIN_OCCURS = field(AnyElementType.class, "minOccurs");
+    static final VarHandle ANY_MAX_OCCURS = field(AnyElementType.class, "maxOccurs");
+    static final VarHandle GROUP_USE = field(GroupControlType.class, "use");
+    static final VarHandle TRANSACTION_USE = field(TransactionControlType.class, "use");
+
+    static VarHandle field(Class<?> type, String name) {
+        try {
+            Class<?> fieldType = type.getDeclaredField(name).getType();
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup()).findVarHandle(type, name, fieldType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> List<T> list(VarHandle handle, Object instance) {
+        return (List<T>) handle.get(instance);
+    }
+
+    static Object value(VarHandle handle, Object instance) {
+        return handle.get(instance);
+    }
+
+    static boolean isEmpty(List<?> list) {
+        return list == null || list.isEmpty();
+    }
+
+    @Override
+    public String getName() {
+        return "stax";
+    }
+
+    @Override
+    public void write(Schema schema, OutputStream out) throws IOException {
+        try {
+            XMLStreamWriter writer = new SchemaXmlStreamWriter(out);
+            new Output(writer).schema(schema);
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to write schema", e);
+        }
+    }
+
+    /**
+     * Per-document state, tracks the current depth for indentation.
+     */
+    static class Output {
+        final XMLStreamWriter writer;
+        int depth = 0;
+
+        Output(XMLStreamWriter writer) {
+            this.writer = writer;
+        }
+
+        void schema(Schema schema) throws XMLStreamException {
+            List<Include> include = list(SCHEMA_INCLUDE, schema);
+            List<BaseType> layout = list(SCHEMA_LAYOUT, schema);
+            List<BaseType> types = list(SCHEMA_TYPES, schema);
+
+            boolean empty = isEmpty(include) && isEmpty(layout) && isEmpty(types);
+
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+
+            if (empty) {
+                writer.writeEmptyElement("schema");
+            } else {
+                writer.writeStartElement("schema");
+            }
+
+            writer.writeDefaultNamespace(XmlGenerator.NAMESPACE);
+            writer.writeNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+            writer.writeAttribute("xsi:schemaLocation", XmlGenerator.SCHEMA_LOCATION);
+
+            if (!empty) {
+                depth++;
+
+                if (include != null) {
+                    for (Include i : include) {
+                        startElement("include", true);
+                        attribute("schemaLocation", i.getSchemaLocation());
+                    }
+                }
+
+                if (layout != null) {
+                    for (BaseType l : layout) {
+                        if (l instanceof Transaction) {
+                            transaction((Transaction) l);
+                        } else if (l instanceof Interchange) {
+                            interchange((Interchange) l);
+                        } else {
+                            throw new IllegalArgumentException("Unsupported layout " + l.getClass().getName());
+                        }
+                    }
+                }
+
+                if (types != null) {
+                    for (BaseType t : types) {
+                        if (t instanceof ElementType) {
+                            elementType((ElementType) t);
+                        } else if (t instanceof CompositeType) {
+                            compositeType((CompositeType) t);
+                        } else if (t instanceof SegmentType) {
+                            segmentType((SegmentType) t);
+                        } else {
+                            throw new IllegalArgumentException("Unsupported type " + t.getClass().getName());
+                        }
+                    }
+                }
+
+                endElement();
+            }
+
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+        }
+
+        void interchange(Interchange interchange) throws XMLStreamException {
+            Interchange.Sequence sequence = interchange.getSequence();
+            List<Syntax> syntax = list(INTERCHANGE_SYNTAX, interchange);
+            boolean empty = interchange.getDescription() == null && sequence == null && isEmpty(syntax);
+
+            startElement("interchange", empty);
+            attribute("header", interchange.getHeader());
+            attribute("trailer", interchange.getTrailer());
+            attribute("title", interchange.getTitle());
+
+            if (!empty) {
+                description(interchange);
+
+                if (sequence != null) {
+                    List<SegmentStandard> segments = list(INTERCHANGE_SEGMENT, sequence);
+                    boolean emptySequence = isEmpty(segments) && sequence.getGroup() == null && sequence.getTransaction() == null;
+                    startElement("sequence", emptySequence);
+
+                    if (!emptySequence) {
+                        if (segments != null) {
+                            for (SegmentStandard segment : segments) {
+                                segmentRef(segment);
+                            }
+                        }
+                        if (sequence.getGroup() != null) {
+                            groupControl(sequence.getGroup());
+                        }
+                        if (sequence.getTransaction() != null) {
+                            transactionControl("transaction", sequence.getTransaction());
+                        }
+                        endElement();
+                    }
+                }
+
+                syntax(syntax);
+                endElement();
+            }
+        }
+
+        void groupControl(GroupControlType group) throws XMLStreamException {
+            boolean empty = group.getDescription() == null && group.getTransaction() == null;
+
+            startElement("group", empty);
+            UseType use = (UseType) value(GROUP_USE, group);
+            attribute("use", use != null ? use.value() : null);
+            attribute("header", group.getHeader());
+            attribute("trailer", group.getTrailer());
+            attribute("title", group.getTitle());
+
+            if (!empty) {
+                description(group);
+                if (group.getTransaction() != null) {
+                    transactionControl("transaction", group.getTransaction());
+                }
+                endElement();
+            }
+        }
+
+        void transactionControl(String name, TransactionControlType transaction) throws XMLStreamException {
+            boolean empty = transaction.getDescription() == null;
+
+            startElement(name, empty);
+            UseType use = (UseType) value(TRANSACTION_USE, transaction);
+            attribute("use", use != null ? use.value() : null);
+            attribute("header", transaction.getHeader());
+            attribute("trailer", transaction.getTrailer());
+            attribute("title", transaction.getTitle());
+
+            if (!empty) {
+                description(transaction);
+                endElement();
+            }
+        }
+
+        void transaction(Transaction transaction) throws XMLStreamException {
+            List<BaseType> sequence = list(TRANSACTION_SEQUENCE, transaction);
+            List<Syntax> syntax = list(TRANSACTION_SYNTAX, transaction);
+            boolean empty = transaction.getDescription() == null && sequence == null && isEmpty(syntax);
+
+            startElement("transaction", empty);
+            attribute("title", transaction.getTitle());
+
+            if (!empty) {
+                description(transaction);
+                layoutSequence(sequence);
+                syntax(syntax);
+                endElement();
+            }
+        }
+
+        void loop(LoopStandard loop) throws XMLStreamException {
+            List<BaseType> sequence = list(LOOP_SEQUENCE, loop);
+            List<Syntax> syntax = list(LOOP_SYNTAX, loop);
+            boolean empty = loop.getDescription() == null && sequence == null && isEmpty(syntax);
+
+            startElement("loop", empty);
+            attribute("code", loop.getCode());
+            attribute("minOccurs", value(LOOP_MIN_OCCURS, loop));
+            attribute("maxOccurs", value(LOOP_MAX_OCCURS, loop));
+            attribute("title", loop.getTitle());
+
+            if (!empty) {
+                description(loop);
+                layoutSequence(sequence);
+                syntax(syntax);
+                endElement();
+            }
+        }
+
+        void layoutSequence(List<BaseType> sequence) throws XMLStreamException {
+            if (sequence == null) {
+                return;
+            }
+
+            startElement("sequence", sequence.isEmpty());
+
+            if (!sequence.isEmpty()) {
+                for (BaseType entry : sequence) {
+                    if (entry instanceof SegmentStandard) {
+                        segmentRef((SegmentStandard) entry);
+                    } else if (entry instanceof LoopStandard) {
+                        loop((LoopStandard) entry);
+                    } else {
+                        throw new IllegalArgumentException("Unsupported layout entry " + entry.getClass().getName());
+                    }
+                }
+                endElement();
+            }
+        }
+
+        void segmentRef(SegmentStandard segment) throws XMLStreamException {
+            boolean empty = segment.getDescription() == null;
+
+            startElement("segment", empty);
+            attribute("type", segment.getType());
+            attribute("minOccurs", value(SEGMENT_REF_MIN_OCCURS, segment));
+            attribute("maxOccurs", value(SEGMENT_REF_MAX_OCCURS, segment));
+            attribute("title", segment.getTitle());
+
+            if (!empty) {
+                description(segment);
+                endElement();
+            }
+        }
+
+        void elementType(ElementType element) throws XMLStreamException {
+            List<Value> enumeration = list(ELEMENT_ENUMERATION, element);
+            List<ElementType.Version> versions = list(ELEMENT_VERSION, element);
+            boolean empty = element.getDescription() == null && enumeration == null && isEmpty(versions);
+
+            startElement("elementType", empty);
+            attribute("name", element.getName());
+            attribute("code", element.getCode());
+            attribute("number", element.getNumber());
+            ElementBaseType base = (ElementBaseType) value(ELEMENT_BASE, element);
+            attribute("base", base != null ? base.value() : null);
+            attribute("scale", value(ELEMENT_SCALE, element));
+            attribute("minLength", value(ELEMENT_MIN_LENGTH, element));
+            attribute("maxLength", value(ELEMENT_MAX_LENGTH, element));
+            attribute("title", element.getTitle());
+
+            if (!empty) {
+                description(element);
+                enumeration(enumeration);
+
+                if (versions != null) {
+                    for (ElementType.Version version : versions) {
+                        List<Value> versionEnumeration = list(ELEMENT_VERSION_ENUMERATION, version);
+                        startElement("version", versionEnumeration == null);
+                        attribute("minVersion", version.getMinVersion());
+                        attribute("maxVersion", version.getMaxVersion());
+                        attribute("minLength", value(ELEMENT_VERSION_MIN_LENGTH, version));
+                        attribute("maxLength", value(ELEMENT_VERSION_MAX_LENGTH, version));
+
+                        if (versionEnumeration != null) {
+                            enumeration(versionEnumeration);
+                            endElement();
+                        }
+                    }
+                }
+
+                endElement();
+            }
+        }
+
+        void enumeration(List<Value> enumeration) throws XMLStreamException {
+            if (enumeration == null) {
+                return;
+            }
+
+            startElement("enumeration", enumeration.isEmpty());
+
+            if (!enumeration.isEmpty()) {
+                if (enumeration instanceof CodeValues) {
+                    CodeValues codes = (CodeValues) enumeration;
+
+                    for (int i = 0, m = codes.size(); i < m; i++) {
+                        startElement("value", false);
+                        writer.writeCharacters(codes.getCode(i));
+                        writer.writeEndElement();
+                        depth--;
+                    }
+                } else {
+                    for (Value value : enumeration) {
+                        startElement("value", value.getValue() == null);
+                        attribute("title", value.getTitle());
+
+                        if (value.getValue() != null) {
+                            writer.writeCharacters(value.getValue());
+                            writer.writeEndElement();
+                            depth--;
+                        }
+                    }
+                }
+                endElement();
+            }
+        }
+
+        void compositeType(CompositeType composite) throws XMLStreamException {
+            List<BaseType> sequence = list(COMPOSITE_SEQUENCE, composite);
+            List<Syntax> syntax = list(COMPOSITE_SYNTAX, composite);
+            structure("compositeType", composite, composite.getName(), sequence, syntax, false);
+        }
+
+        void segmentType(SegmentType segment) throws XMLStreamException {
+            List<BaseType> sequence = list(SEGMENT_SEQUENCE, segment);
+            List<Syntax> syntax = list(SEGMENT_SYNTAX, segment);
+            structure("segmentType", segment, segment.getName(), sequence, syntax, true);
+        }
+
+        void structure(String name,
+                       BaseType type,
+                       String typeName,
+                       List<BaseType> sequence,
+                       List<Syntax> syntax,
+                       boolean composites) throws XMLStreamException {
+            boolean empty = type.getDescription() == null && sequence == null && isEmpty(syntax);
+
+            startElement(name, empty);
+            attribute("name", typeName);
+            attribute("title", type.getTitle());
+
+            if (!empty) {
+                description(type);
+
+                if (sequence != null) {
+                    startElement("sequence", sequence.isEmpty());
+
+                    if (!sequence.isEmpty()) {
+                        for (BaseType entry : sequence) {
+                            if (entry instanceof ElementStandard) {
+                                ElementStandard ref = (ElementStandard) entry;
+                                List<ElementStandard.Version> versions = list(ELEMENT_REF_VERSION, ref);
+                                reference("element", ref, ref.getType(), value(ELEMENT_REF_MIN_OCCURS, ref),
+                                          value(ELEMENT_REF_MAX_OCCURS, ref), isEmpty(versions));
+
+                                if (!isEmpty(versions)) {
+                                    for (ElementStandard.Version version : versions) {
+                                        referenceVersion(version.getMinVersion(), version.getMaxVersion(),
+                                                         value(ELEMENT_REF_VERSION_MIN_OCCURS, version),
+                                                         value(ELEMENT_REF_VERSION_MAX_OCCURS, version));
+                                    }
+                                    endElement();
+                                }
+                            } else if (composites && entry instanceof CompositeStandard) {
+                                CompositeStandard ref = (CompositeStandard) entry;
+                                List<CompositeStandard.Version> versions = list(COMPOSITE_REF_VERSION, ref);
+                                reference("composite", ref, ref.getType(), value(COMPOSITE_REF_MIN_OCCURS, ref),
+                                          value(COMPOSITE_REF_MAX_OCCURS, ref), isEmpty(versions));
+
+                                if (!isEmpty(versions)) {
+                                    for (CompositeStandard.Version version : versions) {
+                                        referenceVersion(version.getMinVersion(), version.getMaxVersion(),
+                                                         value(COMPOSITE_REF_VERSION_MIN_OCCURS, version),
+                                                         value(COMPOSITE_REF_VERSION_MAX_OCCURS, version));
+                                    }
+                                    endElement();
+                                }
+                            } else if (entry instanceof AnyElementType) {
+                                AnyElementType any = (AnyElementType) entry;
+                                boolean emptyAny = any.getDescription() == null;
+                                startElement("any", emptyAny);
+                                attribute("minOccurs", value(ANY_MIN_OCCURS, any));
+                                attribute("maxOccurs", value(ANY_MAX_OCCURS, any));
+                                attribute("title", any.getTitle());
+
+                                if (!emptyAny) {
+                                    description(any);
+                                    endElement();
+                                }
+                            } else {
+                                throw new IllegalArgumentException("Unsupported sequence entry " + entry.getClass().getName());
+                            }
+                        }
+                        endElement();
+                    }
+                }
+
+                syntax(syntax);
+                endElement();
+            }
+        }
+
+        /**
+         * Start an element or composite reference, leaving it open when
+         * version children follow.
+         */
+        void reference(String name, BaseType ref, String type, Object minOccurs, Object maxOccurs, boolean noVersions)
+                throws XMLStreamException {
+            boolean empty = ref.getDescription() == null && noVersions;
+
+            startElement(name, empty);
+            attribute("type", type);
+            attribute("minOccurs", minOccurs);
+            attribute("maxOccurs", maxOccurs);
+            attribute("title", ref.getTitle());
+
+            if (!empty) {
+                description(ref);
+
+                if (noVersions) {
+                    endElement();
+                }
+            }
+        }
+
+        void referenceVersion(String minVersion, String maxVersion, Object minOccurs, Object maxOccurs) throws XMLStreamException {
+            startElement("version", true);
+            attribute("minVersion", minVersion);
+            attribute("maxVersion", maxVersion);
+            attribute("minOccurs", minOccurs);
+            attribute("maxOccurs", maxOccurs);
+        }
+
+        void syntax(List<Syntax> syntax) throws XMLStreamException {
+            if (syntax == null) {
+                return;
+            }
+
+            for (Syntax s : syntax) {
+                List<?> positions = list(SYNTAX_POSITION, s);
+                startElement("syntax", isEmpty(positions));
+                attribute("type", s.getType() != null ? s.getType().value() : null);
+
+                if (!isEmpty(positions)) {
+                    for (Object position : positions) {
+                        textElement("position", String.valueOf(position));
+                    }
+                    endElement();
+                }
+            }
+        }
+
+        void description(BaseType type) throws XMLStreamException {
+            if (type.getDescription() != null) {
+                textElement("description", type.getDescription());
+            }
+        }
+
+        void textElement(String name, String text) throws XMLStreamException {
+            indent();
+            writer.writeStartElement(name);
+            writer.writeCharacters(text);
+            writer.writeEndElement();
+        }
+
+        void startElement(String name, boolean empty) throws XMLStreamException {
+            indent();
+
+            if (empty) {
+                writer.writeEmptyElement(name);
+            } else {
+                writer.writeStartElement(name);
+                depth++;
+            }
+        }
+
+        void endElement() throws XMLStreamException {
+            depth--;
+            indent();
+            writer.writeEndElement();
+        }
+
+        void attribute(String name, Object value) throws XMLStreamException {
+            if (value != null) {
+                writer.writeAttribute(name, value.toString());
+            }
+        }
+
+        /**
+         * Write a new line and indentation. The JAXB runtime only indents up
+         * to 7 levels and then wraps around to the left margin, so the same
+         * is done here.
+         */
+        void indent() throws XMLStreamException {
+            writer.writeCharacters("\n");
+
+            for (int i = 0, m = depth % 8; i < m; i++) {
+                writer.writeCharacters(INDENT);
+            }
+        }
+    }
+}
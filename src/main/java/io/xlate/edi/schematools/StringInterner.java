@@ -0,0 +1,130 @@
+package io.xlate.edi.schematools;
+
+/**
+ * Table of canonical strings, looked up by a range of characters so that a
+ * value already present is returned without creating a new String. Values
+ * parsed from several directories (identifiers, codes, titles) are thereby
+ * shared rather than held once per release.
+ *
+ * Each {@link DictionaryCache} owns a table, holding the strings of the
+ * dictionaries it caches for as long as the cache is used. The table is split
+ * into {@value #SEGMENTS} segments by hash, each locked separately, so that
+ * releases and messages parsed concurrently seldom wait for one another.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class StringInterner {
+
+    static final int SEGMENTS = 16;
+
+    /**
+     * An open-addressing table of the strings whose hash selects it.
+     */
+    static final class Segment {
+        private String[] table = new String[64];
+        private int size;
+
+        synchronized String intern(int hash, int spread, char[] chars, int start, int end) {
+            int mask = table.length - 1;
+            int slot = spread & mask;
+            String value;
+
+            while ((value = table[slot]) != null) {
+                if (value.hashCode() == hash && StringInterner.equals(value, chars, start, end)) {
+                    return value;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            value = new String(chars, start, end - start);
+            table[slot] = value;
+
+            if (++size > table.length / 2) {
+                resize();
+            }
+
+            return value;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        void resize() {
+            String[] previous = table;
+            table = new String[previous.length * 2];
+            int mask = table.length - 1;
+
+            for (String value : previous) {
+                if (value != null) {
+                    int slot = spread(value.hashCode()) & mask;
+
+                    while (table[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    table[slot] = value;
+                }
+            }
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    StringInterner() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the canonical string with the characters
+     *         {@code chars[start, end)}
+     */
+    String intern(char[] chars, int start, int end) {
+        int hash = 0;
+
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int spread = spread(hash);
+        // The segment is chosen by the high bits, the slot within it by the low bits
+        return segments[spread >>> 28].intern(hash, spread, chars, start, end);
+    }
+
+    /**
+     * @return the canonical string equal to value
+     */
+    String intern(String value) {
+        return intern(value.toCharArray(), 0, value.length());
+    }
+
+    int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    static boolean equals(String value, char[] chars, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i - start) != chars[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
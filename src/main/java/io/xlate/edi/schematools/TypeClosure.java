@@ -0,0 +1,243 @@
+package io.xlate.edi.schematools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentType;
+
+/**
+ * The types of one version (segments, composites and elements) each with the
+ * types it references, directly or through its composites: its
+ * <em>closure</em>. A closure is computed the first time it is requested and
+ * then shared by every message of the version.
+ *
+ * A closure lists its types in the order they are first reached by a
+ * depth-first walk of the sequences, starting with the type itself. A type
+ * that cannot be resolved is given as null.
+ *
+ * The types of the version are also ranked once in the order of
+ * {@link XmlGenerator#sortTypes(Schema)}, so that the types collected for
+ * each schema are sorted by comparing integers.
+ *
+ * Computing a closure is measured as the {@link GenerationMetrics.Phase#CLOSURE}
+ * phase and ranking the types as the {@link GenerationMetrics.Phase#SORT}
+ * phase, both of the version as a whole.
+ *
+ * Instances are safe for use by multiple threads, once the types they resolve
+ * are complete.
+ */
+class TypeClosure {
+
+    static final Logger log = LoggerFactory.getLogger(TypeClosure.class);
+
+    private final Function<String, BaseType> types;
+    private final Supplier<Collection<BaseType>> allTypes;
+    private final Function<GenerationMetrics.Phase, GenerationMetrics.Measurement> measurements;
+    private final Map<String, BaseType[]> closures = new ConcurrentHashMap<>();
+    private volatile Map<BaseType, Integer> ranks;
+
+    /**
+     * @param types
+     *            resolves a type by its name
+     * @param allTypes
+     *            supplies every type of the version
+     */
+    TypeClosure(Function<String, BaseType> types, Supplier<Collection<BaseType>> allTypes) {
+        this(types, allTypes, phase -> GenerationMetrics.DISABLED.start(phase, null, null));
+    }
+
+    /**
+     * @param measurements
+     *            starts a measurement of a phase of the version
+     */
+    TypeClosure(Function<String, BaseType> types,
+                Supplier<Collection<BaseType>> allTypes,
+                Function<GenerationMetrics.Phase, GenerationMetrics.Measurement> measurements) {
+        this.types = types;
+        this.allTypes = allTypes;
+        this.measurements = measurements;
+    }
+
+    /**
+     * @return the closure of the named type
+     */
+    BaseType[] get(String typeId) {
+        BaseType[] closure = closures.get(typeId);
+
+        if (closure == null) {
+            GenerationMetrics.Measurement measurement = measurements.apply(GenerationMetrics.Phase.CLOSURE);
+            List<BaseType> reached = new ArrayList<>();
+            walk(typeId, reached);
+            closure = reached.toArray(new BaseType[0]);
+            measurement.types(closure.length).end();
+            BaseType[] previous = closures.putIfAbsent(typeId, closure);
+
+            if (previous != null) {
+                closure = previous;
+            }
+        }
+
+        return closure;
+    }
+
+    /**
+     * @return the position of the type among the sorted types of the version,
+     *         shared by types that sort as equal, or
+     *         {@link Integer#MAX_VALUE} for a type not of the version
+     */
+    int rank(BaseType type) {
+        Map<BaseType, Integer> ranked = ranks;
+
+        if (ranked == null) {
+            ranked = rankTypes();
+        }
+
+        Integer rank = ranked.get(type);
+        return rank != null ? rank : Integer.MAX_VALUE;
+    }
+
+    synchronized Map<BaseType, Integer> rankTypes() {
+        if (ranks == null) {
+            GenerationMetrics.Measurement measurement = measurements.apply(GenerationMetrics.Phase.SORT);
+            List<BaseType> sorted = new ArrayList<>(allTypes.get());
+            XmlGenerator.sortTypes(sorted);
+            Map<BaseType, Integer> ranked = new IdentityHashMap<>(sorted.size() * 2);
+            int rank = 0;
+
+            for (int i = 0; i < sorted.size(); i++) {
+                if (i > 0 && XmlGenerator.compare(sorted.get(i - 1), sorted.get(i)) != 0) {
+                    rank = i;
+                }
+                ranked.put(sorted.get(i), rank);
+            }
+
+            ranks = ranked;
+            measurement.types(sorted.size()).end();
+        }
+
+        return ranks;
+    }
+
+    /**
+     * @return the index of the types of the schema, initially empty
+     */
+    SchemaTypes of(Schema schema) {
+        return new SchemaTypes(schema.getTypes());
+    }
+
+    void walk(String typeId, List<BaseType> reached) {
+        BaseType type = types.apply(typeId);
+
+        // A closure is small, searching it is cheaper than indexing it
+        for (BaseType previous : reached) {
+            if (previous == type) {
+                return;
+            }
+        }
+
+        reached.add(type);
+
+        if (type instanceof SegmentType) {
+            for (BaseType target : ((SegmentType) type).getSequence()) {
+                if (target instanceof ElementStandard) {
+                    walk(((ElementStandard) target).getType(), reached);
+                } else if (target instanceof CompositeStandard) {
+                    walk(((CompositeStandard) target).getType(), reached);
+                }
+            }
+        } else if (type instanceof CompositeType) {
+            for (BaseType target : ((CompositeType) type).getSequence()) {
+                if (target instanceof ElementStandard) {
+                    walk(((ElementStandard) target).getType(), reached);
+                }
+            }
+        }
+    }
+
+    /**
+     * The types of one schema, with an identity index of its members and
+     * their ranks. Types are only added to the schema's types through this
+     * index.
+     */
+    class SchemaTypes {
+        private final List<BaseType> types;
+        private final Set<BaseType> members = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int[] typeRanks = new int[16];
+
+        SchemaTypes(List<BaseType> types) {
+            this.types = types;
+        }
+
+        /**
+         * Add the closure of the named type to the schema's types, less the
+         * types already present.
+         */
+        void add(String typeId) {
+            BaseType[] closure = get(typeId);
+
+            if (!members.add(closure[0])) {
+                log.debug("{} already in messageTypes", closure[0]);
+                return;
+            }
+
+            insert(closure[0]);
+
+            for (int i = 1; i < closure.length; i++) {
+                // Types already present were added with their own closures
+                if (members.add(closure[i])) {
+                    insert(closure[i]);
+                }
+            }
+        }
+
+        void insert(BaseType type) {
+            int size = types.size();
+
+            if (size == typeRanks.length) {
+                typeRanks = Arrays.copyOf(typeRanks, size * 2);
+            }
+
+            typeRanks[size] = rank(type);
+            types.add(type);
+        }
+
+        /**
+         * Sort the schema's types as {@link XmlGenerator#sortTypes(Schema)}
+         * would, by rank and then by the order they were added.
+         */
+        void sort() {
+            int size = types.size();
+            long[] keys = new long[size];
+
+            for (int i = 0; i < size; i++) {
+                keys[i] = (long) typeRanks[i] << 32 | i;
+            }
+
+            Arrays.sort(keys);
+            BaseType[] sorted = types.toArray(new BaseType[size]);
+
+            for (int i = 0; i < size; i++) {
+                int index = (int) keys[i];
+                types.set(i, sorted[index]);
+                typeRanks[i] = (int) (keys[i] >>> 32);
+            }
+        }
+    }
+}
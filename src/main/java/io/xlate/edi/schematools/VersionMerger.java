@@ -0,0 +1,894 @@
+package io.xlate.edi.schematools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.CompositeStandard;
+import io.xlate.edischema.v4.CompositeType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.Include;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Syntax;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.Value;
+
+/**
+ * Merges the schemas of a transaction (or message) in successive versions
+ * into schemas each covering a range of versions, using the {@code version}
+ * children of element types and of element and composite references, with
+ * their {@code minVersion} and {@code maxVersion}.
+ *
+ * The versions of a range must agree on everything the schema can not give
+ * by version: the layout (segment and loop references), the base of each
+ * element type, the syntax rules and the types referenced at each position of
+ * a segment or composite. A segment or composite may gain trailing elements,
+ * which are given {@code maxOccurs="0"} in the versions without them. Lengths,
+ * enumerations and occurrences that differ between the versions of a range
+ * are given by version; all else (titles, descriptions) is taken from the
+ * latest version. A version that can not be merged starts a new range, as
+ * does one whose name does not sort after the previous version's, since
+ * parsers compare the names.
+ *
+ * As in {@link StaxSchemaWriter}, the lists and attributes of the model are
+ * read directly, so that the schemas read are not modified (their types may
+ * be shared with other schemas) and unset attributes remain unset.
+ *
+ * Instances are safe for use by multiple threads.
+ */
+class VersionMerger {
+
+    static final Logger log = LoggerFactory.getLogger(VersionMerger.class);
+
+    /**
+     * System property enabling the merged output, written to the
+     * {@value #MERGED} directory of the generator's output after every
+     * version is generated.
+     */
+    static final String PROPERTY = "schemagen.mergeVersions";
+
+    /**
+     * Name of the directory of the merged schemas, within the output
+     * directory.
+     */
+    static final String MERGED = "merged";
+
+    /**
+     * The occurrences of a reference in a version whose sequence ends before
+     * it.
+     */
+    static final List<Object> NONE = Arrays.asList(BigInteger.ZERO, BigInteger.ZERO);
+
+    /**
+     * The schema of a range of versions.
+     */
+    static final class Range {
+        final String minVersion;
+        final String maxVersion;
+        final Schema schema;
+
+        Range(String minVersion, String maxVersion, Schema schema) {
+            this.minVersion = minVersion;
+            this.maxVersion = maxVersion;
+            this.schema = schema;
+        }
+    }
+
+    private final JAXBContext context;
+    private final ThreadLocal<Unmarshaller> unmarshallers;
+    private final Map<Path, TypeClosure> included = new ConcurrentHashMap<>();
+
+    VersionMerger() throws JAXBException {
+        this.context = JAXBContext.newInstance(Schema.class);
+        this.unmarshallers = ThreadLocal.withInitial(() -> {
+            try {
+                return this.context.createUnmarshaller();
+            } catch (JAXBException e) {
+                throw new IllegalStateException("Unable to create unmarshaller", e);
+            }
+        });
+    }
+
+    static boolean fromSystemProperties() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Merge the schemas written for each version to the output directory, at
+     * {@code <output>/<version>/<path>}, into schemas written at
+     * {@code <output>/merged/<path>} for the range ending with the latest
+     * version and {@code <output>/merged/<path>-<minVersion>-<maxVersion>.xml}
+     * for earlier ranges, in the format of the writer (which is also the
+     * format read). Schemas previously written to the merged directory are
+     * removed. A types document ({@code types.xml}) of a version is only read
+     * as the include of its schemas.
+     *
+     * When bundled, the schemas are read from the archive of each version,
+     * {@code <output>/<version>.zip}, and the merged schemas are written to
+     * the archive {@code <output>/merged.zip}, at the same paths.
+     *
+     * @param output
+     *            output directory of the generator
+     * @param versions
+     *            the versions to merge, oldest first
+     * @param threads
+     *            maximum number of schemas to merge concurrently
+     * @param writer
+     *            writer used to output the merged schemas
+     * @param bundle
+     *            whether the schemas are read from and written to archives
+     * @return the failure of each schema that could not be merged, by path
+     */
+    Map<String, Exception> mergeVersions(Path output, List<String> versions, int threads, SchemaWriter writer, boolean bundle)
+            throws IOException {
+        Path merged = output.resolve(MERGED);
+        String extension = writer.getExtension();
+        Map<String, Path> directories = new HashMap<>();
+        List<FileSystem> archives = new ArrayList<>();
+        Map<String, List<String>> paths = new TreeMap<>();
+        ExecutorService executor = null;
+
+        try (SchemaBundle mergedBundle = bundle ? new SchemaBundle(output.resolve(MERGED + SchemaBundle.EXTENSION)) : null) {
+            for (String version : versions) {
+                Path directory = output.resolve(version);
+
+                if (bundle) {
+                    Path archive = output.resolve(version + SchemaBundle.EXTENSION);
+
+                    if (!Files.isRegularFile(archive)) {
+                        continue;
+                    }
+
+                    FileSystem archiveFiles = SchemaBundle.open(archive);
+                    archives.add(archiveFiles);
+                    directory = archiveFiles.getPath("/");
+                }
+
+                directories.put(version, directory);
+
+                for (String path : schemaPaths(directory, extension)) {
+                    paths.computeIfAbsent(path, k -> new ArrayList<>()).add(version);
+                }
+            }
+
+            if (!bundle && Files.isDirectory(merged)) {
+                for (String path : schemaPaths(merged, extension)) {
+                    Files.delete(merged.resolve(path));
+                }
+            }
+
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, paths.size())));
+            Map<String, Future<List<Range>>> results = new LinkedHashMap<>();
+            Map<String, Exception> failures = new LinkedHashMap<>();
+
+            for (Map.Entry<String, List<String>> entry : paths.entrySet()) {
+                String path = entry.getKey();
+                List<String> pathVersions = entry.getValue();
+
+                results.put(path, executor.submit(() -> {
+                    List<Schema> schemas = new ArrayList<>(pathVersions.size());
+
+                    for (String version : pathVersions) {
+                        schemas.add(read(directories.get(version).resolve(path)));
+                    }
+
+                    List<Range> ranges = merge(pathVersions, schemas);
+
+                    if (mergedBundle == null) {
+                        write(merged, path, extension, ranges, writer);
+                    }
+
+                    return ranges;
+                }));
+            }
+
+            for (Map.Entry<String, Future<List<Range>>> result : results.entrySet()) {
+                try {
+                    List<Range> ranges = result.getValue().get();
+
+                    if (mergedBundle != null) {
+                        // Written in the order of the paths, as they complete
+                        for (int i = 0; i < ranges.size(); i++) {
+                            mergedBundle.write(rangePath(result.getKey(), extension, ranges, i), ranges.get(i).schema, writer);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    log.error("Exception merging {}", result.getKey(), cause);
+                    failures.put(result.getKey(), cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(result.getKey(), e);
+                }
+            }
+
+            if (mergedBundle != null) {
+                mergedBundle.commit();
+            }
+
+            log.info("{} schemas of {} versions merged", paths.size(), versions.size());
+            return failures;
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
+            included.clear();
+
+            for (FileSystem archiveFiles : archives) {
+                archiveFiles.close();
+            }
+        }
+    }
+
+    /**
+     * @return the paths, relative to the directory, of the schemas in it and
+     *         its subdirectories, less the directory's types document
+     */
+    static List<String> schemaPaths(Path directory, String extension) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+
+        Path types = directory.resolve(XmlGenerator.TYPES + extension);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                        .filter(file -> file.getFileName().toString().endsWith(extension))
+                        .filter(file -> !file.equals(types))
+                        .map(file -> directory.relativize(file).toString().replace('\\', '/'))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    static void write(Path merged, String path, String extension, List<Range> ranges, SchemaWriter writer)
+            throws IOException {
+        for (int i = 0; i < ranges.size(); i++) {
+            Path filename = merged.resolve(rangePath(path, extension, ranges, i));
+            Files.createDirectories(filename.getParent());
+
+            try (OutputStream out = new FileOutputStream(filename.toString())) {
+                writer.write(ranges.get(i).schema, out);
+            }
+        }
+    }
+
+    /**
+     * @return the path of the merged schema of a range: the path of the
+     *         schema for the last range, else the path with the range's
+     *         versions appended to its name
+     */
+    static String rangePath(String path, String extension, List<Range> ranges, int index) {
+        if (index == ranges.size() - 1) {
+            return path;
+        }
+
+        Range range = ranges.get(index);
+        return path.substring(0, path.length() - extension.length()) + '-' + range.minVersion + '-' + range.maxVersion + extension;
+    }
+
+    /**
+     * Read a schema, adding the types its layout uses from the types documents
+     * it includes (each read once) to its own.
+     */
+    Schema read(Path file) throws IOException, JAXBException {
+        Schema schema = load(file);
+
+        for (Include include : schema.getInclude()) {
+            Path location = file.resolveSibling(include.getSchemaLocation()).normalize();
+            TypeClosure closure = included.get(location);
+
+            if (closure == null) {
+                Map<String, BaseType> types = new HashMap<>();
+
+                for (BaseType type : load(location).getTypes()) {
+                    types.put(XmlGenerator.name(type, XmlGenerator.kind(type)), type);
+                }
+
+                closure = new TypeClosure(types::get, types::values);
+                TypeClosure previous = included.putIfAbsent(location, closure);
+                closure = previous != null ? previous : closure;
+            }
+
+            TypeClosure.SchemaTypes schemaTypes = closure.of(schema);
+
+            for (BaseType type : schema.getLayout()) {
+                if (type instanceof Transaction) {
+                    addSegments(schemaTypes, list(StaxSchemaWriter.TRANSACTION_SEQUENCE, type));
+                }
+            }
+
+            schemaTypes.sort();
+        }
+
+        schema.getInclude().clear();
+        return schema;
+    }
+
+    Schema load(Path file) throws IOException, JAXBException {
+        if (file.getFileName().toString().endsWith(PackedSchemaWriter.EXTENSION)) {
+            return PackedSchema.wrap(ByteBuffer.wrap(Files.readAllBytes(file))).toSchema();
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            return (Schema) unmarshallers.get().unmarshal(in);
+        }
+    }
+
+    static void addSegments(TypeClosure.SchemaTypes schemaTypes, List<BaseType> sequence) {
+        if (sequence == null) {
+            return;
+        }
+
+        for (BaseType reference : sequence) {
+            if (reference instanceof SegmentStandard) {
+                schemaTypes.add(((SegmentStandard) reference).getType());
+            } else {
+                addSegments(schemaTypes, list(StaxSchemaWriter.LOOP_SEQUENCE, reference));
+            }
+        }
+    }
+
+    /**
+     * Merge the schemas of one transaction.
+     *
+     * @param versions
+     *            the versions of the schemas, oldest first
+     * @param schemas
+     *            the schema of each version, left unmodified
+     * @return the schemas of consecutive ranges of the versions, oldest first
+     */
+    static List<Range> merge(List<String> versions, List<Schema> schemas) {
+        List<Range> ranges = new ArrayList<>();
+        Shapes shapes = new Shapes(schemas.get(0));
+        int first = 0;
+
+        for (int i = 1; i < schemas.size(); i++) {
+            Schema schema = schemas.get(i);
+
+            if (versions.get(i).compareTo(versions.get(i - 1)) <= 0 || !shapes.add(schema)) {
+                ranges.add(range(versions.subList(first, i), schemas.subList(first, i)));
+                shapes = new Shapes(schema);
+                first = i;
+            }
+        }
+
+        ranges.add(range(versions.subList(first, schemas.size()), schemas.subList(first, schemas.size())));
+        return ranges;
+    }
+
+    /**
+     * The structure shared by the schemas of a range: the layout and, for
+     * each type, what may not differ by version.
+     */
+    static final class Shapes {
+        final String layout;
+        final Map<String, Shape> types = new HashMap<>();
+
+        Shapes(Schema schema) {
+            layout = layout(schema.getLayout());
+
+            for (BaseType type : schema.getTypes()) {
+                Shape shape = new Shape(type);
+                types.put(shape.name, shape);
+            }
+        }
+
+        /**
+         * Add a schema to the range if it agrees with the range's structure.
+         *
+         * @return false if the schema can not be merged with the range, which
+         *         is then unchanged
+         */
+        boolean add(Schema schema) {
+            if (!layout.equals(layout(schema.getLayout()))) {
+                return false;
+            }
+
+            List<Shape> added = new ArrayList<>(schema.getTypes().size());
+
+            for (BaseType type : schema.getTypes()) {
+                Shape shape = new Shape(type);
+                Shape previous = types.get(shape.name);
+
+                if (previous != null) {
+                    if (!previous.agrees(shape)) {
+                        return false;
+                    }
+                    if (previous.references.size() >= shape.references.size()) {
+                        continue;
+                    }
+                }
+
+                added.add(shape);
+            }
+
+            for (Shape shape : added) {
+                types.put(shape.name, shape);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * What may not differ by version for one type: its kind, the base of an
+     * element type, or the references and syntax rules of a segment or
+     * composite type, where a shorter list of references must start the
+     * longer.
+     */
+    static final class Shape {
+        final String name;
+        final int kind;
+        final String structure;
+        final List<String> references;
+
+        Shape(BaseType type) {
+            kind = XmlGenerator.kind(type);
+            name = kind + XmlGenerator.name(type, kind);
+
+            if (type instanceof ElementType) {
+                structure = value(StaxSchemaWriter.ELEMENT_BASE, type) + "/" + value(StaxSchemaWriter.ELEMENT_SCALE, type);
+                references = Collections.emptyList();
+            } else if (type instanceof SegmentType) {
+                structure = syntax(list(StaxSchemaWriter.SEGMENT_SYNTAX, type));
+                references = references(list(StaxSchemaWriter.SEGMENT_SEQUENCE, type));
+            } else if (type instanceof CompositeType) {
+                structure = syntax(list(StaxSchemaWriter.COMPOSITE_SYNTAX, type));
+                references = references(list(StaxSchemaWriter.COMPOSITE_SEQUENCE, type));
+            } else {
+                throw new IllegalArgumentException("Unexpected type: " + type);
+            }
+        }
+
+        boolean agrees(Shape other) {
+            if (kind != other.kind || !structure.equals(other.structure)) {
+                return false;
+            }
+
+            int count = Math.min(references.size(), other.references.size());
+
+            if (references.size() != other.references.size() && (any(references) || any(other.references))) {
+                // Undefined elements can not be limited by version
+                return false;
+            }
+
+            return references.subList(0, count).equals(other.references.subList(0, count));
+        }
+
+        static boolean any(List<String> references) {
+            for (String reference : references) {
+                if (reference.charAt(0) == 'A') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        static List<String> references(List<BaseType> sequence) {
+            if (sequence == null) {
+                return Collections.emptyList();
+            }
+
+            List<String> references = new ArrayList<>(sequence.size());
+
+            for (BaseType reference : sequence) {
+                if (reference instanceof ElementStandard) {
+                    references.add("E" + ((ElementStandard) reference).getType());
+                } else if (reference instanceof CompositeStandard) {
+                    references.add("C" + ((CompositeStandard) reference).getType());
+                } else {
+                    references.add("A" + value(StaxSchemaWriter.ANY_MIN_OCCURS, reference) + '/'
+                            + value(StaxSchemaWriter.ANY_MAX_OCCURS, reference));
+                }
+            }
+
+            return references;
+        }
+    }
+
+    static String layout(List<BaseType> layout) {
+        StringBuilder buffer = new StringBuilder();
+
+        for (BaseType type : layout) {
+            if (type instanceof Transaction) {
+                buffer.append("T[");
+                layout(buffer, list(StaxSchemaWriter.TRANSACTION_SEQUENCE, type));
+                buffer.append(']').append(syntax(list(StaxSchemaWriter.TRANSACTION_SYNTAX, type)));
+            } else {
+                throw new IllegalArgumentException("Unexpected layout: " + type);
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    static void layout(StringBuilder buffer, List<BaseType> sequence) {
+        if (sequence == null) {
+            return;
+        }
+
+        for (BaseType reference : sequence) {
+            if (reference instanceof SegmentStandard) {
+                SegmentStandard segment = (SegmentStandard) reference;
+                buffer.append('S').append(segment.getType());
+                buffer.append('/').append(value(StaxSchemaWriter.SEGMENT_REF_MIN_OCCURS, segment));
+                buffer.append('/').append(value(StaxSchemaWriter.SEGMENT_REF_MAX_OCCURS, segment)).append(';');
+            } else {
+                LoopStandard loop = (LoopStandard) reference;
+                buffer.append('L').append(loop.getCode());
+                buffer.append('/').append(value(StaxSchemaWriter.LOOP_MIN_OCCURS, loop));
+                buffer.append('/').append(value(StaxSchemaWriter.LOOP_MAX_OCCURS, loop)).append('[');
+                layout(buffer, list(StaxSchemaWriter.LOOP_SEQUENCE, loop));
+                buffer.append(']').append(syntax(list(StaxSchemaWriter.LOOP_SYNTAX, loop))).append(';');
+            }
+        }
+    }
+
+    static String syntax(List<Syntax> rules) {
+        if (rules == null) {
+            return "";
+        }
+
+        StringBuilder buffer = new StringBuilder();
+
+        for (Syntax rule : rules) {
+            buffer.append(rule.getType()).append(list(StaxSchemaWriter.SYNTAX_POSITION, rule)).append(';');
+        }
+
+        return buffer.toString();
+    }
+
+    static <T> List<T> list(VarHandle handle, Object instance) {
+        return StaxSchemaWriter.list(handle, instance);
+    }
+
+    static Object value(VarHandle handle, Object instance) {
+        return StaxSchemaWriter.value(handle, instance);
+    }
+
+    /**
+     * @return the schema of a range of versions that agree on their
+     *         structure
+     */
+    static Range range(List<String> versions, List<Schema> schemas) {
+        int last = schemas.size() - 1;
+        Map<String, BaseType[]> types = new TreeMap<>();
+
+        for (int v = 0; v < schemas.size(); v++) {
+            for (BaseType type : schemas.get(v).getTypes()) {
+                int kind = XmlGenerator.kind(type);
+                types.computeIfAbsent(kind + XmlGenerator.name(type, kind), k -> new BaseType[schemas.size()])[v] = type;
+            }
+        }
+
+        Schema schema = new Schema();
+        schema.getLayout().addAll(schemas.get(last).getLayout());
+
+        for (BaseType[] instances : types.values()) {
+            BaseType type = instances[lastIndex(instances)];
+
+            if (type instanceof ElementType) {
+                schema.getTypes().add(mergeElement(versions, instances));
+            } else if (type instanceof SegmentType) {
+                schema.getTypes().add(mergeSegment(versions, instances));
+            } else {
+                schema.getTypes().add(mergeComposite(versions, instances));
+            }
+        }
+
+        XmlGenerator.sortTypes(schema);
+        return new Range(versions.get(0), versions.get(last), schema);
+    }
+
+    static int lastIndex(Object[] instances) {
+        int i = instances.length - 1;
+
+        while (instances[i] == null) {
+            i--;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the element type of the latest version, with the lengths and
+     *         enumeration of any other versions in which they differ
+     */
+    static ElementType mergeElement(List<String> versions, BaseType[] instances) {
+        int last = lastIndex(instances);
+        ElementType latest = (ElementType) instances[last];
+        Object[] values = new Object[instances.length];
+
+        for (int v = 0; v < instances.length; v++) {
+            if (instances[v] != null) {
+                values[v] = Arrays.asList(value(StaxSchemaWriter.ELEMENT_MIN_LENGTH, instances[v]),
+                                          value(StaxSchemaWriter.ELEMENT_MAX_LENGTH, instances[v]),
+                                          codes(list(StaxSchemaWriter.ELEMENT_ENUMERATION, instances[v])));
+            }
+        }
+
+        List<int[]> ranges = ranges(values, values[last]);
+
+        if (ranges.isEmpty()) {
+            return latest;
+        }
+
+        ElementType merged = new ElementType();
+        merged.setName(latest.getName());
+        merged.setCode(latest.getCode());
+        merged.setNumber(latest.getNumber());
+        merged.setBase((ElementBaseType) value(StaxSchemaWriter.ELEMENT_BASE, latest));
+        merged.setScale((BigInteger) value(StaxSchemaWriter.ELEMENT_SCALE, latest));
+        merged.setMinLength((BigInteger) value(StaxSchemaWriter.ELEMENT_MIN_LENGTH, latest));
+        merged.setMaxLength((BigInteger) value(StaxSchemaWriter.ELEMENT_MAX_LENGTH, latest));
+        merged.setTitle(latest.getTitle());
+        merged.setDescription(latest.getDescription());
+        merged.setEnumeration(list(StaxSchemaWriter.ELEMENT_ENUMERATION, latest));
+
+        for (int[] range : ranges) {
+            ElementType element = (ElementType) instances[range[0]];
+            ElementType.Version version = new ElementType.Version();
+            version.setMinVersion(versions.get(range[0]));
+            version.setMaxVersion(versions.get(range[1]));
+            version.setMinLength((BigInteger) value(StaxSchemaWriter.ELEMENT_MIN_LENGTH, element));
+            version.setMaxLength((BigInteger) value(StaxSchemaWriter.ELEMENT_MAX_LENGTH, element));
+            version.setEnumeration(list(StaxSchemaWriter.ELEMENT_ENUMERATION, element));
+            merged.getVersion().add(version);
+        }
+
+        return merged;
+    }
+
+    static List<String> codes(List<Value> enumeration) {
+        if (enumeration == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> codes = new ArrayList<>(enumeration.size());
+
+        for (Value value : enumeration) {
+            codes.add(value.getValue());
+        }
+
+        return codes;
+    }
+
+    static SegmentType mergeSegment(List<String> versions, BaseType[] instances) {
+        SegmentType latest = (SegmentType) instances[lastIndex(instances)];
+        List<BaseType> sequence = mergeSequence(versions, instances, StaxSchemaWriter.SEGMENT_SEQUENCE);
+
+        if (sequence == null) {
+            return latest;
+        }
+
+        SegmentType merged = new SegmentType();
+        merged.setName(latest.getName());
+        merged.setTitle(latest.getTitle());
+        merged.setDescription(latest.getDescription());
+        merged.setSequence(sequence);
+
+        if (list(StaxSchemaWriter.SEGMENT_SYNTAX, latest) != null) {
+            merged.getSyntax().addAll(latest.getSyntax());
+        }
+
+        return merged;
+    }
+
+    static CompositeType mergeComposite(List<String> versions, BaseType[] instances) {
+        CompositeType latest = (CompositeType) instances[lastIndex(instances)];
+        List<BaseType> sequence = mergeSequence(versions, instances, StaxSchemaWriter.COMPOSITE_SEQUENCE);
+
+        if (sequence == null) {
+            return latest;
+        }
+
+        CompositeType merged = new CompositeType();
+        merged.setName(latest.getName());
+        merged.setTitle(latest.getTitle());
+        merged.setDescription(latest.getDescription());
+        merged.setSequence(sequence);
+
+        if (list(StaxSchemaWriter.COMPOSITE_SYNTAX, latest) != null) {
+            merged.getSyntax().addAll(latest.getSyntax());
+        }
+
+        return merged;
+    }
+
+    /**
+     * @return the references of the longest sequence of the segment or
+     *         composite, each with the occurrences of any other versions in
+     *         which they differ (none where a version's sequence ends before
+     *         the reference), or null when every version has the same
+     *         references and occurrences as the latest
+     */
+    static List<BaseType> mergeSequence(List<String> versions, BaseType[] instances, VarHandle sequenceHandle) {
+        List<List<BaseType>> sequences = new ArrayList<>(instances.length);
+        int length = 0;
+
+        for (BaseType instance : instances) {
+            List<BaseType> sequence = null;
+
+            if (instance != null) {
+                sequence = list(sequenceHandle, instance);
+
+                if (sequence == null) {
+                    sequence = Collections.emptyList();
+                }
+
+                length = Math.max(length, sequence.size());
+            }
+
+            sequences.add(sequence);
+        }
+
+        List<BaseType> merged = new ArrayList<>(length);
+        boolean versioned = false;
+        Object[] values = new Object[instances.length];
+
+        for (int p = 0; p < length; p++) {
+            BaseType reference = null;
+
+            for (int v = 0; v < instances.length; v++) {
+                List<BaseType> sequence = sequences.get(v);
+
+                if (sequence == null) {
+                    values[v] = null;
+                } else if (p < sequence.size()) {
+                    reference = sequence.get(p);
+                    values[v] = occurs(reference);
+                } else {
+                    values[v] = NONE;
+                }
+            }
+
+            List<int[]> ranges = ranges(values, occurs(reference));
+
+            if (ranges.isEmpty()) {
+                merged.add(reference);
+            } else {
+                merged.add(versionedReference(versions, values, reference, ranges));
+                versioned = true;
+            }
+        }
+
+        return versioned ? merged : null;
+    }
+
+    /**
+     * @return the minimum and maximum occurrences of an element or composite
+     *         reference, as set
+     */
+    static List<Object> occurs(BaseType reference) {
+        if (reference instanceof ElementStandard) {
+            return Arrays.asList(value(StaxSchemaWriter.ELEMENT_REF_MIN_OCCURS, reference),
+                                 value(StaxSchemaWriter.ELEMENT_REF_MAX_OCCURS, reference));
+        }
+        if (reference instanceof CompositeStandard) {
+            return Arrays.asList(value(StaxSchemaWriter.COMPOSITE_REF_MIN_OCCURS, reference),
+                                 value(StaxSchemaWriter.COMPOSITE_REF_MAX_OCCURS, reference));
+        }
+        // Undefined elements are only merged when present in every version
+        return Collections.emptyList();
+    }
+
+    static BaseType versionedReference(List<String> versions, Object[] values, BaseType reference, List<int[]> ranges) {
+        if (reference instanceof ElementStandard) {
+            ElementStandard source = (ElementStandard) reference;
+            ElementStandard merged = new ElementStandard();
+            merged.setType(source.getType());
+            merged.setMinOccurs((BigInteger) value(StaxSchemaWriter.ELEMENT_REF_MIN_OCCURS, source));
+            merged.setMaxOccurs((BigInteger) value(StaxSchemaWriter.ELEMENT_REF_MAX_OCCURS, source));
+            merged.setTitle(source.getTitle());
+            merged.setDescription(source.getDescription());
+
+            for (int[] range : ranges) {
+                List<?> occurs = (List<?>) values[range[0]];
+                ElementStandard.Version version = new ElementStandard.Version();
+                version.setMinVersion(versions.get(range[0]));
+                version.setMaxVersion(versions.get(range[1]));
+                version.setMinOccurs((BigInteger) occurs.get(0));
+                version.setMaxOccurs((BigInteger) occurs.get(1));
+                merged.getVersion().add(version);
+            }
+
+            return merged;
+        }
+
+        CompositeStandard source = (CompositeStandard) reference;
+        CompositeStandard merged = new CompositeStandard();
+        merged.setType(source.getType());
+        merged.setMinOccurs((BigInteger) value(StaxSchemaWriter.COMPOSITE_REF_MIN_OCCURS, source));
+        merged.setMaxOccurs((BigInteger) value(StaxSchemaWriter.COMPOSITE_REF_MAX_OCCURS, source));
+        merged.setTitle(source.getTitle());
+        merged.setDescription(source.getDescription());
+
+        for (int[] range : ranges) {
+            List<?> occurs = (List<?>) values[range[0]];
+            CompositeStandard.Version version = new CompositeStandard.Version();
+            version.setMinVersion(versions.get(range[0]));
+            version.setMaxVersion(versions.get(range[1]));
+            version.setMinOccurs((BigInteger) occurs.get(0));
+            version.setMaxOccurs((BigInteger) occurs.get(1));
+            merged.getVersion().add(version);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Group the versions with a value (those without one are skipped) into
+     * runs of equal values.
+     *
+     * @return the first and last version of each run whose value differs
+     *         from the given one, oldest first
+     */
+    static List<int[]> ranges(Object[] values, Object value) {
+        List<int[]> ranges = new ArrayList<>();
+        int first = -1;
+        int last = -1;
+
+        for (int v = 0; v < values.length; v++) {
+            if (values[v] == null) {
+                continue;
+            }
+
+            if (first >= 0 && !values[v].equals(values[first])) {
+                if (!values[first].equals(value)) {
+                    ranges.add(new int[] { first, last });
+                }
+                first = -1;
+            }
+
+            if (first < 0) {
+                first = v;
+            }
+
+            last = v;
+        }
+
+        if (first >= 0 && !Objects.equals(values[first], value)) {
+            ranges.add(new int[] { first, last });
+        }
+
+        return ranges;
+    }
+}
@@ -1,47 +1,44 @@
 package io.xlate.edi.schematools;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.math.BigInteger;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
+import javax.xml.bind.JAXBException;
 
-import org.python.core.PyDictionary;
-import org.python.core.PyInteger;
-import org.python.core.PyList;
-import org.python.core.PyObject;
-import org.python.core.PyString;
-import org.python.core.PyTuple;
-import org.python.util.PythonInterpreter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.xlate.edi.schematools.BotsGrammarParser.RecordField;
+import io.xlate.edi.schematools.BotsGrammarParser.StructureEntry;
 import io.xlate.edischema.v4.BaseType;
 import io.xlate.edischema.v4.CompositeStandard;
 import io.xlate.edischema.v4.CompositeType;
@@ -62,50 +59,229 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
     static final String MAX = "MAX";
     static final String LEVEL = "LEVEL";
 
-    final PythonInterpreter python;
-    static Map<String, BaseType> types = new HashMap<>();
+    static final Path OUTPUT = Paths.get("./target/x12");
+    static final String CONFIGURATION = "x12-versions.properties";
+
+    /**
+     * The entries read from the grammar archive of a version: the grammar of
+     * each transaction and the record definitions.
+     */
+    static final class Grammars {
+        final Map<String, ZipEntry> entries = new TreeMap<>();
+        final Map<String, byte[]> transactions = new TreeMap<>();
+        ZipEntry recordsEntry;
+        byte[] records;
+    }
+
+    final Map<String, BaseType> types = new HashMap<>();
+    final TypeClosure closure;
 
     final ClassLoader loader;
+    final SchemaWriter writer;
+    final GenerationManifest manifest;
+    final boolean sharedTypes;
+    final boolean bundle;
+    final GenerationMetrics metrics;
+    final SchemaSink sink;
     int loopId = 0;
 
-    public static void main(String[] args) throws IOException {
-        log.info("Starting Python interpreter");
-        try (PythonInterpreter python = new PythonInterpreter()) {
-            log.info("Creating processor");
-            new X12SchemaXmlGenerator(python).process();
+    /**
+     * The version being generated, under which its phases are measured.
+     */
+    String version;
+
+    /**
+     * The grammars of the version prepared for single transactions, see
+     * {@link #prepare(ZipInputStream, String)}.
+     */
+    Grammars prepared;
+
+    public static void main(String[] args) throws IOException, JAXBException {
+        if (!process()) {
+            System.exit(1);
         }
     }
 
-    public X12SchemaXmlGenerator(PythonInterpreter python) {
-        loader = Thread.currentThread().getContextClassLoader();
-        this.python = python;
+    public X12SchemaXmlGenerator() throws IOException, JAXBException {
+        this(SchemaWriter.fromSystemProperties(),
+             loadManifest(),
+             sharedTypesFromSystemProperties(),
+             SchemaBundle.fromSystemProperties(),
+             GenerationMetrics.DISABLED,
+             Thread.currentThread().getContextClassLoader(),
+             SchemaSink.directory(OUTPUT));
+    }
+
+    /**
+     * @param loader
+     *            class loader of the BOTS grammar archives and their
+     *            corrected entries
+     * @param sink
+     *            destination of the schemas, unless bundled
+     */
+    X12SchemaXmlGenerator(SchemaWriter writer,
+                          GenerationManifest manifest,
+                          boolean sharedTypes,
+                          boolean bundle,
+                          GenerationMetrics metrics,
+                          ClassLoader loader,
+                          SchemaSink sink) {
+        this.loader = loader;
+        this.writer = writer;
+        this.manifest = manifest;
+        this.sharedTypes = sharedTypes;
+        this.bundle = bundle;
+        this.metrics = metrics;
+        this.sink = sink;
+        this.closure = new TypeClosure(this::getType, types::values, phase -> metrics.start(phase, version, null));
+    }
+
+    static GenerationManifest loadManifest() throws IOException {
+        return GenerationManifest.load(OUTPUT,
+                                       X12SchemaXmlGenerator.class,
+                                       BotsGrammarParser.class,
+                                       XmlGenerator.class,
+                                       TypeClosure.class,
+                                       SchemaMarshaller.class,
+                                       StaxSchemaWriter.class,
+                                       SchemaXmlStreamWriter.class,
+                                       PackedSchemaWriter.class,
+                                       SchemaBundle.class,
+                                       SchemaSink.class,
+                                       GenerationMetrics.class);
     }
 
-    private void process() throws IOException {
+    /**
+     * @return false if a version or merged schema failed
+     */
+    private static boolean process() throws IOException, JAXBException {
         String zipFile = System.getProperty("X12.botszip");
+        SchemaWriter writer = SchemaWriter.fromSystemProperties();
+        GenerationManifest manifest = loadManifest();
+        boolean sharedTypes = sharedTypesFromSystemProperties();
+        boolean bundle = SchemaBundle.fromSystemProperties();
+        GenerationMetrics metrics = GenerationMetrics.fromSystemProperties("X12");
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        SchemaSink sink = SchemaSink.directory(OUTPUT);
+        boolean failed = false;
 
         if (zipFile != null) {
             try {
-                addVersion(zipFile);
+                new X12SchemaXmlGenerator(writer, manifest, sharedTypes, bundle, metrics, loader, sink).addVersion(zipFile);
             } catch (Exception e) {
                 log.error("Exception processing file {}", zipFile, e);
+                failed = true;
             }
         } else {
-            Properties config = new Properties();
-            try (InputStream stream = loader.getResourceAsStream("x12-versions.properties")) {
-                config.load(stream);
-            }
+            Properties config = loadProperties(loader, CONFIGURATION);
             String[] versions = config.getProperty("versions").split(",");
+            int threads = Integer.getInteger("X12.threads", Runtime.getRuntime().availableProcessors());
+
+            Map<String, Exception> failures = processVersions(versions, threads, writer, manifest, sharedTypes, bundle, metrics, loader, sink);
+
+            if (failures.isEmpty()) {
+                log.info("{} versions processed", versions.length);
+            } else {
+                log.error("{} of {} versions failed: {}", failures.size(), versions.length, failures.keySet());
+                failed = true;
+            }
+
+            if (VersionMerger.fromSystemProperties()) {
+                List<String> merged = new ArrayList<>(Arrays.asList(versions));
+                merged.removeAll(failures.keySet());
+                Collections.sort(merged);
+                Map<String, Exception> mergeFailures = new VersionMerger().mergeVersions(OUTPUT, merged, threads, writer, bundle);
+
+                if (!mergeFailures.isEmpty()) {
+                    log.error("{} merged schemas failed: {}", mergeFailures.size(), mergeFailures.keySet());
+                    failed = true;
+                }
+            }
+        }
+
+        manifest.save();
 
+        try {
+            metrics.report(OUTPUT);
+        } catch (IOException e) {
+            log.warn("Unable to write metrics report", e);
+        }
+
+        return !failed;
+    }
+
+    /**
+     * Process each version on a pool of at most {@code threads} workers. Every
+     * version is handled by its own generator instance so that no parse state
+     * is shared between workers, while the schema writer (e.g. the JAXB context)
+     * is shared by all of them. A failure in one
+     * version is logged and returned without aborting the others.
+     *
+     * @param versions
+     *            the X12 versions to process, e.g. 005010
+     * @param threads
+     *            maximum number of versions to process concurrently
+     * @param writer
+     *            writer used to output the schemas of every version
+     * @param manifest
+     *            manifest used to skip versions and transactions with
+     *            unchanged inputs, shared by all workers
+     * @param sharedTypes
+     *            whether the types of each version are written to a types
+     *            document included by its transactions
+     * @param bundle
+     *            whether the schemas of each version are written to an
+     *            archive rather than to a directory
+     * @param metrics
+     *            metrics of the run, shared by all workers
+     * @param loader
+     *            class loader of the BOTS grammar archives
+     * @param sink
+     *            destination of the schemas, unless bundled
+     * @return map of failed versions to the exception that caused the failure,
+     *         in the order the versions were given
+     */
+    static Map<String, Exception> processVersions(String[] versions,
+                                                  int threads,
+                                                  SchemaWriter writer,
+                                                  GenerationManifest manifest,
+                                                  boolean sharedTypes,
+                                                  boolean bundle,
+                                                  GenerationMetrics metrics,
+                                                  ClassLoader loader,
+                                                  SchemaSink sink) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, versions.length)));
+        Map<String, Future<?>> results = new LinkedHashMap<>();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+
+        try {
             for (String version : versions) {
+                results.put(version, executor.submit(() -> {
+                    X12SchemaXmlGenerator generator = new X12SchemaXmlGenerator(writer, manifest, sharedTypes, bundle, metrics, loader, sink);
+                    generator.addVersion(generator.findZip(version), version);
+                    return null;
+                }));
+            }
+
+            for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+                String version = result.getKey();
+
                 try {
-                    addVersion(findZip(version), version);
-                } catch (Exception e) {
-                    log.error("Exception processing version {}", version, e);
-                    break;
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    log.error("Exception processing version {}", version, cause);
+                    failures.put(version, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.put(version, e);
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
+
+        return failures;
     }
 
     private void addVersion(String zipFile) throws IOException {
@@ -128,29 +304,146 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
     }
 
     @SuppressWarnings("resource")
-    private ZipInputStream findZip(String version) {
-        String resource = "/x12/X12_" + version + "_all_transactions_and_segments.zip";
-        InputStream stream = getClass().getResourceAsStream(resource);
+    ZipInputStream findZip(String version) {
+        String resource = "x12/X12_" + version + "_all_transactions_and_segments.zip";
+        InputStream stream = loader.getResourceAsStream(resource);
+
+        if (stream == null) {
+            resource = "x12/X12" + version + "_all_messages_and_segments.zip";
+            stream = loader.getResourceAsStream(resource);
+        }
 
         if (stream == null) {
-            resource = "/x12/X12" + version + "_all_messages_and_segments.zip";
-            stream = getClass().getResourceAsStream(resource);
+            throw new IllegalStateException("BOTS grammar archive not found for version " + version);
         }
 
         return new ZipInputStream(stream);
     }
 
-    @SuppressWarnings("preview")
-    private void addVersion(ZipInputStream zip, String version) throws IOException {
-        types.clear();
+    /**
+     * Generate the transaction schemas of a version. The grammar entries of
+     * the archive are read and digested before any parsing, so that a version
+     * (or transaction) with the same inputs as the previous run is skipped.
+     * The schema of a transaction depends only on its own grammar, the
+     * version's records and the writer producing it.
+     *
+     * When the schemas are bundled, a version with any change is generated
+     * entirely, replacing its archive.
+     */
+    void addVersion(ZipInputStream zip, String version) throws IOException {
+        this.version = version;
+        Path output = OUTPUT.resolve(version);
+
+        final Grammars archiveGrammars = readGrammars(zip);
+        final Map<String, byte[]> grammars = archiveGrammars.transactions;
+        final GenerationManifest.Digest typesDigest = new GenerationManifest.Digest().update(archiveGrammars.records)
+                                                                                     .update(writer.getName())
+                                                                                     .update(writer.getExtension());
+
+        if (sharedTypes) {
+            typesDigest.update(TYPES);
+        }
+
+        if (bundle) {
+            typesDigest.update(SchemaBundle.PROPERTY);
+        }
 
-        Path output = Paths.get("./target/x12/" + version);
-        Files.createDirectories(output);
+        final String recordsDigest = typesDigest.value();
+        final GenerationManifest.Digest versionDigest = new GenerationManifest.Digest().update(recordsDigest);
+        final Map<String, String> digests = new TreeMap<>();
 
-        Map<String, PyList> structures = new TreeMap<>();
-        PyDictionary recordDefs = null;
+        for (Map.Entry<String, byte[]> grammar : grammars.entrySet()) {
+            String digest = new GenerationManifest.Digest().update(recordsDigest).update(grammar.getValue()).value();
+            digests.put(grammar.getKey(), digest);
+            versionDigest.update(grammar.getKey()).update(digest);
+        }
+
+        final String digest = versionDigest.value();
+
+        if (manifest.isCurrent(version, digest)) {
+            log.info("Version {} - unchanged, {} transactions skipped", version, grammars.size());
+            return;
+        }
+
+        Map<String, List<StructureEntry>> structures = new TreeMap<>();
+
+        for (Map.Entry<String, byte[]> grammar : grammars.entrySet()) {
+            String transaction = grammar.getKey();
+
+            if (bundle || !manifest.isCurrent(version, transaction, digests.get(transaction))) {
+                GenerationMetrics.Measurement parse = metrics.start(GenerationMetrics.Phase.MESSAGE_TABLE, version, transaction);
+                List<StructureEntry> structure = getStructure(grammar.getValue(), archiveGrammars.entries.get(transaction));
+                parse.bytesRead(grammar.getValue().length).entries(structure.size()).end();
+                structures.put(transaction, structure);
+            }
+        }
+
+        final boolean typesCurrent = !sharedTypes || !bundle && manifest.isCurrent(version, TYPES, recordsDigest);
+
+        if (structures.isEmpty() && typesCurrent) {
+            log.info("Version {} - unchanged, {} transactions skipped", version, grammars.size());
+            manifest.record(version, digest);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            for (Map.Entry<String, List<StructureEntry>> list : structures.entrySet()) {
+                log.debug("{} => {}", list.getKey(), list.getValue());
+            }
+        }
+
+        parseRecords(archiveGrammars);
+
+        try (SchemaBundle archive = bundle ? new SchemaBundle(OUTPUT.resolve(version + SchemaBundle.EXTENSION)) : null) {
+            if (!typesCurrent) {
+                GenerationMetrics.Measurement sort = metrics.start(GenerationMetrics.Phase.SORT, version, TYPES);
+                Schema typesSchema = typesSchema(types.values());
+                sort.types(typesSchema.getTypes().size()).end();
+                Path typesOutput = write(typesSchema, TYPES, output, archive, TYPES + writer.getExtension());
+                manifest.record(version, TYPES, recordsDigest, typesOutput);
+            }
+
+            log.info("Version {} - Writing {} transactions, {} unchanged", version, structures.size(), grammars.size() - structures.size());
+
+            // A failed write fails the version: neither its archive nor its digest is recorded
+            for (Map.Entry<String, List<StructureEntry>> structure : structures.entrySet()) {
+                String name = structure.getKey();
+                Schema messageSchema = transactionSchema(name, structure.getValue());
+                String path = transactionPath(name, writer.getExtension());
+                Path transactionOutput;
+
+                try {
+                    transactionOutput = write(sharedTypes ? includingSchema(messageSchema, "../" + TYPES + writer.getExtension()) : messageSchema,
+                                              name,
+                                              output,
+                                              archive,
+                                              path);
+                } catch (IOException | RuntimeException e) {
+                    throw new IOException("Exception writing schema: " + output.resolve(path), e);
+                }
+
+                manifest.record(version, name, digests.get(name), transactionOutput);
+            }
+
+            if (archive != null) {
+                archive.commit();
+            }
+
+            manifest.record(version, digest);
+        }
+
+        log.info("Version {} - {} transactions added", version, structures.size());
+    }
+
+    /**
+     * Read the grammar of each transaction and the record definitions from the
+     * grammar archive of a version, closing the archive.
+     */
+    Grammars readGrammars(ZipInputStream zip) throws IOException {
+        Grammars grammars = new Grammars();
         Pattern namePattern = Pattern.compile(".*(\\d{3})(\\d{6})\\.py$");
 
+        GenerationMetrics.Measurement resolve = metrics.start(GenerationMetrics.Phase.RESOLVE, version, null);
         ZipEntry entry;
 
         do {
@@ -159,117 +452,191 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
             if (entry != null) {
                 final String name = entry.getName();
                 final Matcher m = namePattern.matcher(name);
-                final URL alt = loader.getResource("x12/" + name);
-                @SuppressWarnings("resource") // input closed in finally if 'alt' is non-null
-                final InputStream input = alt != null ? alt.openStream() : zip;
-
-                try {
-                    if (m.find()) {
-                        if (alt != null) {
-                            log.info("Using alternate stream: {}", alt);
-                        }
-
-                        String transaction = m.group(1);
-                        PyList structure = getStructure(python, input, entry);
-                        structures.put(transaction, structure);
-                    } else if (name.matches(".*records\\d+\\.py")) {
-                        if (alt != null) {
-                            log.info("Using alternate stream: {}", alt);
-                        }
-
-                        recordDefs = getRecordDefs(python, input, entry);
-                    }
-                } finally {
-                    if (alt != null) {
-                        input.close();
-                    }
+                resolve.entries(1);
+
+                if (m.find()) {
+                    String transaction = m.group(1);
+                    grammars.entries.put(transaction, entry);
+                    grammars.transactions.put(transaction, readEntry(zip, entry));
+                    resolve.bytesRead(grammars.transactions.get(transaction).length);
+                } else if (name.matches(".*records\\d+\\.py")) {
+                    grammars.recordsEntry = entry;
+                    grammars.records = readEntry(zip, entry);
+                    resolve.bytesRead(grammars.records.length);
                 }
             }
         } while (entry != null);
 
         zip.close();
+        resolve.end();
 
-        if (recordDefs == null) {
+        if (grammars.records == null) {
             throw new IllegalStateException("recorddefs not found");
         }
 
-        if (log.isDebugEnabled()) {
-            for (Map.Entry<String, PyList> list : structures.entrySet()) {
-                log.debug("{} => {}", list.getKey(), list.getValue());
-            }
-            log.debug("{}", recordDefs);
-        }
+        return grammars;
+    }
 
+    /**
+     * Parse the record definitions of a version into its types.
+     */
+    void parseRecords(Grammars grammars) throws IOException {
+        GenerationMetrics.Measurement parseRecords = metrics.start(GenerationMetrics.Phase.RECORDS, version, null);
+        Map<String, List<RecordField>> recordDefs = getRecordDefs(grammars.records, grammars.recordsEntry);
+        log.debug("{}", recordDefs);
         loadTypes(recordDefs);
+        parseRecords.bytesRead(grammars.records.length).entries(recordDefs.size()).types(types.size()).end();
+    }
 
-        log.info("Version {} - Writing {} transactions", version, structures.size());
+    /**
+     * Build the schema of a transaction from its structure, with the types it
+     * uses sorted.
+     */
+    Schema transactionSchema(String name, List<StructureEntry> tree) {
+        Schema messageSchema = new Schema();
+        TypeClosure.SchemaTypes messageTypes = closure.of(messageSchema);
+        GenerationMetrics.Measurement build = metrics.start(GenerationMetrics.Phase.MESSAGE_TABLE, version, name);
+        loopId = 0;
+        List<BaseType> references;
 
-        for (Map.Entry<String, PyList> structure : structures.entrySet()) {
-            String name = structure.getKey();
-            PyList tree = structure.getValue();
+        try {
+            references = buildTree(tree, messageTypes);
+        } catch (Exception e) {
+            log.error("Exception building tree for {}", name);
+            throw e;
+        }
 
-            Schema messageSchema = new Schema();
-            loopId = 0;
-            List<BaseType> references;
+        build.types(messageSchema.getTypes().size()).end();
+        GenerationMetrics.Measurement sort = metrics.start(GenerationMetrics.Phase.SORT, version, name);
+        messageTypes.sort();
+        sort.types(messageSchema.getTypes().size()).end();
 
-            try {
-                references = buildTree(tree, messageSchema);
-            } catch (Exception e) {
-                log.error("Exception building tree for {}", name);
-                throw e;
-            }
+        Transaction tx = new Transaction();
+        tx.setSequence(new ArrayList<>(references));
+        messageSchema.getLayout().add(tx);
+        return messageSchema;
+    }
 
-            sortTypes(messageSchema);
+    /**
+     * @return path of a transaction's schema relative to the directory of its
+     *         version, e.g. {@code 8XX/850.xml}
+     */
+    static String transactionPath(String name, String extension) {
+        return name.substring(0, 1) + "XX/" + name + extension;
+    }
 
-            Transaction tx = new Transaction();
-            tx.setSequence(new ArrayList<>(references));
-            messageSchema.getLayout().add(tx);
+    /**
+     * Read the grammar archive of a version and parse its record definitions,
+     * for its transactions to be generated one at a time by
+     * {@link #transactionSchema(String)}. Nothing is written.
+     */
+    void prepare(ZipInputStream zip, String version) throws IOException {
+        this.version = version;
+        Grammars grammars = readGrammars(zip);
+        parseRecords(grammars);
+        prepared = grammars;
+    }
 
-            Path subdir = output.resolve(name.substring(0, 1) + "XX");
-            Files.createDirectories(subdir);
-            StringBuilder filename = new StringBuilder(subdir.toString());
-            filename.append('/');
-            filename.append(name);
-            filename.append(".xml");
+    /**
+     * @return the transactions of the prepared version
+     */
+    Set<String> getTransactions() {
+        return prepared.transactions.keySet();
+    }
 
-            try (OutputStream out = new FileOutputStream(filename.toString())) {
-                JAXBContext context = JAXBContext.newInstance(Schema.class);
-                Marshaller m = createMarshaller(context);
-                m.marshal(messageSchema, out);
-            } catch (Exception e) {
-                log.error("Exception writing schema: {}", filename, e);
-                break;
+    /**
+     * Build the schema of a transaction of the prepared version, with its own
+     * types.
+     *
+     * @return the schema, or null if the version has no such transaction
+     */
+    Schema transactionSchema(String name) throws IOException {
+        byte[] grammar = prepared.transactions.get(name);
+
+        if (grammar == null) {
+            return null;
+        }
+
+        GenerationMetrics.Measurement parse = metrics.start(GenerationMetrics.Phase.MESSAGE_TABLE, version, name);
+        List<StructureEntry> structure = getStructure(grammar, prepared.entries.get(name));
+        parse.bytesRead(grammar.length).entries(structure.size()).end();
+        return transactionSchema(name, structure);
+    }
+
+    /**
+     * Write a schema of a version to its archive, when bundled, or else to the
+     * sink.
+     *
+     * @param unit
+     *            the unit of the version the schema is measured as
+     * @param output
+     *            directory of the version
+     * @param archive
+     *            archive of the version, or null
+     * @param path
+     *            path of the schema relative to the version's directory
+     * @return the output recorded for the schema: the file written or the
+     *         version's archive
+     */
+    Path write(Schema schema, String unit, Path output, SchemaBundle archive, String path) throws IOException {
+        GenerationMetrics.Measurement measurement = metrics.start(GenerationMetrics.Phase.WRITE, version, unit);
+
+        if (archive != null) {
+            measurement.written(archive.write(path, schema, writer)).types(schema.getTypes().size()).end();
+            return archive.getArchive();
+        }
+
+        Path filename = output.resolve(path);
+        GenerationMetrics.CountingOutputStream out = new GenerationMetrics.CountingOutputStream(sink.open(relativePath(OUTPUT, filename)));
+
+        try (OutputStream document = out) {
+            writer.write(schema, document);
+        }
+
+        measurement.written(out.count).types(schema.getTypes().size()).end();
+        return filename;
+    }
+
+    /**
+     * Read the content of a grammar entry, or of its alternate (corrected)
+     * version when one is present on the class path.
+     */
+    byte[] readEntry(ZipInputStream zip, ZipEntry entry) throws IOException {
+        final URL alt = loader.getResource("x12/" + entry.getName());
+
+        if (alt != null) {
+            log.info("Using alternate stream: {}", alt);
+
+            try (InputStream input = alt.openStream()) {
+                return input.readAllBytes();
             }
         }
 
-        log.info("Version {} - {} transactions added", version, structures.size());
+        return zip.readAllBytes();
     }
 
-    private List<BaseType> buildTree(PyList tree, Schema messageSchema) {
-        @SuppressWarnings({ "all" })
-        ListIterator<PyDictionary> entries = (ListIterator<PyDictionary>) tree.listIterator();
+    private List<BaseType> buildTree(List<StructureEntry> tree, TypeClosure.SchemaTypes messageTypes) {
         List<BaseType> references = new ArrayList<>(tree.size());
 
-        while (entries.hasNext()) {
-            PyDictionary entry = entries.next();
-            String id = ((String) entry.get(ID)).toUpperCase();
+        for (StructureEntry entry : tree) {
+            String id = entry.id.toUpperCase();
 
             if ("SE".equals(id)) {
                 continue;
             }
 
-            PyList loop = (PyList) entry.get(LEVEL);
+            List<StructureEntry> loop = entry.level;
 
             if ("ST".equals(id)) {
-                return buildTree(loop, messageSchema);
+                return buildTree(loop, messageTypes);
             }
 
-            int min = (Integer) entry.get(MIN);
-            int max = (Integer) entry.get(MAX);
+            int min = entry.min;
+            int max = entry.max;
 
             if (loop != null) {
                 final String loopCode = String.format("L%04d", ++loopId);
-                final SegmentStandard loopStart = segmentRef(messageSchema, id, null, null);
+                final SegmentStandard loopStart = segmentRef(messageTypes, id, null, null);
 
                 LoopStandard loopX = new LoopStandard();
                 loopX.setCode(loopCode);
@@ -277,18 +644,18 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
                 loopX.setMaxOccurs(max != 1 ? BigInteger.valueOf(max) : null);
                 loopX.setSequence(new ArrayList<>());
                 loopX.getSequence().add(loopStart);
-                loopX.getSequence().addAll(buildTree(loop, messageSchema));
+                loopX.getSequence().addAll(buildTree(loop, messageTypes));
 
                 references.add(loopX);
             } else {
-                references.add(segmentRef(messageSchema, id, min, max));
+                references.add(segmentRef(messageTypes, id, min, max));
             }
         }
 
         return references;
     }
 
-    private SegmentStandard segmentRef(Schema messageSchema, String id, Integer min, Integer max) {
+    private SegmentStandard segmentRef(TypeClosure.SchemaTypes messageTypes, String id, Integer min, Integer max) {
         SegmentType segmentType = (SegmentType) types.get(id);
 
         if (segmentType == null) {
@@ -300,70 +667,42 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
         segment.setMinOccurs(min != null && min != 0 ? BigInteger.valueOf(min) : null);
         segment.setMaxOccurs(max != null && max != 1 ? BigInteger.valueOf(max) : null);
 
-        addIfAbsent(messageSchema, segmentType.getName());
+        messageTypes.add(segmentType.getName());
 
         return segment;
     }
 
-    @SuppressWarnings("preview")
-    private void addIfAbsent(Schema messageSchema, String typeId) {
+    private BaseType getType(String typeId) {
         BaseType type = types.get(typeId);
-        var schemaTypes = messageSchema.getTypes();
 
-        if (!schemaTypes.contains(type)) {
-            if (type == null) {
-                throw new NullPointerException("Type for " + typeId + " is null");
-            }
-            schemaTypes.add(type);
-
-            if (type instanceof SegmentType) {
-                for (BaseType target : ((SegmentType) type).getSequence()) {
-                    if (target instanceof ElementStandard) {
-                        addIfAbsent(messageSchema, ((ElementStandard) target).getType());
-                    } else if (target instanceof CompositeStandard) {
-                        addIfAbsent(messageSchema, ((CompositeStandard) target).getType());
-                    }
-                }
-            } else if (type instanceof CompositeType) {
-                for (BaseType target : ((CompositeType) type).getSequence()) {
-                    if (target instanceof ElementStandard) {
-                        addIfAbsent(messageSchema, ((ElementStandard) target).getType());
-                    }
-                }
-            }
-        } else {
-            log.debug("{} already in messageTypes", type);
+        if (type == null) {
+            throw new NullPointerException("Type for " + typeId + " is null");
         }
+
+        return type;
     }
 
-    private void loadTypes(PyDictionary recordDefs) {
-        for (Entry<PyObject, PyObject> entry : recordDefs.getMap().entrySet()) {
-            final String segmentId = entry.getKey().toString();
-            PyList record = (PyList) entry.getValue();
+    private void loadTypes(Map<String, List<RecordField>> recordDefs) {
+        for (Entry<String, List<RecordField>> entry : recordDefs.entrySet()) {
+            final String segmentId = entry.getKey();
+            List<RecordField> record = entry.getValue();
             SegmentType segment = new SegmentType();
             segment.setName(segmentId);
             segment.setSequence(new ArrayList<>());
 
-            for (int e = 0, m = record.size(); e < m; e++) {
-                PyList element = (PyList) record.pyget(e);
-                String id = ((PyString) element.pyget(0)).getString();
+            for (RecordField element : record) {
+                String id = element.id;
 
                 if ("BOTSID".equals(id)) {
                     continue;
                 }
 
-                final PyObject usage = element.pyget(1);
-                final String usageCode;
+                final String usageCode = element.usage;
                 final int min;
-                final int max;
+                final int max = element.maxUse;
 
-                if (usage instanceof PyTuple) {
-                    usageCode = ((PyTuple) usage).get(0).toString();
-                    max = ((Integer) ((PyTuple) usage).get(1));
+                if (max != 1) {
                     log.debug("Segment {} has repeating element {}", segmentId, id);
-                } else {
-                    usageCode = usage.toString();
-                    max = 1;
                 }
 
                 switch (usageCode) {
@@ -377,19 +716,18 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
                     throw new IllegalArgumentException("Unexpected usage " + usageCode);
                 }
 
-                PyObject third = element.pyget(2);
                 BaseType type;
                 BaseType ref;
 
-                if (third instanceof PyList) {
+                if (element.isComposite()) {
                     // Composite
-                    type = buildCompositeElement(id, (PyList) third);
+                    type = buildCompositeElement(id, element.components);
                     CompositeStandard std = new CompositeStandard();
                     std.setType(((CompositeType) type).getName());
                     std.setMinOccurs(min != 0 ? BigInteger.valueOf(min) : null);
                     std.setMaxOccurs(max != 1 ? BigInteger.valueOf(max) : null);
                     ref = std;
-                } else if (third != null) {
+                } else {
                     // Simple element
                     type = buildSimpleElement(id, element);
                     ElementStandard std = new ElementStandard();
@@ -397,8 +735,6 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
                     std.setMinOccurs(min != 0 ? BigInteger.valueOf(min) : null);
                     std.setMaxOccurs(max != 1 ? BigInteger.valueOf(max) : null);
                     ref = std;
-                } else {
-                    throw new IllegalArgumentException("Unexpected third " + third);
                 }
 
                 segment.getSequence().add(ref);
@@ -409,18 +745,21 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
         }
     }
 
-    private CompositeType buildCompositeElement(String id, PyList record) {
+    private CompositeType buildCompositeElement(String id, List<RecordField> record) {
         int referenceCount = record.size();
         CompositeType composite = new CompositeType();
         composite.setName(id);
         composite.setSequence(new ArrayList<>(referenceCount));
 
-        for (int e = 0; e < referenceCount; e++) {
-            PyList element = (PyList) record.pyget(e);
-            String cid = ((PyString) element.pyget(0)).getString();
-            final String usageCode = element.get(1).toString();
+        for (RecordField element : record) {
+            String cid = element.id;
+            final String usageCode = element.usage;
             final int min;
 
+            if (element.maxUse != 1 || element.isComposite()) {
+                throw new IllegalArgumentException("Unexpected component " + element);
+            }
+
             switch (usageCode) {
             case "C":
                 min = 0;
@@ -442,14 +781,10 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
         return composite;
     }
 
-    @SuppressWarnings("preview")
-    private ElementType buildSimpleElement(String id, PyList element) {
-        PyObject third = element.pyget(2);
-        PyTuple range = (third instanceof PyTuple) ? (PyTuple) third : null;
-
-        int min = (Integer) (range != null ? range.get(0) : 1);
-        int max = (Integer) (range != null ? range.get(1) : ((PyInteger) third).getValue());
-        String typeCode = element.pyget(3).toString();
+    private ElementType buildSimpleElement(String id, RecordField element) {
+        int min = element.minLength;
+        int max = element.maxLength;
+        String typeCode = element.type;
         final ElementBaseType base;
         final BigInteger scale;
 
@@ -501,100 +836,21 @@ public class X12SchemaXmlGenerator extends XmlGenerator {
         return type;
     }
 
-    private static PyList getStructure(PythonInterpreter py, InputStream zip, ZipEntry entry)
-            throws IOException {
-
-        Writer writer = new StringWriter((int) entry.getSize());
-        PrintWriter printer = new PrintWriter(writer);
-        printer.println(assignment(ID));
-        printer.println(assignment(MIN));
-        printer.println(assignment(MAX));
-        printer.println(assignment(LEVEL));
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(zip));
-        String line;
-        boolean complete = false;
-
-        while ((line = reader.readLine()) != null) {
-            if (!line.matches(".*from .* import .*")) {
-                printer.println(line);
-                if (line.equals("]")) {
-                    complete = true;
-                }
-            }
-        }
-
-        if (!complete) {
-            printer.println("]}\n]");
-        }
-
+    static List<StructureEntry> getStructure(byte[] grammar, ZipEntry entry) throws IOException {
         try {
-            py.exec(writer.toString());
+            return BotsGrammarParser.parseStructure(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(grammar))));
         } catch (Exception e) {
             log.error("Exception in {}", entry.getName());
             throw e;
         }
-
-        return (PyList) py.get("structure");
     }
 
-    static String assignment(String name) {
-        return name + " = '" + name + '\'';
-    }
-
-    private static PyDictionary getRecordDefs(PythonInterpreter py, InputStream zip, ZipEntry entry)
-            throws IOException {
-
-        StringWriter writer = new StringWriter((int) entry.getSize());
-        PrintWriter printer = new PrintWriter(writer);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(zip));
-        String line;
-        int def = 0;
-        List<PyDictionary> recorddefs = new ArrayList<>();
-
-        while ((line = reader.readLine()) != null) {
-            if (line.matches(".*from .* import .*")) {
-                continue;
-            } else if (line.startsWith("],")) {
-                if (++def > 9) {
-                    printer.println("]}");
-
-                    try {
-                        py.exec(writer.toString());
-                    } catch (Exception e) {
-                        log.error("Exception in {}", entry.getName());
-                        throw e;
-                    }
-
-                    recorddefs.add((PyDictionary) py.get("recorddefs"));
-                    writer.getBuffer().setLength(0);
-                    printer.println("recorddefs = {");
-                    def = 0;
-                } else {
-                    printer.println(line);
-                }
-            } else {
-                printer.println(line);
-            }
-        }
-
-        if (def > 0) {
-            try {
-                py.exec(writer.toString());
-            } catch (Exception e) {
-                log.error("Exception in {}", entry.getName());
-                throw e;
-            }
-
-            recorddefs.add((PyDictionary) py.get("recorddefs"));
-        }
-
-        PyDictionary result = new PyDictionary();
-
-        for (PyDictionary dictionary : recorddefs) {
-            result.putAll(dictionary);
+    static Map<String, List<RecordField>> getRecordDefs(byte[] records, ZipEntry entry) throws IOException {
+        try {
+            return BotsGrammarParser.parseRecordDefs(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(records))));
+        } catch (Exception e) {
+            log.error("Exception in {}", entry.getName());
+            throw e;
         }
-
-        return result;
     }
 }
@@ -1,57 +1,229 @@
 package io.xlate.edi.schematools;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BiConsumer;
+import java.util.Properties;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 
+import io.xlate.edischema.v4.BaseType;
 import io.xlate.edischema.v4.CompositeType;
 import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.Include;
 import io.xlate.edischema.v4.Schema;
 import io.xlate.edischema.v4.SegmentType;
 
 abstract class XmlGenerator {
 
+    static final String NAMESPACE = "http://xlate.io/EDISchema/v4";
+    static final String SCHEMA_LOCATION = NAMESPACE + " https://www.xlate.io/EDISchema/EDISchema-v4.xsd";
+
+    /**
+     * System property enabling the shared types output: the types of each
+     * version are written once, to a types document included by every message
+     * schema of the version, rather than to every message schema.
+     */
+    static final String SHARED_TYPES_PROPERTY = "schemagen.sharedTypes";
+
+    /**
+     * Name of the types document of a version, and of its unit in the
+     * manifest.
+     */
+    static final String TYPES = "types";
+
     static Marshaller createMarshaller(JAXBContext context) throws JAXBException {
         Marshaller m = context.createMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-        m.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, "http://xlate.io/EDISchema/v4 https://www.xlate.io/EDISchema/EDISchema-v4.xsd");
+        m.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, SCHEMA_LOCATION);
 
         return m;
     }
 
-    static void sortTypes(Schema s) {
-        AtomicInteger result = new AtomicInteger();
+    static boolean sharedTypesFromSystemProperties() {
+        return Boolean.getBoolean(SHARED_TYPES_PROPERTY);
+    }
 
-        s.getTypes().sort((r1, r2) -> {
+    /**
+     * Load a configuration resource, e.g. {@code x12-versions.properties}.
+     *
+     * @throws FileNotFoundException
+     *             if the resource does not exist
+     */
+    static Properties loadProperties(ClassLoader loader, String resource) throws IOException {
+        Properties config = new Properties();
 
-            if (doWithInstanceOf(r1, r2, ElementType.class, (t1, t2) -> result.set(t1.getName().compareTo(t2.getName())))) {
-                return result.get();
+        try (InputStream stream = loader.getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new FileNotFoundException("Resource not found: " + resource);
             }
 
-            if (doWithInstanceOf(r1, r2, CompositeType.class, (t1, t2) -> result.set(t1.getName().compareTo(t2.getName())))) {
-                return result.get();
-            }
+            config.load(stream);
+        }
+
+        return config;
+    }
+
+    /**
+     * @return the path of a file relative to a directory, with {@code /}
+     *         separators, as given to a {@link SchemaSink} or an archive
+     */
+    static String relativePath(Path directory, Path file) {
+        return directory.relativize(file).toString().replace('\\', '/');
+    }
+
+    /**
+     * @return the types document of a version: a schema with only the given
+     *         types, sorted
+     */
+    static Schema typesSchema(Collection<BaseType> types) {
+        Schema schema = new Schema();
+        schema.getTypes().addAll(types);
+        sortTypes(schema);
+        return schema;
+    }
+
+    /**
+     * @return a schema with the layout of the given schema that includes the
+     *         types document at the location, relative to the schema's own
+     *         file, in place of the types
+     */
+    static Schema includingSchema(Schema schema, String typesLocation) {
+        Schema including = new Schema();
+        Include include = new Include();
+        include.setSchemaLocation(typesLocation);
+        including.getInclude().add(include);
+        including.getLayout().addAll(schema.getLayout());
+        return including;
+    }
+
+    /**
+     * Sort the types of the schema: elements, then composites, then segments,
+     * each by name. Types already in order (e.g. collected by
+     * {@link TypeClosure.SchemaTypes}) are left as they are after a single
+     * pass; otherwise the kind and name of each type are determined once, not
+     * on every comparison.
+     */
+    static void sortTypes(Schema s) {
+        sortTypes(s.getTypes());
+    }
+
+    static void sortTypes(List<BaseType> types) {
+        int size = types.size();
+
+        if (size < 2 || isSorted(types)) {
+            return;
+        }
+
+        SortKey[] keys = new SortKey[size];
+
+        for (int i = 0; i < size; i++) {
+            keys[i] = new SortKey(types.get(i));
+        }
+
+        Arrays.sort(keys);
+
+        for (int i = 0; i < size; i++) {
+            types.set(i, keys[i].type);
+        }
+    }
 
-            if (doWithInstanceOf(r1, r2, SegmentType.class, (t1, t2) -> result.set(t1.getName().compareTo(t2.getName())))) {
-                return result.get();
+    static boolean isSorted(List<BaseType> types) {
+        BaseType previous = types.get(0);
+        int previousKind = kind(previous);
+
+        for (int i = 1, m = types.size(); i < m; i++) {
+            BaseType type = types.get(i);
+            int kind = kind(type);
+
+            if (compare(previousKind, previous, kind, type) > 0) {
+                return false;
             }
 
-            List<Class<?>> order = Arrays.asList(ElementType.class, CompositeType.class, SegmentType.class);
-            return Integer.compare(order.indexOf(r1.getClass()), order.indexOf(r2.getClass()));
-        });
+            previous = type;
+            previousKind = kind;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the position of the type's kind in the sorted types: -1 for
+     *         types of any other kind, which precede the elements in their
+     *         original order
+     */
+    static int kind(BaseType type) {
+        Class<?> typeClass = type.getClass();
+
+        if (typeClass == ElementType.class) {
+            return 0;
+        }
+        if (typeClass == CompositeType.class) {
+            return 1;
+        }
+        if (typeClass == SegmentType.class) {
+            return 2;
+        }
+
+        return -1;
+    }
+
+    static String name(BaseType type, int kind) {
+        switch (kind) {
+        case 0:
+            return ((ElementType) type).getName();
+        case 1:
+            return ((CompositeType) type).getName();
+        case 2:
+            return ((SegmentType) type).getName();
+        default:
+            return null;
+        }
     }
 
-    static <P> boolean doWithInstanceOf(Object instance1, Object instance2, Class<P> requiredType, BiConsumer<P, P> action) {
-        if (instance1 != null && requiredType.isAssignableFrom(instance1.getClass()) && instance2 != null
-                && requiredType.isAssignableFrom(instance2.getClass())) {
-            action.accept(requiredType.cast(instance1), requiredType.cast(instance2));
-            return true;
+    static int compare(BaseType type1, BaseType type2) {
+        return compare(kind(type1), type1, kind(type2), type2);
+    }
+
+    static int compare(int kind1, BaseType type1, int kind2, BaseType type2) {
+        int result = Integer.compare(kind1, kind2);
+
+        if (result != 0 || kind1 < 0) {
+            return result;
+        }
+
+        return name(type1, kind1).compareTo(name(type2, kind2));
+    }
+
+    /**
+     * A type with its kind and name.
+     */
+    static final class SortKey implements Comparable<SortKey> {
+        final BaseType type;
+        final int kind;
+        final String name;
+
+        SortKey(BaseType type) {
+            this.type = type;
+            this.kind = kind(type);
+            this.name = name(type, kind);
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int result = Integer.compare(kind, other.kind);
+
+            if (result != 0 || kind < 0) {
+                return result;
+            }
+
+            return name.compareTo(other.name);
         }
-        return false;
     }
 }
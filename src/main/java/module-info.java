@@ -5,11 +5,13 @@ module io.xlate.schematools {
     requires java.prefs;
     requires java.sql;
     requires java.xml;
-    requires java.xml.bind;
-
-    requires jython.slim;
+    requires transitive java.xml.bind;
+    requires jdk.jfr;
 
     requires org.slf4j;
 
+    exports io.xlate.edi.schematools;
+    exports io.xlate.edischema.v4;
+
     opens io.xlate.edischema.v4 to java.xml.bind;
 }
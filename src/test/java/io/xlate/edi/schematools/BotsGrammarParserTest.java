@@ -0,0 +1,165 @@
+package io.xlate.edi.schematools;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.xlate.edi.schematools.BotsGrammarParser.RecordField;
+import io.xlate.edi.schematools.BotsGrammarParser.StructureEntry;
+
+public class BotsGrammarParserTest {
+
+    static final String STRUCTURE = "from bots.botsconfig import *\n"
+            + "from records004010 import recorddefs\n"
+            + "\n"
+            + "# The structure of the transaction\n"
+            + "structure = [\n"
+            + "{ID: 'ST', MIN: 1, MAX: 1, LEVEL: [\n"
+            + "    {ID: 'BEG', MIN: 1, MAX: 1},  # header\n"
+            + "    {ID: 'N1', MIN: 0, MAX: 200, LEVEL: [\n"
+            + "        {ID: 'N2', MIN: 0, MAX: 2},\n"
+            + "        {ID: \"ZZ1\", MIN: 0, MAX: 1, QUERIES: {'x': ('a', 'b')}, LEVEL: [\n"
+            + "            {ID: 'ZZ2', MIN: 1, MAX: 99999},\n"
+            + "        ]},\n"
+            + "    ]},\n"
+            + "    {ID: 'SE', MIN: 1, MAX: 1}\n"
+            + "]},\n"
+            + "]\n";
+
+    static final String RECORDS = "from bots.botsconfig import *\n"
+            + "recorddefs = {\n"
+            + "'BEG':[\n"
+            + "        ['BOTSID', 'M', 3, 'AN'],\n"
+            + "        ['BEG01', 'M', (2,2), 'AN'],\n"
+            + "        ['BEG02', 'C', (2, 2), 'AN'],   # comment, with [brackets]\n"
+            + "        ['BEG06', ('C', 5), (1,20), 'AN'],\n"
+            + "],\n"
+            + "'N1':[['BOTSID','M',3,'AN'],['N102','C',(1,60),'AN'],['C040', ('C', 3), [\n"
+            + "            ['C040.01', 'M', (2,3), 'AN'],\n"
+            + "            ['C040.02', 'C', (1,50), 'R'],\n"
+            + "            ],],\n"
+            + "],\n"
+            + "}\n";
+
+    static List<StructureEntry> structure(String grammar) throws IOException {
+        return BotsGrammarParser.parseStructure(new StringReader(grammar));
+    }
+
+    static Map<String, List<RecordField>> records(String grammar) throws IOException {
+        return BotsGrammarParser.parseRecordDefs(new StringReader(grammar));
+    }
+
+    static void assertEntry(StructureEntry entry, String id, int min, int max, int levelSize) {
+        Assert.assertEquals(id, entry.id);
+        Assert.assertEquals(min, entry.min);
+        Assert.assertEquals(max, entry.max);
+
+        if (levelSize < 0) {
+            Assert.assertNull(id, entry.level);
+        } else {
+            Assert.assertEquals(id, levelSize, entry.level.size());
+        }
+    }
+
+    static void assertField(RecordField field, String id, String usage, int maxUse, int minLength, int maxLength, String type) {
+        Assert.assertEquals(id, field.id);
+        Assert.assertEquals(usage, field.usage);
+        Assert.assertEquals(maxUse, field.maxUse);
+        Assert.assertFalse(id, field.isComposite());
+        Assert.assertEquals(minLength, field.minLength);
+        Assert.assertEquals(maxLength, field.maxLength);
+        Assert.assertEquals(type, field.type);
+    }
+
+    @Test
+    public void testNestedStructure() throws Exception {
+        List<StructureEntry> structure = structure(STRUCTURE);
+
+        Assert.assertEquals(1, structure.size());
+        StructureEntry st = structure.get(0);
+        assertEntry(st, "ST", 1, 1, 3);
+        assertEntry(st.level.get(0), "BEG", 1, 1, -1);
+        assertEntry(st.level.get(2), "SE", 1, 1, -1);
+
+        StructureEntry n1 = st.level.get(1);
+        assertEntry(n1, "N1", 0, 200, 2);
+        assertEntry(n1.level.get(0), "N2", 0, 2, -1);
+        assertEntry(n1.level.get(1), "ZZ1", 0, 1, 1);
+        assertEntry(n1.level.get(1).level.get(0), "ZZ2", 1, 99999, -1);
+    }
+
+    @Test
+    public void testRecordDefinitions() throws Exception {
+        Map<String, List<RecordField>> records = records(RECORDS);
+
+        Assert.assertEquals(Arrays.asList("BEG", "N1"), Arrays.asList(records.keySet().toArray()));
+
+        List<RecordField> beg = records.get("BEG");
+        Assert.assertEquals(4, beg.size());
+        assertField(beg.get(0), "BOTSID", "M", 1, 1, 3, "AN");
+        assertField(beg.get(1), "BEG01", "M", 1, 2, 2, "AN");
+        assertField(beg.get(2), "BEG02", "C", 1, 2, 2, "AN");
+        assertField(beg.get(3), "BEG06", "C", 5, 1, 20, "AN");
+
+        List<RecordField> n1 = records.get("N1");
+        Assert.assertEquals(3, n1.size());
+        assertField(n1.get(1), "N102", "C", 1, 1, 60, "AN");
+
+        RecordField c040 = n1.get(2);
+        Assert.assertTrue(c040.isComposite());
+        Assert.assertEquals("C040", c040.id);
+        Assert.assertEquals("C", c040.usage);
+        Assert.assertEquals(3, c040.maxUse);
+        Assert.assertEquals(2, c040.components.size());
+        assertField(c040.components.get(0), "C040.01", "M", 1, 2, 3, "AN");
+        assertField(c040.components.get(1), "C040.02", "C", 1, 1, 50, "R");
+    }
+
+    @Test
+    public void testUnclosedTopLevelSegmentClosed() throws Exception {
+        List<StructureEntry> structure = structure(STRUCTURE.substring(0, STRUCTURE.indexOf("    {ID: 'SE'")));
+
+        Assert.assertEquals(1, structure.size());
+        assertEntry(structure.get(0), "ST", 1, 1, 2);
+        assertEntry(structure.get(0).level.get(1), "N1", 0, 200, 2);
+    }
+
+    @Test
+    public void testTruncatedStructureRejected() throws Exception {
+        String truncated = STRUCTURE.substring(0, STRUCTURE.indexOf("{ID: 'ZZ2'"));
+
+        try {
+            structure(truncated);
+            Assert.fail("Truncated structure accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Unexpected end of grammar"));
+        }
+    }
+
+    @Test
+    public void testTruncatedRecordsRejected() throws Exception {
+        String truncated = RECORDS.substring(0, RECORDS.indexOf("['C040.02'"));
+
+        try {
+            records(truncated);
+            Assert.fail("Truncated records accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Unexpected end of grammar"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnterminatedStringRejected() throws Exception {
+        structure("structure = [\n{ID: 'ST, MIN: 1, MAX: 1}\n]\n");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingStructureRejected() throws Exception {
+        structure("from bots.botsconfig import *\n");
+    }
+}
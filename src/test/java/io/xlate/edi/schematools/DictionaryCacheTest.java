@@ -0,0 +1,210 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.Schema;
+
+public class DictionaryCacheTest {
+
+    static final String FINGERPRINT = "test";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Generate every release of the test standards with the dictionaries.
+     *
+     * @return the schemas generated, by path
+     */
+    static Map<String, byte[]> generate(DictionaryCache dictionaries, boolean includeTitles) throws Exception {
+        ClassLoader standards = SchemaGeneratorTest.standards();
+        Properties config = XmlGenerator.loadProperties(standards, EdifactSchemaXmlGenerator.CONFIGURATION);
+        Map<String, byte[]> schemas = new TreeMap<>();
+
+        try (ArchiveResolver archives = new ArchiveResolver(standards)) {
+            Map<String, Exception> failures = EdifactSchemaXmlGenerator.processReleases(EdifactSchemaXmlGenerator.getReleases(config, false),
+                                                                                        1,
+                                                                                        1,
+                                                                                        1,
+                                                                                        SchemaWriter.forName("stax"),
+                                                                                        SchemaGenerator.newManifest(EdifactSchemaXmlGenerator.OUTPUT),
+                                                                                        dictionaries,
+                                                                                        GenerationMetrics.DISABLED,
+                                                                                        archives,
+                                                                                        SchemaSink.memory(schemas),
+                                                                                        includeTitles,
+                                                                                        false,
+                                                                                        false);
+            Assert.assertEquals(Collections.emptyMap(), failures);
+        }
+
+        Assert.assertFalse(schemas.isEmpty());
+        return schemas;
+    }
+
+    static byte[] write(List<BaseType> types) throws IOException {
+        Schema schema = new Schema();
+        schema.getTypes().addAll(types);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StaxSchemaWriter().write(schema, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the entry of the cache, failing if it is not cached
+     */
+    static Object cached(DictionaryCache dictionaries, String key) throws IOException {
+        return dictionaries.get(key, () -> {
+            throw new AssertionError("Not cached: " + key);
+        });
+    }
+
+    static void assertEntryEquals(String key, Object expected, Object actual) throws IOException {
+        if (expected instanceof CodeListIndex) {
+            CodeListIndex expectedIndex = (CodeListIndex) expected;
+            CodeListIndex actualIndex = (CodeListIndex) actual;
+            Assert.assertEquals(key, expectedIndex.getRevisions(), actualIndex.getRevisions());
+            Assert.assertEquals(key, expectedIndex.getTables().keySet(), actualIndex.getTables().keySet());
+
+            for (Map.Entry<String, CodeListIndex.Table> table : expectedIndex.getTables().entrySet()) {
+                CodeListIndex.Table actualTable = actualIndex.getTables().get(table.getKey());
+                Assert.assertEquals(key, table.getValue().declared, actualTable.declared);
+                Assert.assertEquals(key, table.getValue().codes, actualTable.codes);
+                Assert.assertArrayEquals(key, table.getValue().revisions, actualTable.revisions);
+            }
+        } else if (expected instanceof Map) {
+            Assert.assertEquals(key, expected, actual);
+        } else {
+            Assert.assertArrayEquals(key, write(DictionaryCache.cast(expected)), write(DictionaryCache.cast(actual)));
+        }
+    }
+
+    void assertRoundTrip(boolean includeTitles) throws Exception {
+        Path directory = folder.newFolder().toPath();
+        DictionaryCache parsed = new DictionaryCache(directory, FINGERPRINT, Collections.emptyMap());
+        Map<String, byte[]> expected = generate(parsed, includeTitles);
+        parsed.save();
+
+        DictionaryCache loaded = DictionaryCache.load(directory, FINGERPRINT);
+        Map<String, Object> entries = new TreeMap<>(loaded.snapshot);
+        Assert.assertFalse(entries.isEmpty());
+
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            assertEntryEquals(entry.getKey(), cached(parsed, entry.getKey()), entry.getValue());
+        }
+
+        // Every dictionary is taken from the snapshot, and generates the same schemas
+        Map<String, byte[]> actual = generate(loaded, includeTitles);
+        Assert.assertTrue(loaded.snapshot.isEmpty());
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+
+        for (Map.Entry<String, byte[]> schema : expected.entrySet()) {
+            Assert.assertArrayEquals(schema.getKey(), schema.getValue(), actual.get(schema.getKey()));
+        }
+
+        for (String key : entries.keySet()) {
+            assertEntryEquals(key, entries.get(key), cached(loaded, key));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void testRoundTripWithTitles() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    /**
+     * @return the directory of a snapshot saved after generating the test
+     *         standards
+     */
+    Path saved() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        DictionaryCache dictionaries = new DictionaryCache(directory, FINGERPRINT, Collections.emptyMap());
+        generate(dictionaries, false);
+        dictionaries.save();
+        Assert.assertFalse(DictionaryCache.load(directory, FINGERPRINT).snapshot.isEmpty());
+        return directory;
+    }
+
+    /**
+     * Assert that the snapshot in the directory is ignored, the dictionaries
+     * being parsed again to generate the same schemas.
+     */
+    static void assertIgnored(Path directory, String fingerprint) throws Exception {
+        DictionaryCache loaded = DictionaryCache.load(directory, fingerprint);
+        Assert.assertTrue(loaded.snapshot.isEmpty());
+        Assert.assertEquals(0, loaded.strings.size());
+
+        Map<String, byte[]> rebuilt = generate(loaded, false);
+        Map<String, byte[]> expected = generate(new DictionaryCache(null, null, Collections.emptyMap()), false);
+        Assert.assertEquals(expected.keySet(), rebuilt.keySet());
+
+        for (Map.Entry<String, byte[]> schema : expected.entrySet()) {
+            Assert.assertArrayEquals(schema.getKey(), schema.getValue(), rebuilt.get(schema.getKey()));
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotIgnored() throws Exception {
+        assertIgnored(saved(), "other");
+    }
+
+    @Test
+    public void testMissingSnapshotIgnored() throws Exception {
+        assertIgnored(folder.newFolder().toPath(), FINGERPRINT);
+    }
+
+    @Test
+    public void testTruncatedSnapshotIgnored() throws Exception {
+        Path directory = saved();
+        Path file = directory.resolve(DictionaryCache.FILENAME);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length / 2));
+
+        assertIgnored(directory, FINGERPRINT);
+    }
+
+    @Test
+    public void testCorruptSnapshotIgnored() throws Exception {
+        Path directory = saved();
+        Path file = directory.resolve(DictionaryCache.FILENAME);
+        byte[] content = Files.readAllBytes(file);
+        // The kind of the first entry, following the header and its key
+        int header = 4 + 4 + 2 + FINGERPRINT.length() + 4;
+        int kind = header + 2 + ((content[header] & 0xFF) << 8 | content[header + 1] & 0xFF);
+        content[kind] = 'X';
+        Files.write(file, content);
+
+        assertIgnored(directory, FINGERPRINT);
+    }
+
+    @Test
+    public void testWrongMagicIgnored() throws Exception {
+        Path directory = saved();
+        Path file = directory.resolve(DictionaryCache.FILENAME);
+        byte[] content = Files.readAllBytes(file);
+        content[0] = 0;
+        Files.write(file, content);
+
+        assertIgnored(directory, FINGERPRINT);
+    }
+}
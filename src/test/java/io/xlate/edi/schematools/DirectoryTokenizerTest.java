@@ -0,0 +1,363 @@
+package io.xlate.edi.schematools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.xlate.edischema.v4.Syntax;
+
+public class DirectoryTokenizerTest {
+
+    /*
+     * The patterns of the former parse, searching the buffer of the lines
+     * since the previous token after each line.
+     */
+    static final Pattern COMPOSITE_DEFINITION = Pattern.compile("^[\\n\\r]+[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*([A-Z0-9]{4})(.*)Desc:(.*)[\\n\\r]{2,}",
+                                                                Pattern.MULTILINE + Pattern.DOTALL);
+    static final Pattern SEGMENT_DEFINITION = Pattern.compile(""
+            + "^\\s*"
+            + "[\\n\\r]+[ \\t]+[\\+\\*\\#\\|\\-X]*[ \\t]*"
+            + "([A-Z0-9]{3})"
+            + "(.*)"
+            + "Function:(.*)"
+            + "[\\n\\r]{2,}",
+                                                              Pattern.MULTILINE + Pattern.DOTALL);
+
+    static final String SEPARATOR = "----------------------------------------------------------------------";
+
+    /**
+     * @return the tokens found by the former parse, as by {@link #token}
+     */
+    static List<String> regexTokens(String text, boolean segments) throws IOException {
+        Pattern definition = segments ? SEGMENT_DEFINITION : COMPOSITE_DEFINITION;
+        Pattern entry = segments ? DirectoryTokenizer.SEGMENT_ENTRY : DirectoryTokenizer.COMPOSITE_ENTRY;
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        StringBuilder buffer = new StringBuilder();
+        List<String> tokens = new ArrayList<>();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+            String buf = buffer.toString();
+            Matcher m = definition.matcher(buf);
+
+            if (m.find()) {
+                tokens.add(header(m.group(1).trim(), m.group(2).trim(), m.group(3).trim().replaceAll("[\\r\\n ]+", " ")));
+                buffer.setLength(0);
+            } else if ((m = entry.matcher(buf)).find()) {
+                tokens.add(entry(m));
+                buffer.setLength(0);
+            } else {
+                Syntax syntax = EdifactSchemaXmlGenerator.loadSyntax("TEST", buf);
+
+                if (syntax != null) {
+                    tokens.add(syntax(syntax));
+                    buffer.setLength(0);
+                }
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * @return the tokens found by the tokenizer, as by {@link #token}
+     */
+    static List<String> tokens(String text, boolean segments) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        DirectoryTokenizer tokenizer = segments ? DirectoryTokenizer.segments(reader) : DirectoryTokenizer.composites(reader);
+        List<String> tokens = new ArrayList<>();
+        DirectoryTokenizer.Token token;
+
+        while ((token = tokenizer.next()) != null) {
+            tokens.add(token(tokenizer, token));
+        }
+
+        return tokens;
+    }
+
+    static String token(DirectoryTokenizer tokenizer, DirectoryTokenizer.Token token) {
+        switch (token) {
+        case HEADER:
+            return header(tokenizer.getId(), tokenizer.getTitle(), tokenizer.getDescription());
+        case ENTRY:
+            return entry(tokenizer.getEntry());
+        default:
+            return syntax(EdifactSchemaXmlGenerator.loadSyntax("TEST", tokenizer.getSyntaxText()));
+        }
+    }
+
+    static String header(String id, String title, String description) {
+        return "HEADER " + id + " [" + title + "] [" + description + "]";
+    }
+
+    static String entry(MatchResult result) {
+        StringBuilder text = new StringBuilder("ENTRY");
+
+        for (int i = 1; i <= result.groupCount(); i++) {
+            text.append(" [").append(result.group(i)).append(']');
+        }
+
+        return text.toString();
+    }
+
+    static String syntax(Syntax syntax) {
+        return "SYNTAX " + syntax.getType() + " " + syntax.getPosition();
+    }
+
+    static String lines(String... lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    /**
+     * Assert that the tokenizer finds the tokens of the former parse, and
+     * that they are the tokens expected.
+     */
+    static void assertTokens(String text, boolean segments, String... expected) throws IOException {
+        List<String> tokens = tokens(text, segments);
+        Assert.assertEquals(regexTokens(text, segments), tokens);
+
+        if (expected.length > 0) {
+            Assert.assertEquals(Arrays.asList(expected), tokens);
+        }
+    }
+
+    @Test
+    public void testCompositeContinuationLines() throws IOException {
+        String text = lines("UN/EDIFACT COMPOSITE DATA ELEMENT DIRECTORY",
+                            "",
+                            SEPARATOR,
+                            "",
+                            "       C002 DOCUMENT/MESSAGE NAME",
+                            "",
+                            "       Desc: Identification of a type of document/message by",
+                            "             code or name. Code preferred.",
+                            "",
+                            "010    1001  Document name code                        C      an..3",
+                            "020    1131  Code list identification code             C      an..17",
+                            "",
+                            SEPARATOR,
+                            "",
+                            "    +  C506 REFERENCE",
+                            "",
+                            "       Desc: Identification of a reference.",
+                            "",
+                            "010    1153  Reference code qualifier                  M      an..3",
+                            "020    1154  Reference identifier                      C      an..70",
+                            "");
+
+        assertTokens(text,
+                     false,
+                     "HEADER C002 [DOCUMENT/MESSAGE NAME] [Identification of a type of document/message by code or name. Code preferred.]",
+                     "ENTRY [1001] [C] [null]",
+                     "ENTRY [1131] [C] [null]",
+                     "HEADER C506 [REFERENCE] [Identification of a reference.]",
+                     "ENTRY [1153] [M] [null]",
+                     "ENTRY [1154] [C] [null]");
+    }
+
+    @Test
+    public void testSegmentContinuationLines() throws IOException {
+        String text = lines("UN/EDIFACT SEGMENT DIRECTORY",
+                            "",
+                            SEPARATOR,
+                            "",
+                            "       BGM  BEGINNING OF MESSAGE",
+                            "",
+                            "       Function: To indicate the type and function of a message",
+                            "                 and to transmit the identifying number.",
+                            "",
+                            "010    C002 DOCUMENT/MESSAGE NAME                      C    1",
+                            "020    1225 MESSAGE FUNCTION CODE                      C    1 an..3",
+                            "030    4343 RESPONSE TYPE CODE                         C    9 an..3",
+                            "",
+                            SEPARATOR,
+                            "",
+                            "    X  DTM  DATE/TIME/PERIOD",
+                            "",
+                            "       Function: To specify date, and/or time, or period.",
+                            "",
+                            "010  * C507 DATE/TIME/PERIOD                           M    1",
+                            "");
+
+        assertTokens(text,
+                     true,
+                     "HEADER BGM [BEGINNING OF MESSAGE] [To indicate the type and function of a message and to transmit the identifying number.]",
+                     "ENTRY [C002] [ DOCUMENT/MESSAGE NAME                     ] [C] [1] [null] [null]",
+                     "ENTRY [1225] [ MESSAGE FUNCTION CODE                     ] [C] [1] [ an..3] [null]",
+                     "ENTRY [4343] [ RESPONSE TYPE CODE                        ] [C] [9] [ an..3] [null]",
+                     "HEADER DTM [DATE/TIME/PERIOD] [To specify date, and/or time, or period.]",
+                     "ENTRY [C507] [ DATE/TIME/PERIOD                          ] [M] [1] [null] [null]");
+    }
+
+    @Test
+    public void testNotes() throws IOException {
+        String text = lines(SEPARATOR,
+                            "",
+                            "       C002 DOCUMENT/MESSAGE NAME",
+                            "",
+                            "       Desc: Identification of a type of document/message.",
+                            "",
+                            "010    1001  Document name code                        C      an..3",
+                            "020    1004  Document identifier                       C      an..70",
+                            "",
+                            "       Note:",
+                            "        1. D3(010,020) One of these must be present.",
+                            "        2. Data element 1004 is used (see 1.) when",
+                            "           no code applies.",
+                            "",
+                            SEPARATOR,
+                            "",
+                            "       MOA  MONETARY AMOUNT",
+                            "",
+                            "       Function: To specify a monetary amount.",
+                            "",
+                            "010    5004 MONETARY AMOUNT                            M    3 n..35",
+                            "020    1225 MESSAGE FUNCTION CODE                      C    1 an..3",
+                            "",
+                            "       Note:",
+                            "        1.",
+                            "           D5(010,020) If first, then second.",
+                            "        2. D1(010,020) One and only one.",
+                            "");
+
+        // The segment's header is not found by the composite directory's pattern, and vice versa
+        assertTokens(text, false);
+        assertTokens(text, true);
+
+        List<String> composites = tokens(text, false);
+        Assert.assertTrue(composites.toString(), composites.contains("SYNTAX REQUIRED [1, 2]"));
+
+        List<String> segments = tokens(text, true);
+        Assert.assertTrue(segments.toString(), segments.contains("SYNTAX CONDITIONAL [1, 2]"));
+        Assert.assertTrue(segments.toString(), segments.contains("SYNTAX SINGLE [1, 2]"));
+    }
+
+    @Test
+    public void testFallbackLayout() throws IOException {
+        // Entries whose name wraps before the status are only matched by the patterns over the block
+        String text = lines(SEPARATOR,
+                            "",
+                            "       ZZZ  WRAPPED ENTRIES",
+                            "",
+                            "       Function: To test entries whose text is wrapped.",
+                            "",
+                            "010    C002 DOCUMENT/MESSAGE NAME WHICH IS LONG ENOUGH TO BE",
+                            "            WRAPPED ONTO THE NEXT LINE                   C    1",
+                            "020    1225 MESSAGE FUNCTION CODE WHICH IS ALSO",
+                            "            WRAPPED                                      C    1 an..3",
+                            "030    4343 RESPONSE TYPE CODE                           C    9 an..3",
+                            "");
+
+        List<String> tokens = tokens(text, true);
+        assertTokens(text, true);
+        Assert.assertEquals(4, tokens.size());
+        Assert.assertEquals("HEADER ZZZ [WRAPPED ENTRIES] [To test entries whose text is wrapped.]", tokens.get(0));
+        Assert.assertTrue(tokens.get(1), tokens.get(1).startsWith("ENTRY [C002]"));
+        Assert.assertTrue(tokens.get(2), tokens.get(2).startsWith("ENTRY [1225]"));
+        Assert.assertTrue(tokens.get(2), tokens.get(2).contains("[ an..3]"));
+        Assert.assertTrue(tokens.get(3), tokens.get(3).startsWith("ENTRY [4343]"));
+
+        String composites = lines(SEPARATOR,
+                                  "",
+                                  "       C001 TRANSPORT MEANS",
+                                  "",
+                                  "       Desc: Code and/or name identifying the type of means",
+                                  "             of transport.",
+                                  "",
+                                  "010    8179  Transport means description code with a long",
+                                  "             name                                      C      an..8",
+                                  "020    1131  Code list identification code             C      an..17",
+                                  "");
+
+        tokens = tokens(composites, false);
+        assertTokens(composites, false);
+        Assert.assertEquals(3, tokens.size());
+        Assert.assertTrue(tokens.get(1), tokens.get(1).startsWith("ENTRY [8179]"));
+    }
+
+    @Test
+    public void testTrailingBlockWithoutTerminator() throws IOException {
+        String entryLast = SEPARATOR + "\n"
+                + "\n"
+                + "       RFF  REFERENCE\n"
+                + "\n"
+                + "       Function: To specify a reference.\n"
+                + "\n"
+                + "010    C506 REFERENCE                                  M    1";
+
+        assertTokens(entryLast,
+                     true,
+                     "HEADER RFF [REFERENCE] [To specify a reference.]",
+                     "ENTRY [C506] [ REFERENCE                                 ] [M] [1] [null] [null]");
+
+        // A header whose text is not ended by an empty line is not complete
+        String headerLast = SEPARATOR + "\n"
+                + "\n"
+                + "       C506 REFERENCE\n"
+                + "\n"
+                + "       Desc: Identification of a reference.";
+
+        assertTokens(headerLast, false);
+        Assert.assertEquals(0, tokens(headerLast, false).size());
+
+        String syntaxLast = lines(SEPARATOR,
+                                  "",
+                                  "       C002 DOCUMENT/MESSAGE NAME",
+                                  "",
+                                  "       Desc: Identification of a type of document/message.",
+                                  "",
+                                  "010    1001  Document name code                        C      an..3",
+                                  "020    1004  Document identifier                       C      an..70",
+                                  "",
+                                  "       Note:")
+                + "        1. D3(010,020) One of these must be present.";
+
+        assertTokens(syntaxLast, false);
+        Assert.assertEquals("SYNTAX REQUIRED [1, 2]", tokens(syntaxLast, false).get(3));
+    }
+
+    static String directory(String release, String archive) throws IOException {
+        try (InputStream in = SchemaGeneratorTest.standards().getResourceAsStream("edifact/directories/" + release + ".zip")) {
+            ZipInputStream outer = new ZipInputStream(in);
+            ZipEntry entry;
+
+            while ((entry = outer.getNextEntry()) != null) {
+                if (entry.getName().equals(archive + ".zip")) {
+                    ZipInputStream inner = new ZipInputStream(outer);
+                    inner.getNextEntry();
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    inner.transferTo(content);
+                    return new String(content.toByteArray(), Charset.forName("IBM850"));
+                }
+            }
+        }
+
+        throw new IOException("No " + archive + " in " + release);
+    }
+
+    @Test
+    public void testDirectories() throws IOException {
+        String composites = directory("d13b", "edcd");
+        String segments = directory("d13b", "edsd");
+
+        assertTokens(composites, false);
+        assertTokens(segments, true);
+        Assert.assertEquals(16, tokens(composites, false).size());
+        Assert.assertEquals(31, tokens(segments, true).size());
+    }
+}
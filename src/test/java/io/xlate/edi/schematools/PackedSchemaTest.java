@@ -0,0 +1,156 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.LoopStandard;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Transaction;
+import io.xlate.edischema.v4.Value;
+
+public class PackedSchemaTest {
+
+    static final BigInteger LARGEST = BigInteger.valueOf(Integer.MAX_VALUE - 1L);
+
+    final StaxSchemaWriter xml = new StaxSchemaWriter();
+    final PackedSchemaWriter packer = new PackedSchemaWriter();
+
+    /**
+     * @return a transaction whose bounds are the largest written, with a
+     *         repeated element type and segment type
+     */
+    static Schema schema(BigInteger bound) {
+        ElementType element = new ElementType();
+        element.setName("E1001");
+        element.setCode("1001");
+        element.setNumber(1001);
+        element.setBase(ElementBaseType.STRING);
+        element.setTitle("Document name code");
+        element.setMinLength(BigInteger.ONE);
+        element.setMaxLength(bound);
+
+        Value value = new Value();
+        value.setValue("220");
+        value.setTitle("Order");
+        element.getEnumeration().add(value);
+
+        ElementStandard elementRef = new ElementStandard();
+        elementRef.setType("E1001");
+        elementRef.setMinOccurs(BigInteger.ZERO);
+        elementRef.setMaxOccurs(bound);
+
+        SegmentType segment = new SegmentType();
+        segment.setName("BGM");
+        segment.getSequence().add(elementRef);
+
+        SegmentStandard header = new SegmentStandard();
+        header.setType("BGM");
+        header.setMinOccurs(BigInteger.ONE);
+        header.setMaxOccurs(BigInteger.ONE);
+
+        SegmentStandard repeated = new SegmentStandard();
+        repeated.setType("BGM");
+        repeated.setMaxOccurs(bound);
+
+        LoopStandard loop = new LoopStandard();
+        loop.setCode("0010");
+        loop.setMinOccurs(BigInteger.ZERO);
+        loop.setMaxOccurs(bound);
+        loop.getSequence().add(repeated);
+
+        Transaction transaction = new Transaction();
+        transaction.getSequence().add(header);
+        transaction.getSequence().add(loop);
+
+        Schema schema = new Schema();
+        schema.getLayout().add(transaction);
+        schema.getTypes().add(element);
+        schema.getTypes().add(segment);
+        return schema;
+    }
+
+    byte[] pack(Schema schema) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packer.write(schema, out);
+        return out.toByteArray();
+    }
+
+    byte[] write(Schema schema) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        xml.write(schema, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTripAtLargestBound() throws IOException {
+        Schema schema = schema(LARGEST);
+        PackedSchema reader = PackedSchema.wrap(ByteBuffer.wrap(pack(schema)));
+
+        Assert.assertEquals(PackedSchemaWriter.FORMAT_VERSION, reader.getFormatVersion());
+        Assert.assertEquals(2, reader.getTypeCount());
+        Assert.assertEquals(1, reader.getLoopCount());
+        Assert.assertArrayEquals(write(schema), write(reader.toSchema()));
+
+        ElementType element = reader.getElement("E1001");
+        Assert.assertEquals("1001", element.getCode());
+        Assert.assertEquals(Integer.valueOf(1001), element.getNumber());
+        Assert.assertEquals(ElementBaseType.STRING, element.getBase());
+        Assert.assertEquals(LARGEST, element.getMaxLength());
+        Assert.assertEquals("220", element.getEnumeration().get(0).getValue());
+        Assert.assertEquals("Order", element.getEnumeration().get(0).getTitle());
+
+        SegmentType segment = reader.getSegment("BGM");
+        Assert.assertEquals(LARGEST, ((ElementStandard) segment.getSequence().get(0)).getMaxOccurs());
+
+        LoopStandard loop = reader.getLoop("0010");
+        Assert.assertEquals(LARGEST, loop.getMaxOccurs());
+        Assert.assertEquals(LARGEST, ((SegmentStandard) loop.getSequence().get(0)).getMaxOccurs());
+
+        Assert.assertNull(reader.getElement("BGM"));
+        Assert.assertNull(reader.getSegment("E1001"));
+        Assert.assertNull(reader.getComposite("C002"));
+        Assert.assertNull(reader.getLoop("0020"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxValueRejected() throws IOException {
+        pack(schema(BigInteger.valueOf(Integer.MAX_VALUE)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRejected() throws IOException {
+        pack(schema(BigInteger.valueOf(-1)));
+    }
+
+    @Test
+    public void testGeneratedSchemasRoundTrip() throws Exception {
+        Map<String, byte[]> schemas = new HashMap<>();
+
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(SchemaGeneratorTest.standards()).build()) {
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d13b", SchemaSink.memory(schemas));
+            generator.generate(SchemaGenerator.Dialect.X12, "005010", SchemaSink.memory(schemas));
+        }
+
+        Assert.assertTrue(schemas.containsKey("d13b/O/ORDERS.xml"));
+        Assert.assertTrue(schemas.containsKey("005010/8XX/850.xml"));
+
+        // Compares the document, each of its types and each loop with the JAXB model read from the XML
+        PackedSchemaVerifier verifier = new PackedSchemaVerifier();
+
+        for (byte[] document : schemas.values()) {
+            verifier.verify(document);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SchemaDaemonTest {
+
+    /**
+     * Append the framed answer for the single document generated for a
+     * message.
+     */
+    static void expectDocument(ByteArrayOutputStream expected,
+                               SchemaGenerator generator,
+                               SchemaGenerator.Dialect dialect,
+                               String version,
+                               String message) throws Exception {
+        Map<String, byte[]> documents = new TreeMap<>();
+        generator.generate(dialect, version, message, SchemaSink.memory(documents));
+        Assert.assertEquals(1, documents.size());
+
+        Map.Entry<String, byte[]> document = documents.entrySet().iterator().next();
+        expected.write(("OK " + document.getValue().length + " " + document.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+        expected.write(document.getValue());
+    }
+
+    static void expectLine(ByteArrayOutputStream expected, String line) throws Exception {
+        expected.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testServeRequests() throws Exception {
+        String requests = "X12 005010 850\n"
+                + "\n"
+                + "   \n"
+                + "  edifact   d13b   orders  \n"
+                + "BOGUS 005010 850\n"
+                + "X12 005010\n"
+                + "EDIFACT d13b NOPE\n"
+                + "quit\n"
+                + "X12 004010 810\n";
+
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(SchemaGeneratorTest.standards()).writer("stax").build()) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expectDocument(expected, generator, SchemaGenerator.Dialect.X12, "005010", "850");
+            expectDocument(expected, generator, SchemaGenerator.Dialect.EDIFACT, "d13b", "ORDERS");
+            expectLine(expected, "ERROR Unknown dialect: BOGUS");
+            expectLine(expected, "ERROR Expected <dialect> <version> <message>: X12 005010");
+            expectLine(expected, "ERROR Unknown EDIFACT message: d13b NOPE");
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            new SchemaDaemon(generator).serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), actual);
+
+            Assert.assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8),
+                                new String(actual.toByteArray(), StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void testServeUntilEndOfInput() throws Exception {
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(SchemaGeneratorTest.standards()).writer("stax").build()) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expectDocument(expected, generator, SchemaGenerator.Dialect.X12, "004010", "810");
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            new SchemaDaemon(generator).serve(new ByteArrayInputStream("X12 004010 810".getBytes(StandardCharsets.UTF_8)), actual);
+
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.Transaction;
+
+public class SchemaGeneratorTest {
+
+    /**
+     * @return class loader of the small standards under
+     *         {@code src/test/resources/standards}, in place of the generator's
+     *         own
+     */
+    static ClassLoader standards() {
+        URL root = SchemaGeneratorTest.class.getResource("/standards/");
+        return new URLClassLoader(new URL[] { root }, null);
+    }
+
+    static DictionaryCache keptDictionaries(SchemaGenerator generator, String key) {
+        synchronized (generator.versions) {
+            SchemaGenerator.CachedVersion version = generator.versions.get(key);
+            return version != null ? version.dictionaries : null;
+        }
+    }
+
+    @Test
+    public void testGenerateVersionIntoMemory() throws Exception {
+        Map<String, byte[]> schemas = new TreeMap<>();
+
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(standards()).build()) {
+            Assert.assertEquals(Arrays.asList("004010", "005010", "006010"), generator.getVersions(SchemaGenerator.Dialect.X12));
+            Assert.assertEquals(Arrays.asList("v4", "d13a", "d13b"), generator.getVersions(SchemaGenerator.Dialect.EDIFACT));
+
+            generator.generate(SchemaGenerator.Dialect.X12, "005010", SchemaSink.memory(schemas));
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "D13B", SchemaSink.memory(schemas));
+        }
+
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("005010/8XX/810.xml",
+                                                        "005010/8XX/850.xml",
+                                                        "d13b/I/INVOIC.xml",
+                                                        "d13b/O/ORDERS.xml")),
+                            schemas.keySet());
+
+        Unmarshaller unmarshaller = JAXBContext.newInstance(Schema.class).createUnmarshaller();
+
+        for (Map.Entry<String, byte[]> entry : schemas.entrySet()) {
+            Schema schema = (Schema) unmarshaller.unmarshal(new ByteArrayInputStream(entry.getValue()));
+            Assert.assertTrue(entry.getKey(), schema.getLayout().get(0) instanceof Transaction);
+            Assert.assertFalse(entry.getKey(), schema.getTypes().isEmpty());
+        }
+    }
+
+    @Test
+    public void testGenerateVersionWithSharedTypes() throws Exception {
+        Map<String, byte[]> schemas = new TreeMap<>();
+
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(standards()).sharedTypes(true).writer("packed").build()) {
+            generator.generate(SchemaGenerator.Dialect.X12, "005010", SchemaSink.memory(schemas));
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d13b", SchemaSink.memory(schemas));
+        }
+
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("005010/8XX/810.edis",
+                                                        "005010/8XX/850.edis",
+                                                        "005010/types.edis",
+                                                        "d13b/I/INVOIC.edis",
+                                                        "d13b/O/ORDERS.edis",
+                                                        "d13b/types.edis")),
+                            schemas.keySet());
+    }
+
+    @Test
+    public void testGeneratedTypesSorted() throws Exception {
+        Map<String, byte[]> schemas = DictionaryCacheTest.generate(new DictionaryCache(null, null, Collections.emptyMap()), false);
+        Unmarshaller unmarshaller = JAXBContext.newInstance(Schema.class).createUnmarshaller();
+
+        // Includes the control schema of the syntax release
+        Assert.assertTrue(schemas.containsKey("v4.xml"));
+
+        for (Map.Entry<String, byte[]> entry : schemas.entrySet()) {
+            Schema schema = (Schema) unmarshaller.unmarshal(new ByteArrayInputStream(entry.getValue()));
+            Assert.assertTrue(entry.getKey(), schema.getTypes().size() < 2 || XmlGenerator.isSorted(schema.getTypes()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVersionRejected() throws Exception {
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(standards()).build()) {
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d99z", SchemaSink.memory(new HashMap<>()));
+        }
+    }
+
+    @Test
+    public void testVersionKeptWithItsDictionaries() throws Exception {
+        try (SchemaGenerator generator = SchemaGenerator.builder().resources(standards()).writer("stax").build()) {
+            Map<String, byte[]> schemas = new HashMap<>();
+
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d13a", SchemaSink.memory(schemas));
+            DictionaryCache dictionaries = keptDictionaries(generator, "EDIFACT d13a");
+            Assert.assertNotNull(dictionaries);
+            int strings = dictionaries.strings.size();
+            Assert.assertTrue(strings > 0);
+
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "D13A", "orders", SchemaSink.memory(schemas));
+            Assert.assertSame(dictionaries, keptDictionaries(generator, "EDIFACT d13a"));
+            Assert.assertTrue(schemas.containsKey("d13a/O/ORDERS.xml"));
+        }
+    }
+
+    @Test
+    public void testEvictedReleaseDictionariesUnreachable() throws Exception {
+        try (SchemaGenerator generator = SchemaGenerator.builder()
+                                                        .resources(standards())
+                                                        .writer("stax")
+                                                        .preparedVersions(1)
+                                                        .build()) {
+            Map<String, byte[]> schemas = new HashMap<>();
+
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d13a", "ORDERS", SchemaSink.memory(schemas));
+            Assert.assertTrue(schemas.containsKey("d13a/O/ORDERS.xml"));
+
+            WeakReference<DictionaryCache> dictionaries = new WeakReference<>(keptDictionaries(generator, "EDIFACT d13a"));
+            WeakReference<StringInterner> strings = new WeakReference<>(dictionaries.get().strings);
+            Assert.assertTrue(strings.get().size() > 0);
+
+            generator.generate(SchemaGenerator.Dialect.EDIFACT, "d13b", "ORDERS", SchemaSink.memory(schemas));
+            Assert.assertTrue(schemas.containsKey("d13b/O/ORDERS.xml"));
+
+            synchronized (generator.versions) {
+                Assert.assertEquals(Collections.singleton("EDIFACT d13b"), generator.versions.keySet());
+            }
+
+            for (int i = 0; i < 100 && (dictionaries.get() != null || strings.get() != null); i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+
+            Assert.assertNull("Dictionaries of the evicted release are still reachable", dictionaries.get());
+            Assert.assertNull("Strings of the evicted release are still reachable", strings.get());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.xlate.edi.schematools;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Value;
+
+public class StaxSchemaWriterTest {
+
+    static Map<String, byte[]> generateX12(String writer, boolean sharedTypes) throws Exception {
+        Map<String, byte[]> schemas = new TreeMap<>();
+        Map<String, Exception> failures = X12SchemaXmlGenerator.processVersions(new String[] { "004010", "005010", "006010" },
+                                                                                1,
+                                                                                SchemaWriter.forName(writer),
+                                                                                SchemaGenerator.newManifest(X12SchemaXmlGenerator.OUTPUT),
+                                                                                sharedTypes,
+                                                                                false,
+                                                                                GenerationMetrics.DISABLED,
+                                                                                SchemaGeneratorTest.standards(),
+                                                                                SchemaSink.memory(schemas));
+
+        Assert.assertEquals(Collections.emptyMap(), failures);
+        Assert.assertFalse(schemas.isEmpty());
+        return schemas;
+    }
+
+    static Map<String, byte[]> generateEdifact(String writer, boolean includeTitles, boolean sharedTypes) throws Exception {
+        ClassLoader standards = SchemaGeneratorTest.standards();
+        Properties config = XmlGenerator.loadProperties(standards, EdifactSchemaXmlGenerator.CONFIGURATION);
+        Map<String, byte[]> schemas = new TreeMap<>();
+
+        try (ArchiveResolver archives = new ArchiveResolver(standards)) {
+            Map<String, Exception> failures = EdifactSchemaXmlGenerator.processReleases(EdifactSchemaXmlGenerator.getReleases(config, false),
+                                                                                        1,
+                                                                                        1,
+                                                                                        1,
+                                                                                        SchemaWriter.forName(writer),
+                                                                                        SchemaGenerator.newManifest(EdifactSchemaXmlGenerator.OUTPUT),
+                                                                                        new DictionaryCache(null, null, Collections.emptyMap()),
+                                                                                        GenerationMetrics.DISABLED,
+                                                                                        archives,
+                                                                                        SchemaSink.memory(schemas),
+                                                                                        includeTitles,
+                                                                                        sharedTypes,
+                                                                                        false);
+            Assert.assertEquals(Collections.emptyMap(), failures);
+        }
+
+        Assert.assertFalse(schemas.isEmpty());
+        return schemas;
+    }
+
+    static void assertSameBytes(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+
+        for (Map.Entry<String, byte[]> schema : expected.entrySet()) {
+            // Compared as text first for a readable failure
+            Assert.assertEquals(schema.getKey(),
+                                new String(schema.getValue(), StandardCharsets.UTF_8),
+                                new String(actual.get(schema.getKey()), StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(schema.getKey(), schema.getValue(), actual.get(schema.getKey()));
+        }
+    }
+
+    static byte[] write(SchemaWriter writer, Schema schema) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(schema, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testX12MatchesJaxb() throws Exception {
+        assertSameBytes(generateX12("jaxb", false), generateX12("stax", false));
+    }
+
+    @Test
+    public void testX12SharedTypesMatchesJaxb() throws Exception {
+        assertSameBytes(generateX12("jaxb", true), generateX12("stax", true));
+    }
+
+    @Test
+    public void testEdifactMatchesJaxb() throws Exception {
+        assertSameBytes(generateEdifact("jaxb", false, false), generateEdifact("stax", false, false));
+    }
+
+    @Test
+    public void testEdifactWithTitlesMatchesJaxb() throws Exception {
+        assertSameBytes(generateEdifact("jaxb", true, false), generateEdifact("stax", true, false));
+    }
+
+    @Test
+    public void testEdifactSharedTypesMatchesJaxb() throws Exception {
+        assertSameBytes(generateEdifact("jaxb", true, true), generateEdifact("stax", true, true));
+    }
+
+    @Test
+    public void testEscapedTextMatchesJaxb() throws Exception {
+        Value code = new Value();
+        code.setValue("A&B");
+        code.setTitle("Code <A> & \"B\"");
+
+        ElementType element = new ElementType();
+        element.setName("DE1");
+        element.setCode("1");
+        element.setTitle("Quantity & \"price\" <each> 'é'");
+        element.setDescription("Amount < 10 & > 0, \"quoted\" and 'quoted'\nsecond line €");
+        element.setBase(ElementBaseType.IDENTIFIER);
+        element.setMaxLength(BigInteger.valueOf(3));
+        element.setEnumeration(new ArrayList<>(Arrays.asList(code)));
+
+        ElementStandard reference = new ElementStandard();
+        reference.setType("DE1");
+
+        SegmentType segment = new SegmentType();
+        segment.setName("SG1");
+        segment.setTitle("Segment > \"one\"");
+        segment.setDescription("<none> & \"all\"");
+        List<BaseType> sequence = new ArrayList<>();
+        sequence.add(reference);
+        segment.setSequence(sequence);
+
+        Schema schema = new Schema();
+        schema.getTypes().add(element);
+        schema.getTypes().add(segment);
+
+        byte[] expected = write(new SchemaMarshaller(), schema);
+        byte[] actual = write(new StaxSchemaWriter(), schema);
+
+        Assert.assertEquals(new String(expected, StandardCharsets.UTF_8), new String(actual, StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(expected, actual);
+        Assert.assertTrue(new String(actual, StandardCharsets.UTF_8).contains("&amp;"));
+    }
+}
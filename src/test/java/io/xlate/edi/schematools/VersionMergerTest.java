@@ -0,0 +1,216 @@
+package io.xlate.edi.schematools;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.xlate.edischema.v4.BaseType;
+import io.xlate.edischema.v4.ElementBaseType;
+import io.xlate.edischema.v4.ElementStandard;
+import io.xlate.edischema.v4.ElementType;
+import io.xlate.edischema.v4.Schema;
+import io.xlate.edischema.v4.SegmentStandard;
+import io.xlate.edischema.v4.SegmentType;
+import io.xlate.edischema.v4.Transaction;
+
+public class VersionMergerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static BigInteger number(int value) {
+        return BigInteger.valueOf(value);
+    }
+
+    static ElementType element(String name, ElementBaseType base, int maxLength) {
+        ElementType element = new ElementType();
+        element.setName(name);
+        element.setBase(base);
+        element.setMinLength(BigInteger.ONE);
+        element.setMaxLength(number(maxLength));
+        return element;
+    }
+
+    static ElementStandard reference(String type, int maxOccurs) {
+        ElementStandard reference = new ElementStandard();
+        reference.setType(type);
+        reference.setMinOccurs(BigInteger.ZERO);
+        reference.setMaxOccurs(number(maxOccurs));
+        return reference;
+    }
+
+    /**
+     * @return a transaction of one segment {@code SEG} of the element
+     *         references, with the types given
+     */
+    static Schema schema(List<ElementStandard> references, ElementType... elements) {
+        SegmentType segment = new SegmentType();
+        segment.setName("SEG");
+        segment.getSequence().addAll(references);
+
+        SegmentStandard segmentRef = new SegmentStandard();
+        segmentRef.setType("SEG");
+        segmentRef.setMinOccurs(BigInteger.ONE);
+        segmentRef.setMaxOccurs(BigInteger.ONE);
+
+        Transaction transaction = new Transaction();
+        transaction.getSequence().add(segmentRef);
+
+        Schema schema = new Schema();
+        schema.getLayout().add(transaction);
+        schema.getTypes().add(segment);
+        schema.getTypes().addAll(Arrays.asList(elements));
+        return schema;
+    }
+
+    static Schema schema(int maxLength) {
+        return schema(Collections.singletonList(reference("E1", 1)), element("E1", ElementBaseType.STRING, maxLength));
+    }
+
+    static <T extends BaseType> T type(Schema schema, Class<T> kind, String name) {
+        for (BaseType type : schema.getTypes()) {
+            if (kind.isInstance(type) && name.equals(XmlGenerator.name(type, XmlGenerator.kind(type)))) {
+                return kind.cast(type);
+            }
+        }
+
+        throw new AssertionError("No type " + name);
+    }
+
+    static void assertRange(VersionMerger.Range range, String minVersion, String maxVersion) {
+        Assert.assertEquals(minVersion, range.minVersion);
+        Assert.assertEquals(maxVersion, range.maxVersion);
+    }
+
+    @Test
+    public void testElementTypeChangeStartsRange() {
+        List<String> versions = Arrays.asList("001", "002", "003");
+        Schema numeric = schema(Collections.singletonList(reference("E1", 1)), element("E1", ElementBaseType.NUMERIC, 10));
+
+        List<VersionMerger.Range> ranges = VersionMerger.merge(versions, Arrays.asList(schema(10), schema(10), numeric));
+
+        Assert.assertEquals(2, ranges.size());
+        assertRange(ranges.get(0), "001", "002");
+        assertRange(ranges.get(1), "003", "003");
+        Assert.assertEquals(ElementBaseType.STRING, type(ranges.get(0).schema, ElementType.class, "E1").getBase());
+        Assert.assertEquals(ElementBaseType.NUMERIC, type(ranges.get(1).schema, ElementType.class, "E1").getBase());
+        Assert.assertEquals("8XX/850-001-002.xml", VersionMerger.rangePath("8XX/850.xml", ".xml", ranges, 0));
+        Assert.assertEquals("8XX/850.xml", VersionMerger.rangePath("8XX/850.xml", ".xml", ranges, 1));
+    }
+
+    @Test
+    public void testUnsortedVersionStartsRange() {
+        List<VersionMerger.Range> ranges = VersionMerger.merge(Arrays.asList("002", "001"), Arrays.asList(schema(10), schema(10)));
+
+        Assert.assertEquals(2, ranges.size());
+        assertRange(ranges.get(0), "002", "002");
+        assertRange(ranges.get(1), "001", "001");
+    }
+
+    @Test
+    public void testLengthsSplitByVersion() {
+        List<String> versions = Arrays.asList("001", "002", "003", "004", "005");
+        List<Schema> schemas = Arrays.asList(schema(10), schema(10), schema(20), schema(35), schema(35));
+
+        List<VersionMerger.Range> ranges = VersionMerger.merge(versions, schemas);
+
+        Assert.assertEquals(1, ranges.size());
+        assertRange(ranges.get(0), "001", "005");
+
+        ElementType merged = type(ranges.get(0).schema, ElementType.class, "E1");
+        Assert.assertEquals(number(35), merged.getMaxLength());
+        Assert.assertEquals(2, merged.getVersion().size());
+
+        ElementType.Version first = merged.getVersion().get(0);
+        Assert.assertEquals("001", first.getMinVersion());
+        Assert.assertEquals("002", first.getMaxVersion());
+        Assert.assertEquals(number(10), first.getMaxLength());
+
+        ElementType.Version second = merged.getVersion().get(1);
+        Assert.assertEquals("003", second.getMinVersion());
+        Assert.assertEquals("003", second.getMaxVersion());
+        Assert.assertEquals(number(20), second.getMaxLength());
+    }
+
+    @Test
+    public void testUnchangedElementNotVersioned() {
+        List<VersionMerger.Range> ranges = VersionMerger.merge(Arrays.asList("001", "002"), Arrays.asList(schema(10), schema(10)));
+
+        Assert.assertTrue(type(ranges.get(0).schema, ElementType.class, "E1").getVersion().isEmpty());
+        Assert.assertTrue(type(ranges.get(0).schema, SegmentType.class, "SEG").getSequence().get(0) instanceof ElementStandard);
+    }
+
+    @Test
+    public void testReferenceDisappearsAndReturns() {
+        List<String> versions = Arrays.asList("001", "002", "003", "004");
+        ElementType e1 = element("E1", ElementBaseType.STRING, 10);
+        ElementType e2 = element("E2", ElementBaseType.STRING, 10);
+        List<ElementStandard> both = Arrays.asList(reference("E1", 1), reference("E2", 1));
+        List<ElementStandard> first = Collections.singletonList(reference("E1", 1));
+        List<Schema> schemas = Arrays.asList(schema(both, e1, e2),
+                                             schema(first, e1),
+                                             schema(first, e1),
+                                             schema(both, e1, e2));
+
+        List<VersionMerger.Range> ranges = VersionMerger.merge(versions, schemas);
+
+        Assert.assertEquals(1, ranges.size());
+        Schema merged = ranges.get(0).schema;
+        List<BaseType> sequence = type(merged, SegmentType.class, "SEG").getSequence();
+        Assert.assertEquals(2, sequence.size());
+
+        ElementStandard e1Ref = (ElementStandard) sequence.get(0);
+        Assert.assertEquals("E1", e1Ref.getType());
+        Assert.assertTrue(e1Ref.getVersion().isEmpty());
+
+        ElementStandard e2Ref = (ElementStandard) sequence.get(1);
+        Assert.assertEquals("E2", e2Ref.getType());
+        Assert.assertEquals(BigInteger.ONE, e2Ref.getMaxOccurs());
+        Assert.assertEquals(1, e2Ref.getVersion().size());
+
+        ElementStandard.Version absent = e2Ref.getVersion().get(0);
+        Assert.assertEquals("002", absent.getMinVersion());
+        Assert.assertEquals("003", absent.getMaxVersion());
+        Assert.assertEquals(BigInteger.ZERO, absent.getMinOccurs());
+        Assert.assertEquals(BigInteger.ZERO, absent.getMaxOccurs());
+
+        // The element type absent from the middle versions is kept unversioned
+        Assert.assertTrue(type(merged, ElementType.class, "E2").getVersion().isEmpty());
+    }
+
+    @Test
+    public void testFailedSchemaReported() throws Exception {
+        Path output = folder.getRoot().toPath();
+        StaxSchemaWriter writer = new StaxSchemaWriter();
+
+        for (String version : Arrays.asList("001", "002")) {
+            Files.createDirectories(output.resolve(version + "/8XX"));
+
+            try (OutputStream out = Files.newOutputStream(output.resolve(version + "/8XX/850.xml"))) {
+                writer.write(schema(10), out);
+            }
+            try (OutputStream out = Files.newOutputStream(output.resolve(version + "/8XX/810.xml"))) {
+                writer.write(schema(10), out);
+            }
+        }
+
+        Files.write(output.resolve("002/8XX/810.xml"), "<schema".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Exception> failures = new VersionMerger().mergeVersions(output, Arrays.asList("001", "002"), 1, writer, false);
+
+        Assert.assertEquals(Collections.singleton("8XX/810.xml"), failures.keySet());
+        Assert.assertTrue(Files.isRegularFile(output.resolve("merged/8XX/850.xml")));
+        Assert.assertFalse(Files.exists(output.resolve("merged/8XX/810.xml")));
+    }
+}
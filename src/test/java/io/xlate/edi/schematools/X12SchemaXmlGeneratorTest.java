@@ -0,0 +1,93 @@
+package io.xlate.edi.schematools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class X12SchemaXmlGeneratorTest {
+
+    @Test
+    public void testFailedWriteFailsVersion() throws Exception {
+        Map<String, byte[]> schemas = new TreeMap<>();
+        SchemaSink memory = SchemaSink.memory(schemas);
+        SchemaSink sink = path -> {
+            if (path.equals("005010/8XX/850.xml")) {
+                throw new IOException("Disk full");
+            }
+            return memory.open(path);
+        };
+
+        Map<String, Exception> failures = X12SchemaXmlGenerator.processVersions(new String[] { "004010", "005010" },
+                                                                                1,
+                                                                                SchemaWriter.forName("stax"),
+                                                                                SchemaGenerator.newManifest(X12SchemaXmlGenerator.OUTPUT),
+                                                                                false,
+                                                                                false,
+                                                                                GenerationMetrics.DISABLED,
+                                                                                SchemaGeneratorTest.standards(),
+                                                                                sink);
+
+        Assert.assertEquals(Collections.singleton("005010"), failures.keySet());
+        Assert.assertTrue(failures.get("005010") instanceof IOException);
+        Assert.assertEquals("Disk full", failures.get("005010").getCause().getMessage());
+
+        Assert.assertEquals(Arrays.asList("004010/8XX/810.xml", "004010/8XX/850.xml", "005010/8XX/810.xml"),
+                            Arrays.asList(schemas.keySet().toArray()));
+    }
+
+    static List<String> generate(String writer, GenerationManifest manifest) throws Exception {
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        SchemaSink directory = SchemaSink.directory(X12SchemaXmlGenerator.OUTPUT);
+
+        Map<String, Exception> failures = X12SchemaXmlGenerator.processVersions(new String[] { "004010" },
+                                                                                1,
+                                                                                SchemaWriter.forName(writer),
+                                                                                manifest,
+                                                                                false,
+                                                                                false,
+                                                                                GenerationMetrics.DISABLED,
+                                                                                SchemaGeneratorTest.standards(),
+                                                                                path -> {
+                                                                                    written.add(path);
+                                                                                    return directory.open(path);
+                                                                                });
+
+        Assert.assertEquals(Collections.emptyMap(), failures);
+        manifest.save();
+        Collections.sort(written);
+        return written;
+    }
+
+    @Test
+    public void testChangedWriterRegeneratesVersion() throws Exception {
+        Path output = X12SchemaXmlGenerator.OUTPUT;
+
+        if (Files.isDirectory(output.resolve("004010"))) {
+            try (Stream<Path> files = Files.walk(output.resolve("004010"))) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        String fingerprint = GenerationManifest.fingerprint(X12SchemaXmlGenerator.class);
+        GenerationManifest initial = new GenerationManifest(output, fingerprint, Collections.emptyMap(), Collections.emptyMap());
+
+        Assert.assertEquals(Arrays.asList("004010/8XX/810.xml", "004010/8XX/850.xml"), generate("jaxb", initial));
+        Assert.assertEquals(Collections.emptyList(), generate("jaxb", GenerationManifest.load(output, X12SchemaXmlGenerator.class)));
+        Assert.assertEquals(Arrays.asList("004010/8XX/810.xml", "004010/8XX/850.xml"),
+                            generate("stax", GenerationManifest.load(output, X12SchemaXmlGenerator.class)));
+        Assert.assertEquals(Arrays.asList("004010/8XX/810.edis", "004010/8XX/850.edis"),
+                            generate("packed", GenerationManifest.load(output, X12SchemaXmlGenerator.class)));
+    }
+}